@@ -0,0 +1,46 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so every result also reports the allocation rate and bytes
+ * allocated per operation.
+ *
+ * <p>Arguments are regular expressions selecting the benchmarks to run, all benchmarks are run when none are given.
+ * Use the JMH launcher (<tt>org.openjdk.jmh.Main</tt>) for the full set of JMH command line options.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.addProfiler(GCProfiler.class)
+				.shouldFailOnError(true);
+		if (args.length == 0) {
+			options.include(BenchmarkRunner.class.getPackage().getName() + "\\..*Benchmark");
+		}
+		for (String include : args) {
+			options.include(include);
+		}
+		new Runner(options.build()).run();
+	}
+}
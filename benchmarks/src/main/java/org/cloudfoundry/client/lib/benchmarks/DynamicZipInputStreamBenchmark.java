@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.io.DynamicZipInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads a complete {@link DynamicZipInputStream} built from in-memory entries, which is the work done on the client
+ * side while an application archive is uploaded. Entry content is half random and half repetitive so the deflater
+ * sees realistic input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DynamicZipInputStreamBenchmark {
+
+	@Param({ "200" })
+	public int entryCount;
+
+	@Param({ "1024", "65536" })
+	public int entrySize;
+
+	@Param({ "8192" })
+	public int bufferSize;
+
+	private List<DynamicZipInputStream.Entry> entries;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		entries = new ArrayList<DynamicZipInputStream.Entry>(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			byte[] content = new byte[entrySize];
+			random.nextBytes(content);
+			for (int j = entrySize / 2; j < entrySize; j++) {
+				content[j] = (byte) ('a' + j % 16);
+			}
+			entries.add(new InMemoryEntry("dir-" + (i % 10) + "/file-" + i + ".class", content));
+		}
+	}
+
+	@Benchmark
+	public long readArchive() throws IOException {
+		DynamicZipInputStream in = new DynamicZipInputStream(entries);
+		try {
+			byte[] buffer = new byte[bufferSize];
+			long total = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				total += read;
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class InMemoryEntry implements DynamicZipInputStream.Entry {
+
+		private final String name;
+
+		private final byte[] content;
+
+		InMemoryEntry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return new ByteArrayInputStream(content);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.util.JsonUtil;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares parsing a page of applications into nested maps with {@link JsonUtil#convertJsonToMap(String)}, as the
+ * client does today, against a streaming pass that only binds the fields a listing needs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonParsingBenchmark {
+
+	@Param({ "50", "100" })
+	public int pageSize;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private String page;
+
+	@Setup
+	public void setUp() {
+		Payloads payloads = new Payloads(42);
+		List<Map<String, Object>> applications = new ArrayList<Map<String, Object>>(pageSize);
+		for (int i = 0; i < pageSize; i++) {
+			applications.add(payloads.application(i, 2));
+		}
+		page = Payloads.page("/v2/apps", applications, 1, pageSize);
+	}
+
+	@Benchmark
+	public Map<String, Object> convertJsonToMap() {
+		return JsonUtil.convertJsonToMap(page);
+	}
+
+	@Benchmark
+	public List<String[]> streamingBinding() throws IOException {
+		JsonParser parser = jsonFactory.createJsonParser(page);
+		try {
+			List<String[]> applications = new ArrayList<String[]>(pageSize);
+			parser.nextToken();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("resources".equals(field)) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						applications.add(readApplication(parser));
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return applications;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Reads guid, name and state of one resource, skipping everything else including embedded resources.
+	 */
+	private static String[] readApplication(JsonParser parser) throws IOException {
+		String[] application = new String[3];
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String section = parser.getCurrentName();
+			parser.nextToken();
+			if (!"metadata".equals(section) && !"entity".equals(section)) {
+				parser.skipChildren();
+				continue;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("guid".equals(field) && "metadata".equals(section)) {
+					application[0] = parser.getText();
+				} else if ("name".equals(field) && "entity".equals(section)) {
+					application[1] = parser.getText();
+				} else if ("state".equals(field) && "entity".equals(section)) {
+					application[2] = parser.getText();
+				} else if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+					parser.skipChildren();
+				}
+			}
+		}
+		return application;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lists all applications of a space through {@link CloudFoundryClient#getApplications()} against the
+ * {@link StubCloudController} of the cflib tests. This covers the paging loop of the client, the stats and routes
+ * requests it makes for every application, JSON parsing and the resource mapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaginationBenchmark {
+
+	@Param({ "500" })
+	public int applications;
+
+	@Param({ "50", "100" })
+	public int pageSize;
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		controller = StubCloudController.startPopulated(applications);
+		controller.setDefaultPageSize(pageSize);
+		client = controller.login();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		controller.stop();
+	}
+
+	@Benchmark
+	public List<CloudApplication> getApplications() {
+		return client.getApplications();
+	}
+}
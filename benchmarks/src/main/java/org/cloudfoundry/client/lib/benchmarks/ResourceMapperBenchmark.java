@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudRoute;
+import org.cloudfoundry.client.lib.domain.CloudService;
+import org.cloudfoundry.client.lib.util.CloudEntityResourceMapper;
+import org.cloudfoundry.client.lib.util.JsonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Maps a page worth of application, service instance and route resources to domain objects, as done for every
+ * listing returned by the cloud controller. The resources are parsed once during setup so only the mapping is
+ * measured.
+ *
+ * <p>Runs single threaded: the mapper parses dates with a shared formatter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResourceMapperBenchmark {
+
+	@Param({ "100" })
+	public int resources;
+
+	@Param({ "0", "3" })
+	public int serviceBindings;
+
+	private final CloudEntityResourceMapper mapper = new CloudEntityResourceMapper();
+
+	private List<Map<String, Object>> applications;
+
+	private List<Map<String, Object>> serviceInstances;
+
+	private List<Map<String, Object>> routes;
+
+	@Setup
+	public void setUp() {
+		Payloads payloads = new Payloads(42);
+		applications = new ArrayList<Map<String, Object>>(resources);
+		serviceInstances = new ArrayList<Map<String, Object>>(resources);
+		routes = new ArrayList<Map<String, Object>>(resources);
+		for (int i = 0; i < resources; i++) {
+			// round trip through JSON so the maps have the same types as parsed responses
+			applications.add(JsonUtil.convertJsonToMap(JsonUtil.convertToJson(payloads.application(i, serviceBindings))));
+			serviceInstances.add(JsonUtil.convertJsonToMap(JsonUtil.convertToJson(payloads.serviceInstance(i))));
+			routes.add(JsonUtil.convertJsonToMap(JsonUtil.convertToJson(payloads.route(i, "example.com"))));
+		}
+	}
+
+	@Benchmark
+	public void mapApplications(Blackhole blackhole) {
+		for (Map<String, Object> resource : applications) {
+			blackhole.consume(mapper.mapResource(resource, CloudApplication.class));
+		}
+	}
+
+	@Benchmark
+	public void mapServiceInstances(Blackhole blackhole) {
+		for (Map<String, Object> resource : serviceInstances) {
+			blackhole.consume(mapper.mapResource(resource, CloudService.class));
+		}
+	}
+
+	@Benchmark
+	public void mapRoutes(Blackhole blackhole) {
+		for (Map<String, Object> resource : routes) {
+			blackhole.consume(mapper.mapResource(resource, CloudRoute.class));
+		}
+	}
+}
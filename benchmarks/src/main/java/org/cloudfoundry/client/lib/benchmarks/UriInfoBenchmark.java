@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.rest.CloudControllerClientImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splits application URIs into host and domain against the domains of a space, as done for every URI when an
+ * application's routes are updated. The domain list contains nested subdomains so the most specific match has to be
+ * found.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UriInfoBenchmark {
+
+	private static final int URI_COUNT = 64;
+
+	@Param({ "5", "50", "500" })
+	public int domainCount;
+
+	private final UriInfoExtractor extractor = new UriInfoExtractor();
+
+	private Map<String, UUID> domains;
+
+	private String[] uris;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		domains = new HashMap<String, UUID>(domainCount * 2);
+		for (int i = 0; domains.size() < domainCount; i++) {
+			String domain = "domain-" + i + ".example.com";
+			domains.put(domain, UUID.randomUUID());
+			if (domains.size() < domainCount) {
+				domains.put("apps." + domain, UUID.randomUUID());
+			}
+		}
+		String[] domainNames = domains.keySet().toArray(new String[domains.size()]);
+		uris = new String[URI_COUNT];
+		for (int i = 0; i < URI_COUNT; i++) {
+			String uri = "host-" + i + "." + domainNames[random.nextInt(domainNames.length)];
+			uris[i] = (i % 2 == 0 ? "https://" + uri : uri);
+		}
+	}
+
+	@Benchmark
+	public Map<String, String> extractUriInfo() {
+		String uri = uris[next++ & (URI_COUNT - 1)];
+		Map<String, String> uriInfo = new HashMap<String, String>(2);
+		extractor.extractUriInfo(domains, uri, uriInfo);
+		return uriInfo;
+	}
+
+	/**
+	 * Exposes the URI parsing of the client without connecting to a controller.
+	 */
+	static class UriInfoExtractor extends CloudControllerClientImpl {
+
+		@Override
+		public void extractUriInfo(Map<String, UUID> domains, String uri, Map<String, String> uriInfo) {
+			super.extractUriInfo(domains, uri, uriInfo);
+		}
+	}
+}
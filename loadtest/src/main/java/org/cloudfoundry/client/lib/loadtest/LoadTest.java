@@ -0,0 +1,324 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.loadtest;
+
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.metrics.LatencyHistogram;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Drives a mix of {@link CloudFoundryOperations} calls from many concurrent operators against a cloud controller and
+ * reports throughput, latency percentiles and errors per operation, together with the threads, heap, garbage
+ * collection and connections used by the client side.
+ *
+ * <p>Without a <tt>--target</tt> an embedded {@link StubCloudController} with generated applications is started, so
+ * a run needs no network access. Against a real controller the read operations use the applications of the session
+ * space, and write operations only touch applications the run creates and deletes again. Run with <tt>--help</tt> for
+ * the options.
+ */
+public class LoadTest {
+
+	private final LoadTestConfiguration configuration;
+
+	private final Map<Operation, OperationStats> stats = new EnumMap<Operation, OperationStats>(Operation.class);
+
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+	private StubCloudController stub;
+
+	private ResourceSampler sampler;
+
+	public LoadTest(LoadTestConfiguration configuration) {
+		this.configuration = configuration;
+		for (Operation operation : Operation.values()) {
+			stats.put(operation, new OperationStats());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestConfiguration configuration;
+		try {
+			configuration = LoadTestConfiguration.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(LoadTestConfiguration.usage());
+			System.exit(2);
+			return;
+		}
+		if (configuration.isHelp()) {
+			System.out.print(LoadTestConfiguration.usage());
+			return;
+		}
+		new LoadTest(configuration).run(System.out);
+		System.exit(0);
+	}
+
+	public void run(PrintStream out) throws Exception {
+		URL target = configuration.getTarget();
+		if (target == null) {
+			target = startStub();
+		}
+		try {
+			List<Operator> operators = createOperators(target, out);
+			try {
+				execute(operators, target, out);
+			} finally {
+				for (Operator operator : operators) {
+					try {
+						operator.deleteOwnApplication();
+					} catch (RuntimeException e) {
+						out.println("Unable to delete " + operator.getOwnApplication() + ": " + e);
+					}
+				}
+			}
+			report(out, target);
+		} finally {
+			if (stub != null) {
+				stub.stop();
+			}
+		}
+	}
+
+	private URL startStub() throws Exception {
+		StubDataset dataset = new StubDataset(configuration.getSeed());
+		dataset.populate(configuration.getStubApplications());
+		stub = new StubCloudController(dataset);
+		stub.addUser(configuration.getUsername(), configuration.getPassword());
+		stub.setLatency(configuration.getStubLatency(), configuration.getStubLatency() / 2);
+		stub.start();
+		return stub.getUrl();
+	}
+
+	private List<Operator> createOperators(URL target, PrintStream out) throws Exception {
+		long start = System.currentTimeMillis();
+		CloudFoundryOperations sharedClient = (configuration.isSharedClient() ? createClient(target) : null);
+		CloudFoundryOperations firstClient = (sharedClient != null ? sharedClient : createClient(target));
+
+		List<String> applications = new ArrayList<String>();
+		List<String> startedApplications = new ArrayList<String>();
+		for (CloudApplication application : firstClient.getApplications()) {
+			applications.add(application.getName());
+			if (application.getState() == CloudApplication.AppState.STARTED) {
+				startedApplications.add(application.getName());
+			}
+		}
+		applications = Collections.unmodifiableList(applications);
+		startedApplications = Collections.unmodifiableList(startedApplications);
+		List<Operation> mix = new ArrayList<Operation>(configuration.getMix().keySet());
+		if ((mix.contains(Operation.GET) && applications.isEmpty()) ||
+				(mix.contains(Operation.STATS) && startedApplications.isEmpty())) {
+			throw new IllegalStateException("The session space has no applications for the get and stats operations");
+		}
+
+		String prefix = "loadtest-" + Long.toString(System.currentTimeMillis(), 36);
+		List<Operator> operators = new ArrayList<Operator>(configuration.getOperators());
+		for (int i = 0; i < configuration.getOperators(); i++) {
+			CloudFoundryOperations client = (sharedClient != null ? sharedClient :
+					(i == 0 ? firstClient : createClient(target)));
+			Operator operator = new Operator(i, client, configuration.getSeed() + i, applications, startedApplications);
+			operators.add(operator);
+			if (Operation.anyWriting(mix)) {
+				operator.createOwnApplication(prefix);
+			}
+		}
+		out.println("Set up " + operators.size() + " operators in " + (System.currentTimeMillis() - start) + " ms");
+		return operators;
+	}
+
+	private CloudFoundryOperations createClient(URL target) {
+		CloudFoundryClient client = new CloudFoundryClient(
+				new CloudCredentials(configuration.getUsername(), configuration.getPassword()), target,
+				configuration.getOrganization(), configuration.getSpace());
+		client.login();
+		return client;
+	}
+
+	private void execute(List<Operator> operators, URL target, PrintStream out) throws InterruptedException {
+		final List<Operation> weighted = configuration.getWeightedOperations();
+		final long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(configuration.getWarmup());
+		final long end = measureFrom + TimeUnit.SECONDS.toNanos(configuration.getDuration());
+
+		sampler = new ResourceSampler(target.getPort() != -1 ? target.getPort() : target.getDefaultPort(), 500);
+		Thread samplerThread = new Thread(sampler, "loadtest-sampler");
+		samplerThread.setDaemon(true);
+
+		ExecutorService executor = createExecutor();
+		out.println("Running " + operators.size() + " operators for " + configuration.getWarmup() + " s warm-up and " +
+				configuration.getDuration() + " s measurement");
+		for (final Operator operator : operators) {
+			executor.execute(new Runnable() {
+				public void run() {
+					operate(operator, weighted, measureFrom, end);
+				}
+			});
+		}
+		Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureFrom - System.nanoTime())));
+		if (stub != null) {
+			stub.resetRequestCounts();
+		}
+		samplerThread.start();
+		executor.shutdown();
+		if (!executor.awaitTermination(configuration.getDuration() + 120, TimeUnit.SECONDS)) {
+			out.println("Operators did not finish in time");
+			executor.shutdownNow();
+		}
+		sampler.stop();
+		samplerThread.interrupt();
+	}
+
+	private void operate(Operator operator, List<Operation> weighted, long measureFrom, long end) {
+		for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+			Operation operation = weighted.get(operator.getRandom().nextInt(weighted.size()));
+			boolean measured = (now >= measureFrom);
+			try {
+				operation.execute(operator);
+				if (measured) {
+					stats.get(operation).latencies.record((System.nanoTime() - now) / 1000);
+				}
+			} catch (Exception e) {
+				if (measured) {
+					stats.get(operation).errors.incrementAndGet();
+					countError(operation, e);
+				}
+			}
+			if (configuration.getThinkTime() > 0) {
+				try {
+					Thread.sleep(configuration.getThinkTime());
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void countError(Operation operation, Exception e) {
+		String key = operation.getKey() + ": " + e.getClass().getSimpleName();
+		if (e instanceof CloudFoundryException) {
+			key += " " + ((CloudFoundryException) e).getStatusCode();
+		} else if (e instanceof HttpStatusCodeException) {
+			key += " " + ((HttpStatusCodeException) e).getStatusCode();
+		}
+		AtomicLong count = errors.get(key);
+		if (count == null) {
+			count = new AtomicLong();
+			AtomicLong existing = ((ConcurrentHashMap<String, AtomicLong>) errors).putIfAbsent(key, count);
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private ExecutorService createExecutor() {
+		if (configuration.isVirtualThreads()) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException("Virtual threads need Java 21 or later");
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to create virtual threads", e);
+			}
+		}
+		return Executors.newFixedThreadPool(configuration.getOperators(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "loadtest-operator-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private void report(PrintStream out, URL target) {
+		double seconds = configuration.getDuration();
+		out.println();
+		out.println("Target      " + target + (stub != null ? " (embedded stub, " + configuration.getStubApplications() +
+				" applications, " + configuration.getStubLatency() + " ms latency)" : ""));
+		out.println("Operators   " + configuration.getOperators() + " on " +
+				(configuration.isVirtualThreads() ? "virtual" : "platform") + " threads, " +
+				(configuration.isSharedClient() ? "one shared client" : "one client each") +
+				(configuration.getThinkTime() > 0 ? ", " + configuration.getThinkTime() + " ms think time" : ""));
+		out.println();
+		out.println(String.format("%-10s %9s %7s %9s %9s %9s %9s %9s %9s %9s", "operation", "count", "errors",
+				"ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		long totalCount = 0;
+		long totalErrors = 0;
+		for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+			if (!configuration.getMix().containsKey(entry.getKey())) {
+				continue;
+			}
+			LatencyHistogram latencies = entry.getValue().latencies;
+			long errorCount = entry.getValue().errors.get();
+			totalCount += latencies.getCount();
+			totalErrors += errorCount;
+			out.println(String.format("%-10s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f", entry.getKey().getKey(),
+					latencies.getCount(), errorCount, latencies.getCount() / seconds, latencies.getMean() / 1000,
+					latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(90) / 1000.0,
+					latencies.getValueAtPercentile(99) / 1000.0, latencies.getValueAtPercentile(99.9) / 1000.0,
+					latencies.getMax() / 1000.0));
+		}
+		out.println(String.format("%-10s %9d %7d %9.1f", "total", totalCount, totalErrors, totalCount / seconds));
+		if (!errors.isEmpty()) {
+			out.println();
+			out.println("Errors");
+			for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+				out.println(String.format("  %-60s %9d", entry.getKey(), entry.getValue().get()));
+			}
+		}
+		out.println();
+		out.println(String.format("Threads     avg %.0f, max %d", sampler.getAverageThreads(), sampler.getMaxThreads()));
+		out.println(String.format("Heap        avg %.1f MB, max %.1f MB", sampler.getAverageHeap() / (1024 * 1024),
+				sampler.getMaxHeap() / (1024.0 * 1024)));
+		out.println(String.format("GC          %d collections, %d ms", sampler.getGcCount(), sampler.getGcTime()));
+		if (sampler.getMaxConnections() >= 0) {
+			out.println(String.format("Connections avg %.0f, max %d", sampler.getAverageConnections(),
+					sampler.getMaxConnections()));
+		}
+		if (stub != null) {
+			out.println(String.format("Stub        %d requests, max %d concurrent", stub.getRequestCount(),
+					stub.getMaxConcurrentRequests()));
+		}
+	}
+
+	private static class OperationStats {
+
+		final LatencyHistogram latencies = new LatencyHistogram();
+
+		final AtomicLong errors = new AtomicLong();
+	}
+}
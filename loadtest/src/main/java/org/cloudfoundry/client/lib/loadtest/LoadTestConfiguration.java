@@ -0,0 +1,245 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.loadtest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, parsed from <tt>--name=value</tt> command line arguments.
+ */
+public class LoadTestConfiguration {
+
+	static final String DEFAULT_MIX = "list=5,get=20,stats=60,scale=10,upload=5";
+
+	private URL target;
+
+	private String username = "user@example.com";
+
+	private String password = "secret";
+
+	private String organization = "org";
+
+	private String space = "space";
+
+	private int operators = 200;
+
+	private int duration = 60;
+
+	private int warmup = 10;
+
+	private long thinkTime = 0;
+
+	private Map<Operation, Integer> mix = parseMix(DEFAULT_MIX);
+
+	private boolean virtualThreads;
+
+	private boolean sharedClient;
+
+	private int stubApplications = 500;
+
+	private long stubLatency = 5;
+
+	private long seed = 42;
+
+	private boolean help;
+
+	public static LoadTestConfiguration parse(String[] args) {
+		LoadTestConfiguration configuration = new LoadTestConfiguration();
+		for (String arg : args) {
+			if (arg.equals("--help") || arg.equals("-h")) {
+				configuration.help = true;
+				continue;
+			}
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument " + arg);
+			}
+			int equals = arg.indexOf('=');
+			String name = arg.substring(2, equals < 0 ? arg.length() : equals);
+			String value = (equals < 0 ? "true" : arg.substring(equals + 1));
+			try {
+				configuration.set(name, value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value " + value + " for --" + name);
+			}
+		}
+		return configuration;
+	}
+
+	public static String usage() {
+		return "Options (all optional):\n" +
+				"  --target=URL             cloud controller to load, an embedded stub is started when not given\n" +
+				"  --username=NAME          user to log in with [user@example.com]\n" +
+				"  --password=PASSWORD      password of the user [secret]\n" +
+				"  --org=NAME               organization of the session space [org]\n" +
+				"  --space=NAME             session space [space]\n" +
+				"  --operators=N            concurrent simulated operators [200]\n" +
+				"  --duration=SECONDS       measured duration [60]\n" +
+				"  --warmup=SECONDS         unmeasured warm-up before the measurement [10]\n" +
+				"  --think-time=MILLIS      pause of an operator between operations [0]\n" +
+				"  --mix=OP=WEIGHT,...      relative weights of " + Operation.keys() + "\n" +
+				"                           [" + DEFAULT_MIX + "]\n" +
+				"  --virtual-threads        run operators on virtual threads (Java 21 or later)\n" +
+				"  --shared-client          share one client between all operators instead of one client each\n" +
+				"  --stub-applications=N    applications in the embedded stub [500]\n" +
+				"  --stub-latency=MILLIS    latency of the embedded stub per request [5]\n" +
+				"  --seed=N                 seed for the random choices [42]\n";
+	}
+
+	private void set(String name, String value) {
+		if (name.equals("target")) {
+			try {
+				target = new URL(value);
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Invalid target URL " + value);
+			}
+		} else if (name.equals("username")) {
+			username = value;
+		} else if (name.equals("password")) {
+			password = value;
+		} else if (name.equals("org")) {
+			organization = value;
+		} else if (name.equals("space")) {
+			space = value;
+		} else if (name.equals("operators")) {
+			operators = positive(name, Integer.parseInt(value));
+		} else if (name.equals("duration")) {
+			duration = positive(name, Integer.parseInt(value));
+		} else if (name.equals("warmup")) {
+			warmup = Integer.parseInt(value);
+		} else if (name.equals("think-time")) {
+			thinkTime = Long.parseLong(value);
+		} else if (name.equals("mix")) {
+			mix = parseMix(value);
+		} else if (name.equals("virtual-threads")) {
+			virtualThreads = Boolean.parseBoolean(value);
+		} else if (name.equals("shared-client")) {
+			sharedClient = Boolean.parseBoolean(value);
+		} else if (name.equals("stub-applications")) {
+			stubApplications = positive(name, Integer.parseInt(value));
+		} else if (name.equals("stub-latency")) {
+			stubLatency = Long.parseLong(value);
+		} else if (name.equals("seed")) {
+			seed = Long.parseLong(value);
+		} else {
+			throw new IllegalArgumentException("Unknown option --" + name);
+		}
+	}
+
+	private static int positive(String name, int value) {
+		if (value <= 0) {
+			throw new IllegalArgumentException("--" + name + " must be positive");
+		}
+		return value;
+	}
+
+	static Map<Operation, Integer> parseMix(String value) {
+		Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+		for (String entry : value.split(",")) {
+			String[] parts = entry.trim().split("=");
+			int weight = (parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+			if (weight > 0) {
+				mix.put(Operation.forKey(parts[0].trim()), weight);
+			}
+		}
+		if (mix.isEmpty()) {
+			throw new IllegalArgumentException("The operation mix must not be empty");
+		}
+		return mix;
+	}
+
+	/**
+	 * Returns the operations of the mix, each repeated by its weight, to pick from uniformly.
+	 */
+	List<Operation> getWeightedOperations() {
+		List<Operation> operations = new ArrayList<Operation>();
+		for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+			for (int i = 0; i < entry.getValue(); i++) {
+				operations.add(entry.getKey());
+			}
+		}
+		return operations;
+	}
+
+	public URL getTarget() {
+		return target;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getOrganization() {
+		return organization;
+	}
+
+	public String getSpace() {
+		return space;
+	}
+
+	public int getOperators() {
+		return operators;
+	}
+
+	public int getDuration() {
+		return duration;
+	}
+
+	public int getWarmup() {
+		return warmup;
+	}
+
+	public long getThinkTime() {
+		return thinkTime;
+	}
+
+	public Map<Operation, Integer> getMix() {
+		return mix;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public boolean isSharedClient() {
+		return sharedClient;
+	}
+
+	public int getStubApplications() {
+		return stubApplications;
+	}
+
+	public long getStubLatency() {
+		return stubLatency;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public boolean isHelp() {
+		return help;
+	}
+}
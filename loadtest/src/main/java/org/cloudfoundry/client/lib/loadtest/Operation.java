@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.loadtest;
+
+import java.util.List;
+
+/**
+ * The calls an operator can make. Reads use the applications found at the start of the run, writes only touch the
+ * application the operator created for itself.
+ */
+public enum Operation {
+
+	/**
+	 * Lists all applications of the space.
+	 */
+	LIST("list", false) {
+		@Override
+		void execute(Operator operator) throws Exception {
+			operator.getClient().getApplications();
+		}
+	},
+
+	/**
+	 * Gets one application.
+	 */
+	GET("get", false) {
+		@Override
+		void execute(Operator operator) throws Exception {
+			operator.getClient().getApplication(operator.pick(operator.getApplications()));
+		}
+	},
+
+	/**
+	 * Polls the instance stats of a started application.
+	 */
+	STATS("stats", false) {
+		@Override
+		void execute(Operator operator) throws Exception {
+			operator.getClient().getApplicationStats(operator.pick(operator.getStartedApplications()));
+		}
+	},
+
+	/**
+	 * Scales the application of the operator to between one and three instances.
+	 */
+	SCALE("scale", true) {
+		@Override
+		void execute(Operator operator) throws Exception {
+			operator.getClient().updateApplicationInstances(operator.getOwnApplication(),
+					1 + operator.getRandom().nextInt(3));
+		}
+	},
+
+	/**
+	 * Uploads a small archive to the application of the operator.
+	 */
+	UPLOAD("upload", true) {
+		@Override
+		void execute(Operator operator) throws Exception {
+			operator.getClient().uploadApplication(operator.getOwnApplication(), operator.getArchive());
+		}
+	};
+
+	private final String key;
+
+	private final boolean writing;
+
+	Operation(String key, boolean writing) {
+		this.key = key;
+		this.writing = writing;
+	}
+
+	/**
+	 * Returns the name used for the operation in mixes and reports.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns whether the operation needs an application owned by the operator.
+	 */
+	public boolean isWriting() {
+		return writing;
+	}
+
+	abstract void execute(Operator operator) throws Exception;
+
+	public static Operation forKey(String key) {
+		for (Operation operation : values()) {
+			if (operation.key.equalsIgnoreCase(key)) {
+				return operation;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation " + key + ", expected one of " + keys());
+	}
+
+	static String keys() {
+		StringBuilder keys = new StringBuilder();
+		for (Operation operation : values()) {
+			keys.append(keys.length() > 0 ? ", " : "").append(operation.key);
+		}
+		return keys.toString();
+	}
+
+	static boolean anyWriting(List<Operation> operations) {
+		for (Operation operation : operations) {
+			if (operation.writing) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.Staging;
+
+/**
+ * State of one simulated operator: its client, its random source and, for write operations, the application it owns.
+ */
+public class Operator {
+
+	private final int id;
+
+	private final CloudFoundryOperations client;
+
+	private final Random random;
+
+	private final List<String> applications;
+
+	private final List<String> startedApplications;
+
+	private String ownApplication;
+
+	private File archive;
+
+	public Operator(int id, CloudFoundryOperations client, long seed, List<String> applications,
+			List<String> startedApplications) {
+		this.id = id;
+		this.client = client;
+		this.random = new Random(seed);
+		this.applications = applications;
+		this.startedApplications = startedApplications;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public CloudFoundryOperations getClient() {
+		return client;
+	}
+
+	public Random getRandom() {
+		return random;
+	}
+
+	public List<String> getApplications() {
+		return applications;
+	}
+
+	public List<String> getStartedApplications() {
+		return startedApplications;
+	}
+
+	public String getOwnApplication() {
+		return ownApplication;
+	}
+
+	public File getArchive() {
+		return archive;
+	}
+
+	<T> T pick(List<T> values) {
+		if (values.isEmpty()) {
+			throw new IllegalStateException("No applications to pick from");
+		}
+		return values.get(random.nextInt(values.size()));
+	}
+
+	/**
+	 * Creates the application and the archive used by write operations.
+	 *
+	 * @param prefix the prefix of the application name, unique for the run
+	 */
+	public void createOwnApplication(String prefix) throws IOException {
+		ownApplication = prefix + "-" + id;
+		client.createApplication(ownApplication, new Staging(), 128, Collections.<String>emptyList(),
+				Collections.<String>emptyList());
+		archive = File.createTempFile("loadtest-" + id, "");
+		archive.delete();
+		archive.mkdirs();
+		for (int i = 0; i < 5; i++) {
+			byte[] content = new byte[1024 * (1 + i * i)];
+			random.nextBytes(content);
+			OutputStream out = new FileOutputStream(new File(archive, "file" + i + ".bin"));
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the application and archive created for write operations.
+	 */
+	public void deleteOwnApplication() {
+		if (archive != null) {
+			for (File file : archive.listFiles()) {
+				file.delete();
+			}
+			archive.delete();
+		}
+		if (ownApplication != null) {
+			client.deleteApplication(ownApplication);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Samples the resources used by the load generating process: live threads, used heap, garbage collection time and
+ * open connections to the target.
+ *
+ * <p>Connections are counted from <tt>/proc/net/tcp</tt> and <tt>/proc/net/tcp6</tt>, so they are only reported on
+ * Linux; elsewhere they are reported as <tt>-1</tt>.
+ */
+public class ResourceSampler implements Runnable {
+
+	private static final String ESTABLISHED = "01";
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private final int targetPort;
+
+	private final long interval;
+
+	private volatile boolean running = true;
+
+	private long samples;
+
+	private long threadSum;
+
+	private int maxThreads;
+
+	private long heapSum;
+
+	private long maxHeap;
+
+	private long connectionSum;
+
+	private int maxConnections = -1;
+
+	private final long startGcTime;
+
+	private final long startGcCount;
+
+	private long gcTime;
+
+	private long gcCount;
+
+	/**
+	 * @param targetPort the port of the target, used to count connections
+	 * @param interval the sampling interval in milliseconds
+	 */
+	public ResourceSampler(int targetPort, long interval) {
+		this.targetPort = targetPort;
+		this.interval = interval;
+		this.startGcTime = totalGcTime();
+		this.startGcCount = totalGcCount();
+	}
+
+	public void run() {
+		while (running) {
+			sample();
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	public void stop() {
+		running = false;
+		sample();
+	}
+
+	public synchronized void sample() {
+		int threadCount = threads.getThreadCount();
+		long heap = memory.getHeapMemoryUsage().getUsed();
+		int connections = countConnections();
+		samples++;
+		threadSum += threadCount;
+		maxThreads = Math.max(maxThreads, threadCount);
+		heapSum += heap;
+		maxHeap = Math.max(maxHeap, heap);
+		if (connections >= 0) {
+			connectionSum += connections;
+			maxConnections = Math.max(maxConnections, connections);
+		}
+		gcTime = totalGcTime() - startGcTime;
+		gcCount = totalGcCount() - startGcCount;
+	}
+
+	public synchronized double getAverageThreads() {
+		return (samples > 0 ? (double) threadSum / samples : 0);
+	}
+
+	public synchronized int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public synchronized double getAverageHeap() {
+		return (samples > 0 ? (double) heapSum / samples : 0);
+	}
+
+	public synchronized long getMaxHeap() {
+		return maxHeap;
+	}
+
+	public synchronized double getAverageConnections() {
+		return (samples > 0 && maxConnections >= 0 ? (double) connectionSum / samples : -1);
+	}
+
+	public synchronized int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public synchronized long getGcTime() {
+		return gcTime;
+	}
+
+	public synchronized long getGcCount() {
+		return gcCount;
+	}
+
+	private int countConnections() {
+		int ipv4 = countConnections(new File("/proc/net/tcp"));
+		int ipv6 = countConnections(new File("/proc/net/tcp6"));
+		if (ipv4 < 0 && ipv6 < 0) {
+			return -1;
+		}
+		return Math.max(0, ipv4) + Math.max(0, ipv6);
+	}
+
+	/**
+	 * Counts the established sockets with the target port as remote port. Columns are
+	 * <tt>sl local_address rem_address st ...</tt> with addresses as <tt>hex-ip:hex-port</tt>.
+	 */
+	private int countConnections(File table) {
+		if (!table.canRead()) {
+			return -1;
+		}
+		String port = String.format(":%04X", targetPort);
+		int count = 0;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(table));
+			try {
+				reader.readLine();
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					String[] columns = line.trim().split("\\s+");
+					if (columns.length > 3 && columns[2].endsWith(port) && columns[3].equals(ESTABLISHED)) {
+						count++;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		return count;
+	}
+
+	private static long totalGcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, collector.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static long totalGcCount() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, collector.getCollectionCount());
+		}
+		return total;
+	}
+}
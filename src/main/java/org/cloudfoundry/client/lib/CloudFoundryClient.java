@@ -18,17 +18,23 @@ package org.cloudfoundry.client.lib;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.cloudfoundry.client.lib.cache.CacheConfiguration;
+import org.cloudfoundry.client.lib.cache.HttpResponseCache;
+import org.cloudfoundry.client.lib.cache.CachingCloudControllerClient;
 import org.cloudfoundry.client.lib.domain.ApplicationStats;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudApplication.DebugMode;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudJob;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudRoute;
 import org.cloudfoundry.client.lib.domain.CloudService;
@@ -37,9 +43,15 @@ import org.cloudfoundry.client.lib.domain.CloudSpace;
 import org.cloudfoundry.client.lib.domain.CrashesInfo;
 import org.cloudfoundry.client.lib.domain.InstancesInfo;
 import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
+import org.cloudfoundry.client.lib.retry.RetryPolicy;
+import org.cloudfoundry.client.lib.rest.AdaptiveConcurrencyLimiter;
+import org.cloudfoundry.client.lib.rest.Bulkhead;
 import org.cloudfoundry.client.lib.rest.CloudControllerClient;
 import org.cloudfoundry.client.lib.rest.CloudControllerClientFactory;
 import org.cloudfoundry.client.lib.rest.CloudControllerClientImpl;
+import org.cloudfoundry.client.lib.upload.ResourceManifestFile;
 import org.cloudfoundry.client.lib.util.CloudFoundryClientFactory;
 import org.cloudfoundry.client.lib.util.RestUtil;
 import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
@@ -50,6 +62,11 @@ import org.springframework.web.client.ResponseErrorHandler;
 
 /**
  * A Java client to exercise the Cloud Foundry API.
+ *
+ * <p>A client is safe for use by concurrent threads; one instance, and with it one connection pool and one token,
+ * can be shared by a whole application. Changing the credentials or the space takes effect for calls started
+ * afterwards and does not block calls in progress. To work in several spaces at once, use the views returned by
+ * {@link #inSpace(CloudSpace)} rather than changing the space.
  * 
  * @author Ramnivas Laddad
  * @author A.B.Srinivasan
@@ -59,7 +76,8 @@ import org.springframework.web.client.ResponseErrorHandler;
  */
 public class CloudFoundryClient implements CloudFoundryOperations {
 
-    private CloudControllerClient cc;
+    // replaced by setCacheConfiguration while other threads may use the client
+    private volatile CloudControllerClient cc;
 
     private CloudInfo info;
 
@@ -110,6 +128,10 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         this.cc = cloudControllerClientFactory.newCloudController(cloudControllerUrl, credentials, orgName, spaceName);
     }
 
+    private CloudFoundryClient(CloudControllerClient cc) {
+        this.cc = cc;
+    }
+
     public void setCloudCredentials(CloudCredentials cloudCredentials) {
         this.cc.setCloudCredentials(cloudCredentials);
     }
@@ -122,6 +144,73 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         cc.setResponseErrorHandler(errorHandler);
     }
 
+    /**
+     * Enable skipping the resource matching call on repeat uploads by keeping a local manifest of the resources
+     * the cloud controller last accepted for each application.
+     *
+     * @param resourceManifestFile the manifest store to use or <tt>null</tt> to always match resources remotely
+     */
+    public void setResourceManifestFile(ResourceManifestFile resourceManifestFile) {
+        cc.setResourceManifestFile(resourceManifestFile);
+    }
+
+    /**
+     * Enable revalidating repeated GET requests with <tt>If-None-Match</tt> and <tt>If-Modified-Since</tt>, so that
+     * unchanged resources are answered with <tt>304 Not Modified</tt> and read from the cache.
+     *
+     * @param responseCache the response cache to use or <tt>null</tt> to always transfer full responses
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        cc.setResponseCache(responseCache);
+    }
+
+    /**
+     * Enable retrying failed calls to the cloud controller with backoff, and failing fast while it is unavailable.
+     *
+     * @param retryPolicy the retry policy to use or <tt>null</tt> to fail on the first error
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        cc.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Enable limiting the calls in flight to the cloud controller, with limits per endpoint class that adapt to the
+     * latency and errors observed. The limits apply to all concurrent use of the client, including parallel
+     * downloads. Calls wait in the bulkhead first, see {@link #setBulkhead}, and the limits are capped at its quotas.
+     *
+     * @param concurrencyLimiter the limiter to use or <tt>null</tt> to not limit calls
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        cc.setConcurrencyLimiter(concurrencyLimiter);
+    }
+
+    /**
+     * Replace the default bulkhead, which keeps control-plane calls from waiting behind file reads and uploads.
+     * The connection pools are recreated to match the quotas of the new bulkhead.
+     *
+     * @param bulkhead the bulkhead to use
+     */
+    public void setBulkhead(Bulkhead bulkhead) {
+        cc.setBulkhead(bulkhead);
+    }
+
+    /**
+     * Enable caching of applications, services, routes and domains. Mutating calls made through this client
+     * invalidate the entries they affect; changes made by other clients are seen once the entries expire.
+     *
+     * @param cacheConfiguration the cache settings or <tt>null</tt> to disable caching
+     */
+    public synchronized void setCacheConfiguration(CacheConfiguration cacheConfiguration) {
+        if (cc instanceof CachingCloudControllerClient) {
+            CachingCloudControllerClient cachingClient = (CachingCloudControllerClient) cc;
+            cachingClient.shutdown();
+            cc = cachingClient.getDelegate();
+        }
+        if (cacheConfiguration != null) {
+            cc = new CachingCloudControllerClient(cc, cacheConfiguration);
+        }
+    }
+
     public URL getCloudControllerUrl() {
         return cc.getCloudControllerUrl();
     }
@@ -143,6 +232,23 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         return cc.getSpaces();
     }
 
+    public CloudFoundryClient inSpace(CloudSpace space) {
+        return new CloudFoundryClient(cc.inSpace(space));
+    }
+
+    /**
+     * Get a view of this client that works in the space of the given name. The space is looked up on every call,
+     * keep the view to use it more than once.
+     */
+    public CloudFoundryClient inSpace(String orgName, String spaceName) {
+        for (CloudSpace space : cc.getSpaces()) {
+            if (space.getName().equals(spaceName) && space.getOrganization().getName().equals(orgName)) {
+                return inSpace(space);
+            }
+        }
+        throw new IllegalArgumentException("No matching organization and space found for org: " + orgName + " space: " + spaceName);
+    }
+
     public List<CloudOrganization> getOrganizations() {
         return cc.getOrganizations();
     }
@@ -215,6 +321,18 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         return cc.downloadApplication(appName);
     }
 
+    public void downloadApplication(String appName, File destination) throws IOException {
+        cc.downloadApplication(appName, destination);
+    }
+
+    public ReadableByteChannel downloadApplicationAsChannel(String appName) throws IOException {
+        return cc.downloadApplicationAsChannel(appName);
+    }
+
+    public long downloadApplication(String appName, long startPosition, long endPosition, OutputStream outputStream) {
+        return cc.downloadApplication(appName, startPosition, endPosition, outputStream);
+    }
+
     public void uploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException {
         cc.uploadApplication(appName, file, callback);
     }
@@ -227,6 +345,30 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         cc.uploadApplication(appName, archive, callback);
     }
 
+    public UploadToken asyncUploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException {
+        return cc.asyncUploadApplication(appName, file, callback);
+    }
+
+    public UploadToken asyncUploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback) throws IOException {
+        return cc.asyncUploadApplication(appName, archive, callback);
+    }
+
+    public CloudJob getUploadStatus(UploadToken token) {
+        return cc.getUploadStatus(token);
+    }
+
+    public CloudJob waitForUpload(UploadToken token, long timeout) {
+        return cc.waitForUpload(token, timeout);
+    }
+
+    public void copyApplicationBits(String sourceAppName, String targetAppName) {
+        cc.copyApplicationBits(sourceAppName, targetAppName);
+    }
+
+    public void copyApplicationBits(CloudApplication sourceApp, CloudApplication targetApp) {
+        cc.copyApplicationBits(sourceApp, targetApp);
+    }
+
     public StartingInfo startApplication(String appName) {
         return cc.startApplication(appName);
     }
@@ -307,6 +449,10 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         return cc.getStagingLogs(info, offset);
     }
 
+    public long streamStagingLogs(StartingInfo info, long offset, OutputStream outputStream) {
+        return cc.streamStagingLogs(info, offset, outputStream);
+    }
+
     public String getFile(String appName, int instanceIndex, String filePath) {
         return cc.getFile(appName, instanceIndex, filePath, 0, -1);
     }
@@ -323,6 +469,19 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         return cc.getFile(appName, instanceIndex, filePath, startPosition, endPosition - 1);
     }
 
+    public void getFile(String appName, int instanceIndex, String filePath, OutputStream outputStream) {
+        cc.getFile(appName, instanceIndex, filePath, outputStream);
+    }
+
+    public long getFile(String appName, int instanceIndex, String filePath, long startPosition, OutputStream outputStream) {
+        return cc.getFile(appName, instanceIndex, filePath, startPosition, outputStream);
+    }
+
+    public long getFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+            OutputStream outputStream) {
+        return cc.getFile(appName, instanceIndex, filePath, startPosition, endPosition, outputStream);
+    }
+
     public String getFileTail(String appName, int instanceIndex, String filePath, int length) {
         Assert.isTrue(length > 0, length + " is not a valid value for length, it should be 1 or greater.");
         return cc.getFile(appName, instanceIndex, filePath, -1, length);
@@ -414,8 +573,17 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         cc.unRegisterRestLogListener(callBack);
     }
 
+    public void setMetricsRegistry(RestMetricsRegistry metricsRegistry) {
+        cc.setMetricsRegistry(metricsRegistry);
+    }
+
     public CloudSpace validateSpaceAndOrg(String spaceName, String orgName) {
-        return cc.validateSpaceAndOrg(spaceName, orgName, (CloudControllerClientImpl) cc);
+        CloudControllerClient client = cc;
+        // the spaces are listed by the client doing the requests, not by the cache wrapping it
+        while (client instanceof CachingCloudControllerClient) {
+            client = ((CachingCloudControllerClient) client).getDelegate();
+        }
+        return client.validateSpaceAndOrg(spaceName, orgName, (CloudControllerClientImpl) client);
     }
 
     public void createUser(String email, String password) {
@@ -426,24 +594,20 @@ public class CloudFoundryClient implements CloudFoundryOperations {
         cc.deleteUser(userGuid);
     }
 
-    public synchronized StartingInfo startApplication(CloudSpace cs, String appName) {
-        cc.setCloudSpace(cs);
-        return cc.startApplication(appName);
+    public StartingInfo startApplication(CloudSpace cs, String appName) {
+        return cc.inSpace(cs).startApplication(appName);
     }
 
-    public synchronized void stopApplication(CloudSpace cs, String appName) {
-        cc.setCloudSpace(cs);
-        cc.stopApplication(appName);
+    public void stopApplication(CloudSpace cs, String appName) {
+        cc.inSpace(cs).stopApplication(appName);
     }
 
-    public synchronized StartingInfo restartApplication(CloudSpace cs, String appName) {
-        cc.setCloudSpace(cs);
-        return cc.restartApplication(appName);
+    public StartingInfo restartApplication(CloudSpace cs, String appName) {
+        return cc.inSpace(cs).restartApplication(appName);
     }
 
-    public synchronized void deleteApplication(CloudSpace cs, String appName) {
-        cc.setCloudSpace(cs);
-        cc.deleteApplication(appName);
+    public void deleteApplication(CloudSpace cs, String appName) {
+        cc.inSpace(cs).deleteApplication(appName);
     }
 
     @Override
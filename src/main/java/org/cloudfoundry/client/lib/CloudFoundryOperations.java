@@ -18,7 +18,9 @@ package org.cloudfoundry.client.lib;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +29,7 @@ import org.cloudfoundry.client.lib.domain.ApplicationStats;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudJob;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudRoute;
 import org.cloudfoundry.client.lib.domain.CloudService;
@@ -35,6 +38,8 @@ import org.cloudfoundry.client.lib.domain.CloudSpace;
 import org.cloudfoundry.client.lib.domain.CrashesInfo;
 import org.cloudfoundry.client.lib.domain.InstancesInfo;
 import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.web.client.ResponseErrorHandler;
 
@@ -77,6 +82,24 @@ public interface CloudFoundryOperations {
 	 */
 	List<CloudSpace> getSpaces();
 
+	/**
+	 * Get a view of this client that works in the given space. The view shares the login, connections and response
+	 * caches of this client, so operations can be made in many spaces at the same time without further logins.
+	 *
+	 * @param space the space to work in
+	 * @return the view
+	 */
+	CloudFoundryOperations inSpace(CloudSpace space);
+
+	/**
+	 * Get a view of this client that works in the space of the given name, see {@link #inSpace(CloudSpace)}.
+	 *
+	 * @param orgName the name of the organization
+	 * @param spaceName the name of the space
+	 * @return the view
+	 */
+	CloudFoundryOperations inSpace(String orgName, String spaceName);
+
 	/**
 	 * Get list of CloudOrganizations for the current cloud.
 	 *
@@ -226,6 +249,92 @@ public interface CloudFoundryOperations {
 	 */
 	void uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback) throws IOException;
 
+	/**
+	 * Download the bits of an application to a file. The content is transferred straight into the file without
+	 * being held in memory.
+	 * @param appName the application name
+	 * @param destination the file to write, replaced if it exists
+	 * @throws java.io.IOException
+	 */
+	void downloadApplication(String appName, File destination) throws IOException;
+
+	/**
+	 * Open a channel over the bits of an application. The channel must be closed by the caller, which releases the
+	 * underlying connection.
+	 * @param appName the application name
+	 * @return a channel over the application bits
+	 * @throws java.io.IOException
+	 */
+	ReadableByteChannel downloadApplicationAsChannel(String appName) throws IOException;
+
+	/**
+	 * Stream a byte range of the bits of an application to the given output stream. The output stream is not closed.
+	 * @param appName the application name
+	 * @param startPosition the byte position to start at (inclusive)
+	 * @param endPosition the byte position to end at (inclusive)
+	 * @param outputStream the stream to write the range to
+	 * @return the size of the application bits in bytes, or -1 if the server did not report it
+	 */
+	long downloadApplication(String appName, long startPosition, long endPosition, OutputStream outputStream);
+
+	/**
+	 * Upload an application to cloud foundry and let the cloud controller process the bits in the background.
+	 * The upload is built once and kept on local disk, so a transfer that fails with a network error is retried
+	 * with backoff without reading and compressing the application again. The local resource manifest is not used
+	 * for asynchronous uploads.
+	 * @param appName the application name
+	 * @param file the application archive or folder
+	 * @param callback a callback interface used to provide progress information or <tt>null</tt>
+	 * @return a token for the upload job, see {@link #waitForUpload(UploadToken, long)}
+	 * @throws java.io.IOException
+	 */
+	UploadToken asyncUploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException;
+
+	/**
+	 * Upload an application to cloud foundry and let the cloud controller process the bits in the background.
+	 * @param appName the application name
+	 * @param archive the application archive
+	 * @param callback a callback interface used to provide progress information or <tt>null</tt>
+	 * @return a token for the upload job, see {@link #waitForUpload(UploadToken, long)}
+	 * @throws java.io.IOException
+	 * @see #asyncUploadApplication(String, File, UploadStatusCallback)
+	 */
+	UploadToken asyncUploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback)
+			throws IOException;
+
+	/**
+	 * Get the current state of an asynchronous upload.
+	 * @param token the token returned when the upload was started
+	 * @return the upload job
+	 */
+	CloudJob getUploadStatus(UploadToken token);
+
+	/**
+	 * Wait for an asynchronous upload to complete, polling the upload job with increasing intervals.
+	 * @param token the token returned when the upload was started
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the upload job, {@link CloudJob.Status#FINISHED finished} or {@link CloudJob.Status#FAILED failed}
+	 * unless the timeout elapsed first
+	 */
+	CloudJob waitForUpload(UploadToken token, long timeout);
+
+	/**
+	 * Copy the bits of an application to another application in the current space. The copy is done by the cloud
+	 * controller, nothing is uploaded from the client. Waits until the copy job has completed.
+	 * @param sourceAppName the name of the application to copy the bits from
+	 * @param targetAppName the name of the application to copy the bits to
+	 */
+	void copyApplicationBits(String sourceAppName, String targetAppName);
+
+	/**
+	 * Copy the bits of an application to another application, which can be in a different space, for example to
+	 * promote a build from a staging space to production. The copy is done by the cloud controller, nothing is
+	 * uploaded from the client. Waits until the copy job has completed.
+	 * @param sourceApp the application to copy the bits from
+	 * @param targetApp the application to copy the bits to
+	 */
+	void copyApplicationBits(CloudApplication sourceApp, CloudApplication targetApp);
+
 	/**
 	 * Start application. May return starting info if the response obtained after the start request contains headers.
 	 * If the response does not contain headers, null is returned instead.
@@ -372,6 +481,19 @@ public interface CloudFoundryOperations {
 	 */
 	String getStagingLogs(StartingInfo info, int offset);
 
+	/**
+	 * Stream the staging log while an application is starting. Content is written to the output stream and flushed
+	 * as it arrives, until the server ends the response. The request uses its own connection with a long read
+	 * timeout, so a read timeout shows up as a {@link org.springframework.web.client.ResourceAccessException} after
+	 * part of the content may have been written. The output stream is not closed.
+	 *
+	 * @param info starting information containing staging log file URL. Obtained after starting an application.
+	 * @param offset starting position from where content should be retrieved
+	 * @param outputStream the stream to write the content to
+	 * @return the number of bytes written, or -1 if staging logs are no longer available
+	 */
+	long streamStagingLogs(StartingInfo info, long offset, OutputStream outputStream);
+
 	/**
 	 * Get file from the deployed application.
 	 *
@@ -406,6 +528,47 @@ public interface CloudFoundryOperations {
 	 */
 	String getFile(String appName, int instanceIndex, String filePath, int startPosition, int endPosition);
 
+	/**
+	 * Stream the content of a file from the deployed application to the given output stream. The content is copied
+	 * in fixed-size chunks rather than held in memory. The output stream is not closed.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param outputStream the stream to write the file content to
+	 */
+	void getFile(String appName, int instanceIndex, String filePath, OutputStream outputStream);
+
+	/**
+	 * Stream the content of a file from the deployed application, starting at a byte position, to the given output
+	 * stream. Used to read what was appended to a file since an earlier read. The output stream is not closed.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param startPosition the byte position to start at (inclusive)
+	 * @param outputStream the stream to write the file content to
+	 * @return the size of the file in bytes, or -1 if the server did not report it. Nothing is written when the
+	 *         file is not longer than the start position.
+	 */
+	long getFile(String appName, int instanceIndex, String filePath, long startPosition, OutputStream outputStream);
+
+	/**
+	 * Stream a byte range of a file from the deployed application to the given output stream. The output stream is
+	 * not closed.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param startPosition the byte position to start at (inclusive)
+	 * @param endPosition the byte position to end at (inclusive)
+	 * @param outputStream the stream to write the range to
+	 * @return the size of the file in bytes, or -1 if the server did not report it. Fewer bytes than requested are
+	 *         written when the file ends before the end position.
+	 */
+	long getFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream);
+
 	/**
 	 * Get a the last bytes, with length as specified, of content of a file from the deployed application.
 	 *
@@ -574,6 +737,15 @@ public interface CloudFoundryOperations {
 	 * @param callBack the callback to be un-registered
 	 */
 	void unRegisterRestLogListener(RestLogCallback callBack);
+
+	/**
+	 * Set the registry that receives timing and size metrics of each REST call, grouped by endpoint. Use
+	 * <tt>null</tt> to stop recording.
+	 *
+	 * @param metricsRegistry the registry, for example an
+	 *            {@link org.cloudfoundry.client.lib.metrics.InMemoryRestMetricsRegistry}
+	 */
+	void setMetricsRegistry(RestMetricsRegistry metricsRegistry);
 	
     /**
      * Delete routes that do not have any application which is assigned to them.
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+/**
+ * Snapshot of the progress of an application upload, reported to an {@link UploadProgressCallback}.
+ */
+public class UploadProgress {
+
+	private int totalEntries;
+	private int entriesCompleted;
+	private long totalBytes;
+	private long bytesRead;
+	private long bytesCompressed;
+	private long bytesSent;
+	private long elapsedTime;
+
+	public UploadProgress(int totalEntries, int entriesCompleted, long totalBytes, long bytesRead,
+			long bytesCompressed, long bytesSent, long elapsedTime) {
+		this.totalEntries = totalEntries;
+		this.entriesCompleted = entriesCompleted;
+		this.totalBytes = totalBytes;
+		this.bytesRead = bytesRead;
+		this.bytesCompressed = bytesCompressed;
+		this.bytesSent = bytesSent;
+		this.elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * @return the number of file entries to upload, directories are not counted
+	 */
+	public int getTotalEntries() {
+		return totalEntries;
+	}
+
+	/**
+	 * @return the number of entries that have been read and compressed
+	 */
+	public int getEntriesCompleted() {
+		return entriesCompleted;
+	}
+
+	/**
+	 * @return the uncompressed size of the entries to upload
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes read from the archive
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the number of bytes produced by compression
+	 */
+	public long getBytesCompressed() {
+		return bytesCompressed;
+	}
+
+	/**
+	 * @return the number of bytes of the upload request written to the network
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return the time in milliseconds since the upload of the data started
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	@Override
+	public String toString() {
+		return "UploadProgress [entries=" + entriesCompleted + "/" + totalEntries + ", read=" + bytesRead + "/" +
+				totalBytes + ", compressed=" + bytesCompressed + ", sent=" + bytesSent + ", elapsed=" + elapsedTime +
+				"ms]";
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+/**
+ * {@link UploadStatusCallback} that also reports progress while application bits are transferred, and a summary
+ * once the upload is complete.
+ */
+public interface UploadProgressCallback extends UploadStatusCallback {
+
+	/**
+	 * Called periodically while the application data is compressed and sent. Calls are throttled, so not every
+	 * change is reported.
+	 * @param progress the current progress
+	 */
+	void onProgress(UploadProgress progress);
+
+	/**
+	 * Called once the application data has been accepted by the server.
+	 * @param summary timings and sizes for the upload
+	 */
+	void onUploadComplete(UploadSummary summary);
+}
@@ -33,7 +33,7 @@ public interface UploadStatusCallback {
         public void onMatchedFileNames(Set<String> matchedFileNames) {
         }
 
-        public void onProcessMatchedResources(int length) {
+        public void onProcessMatchedResources(long length) {
         }
     };
 
@@ -52,5 +52,5 @@ public interface UploadStatusCallback {
 	 * Called after the data to be uploaded has been processed
 	 * @param length the size of the upload data (before compression)
 	 */
-	void onProcessMatchedResources(int length);
+	void onProcessMatchedResources(long length);
 }
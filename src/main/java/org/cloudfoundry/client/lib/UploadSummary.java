@@ -0,0 +1,145 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+/**
+ * Timings and sizes of a completed application upload, reported to an {@link UploadProgressCallback}. Times are in
+ * milliseconds.
+ *
+ * <p>When the upload request streams its body, compression and transfer run at the same time and both times cover
+ * the same period.
+ */
+public class UploadSummary {
+
+	private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	private int entries;
+	private long bytesRead;
+	private long bytesCompressed;
+	private long bytesSent;
+	private long hashTime;
+	private long matchTime;
+	private long compressionTime;
+	private long transferTime;
+	private long uploadTime;
+
+	public UploadSummary(int entries, long bytesRead, long bytesCompressed, long bytesSent, long hashTime,
+			long matchTime, long compressionTime, long transferTime, long uploadTime) {
+		this.entries = entries;
+		this.bytesRead = bytesRead;
+		this.bytesCompressed = bytesCompressed;
+		this.bytesSent = bytesSent;
+		this.hashTime = hashTime;
+		this.matchTime = matchTime;
+		this.compressionTime = compressionTime;
+		this.transferTime = transferTime;
+		this.uploadTime = uploadTime;
+	}
+
+	/**
+	 * @return the number of entries uploaded
+	 */
+	public int getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the uncompressed size of the uploaded entries
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the size of the compressed application data
+	 */
+	public long getBytesCompressed() {
+		return bytesCompressed;
+	}
+
+	/**
+	 * @return the number of bytes of the upload request written to the network
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return the time taken to compute the SHA1 digests of the archive entries
+	 */
+	public long getHashTime() {
+		return hashTime;
+	}
+
+	/**
+	 * @return the time taken to work out which resources the server already has
+	 */
+	public long getMatchTime() {
+		return matchTime;
+	}
+
+	/**
+	 * @return the time taken to compress the entries into the request body
+	 */
+	public long getCompressionTime() {
+		return compressionTime;
+	}
+
+	/**
+	 * @return the time taken to write the request body to the network
+	 */
+	public long getTransferTime() {
+		return transferTime;
+	}
+
+	/**
+	 * @return the time from the start of compression until the server accepted the upload
+	 */
+	public long getUploadTime() {
+		return uploadTime;
+	}
+
+	/**
+	 * @return the network throughput in MB/s while the request body was written
+	 */
+	public double getTransferRate() {
+		return megabytesPerSecond(bytesSent, transferTime);
+	}
+
+	/**
+	 * @return the effective throughput in MB/s, as uncompressed application data uploaded per second of
+	 * {@link #getUploadTime() upload time}
+	 */
+	public double getEffectiveRate() {
+		return megabytesPerSecond(bytesRead, uploadTime);
+	}
+
+	private static double megabytesPerSecond(long bytes, long millis) {
+		if (millis <= 0) {
+			return 0;
+		}
+		return (bytes / BYTES_PER_MEGABYTE) / (millis / 1000.0);
+	}
+
+	@Override
+	public String toString() {
+		return "UploadSummary [entries=" + entries + ", read=" + bytesRead + ", compressed=" + bytesCompressed +
+				", sent=" + bytesSent + ", hash=" + hashTime + "ms, match=" + matchTime + "ms, compression=" +
+				compressionTime + "ms, transfer=" + transferTime + "ms, " + String.format("%.2f", getEffectiveRate()) +
+				" MB/s]";
+	}
+}
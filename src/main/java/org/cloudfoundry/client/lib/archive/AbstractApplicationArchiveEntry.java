@@ -83,7 +83,7 @@ public abstract class AbstractApplicationArchiveEntry implements ApplicationArch
                 try {
                     MessageDigest digest = (this.sha1Digest == null ? MessageDigest.getInstance("SHA") : null);
                     byte[] buffer = new byte[BUFFER_SIZE];
-                    int byteCount = 0;
+                    long byteCount = 0;
                     int bytesRead = -1;
                     while ((bytesRead = inputStream.read(buffer)) != -1) {
                         byteCount += bytesRead;
@@ -86,7 +86,12 @@ public class ZipApplicationArchive implements ApplicationArchive {
         }
 
         public long getSize() {
-            return entry.getSize();
+            long size = entry.getSize();
+            if (size == UNDEFINED_SIZE) {
+                // Entries written by streaming zip tools may not record their size
+                return super.getSize();
+            }
+            return size;
         }
 
         public InputStream getInputStream() throws IOException {
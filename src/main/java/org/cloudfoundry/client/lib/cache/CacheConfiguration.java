@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Settings for {@link CachingCloudControllerClient}.
+ *
+ * <p>An entry is served from the cache while it is younger than the time to live of its entity type. After that it
+ * is still served for the stale-while-revalidate period while a refresh runs in the background; older entries are
+ * loaded again before returning. A time to live of 0 disables caching for the entity type.
+ */
+public class CacheConfiguration {
+
+	/**
+	 * Default time to live of applications (5 seconds), which change with every start, stop and scale.
+	 */
+	public static final long DEFAULT_APPLICATIONS_TTL = 5000;
+
+	/**
+	 * Default time to live of services, routes and domains (30 seconds).
+	 */
+	public static final long DEFAULT_TTL = 30000;
+
+	/**
+	 * Default period in which expired entries are served while they are refreshed (30 seconds).
+	 */
+	public static final long DEFAULT_STALE_WHILE_REVALIDATE = 30000;
+
+	/**
+	 * Default maximum number of cached entries.
+	 */
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+	private final Map<CachedEntityType, Long> timesToLive = new EnumMap<CachedEntityType, Long>(CachedEntityType.class);
+
+	private long staleWhileRevalidate = DEFAULT_STALE_WHILE_REVALIDATE;
+
+	private int maximumEntries = DEFAULT_MAXIMUM_ENTRIES;
+
+	private int refreshThreads = 2;
+
+	public CacheConfiguration() {
+		for (CachedEntityType type : CachedEntityType.values()) {
+			timesToLive.put(type, DEFAULT_TTL);
+		}
+		timesToLive.put(CachedEntityType.APPLICATIONS, DEFAULT_APPLICATIONS_TTL);
+	}
+
+	/**
+	 * Set the time to live of an entity type.
+	 *
+	 * @param type the entity type
+	 * @param timeToLive the time to live in milliseconds, 0 to not cache the entity type
+	 */
+	public void setTimeToLive(CachedEntityType type, long timeToLive) {
+		Assert.notNull(type, "Type must not be null");
+		timesToLive.put(type, Math.max(0, timeToLive));
+	}
+
+	public long getTimeToLive(CachedEntityType type) {
+		return timesToLive.get(type);
+	}
+
+	/**
+	 * Set how long after expiry an entry is still served while it is refreshed in the background.
+	 *
+	 * @param staleWhileRevalidate the period in milliseconds, 0 to always load expired entries before returning
+	 */
+	public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+		this.staleWhileRevalidate = Math.max(0, staleWhileRevalidate);
+	}
+
+	public long getStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	/**
+	 * Set the number of cached entries above which the least recently used ones are evicted.
+	 */
+	public void setMaximumEntries(int maximumEntries) {
+		Assert.isTrue(maximumEntries > 0, "Maximum entries must be positive");
+		this.maximumEntries = maximumEntries;
+	}
+
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	/**
+	 * Set the number of threads refreshing stale entries in the background.
+	 */
+	public void setRefreshThreads(int refreshThreads) {
+		Assert.isTrue(refreshThreads > 0, "Refresh threads must be positive");
+		this.refreshThreads = refreshThreads;
+	}
+
+	public int getRefreshThreads() {
+		return refreshThreads;
+	}
+}
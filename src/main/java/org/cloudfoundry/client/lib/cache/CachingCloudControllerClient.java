@@ -0,0 +1,838 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.HttpProxyConfiguration;
+import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.StartingInfo;
+import org.cloudfoundry.client.lib.UploadStatusCallback;
+import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudDomain;
+import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudJob;
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.cloudfoundry.client.lib.domain.CloudRoute;
+import org.cloudfoundry.client.lib.domain.CloudService;
+import org.cloudfoundry.client.lib.domain.CloudServiceOffering;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.cloudfoundry.client.lib.domain.CrashesInfo;
+import org.cloudfoundry.client.lib.domain.InstancesInfo;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
+import org.cloudfoundry.client.lib.rest.AdaptiveConcurrencyLimiter;
+import org.cloudfoundry.client.lib.rest.Bulkhead;
+import org.cloudfoundry.client.lib.rest.CloudControllerClient;
+import org.cloudfoundry.client.lib.rest.CloudControllerClientImpl;
+import org.cloudfoundry.client.lib.retry.RetryPolicy;
+import org.cloudfoundry.client.lib.upload.ResourceManifestFile;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.util.Assert;
+import org.springframework.web.client.ResponseErrorHandler;
+
+/**
+ * {@link CloudControllerClient} that serves applications, services, routes and domains from an {@link EntityCache}
+ * and passes everything else to the client it decorates.
+ *
+ * <p>Every mutating call invalidates the entries it affects after the delegate returned, also when it failed, as the
+ * change may have been applied partially. Applications are invalidated by name and guid, and routes by the domains
+ * of the changed URIs. Changing the credentials, the session space or logging in or out clears the whole cache.
+ *
+ * <p>Entries are kept per space. Views returned by {@link #inSpace} share the cache with the client they were created
+ * from, so a change made through a view invalidates the entries of its space for the client as well.
+ *
+ * <p>Cached entities are shared between callers and must not be modified; the returned lists are copies.
+ */
+public class CachingCloudControllerClient implements CloudControllerClient {
+
+	private static final String LIST_KEY = "list";
+
+	private static final String NAME_PREFIX = "name:";
+
+	private static final String GUID_PREFIX = "guid:";
+
+	private static final String DOMAIN_PREFIX = "domain:";
+
+	private final CloudControllerClient delegate;
+
+	private final CacheConfiguration configuration;
+
+	private final EntityCache cache;
+
+	public CachingCloudControllerClient(CloudControllerClient delegate, CacheConfiguration configuration) {
+		this(delegate, configuration, new EntityCache(configuration));
+	}
+
+	private CachingCloudControllerClient(CloudControllerClient delegate, CacheConfiguration configuration,
+			EntityCache cache) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		this.delegate = delegate;
+		this.configuration = configuration;
+		this.cache = cache;
+	}
+
+	public CloudControllerClient getDelegate() {
+		return delegate;
+	}
+
+	public EntityCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Stops the background refresh of the cache, which is shared with the views of other spaces.
+	 */
+	public void shutdown() {
+		cache.shutdown();
+	}
+
+	// User and Info methods
+
+	public void setResponseErrorHandler(ResponseErrorHandler errorHandler) {
+		delegate.setResponseErrorHandler(errorHandler);
+	}
+
+	public void setResourceManifestFile(ResourceManifestFile resourceManifestFile) {
+		delegate.setResourceManifestFile(resourceManifestFile);
+	}
+
+	public void setResponseCache(HttpResponseCache responseCache) {
+		delegate.setResponseCache(responseCache);
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		delegate.setRetryPolicy(retryPolicy);
+	}
+
+	public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		delegate.setConcurrencyLimiter(concurrencyLimiter);
+	}
+
+	public void setBulkhead(Bulkhead bulkhead) {
+		delegate.setBulkhead(bulkhead);
+	}
+
+	public URL getCloudControllerUrl() {
+		return delegate.getCloudControllerUrl();
+	}
+
+	public CloudInfo getInfo() {
+		return delegate.getInfo();
+	}
+
+	public List<CloudSpace> getSpaces() {
+		return delegate.getSpaces();
+	}
+
+	public List<CloudOrganization> getOrganizations() {
+		return delegate.getOrganizations();
+	}
+
+	public OAuth2AccessToken login() {
+		try {
+			return delegate.login();
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public void logout() {
+		try {
+			delegate.logout();
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public void register(String email, String password) {
+		delegate.register(email, password);
+	}
+
+	public void updatePassword(String newPassword) {
+		delegate.updatePassword(newPassword);
+	}
+
+	public void updatePassword(CloudCredentials credentials, String newPassword) {
+		delegate.updatePassword(credentials, newPassword);
+	}
+
+	public void unregister() {
+		try {
+			delegate.unregister();
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	// Service methods
+
+	public List<CloudService> getServices() {
+		return copy(cache.get(CachedEntityType.SERVICES, key(LIST_KEY),
+				new EntityCache.Loader<List<CloudService>>() {
+					public List<CloudService> load() {
+						return delegate.getServices();
+					}
+				}));
+	}
+
+	public void createService(CloudService service) {
+		try {
+			delegate.createService(service);
+		} finally {
+			invalidateService(service.getName());
+		}
+	}
+
+	public void createUserProvidedService(CloudService service, Map<String, Object> credentials) {
+		try {
+			delegate.createUserProvidedService(service, credentials);
+		} finally {
+			invalidateService(service.getName());
+		}
+	}
+
+	public CloudService getService(final String service) {
+		return cache.get(CachedEntityType.SERVICES, key(NAME_PREFIX + service),
+				new EntityCache.Loader<CloudService>() {
+					public CloudService load() {
+						return delegate.getService(service);
+					}
+				});
+	}
+
+	public void deleteService(String service) {
+		try {
+			delegate.deleteService(service);
+		} finally {
+			invalidateService(service);
+			for (CloudApplication application : getCachedApplications()) {
+				if (application.getServices() != null && application.getServices().contains(service)) {
+					invalidateApplication(application.getName());
+				}
+			}
+		}
+	}
+
+	public void deleteAllServices() {
+		try {
+			delegate.deleteAllServices();
+		} finally {
+			cache.invalidate(CachedEntityType.SERVICES);
+			cache.invalidate(CachedEntityType.APPLICATIONS);
+		}
+	}
+
+	public List<CloudServiceOffering> getServiceOfferings() {
+		return delegate.getServiceOfferings();
+	}
+
+	// App methods
+
+	public List<CloudApplication> getApplications() {
+		return copy(cache.get(CachedEntityType.APPLICATIONS, key(LIST_KEY),
+				new EntityCache.Loader<List<CloudApplication>>() {
+					public List<CloudApplication> load() {
+						return delegate.getApplications();
+					}
+				}));
+	}
+
+	public CloudApplication getApplication(final String appName) {
+		return cache.get(CachedEntityType.APPLICATIONS, key(NAME_PREFIX + appName),
+				new EntityCache.Loader<CloudApplication>() {
+					public CloudApplication load() {
+						return delegate.getApplication(appName);
+					}
+				});
+	}
+
+	public CloudApplication getApplication(final UUID appGuid) {
+		return cache.get(CachedEntityType.APPLICATIONS, key(GUID_PREFIX + appGuid),
+				new EntityCache.Loader<CloudApplication>() {
+					public CloudApplication load() {
+						return delegate.getApplication(appGuid);
+					}
+				});
+	}
+
+	public ApplicationStats getApplicationStats(String appName) {
+		return delegate.getApplicationStats(appName);
+	}
+
+	public int[] getApplicationMemoryChoices() {
+		return delegate.getApplicationMemoryChoices();
+	}
+
+	public void createApplication(String appName, Staging staging, int memory, List<String> uris,
+			List<String> serviceNames) {
+		try {
+			delegate.createApplication(appName, staging, memory, uris, serviceNames);
+		} finally {
+			invalidateApplication(appName);
+			if (uris != null && !uris.isEmpty()) {
+				invalidateRoutes(uris);
+			}
+		}
+	}
+
+	public void uploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException {
+		try {
+			delegate.uploadApplication(appName, file, callback);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback)
+			throws IOException {
+		try {
+			delegate.uploadApplication(appName, archive, callback);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public UploadToken asyncUploadApplication(String appName, File file, UploadStatusCallback callback)
+			throws IOException {
+		try {
+			return delegate.asyncUploadApplication(appName, file, callback);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public UploadToken asyncUploadApplication(String appName, ApplicationArchive archive,
+			UploadStatusCallback callback) throws IOException {
+		try {
+			return delegate.asyncUploadApplication(appName, archive, callback);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public CloudJob getUploadStatus(UploadToken token) {
+		return delegate.getUploadStatus(token);
+	}
+
+	public CloudJob waitForUpload(UploadToken token, long timeout) {
+		return delegate.waitForUpload(token, timeout);
+	}
+
+	public void copyApplicationBits(String sourceAppName, String targetAppName) {
+		try {
+			delegate.copyApplicationBits(sourceAppName, targetAppName);
+		} finally {
+			invalidateApplication(targetAppName);
+		}
+	}
+
+	public void copyApplicationBits(CloudApplication sourceApp, CloudApplication targetApp) {
+		try {
+			delegate.copyApplicationBits(sourceApp, targetApp);
+		} finally {
+			invalidateApplication(targetApp.getName());
+		}
+	}
+
+	public StartingInfo startApplication(String appName) {
+		try {
+			return delegate.startApplication(appName);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void debugApplication(String appName, CloudApplication.DebugMode mode) {
+		try {
+			delegate.debugApplication(appName, mode);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void stopApplication(String appName) {
+		try {
+			delegate.stopApplication(appName);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public StartingInfo restartApplication(String appName) {
+		try {
+			return delegate.restartApplication(appName);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void deleteApplication(String appName) {
+		Set<String> uris = getCachedUris(appName);
+		try {
+			delegate.deleteApplication(appName);
+		} finally {
+			invalidateApplication(appName);
+			invalidateRoutes(uris);
+		}
+	}
+
+	public void deleteAllApplications() {
+		try {
+			delegate.deleteAllApplications();
+		} finally {
+			cache.invalidate(CachedEntityType.APPLICATIONS);
+			cache.invalidate(CachedEntityType.ROUTES);
+		}
+	}
+
+	public List<CloudRoute> deleteOrphanedRoutes() {
+		try {
+			return delegate.deleteOrphanedRoutes();
+		} finally {
+			cache.invalidate(CachedEntityType.ROUTES);
+		}
+	}
+
+	public void updateApplicationMemory(String appName, int memory) {
+		try {
+			delegate.updateApplicationMemory(appName, memory);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void updateApplicationInstances(String appName, int instances) {
+		try {
+			delegate.updateApplicationInstances(appName, instances);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void updateApplicationServices(String appName, List<String> services) {
+		try {
+			delegate.updateApplicationServices(appName, services);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void updateApplicationStaging(String appName, Staging staging) {
+		try {
+			delegate.updateApplicationStaging(appName, staging);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void updateApplicationUris(String appName, List<String> uris) {
+		Set<String> changedUris = getCachedUris(appName);
+		if (changedUris != null && uris != null) {
+			changedUris.addAll(uris);
+		}
+		try {
+			delegate.updateApplicationUris(appName, uris);
+		} finally {
+			invalidateApplication(appName);
+			invalidateRoutes(changedUris);
+		}
+	}
+
+	public void updateApplicationEnv(String appName, Map<String, String> env) {
+		try {
+			delegate.updateApplicationEnv(appName, env);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void updateApplicationEnv(String appName, List<String> env) {
+		try {
+			delegate.updateApplicationEnv(appName, env);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public Map<String, String> getLogs(String appName, int instancesId) {
+		return delegate.getLogs(appName, instancesId);
+	}
+
+	public Map<String, String> getLogs(String appName) {
+		return delegate.getLogs(appName);
+	}
+
+	public Map<String, String> getCrashLogs(String appName) {
+		return delegate.getCrashLogs(appName);
+	}
+
+	public String getFile(String appName, int instanceIndex, String filePath, int startPosition, int endPosition) {
+		return delegate.getFile(appName, instanceIndex, filePath, startPosition, endPosition);
+	}
+
+	public void getFile(String appName, int instanceIndex, String filePath, OutputStream outputStream) {
+		delegate.getFile(appName, instanceIndex, filePath, outputStream);
+	}
+
+	public long getFile(String appName, int instanceIndex, String filePath, long startPosition,
+			OutputStream outputStream) {
+		return delegate.getFile(appName, instanceIndex, filePath, startPosition, outputStream);
+	}
+
+	public long getFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream) {
+		return delegate.getFile(appName, instanceIndex, filePath, startPosition, endPosition, outputStream);
+	}
+
+	public void bindService(String appName, String serviceName) {
+		try {
+			delegate.bindService(appName, serviceName);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public void unbindService(String appName, String serviceName) {
+		try {
+			delegate.unbindService(appName, serviceName);
+		} finally {
+			invalidateApplication(appName);
+		}
+	}
+
+	public InstancesInfo getApplicationInstances(String appName) {
+		return delegate.getApplicationInstances(appName);
+	}
+
+	public InstancesInfo getApplicationInstances(CloudApplication app) {
+		return delegate.getApplicationInstances(app);
+	}
+
+	public CrashesInfo getCrashes(String appName) {
+		return delegate.getCrashes(appName);
+	}
+
+	public void rename(String appName, String newName) {
+		try {
+			delegate.rename(appName, newName);
+		} finally {
+			invalidateApplication(appName);
+			invalidateApplication(newName);
+		}
+	}
+
+	public String getStagingLogs(StartingInfo info, int offset) {
+		return delegate.getStagingLogs(info, offset);
+	}
+
+	public long streamStagingLogs(StartingInfo info, long offset, OutputStream outputStream) {
+		return delegate.streamStagingLogs(info, offset, outputStream);
+	}
+
+	// Domains and routes management
+
+	public List<CloudDomain> getDomainsForOrg() {
+		return copy(cache.get(CachedEntityType.DOMAINS, key("org"), new EntityCache.Loader<List<CloudDomain>>() {
+			public List<CloudDomain> load() {
+				return delegate.getDomainsForOrg();
+			}
+		}));
+	}
+
+	public List<CloudDomain> getDomains() {
+		return copy(cache.get(CachedEntityType.DOMAINS, key("space"), new EntityCache.Loader<List<CloudDomain>>() {
+			public List<CloudDomain> load() {
+				return delegate.getDomains();
+			}
+		}));
+	}
+
+	public void addDomain(String domainName) {
+		try {
+			delegate.addDomain(domainName);
+		} finally {
+			cache.invalidate(CachedEntityType.DOMAINS);
+		}
+	}
+
+	public void deleteDomain(String domainName) {
+		try {
+			delegate.deleteDomain(domainName);
+		} finally {
+			// the domain is removed from every space of the organization
+			cache.invalidate(CachedEntityType.DOMAINS);
+			cache.invalidate(CachedEntityType.ROUTES);
+			cache.invalidate(CachedEntityType.APPLICATIONS);
+		}
+	}
+
+	public void removeDomain(String domainName) {
+		try {
+			delegate.removeDomain(domainName);
+		} finally {
+			cache.invalidate(CachedEntityType.DOMAINS);
+		}
+	}
+
+	public List<CloudRoute> getRoutes(final String domainName) {
+		return copy(cache.get(CachedEntityType.ROUTES, key(DOMAIN_PREFIX + domainName),
+				new EntityCache.Loader<List<CloudRoute>>() {
+					public List<CloudRoute> load() {
+						return delegate.getRoutes(domainName);
+					}
+				}));
+	}
+
+	public void addRoute(String host, String domainName) {
+		try {
+			delegate.addRoute(host, domainName);
+		} finally {
+			cache.invalidate(CachedEntityType.ROUTES, key(DOMAIN_PREFIX + domainName));
+		}
+	}
+
+	public void deleteRoute(String host, String domainName) {
+		try {
+			delegate.deleteRoute(host, domainName);
+		} finally {
+			cache.invalidate(CachedEntityType.ROUTES, key(DOMAIN_PREFIX + domainName));
+			invalidateApplicationsWithUri(host, domainName);
+		}
+	}
+
+	// Misc. utility methods
+
+	public void updateHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
+		delegate.updateHttpProxyConfiguration(httpProxyConfiguration);
+	}
+
+	public void registerRestLogListener(RestLogCallback callBack) {
+		delegate.registerRestLogListener(callBack);
+	}
+
+	public void unRegisterRestLogListener(RestLogCallback callBack) {
+		delegate.unRegisterRestLogListener(callBack);
+	}
+
+	public void setMetricsRegistry(RestMetricsRegistry metricsRegistry) {
+		delegate.setMetricsRegistry(metricsRegistry);
+	}
+
+	public void setCloudCredentials(CloudCredentials cloudCredentials) {
+		try {
+			delegate.setCloudCredentials(cloudCredentials);
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public void setCloudSpace(CloudSpace cloudSpace) {
+		try {
+			delegate.setCloudSpace(cloudSpace);
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public CloudSpace getCloudSpace() {
+		return delegate.getCloudSpace();
+	}
+
+	/**
+	 * Returns a view of the given space that shares the cache of this client.
+	 */
+	public CloudControllerClient inSpace(CloudSpace cloudSpace) {
+		return new CachingCloudControllerClient(delegate.inSpace(cloudSpace), configuration, cache);
+	}
+
+	public CloudSpace validateSpaceAndOrg(String spaceName, String orgName, CloudControllerClientImpl client) {
+		return delegate.validateSpaceAndOrg(spaceName, orgName, client);
+	}
+
+	public void createUser(String email, String password) {
+		delegate.createUser(email, password);
+	}
+
+	public void deleteSpace(String spacesGuid) {
+		try {
+			delegate.deleteSpace(spacesGuid);
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public void deleteOrganization(String organizationsGuid) {
+		try {
+			delegate.deleteOrganization(organizationsGuid);
+		} finally {
+			cache.invalidateAll();
+		}
+	}
+
+	public Object downloadApplication(String appName) {
+		return delegate.downloadApplication(appName);
+	}
+
+	public void downloadApplication(String appName, File destination) throws IOException {
+		delegate.downloadApplication(appName, destination);
+	}
+
+	public ReadableByteChannel downloadApplicationAsChannel(String appName) throws IOException {
+		return delegate.downloadApplicationAsChannel(appName);
+	}
+
+	public long downloadApplication(String appName, long startPosition, long endPosition,
+			OutputStream outputStream) {
+		return delegate.downloadApplication(appName, startPosition, endPosition, outputStream);
+	}
+
+	public void deleteUser(String userGuid) {
+		delegate.deleteUser(userGuid);
+	}
+
+	private void invalidateService(String serviceName) {
+		cache.invalidate(CachedEntityType.SERVICES, key(LIST_KEY));
+		cache.invalidate(CachedEntityType.SERVICES, key(NAME_PREFIX + serviceName));
+	}
+
+	/**
+	 * Invalidates the application list and the entries of an application by name and by guid.
+	 */
+	private void invalidateApplication(String appName) {
+		for (CloudApplication application : getCachedApplications()) {
+			if (appName.equals(application.getName()) && application.getMeta() != null &&
+					application.getMeta().getGuid() != null) {
+				cache.invalidate(CachedEntityType.APPLICATIONS, key(GUID_PREFIX + application.getMeta().getGuid()));
+			}
+		}
+		cache.invalidate(CachedEntityType.APPLICATIONS, key(LIST_KEY));
+		cache.invalidate(CachedEntityType.APPLICATIONS, key(NAME_PREFIX + appName));
+	}
+
+	/**
+	 * Invalidates the applications mapped to a route, or to any route of a domain if the host is <tt>null</tt>.
+	 */
+	private void invalidateApplicationsWithUri(String host, String domainName) {
+		String uri = (host == null || host.length() == 0 ? domainName : host + "." + domainName);
+		Set<String> appNames = new HashSet<String>();
+		for (CloudApplication application : getCachedApplications()) {
+			if (application.getUris() == null) {
+				continue;
+			}
+			for (String applicationUri : application.getUris()) {
+				if (applicationUri.equals(uri) || (host == null && applicationUri.endsWith("." + domainName))) {
+					appNames.add(application.getName());
+				}
+			}
+		}
+		for (String appName : appNames) {
+			invalidateApplication(appName);
+		}
+	}
+
+	/**
+	 * Invalidates the routes of the domains of the given URIs, or all routes if the URIs are not known.
+	 */
+	private void invalidateRoutes(Collection<String> uris) {
+		if (uris == null) {
+			cache.invalidate(CachedEntityType.ROUTES);
+			return;
+		}
+		String prefix = key(DOMAIN_PREFIX);
+		for (String key : cache.getKeys(CachedEntityType.ROUTES)) {
+			if (!key.startsWith(prefix)) {
+				continue;
+			}
+			String domainName = key.substring(prefix.length());
+			for (String uri : uris) {
+				if (uri.equals(domainName) || uri.endsWith("." + domainName)) {
+					cache.invalidate(CachedEntityType.ROUTES, key);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the URIs of an application as far as they are known from cached entries, or <tt>null</tt> if the
+	 * application is not cached.
+	 */
+	private Set<String> getCachedUris(String appName) {
+		Set<String> uris = null;
+		for (CloudApplication application : getCachedApplications()) {
+			if (appName.equals(application.getName())) {
+				if (uris == null) {
+					uris = new HashSet<String>();
+				}
+				if (application.getUris() != null) {
+					uris.addAll(application.getUris());
+				}
+			}
+		}
+		return uris;
+	}
+
+	private List<CloudApplication> getCachedApplications() {
+		List<CloudApplication> applications = new ArrayList<CloudApplication>();
+		for (Object value : cache.getValues(CachedEntityType.APPLICATIONS, key(""))) {
+			if (value instanceof CloudApplication) {
+				applications.add((CloudApplication) value);
+			} else if (value instanceof List) {
+				for (Object element : (List<?>) value) {
+					if (element instanceof CloudApplication) {
+						applications.add((CloudApplication) element);
+					}
+				}
+			}
+		}
+		return applications;
+	}
+
+	/**
+	 * Returns the cache key of an entity in the space of the delegate.
+	 */
+	private String key(String key) {
+		CloudSpace space = delegate.getCloudSpace();
+		if (space == null) {
+			return "/" + key;
+		}
+		if (space.getMeta() != null && space.getMeta().getGuid() != null) {
+			return space.getMeta().getGuid() + "/" + key;
+		}
+		return space.getName() + "/" + key;
+	}
+
+	private static <T> List<T> copy(List<T> list) {
+		return (list != null ? new ArrayList<T>(list) : null);
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Size bounded cache of loaded entities with per type expiry, coalescing of concurrent loads and stale-while-revalidate.
+ *
+ * <p>Concurrent requests for an entry that is missing or too old share a single load. An invalidated entry is removed
+ * together with any load in flight for it, so a load that started before a change never fills the cache, and callers
+ * arriving after the invalidation start a new load.
+ */
+public class EntityCache {
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CacheConfiguration configuration;
+
+	private final Object lock = new Object();
+
+	private final Map<String, Entry> entries;
+
+	private final Map<String, Load> loads = new HashMap<String, Load>();
+
+	private final ThreadPoolExecutor refreshExecutor;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong staleHits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	public EntityCache(CacheConfiguration configuration) {
+		Assert.notNull(configuration, "Configuration must not be null");
+		this.configuration = configuration;
+		this.entries = new LruMap(configuration, evictions);
+		this.refreshExecutor = new ThreadPoolExecutor(configuration.getRefreshThreads(),
+				configuration.getRefreshThreads(), 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "cf-cache-refresh-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.refreshExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns a cached value, loading it if it is missing or expired.
+	 *
+	 * @param type the entity type, which selects the time to live
+	 * @param key the key of the value within the entity type
+	 * @param loader loads the value, exceptions thrown by it are passed to all callers waiting for the load
+	 * @return the cached or loaded value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(CachedEntityType type, String key, Loader<T> loader) {
+		long timeToLive = configuration.getTimeToLive(type);
+		if (timeToLive <= 0) {
+			return loader.load();
+		}
+		String cacheKey = cacheKey(type, key);
+		Load load;
+		boolean loading = false;
+		synchronized (lock) {
+			Entry entry = entries.get(cacheKey);
+			if (entry != null) {
+				long age = System.currentTimeMillis() - entry.loaded;
+				if (age < timeToLive) {
+					hits.incrementAndGet();
+					return (T) entry.value;
+				}
+				if (age < timeToLive + configuration.getStaleWhileRevalidate()) {
+					staleHits.incrementAndGet();
+					refresh(cacheKey, loader);
+					return (T) entry.value;
+				}
+			}
+			misses.incrementAndGet();
+			load = loads.get(cacheKey);
+			if (load == null) {
+				load = new Load(cacheKey, loader);
+				loads.put(cacheKey, load);
+				loading = true;
+			}
+		}
+		if (loading) {
+			load.run();
+		}
+		return (T) load.getValue();
+	}
+
+	/**
+	 * Returns the values currently cached for an entity type, including expired ones.
+	 */
+	public List<Object> getValues(CachedEntityType type) {
+		return getValues(type, "");
+	}
+
+	/**
+	 * Returns the values currently cached for the keys of an entity type that start with the given prefix.
+	 */
+	public List<Object> getValues(CachedEntityType type, String keyPrefix) {
+		String prefix = cacheKey(type, keyPrefix);
+		List<Object> values = new ArrayList<Object>();
+		synchronized (lock) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					values.add(entry.getValue().value);
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the keys currently cached for an entity type.
+	 */
+	public List<String> getKeys(CachedEntityType type) {
+		String prefix = cacheKey(type, "");
+		List<String> keys = new ArrayList<String>();
+		synchronized (lock) {
+			for (String cacheKey : entries.keySet()) {
+				if (cacheKey.startsWith(prefix)) {
+					keys.add(cacheKey.substring(prefix.length()));
+				}
+			}
+		}
+		return keys;
+	}
+
+	public void invalidate(CachedEntityType type, String key) {
+		String cacheKey = cacheKey(type, key);
+		synchronized (lock) {
+			entries.remove(cacheKey);
+			loads.remove(cacheKey);
+		}
+	}
+
+	public void invalidate(CachedEntityType type) {
+		String prefix = cacheKey(type, "");
+		synchronized (lock) {
+			removeByPrefix(entries, prefix);
+			removeByPrefix(loads, prefix);
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (lock) {
+			entries.clear();
+			loads.clear();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of expired entries that were served while being refreshed.
+	 */
+	public long getStaleHitCount() {
+		return staleHits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Stops the background refresh threads. Stale entries are loaded by the caller afterwards.
+	 */
+	public void shutdown() {
+		refreshExecutor.shutdown();
+	}
+
+	private void refresh(String cacheKey, Loader<?> loader) {
+		if (loads.containsKey(cacheKey) || refreshExecutor.isShutdown()) {
+			return;
+		}
+		Load load = new Load(cacheKey, loader);
+		loads.put(cacheKey, load);
+		try {
+			refreshExecutor.execute(load);
+		} catch (RejectedExecutionException e) {
+			loads.remove(cacheKey);
+		}
+	}
+
+	private static String cacheKey(CachedEntityType type, String key) {
+		return type.name() + ":" + key;
+	}
+
+	private static void removeByPrefix(Map<String, ?> map, String prefix) {
+		for (Iterator<String> keys = map.keySet().iterator(); keys.hasNext();) {
+			if (keys.next().startsWith(prefix)) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Loads a value on a cache miss.
+	 */
+	public interface Loader<T> {
+
+		T load();
+	}
+
+	/**
+	 * Map in access order that evicts the least recently used entry once it holds more than the maximum entries of
+	 * the configuration.
+	 */
+	private static class LruMap extends LinkedHashMap<String, Entry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CacheConfiguration configuration;
+
+		private final AtomicLong evictions;
+
+		LruMap(CacheConfiguration configuration, AtomicLong evictions) {
+			super(16, 0.75f, true);
+			this.configuration = configuration;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() > configuration.getMaximumEntries()) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static class Entry {
+
+		final Object value;
+
+		final long loaded;
+
+		Entry(Object value, long loaded) {
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+
+	/**
+	 * A load in flight, shared by all callers asking for the same key meanwhile.
+	 */
+	private class Load implements Runnable {
+
+		private final String cacheKey;
+
+		private final Loader<?> loader;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private Object value;
+
+		private RuntimeException exception;
+
+		private Error error;
+
+		Load(String cacheKey, Loader<?> loader) {
+			this.cacheKey = cacheKey;
+			this.loader = loader;
+		}
+
+		public void run() {
+			// the age of the entry counts from the start of the load, the data may have changed while it ran
+			long started = System.currentTimeMillis();
+			try {
+				value = loader.load();
+			} catch (RuntimeException e) {
+				exception = e;
+			} catch (Error e) {
+				error = e;
+			} finally {
+				synchronized (lock) {
+					if (loads.get(cacheKey) == this) {
+						loads.remove(cacheKey);
+						if (exception == null && error == null) {
+							entries.put(cacheKey, new Entry(value, started));
+						} else if (logger.isDebugEnabled()) {
+							logger.debug("Loading " + cacheKey + " failed", exception != null ? exception : error);
+						}
+					}
+				}
+				done.countDown();
+			}
+		}
+
+		Object getValue() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (exception != null) {
+				throw exception;
+			}
+			if (error != null) {
+				throw error;
+			}
+			return value;
+		}
+	}
+}
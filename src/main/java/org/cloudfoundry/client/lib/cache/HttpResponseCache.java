@@ -0,0 +1,409 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Store of response bodies together with their validators (<tt>ETag</tt> and <tt>Last-Modified</tt>), used to
+ * revalidate repeated GET requests with conditional requests, see
+ * {@link org.cloudfoundry.client.lib.rest.ConditionalGetClientHttpRequestFactory}.
+ *
+ * <p>Entries are kept in a memory tier bounded by the total size of the bodies, least recently used entries are
+ * evicted first. An optional disk tier below it keeps entries evicted from memory and entries of earlier runs; it is
+ * bounded by size as well. Disk entries are named by the SHA-1 of their key and hold the response body as received,
+ * so the directory should only be readable by the user.
+ */
+public class HttpResponseCache {
+
+	/**
+	 * Default total size of the bodies kept in memory (8 MB).
+	 */
+	public static final long DEFAULT_MEMORY_SIZE = 8 * 1024 * 1024L;
+
+	/**
+	 * Default total size of the entries kept on disk (64 MB).
+	 */
+	public static final long DEFAULT_DISK_SIZE = 64 * 1024 * 1024L;
+
+	/**
+	 * Default size of the largest body that is cached (1 MB).
+	 */
+	public static final int DEFAULT_MAXIMUM_ENTRY_SIZE = 1024 * 1024;
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final long memorySize;
+
+	private final File directory;
+
+	private final long diskSize;
+
+	private int maximumEntrySize = DEFAULT_MAXIMUM_ENTRY_SIZE;
+
+	private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long memoryUsed;
+
+	// file name to file size, in access order
+	private final Map<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	private long diskUsed;
+
+	private final AtomicLong revalidations = new AtomicLong();
+
+	private final AtomicLong notModified = new AtomicLong();
+
+	/**
+	 * Create a cache that only keeps entries in memory, up to {@link #DEFAULT_MEMORY_SIZE}.
+	 */
+	public HttpResponseCache() {
+		this(DEFAULT_MEMORY_SIZE, null, 0);
+	}
+
+	/**
+	 * Create a cache with a memory tier and an optional disk tier.
+	 *
+	 * @param memorySize the maximum total size of the bodies kept in memory
+	 * @param directory the directory of the disk tier, or <tt>null</tt> for no disk tier
+	 * @param diskSize the maximum total size of the entries kept on disk
+	 */
+	public HttpResponseCache(long memorySize, File directory, long diskSize) {
+		Assert.isTrue(memorySize >= 0, "Memory size must not be negative");
+		this.memorySize = memorySize;
+		this.directory = directory;
+		this.diskSize = diskSize;
+		if (directory != null) {
+			directory.mkdirs();
+			restrictToOwner(directory);
+			loadDiskIndex();
+		}
+	}
+
+	/**
+	 * Set the size of the largest response body that is cached. Larger responses are passed through.
+	 */
+	public void setMaximumEntrySize(int maximumEntrySize) {
+		this.maximumEntrySize = maximumEntrySize;
+	}
+
+	public int getMaximumEntrySize() {
+		return maximumEntrySize;
+	}
+
+	/**
+	 * Returns the entry stored for a key, from memory or else from disk.
+	 *
+	 * @return the entry, or <tt>null</tt> if none is stored
+	 */
+	public Entry get(String key) {
+		synchronized (memory) {
+			Entry entry = memory.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		}
+		Entry entry = readFromDisk(key);
+		if (entry != null) {
+			putInMemory(key, entry);
+		}
+		return entry;
+	}
+
+	public void put(String key, Entry entry) {
+		Assert.notNull(entry, "Entry must not be null");
+		if (entry.getBody().length > maximumEntrySize) {
+			remove(key);
+			return;
+		}
+		putInMemory(key, entry);
+		writeToDisk(key, entry);
+	}
+
+	public void remove(String key) {
+		synchronized (memory) {
+			Entry entry = memory.remove(key);
+			if (entry != null) {
+				memoryUsed -= entry.getBody().length;
+			}
+		}
+		if (directory != null) {
+			synchronized (disk) {
+				removeFromDisk(fileName(key));
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (memory) {
+			memory.clear();
+			memoryUsed = 0;
+		}
+		if (directory != null) {
+			synchronized (disk) {
+				for (String fileName : disk.keySet().toArray(new String[disk.size()])) {
+					removeFromDisk(fileName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record the outcome of a conditional request.
+	 *
+	 * @param wasNotModified whether the server answered <tt>304 Not Modified</tt>
+	 */
+	public void recordRevalidation(boolean wasNotModified) {
+		revalidations.incrementAndGet();
+		if (wasNotModified) {
+			notModified.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of conditional requests sent.
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Returns the number of conditional requests answered from the cache because the server reported no change.
+	 */
+	public long getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	public long getMemoryUsed() {
+		synchronized (memory) {
+			return memoryUsed;
+		}
+	}
+
+	public long getDiskUsed() {
+		synchronized (disk) {
+			return diskUsed;
+		}
+	}
+
+	private void putInMemory(String key, Entry entry) {
+		synchronized (memory) {
+			Entry previous = memory.put(key, entry);
+			memoryUsed += entry.getBody().length - (previous != null ? previous.getBody().length : 0);
+			for (Iterator<Entry> entries = memory.values().iterator(); memoryUsed > memorySize && entries.hasNext();) {
+				memoryUsed -= entries.next().getBody().length;
+				entries.remove();
+			}
+		}
+	}
+
+	private Entry readFromDisk(String key) {
+		if (directory == null) {
+			return null;
+		}
+		String fileName = fileName(key);
+		synchronized (disk) {
+			if (disk.get(fileName) == null) {
+				return null;
+			}
+			File file = new File(directory, fileName);
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+						return null;
+					}
+					String entityTag = emptyToNull(in.readUTF());
+					String lastModified = emptyToNull(in.readUTF());
+					String contentType = emptyToNull(in.readUTF());
+					byte[] body = new byte[in.readInt()];
+					in.readFully(body);
+					return new Entry(entityTag, lastModified, contentType, body);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				logger.debug("Ignoring unreadable cache entry " + file.getPath(), e);
+				removeFromDisk(fileName);
+				return null;
+			}
+		}
+	}
+
+	private void writeToDisk(String key, Entry entry) {
+		if (directory == null) {
+			return;
+		}
+		String fileName = fileName(key);
+		File file = new File(directory, fileName);
+		synchronized (disk) {
+			try {
+				// responses may hold credentials or other private data, so they are made private before writing
+				file.createNewFile();
+				restrictToOwner(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+				try {
+					out.writeInt(FORMAT_VERSION);
+					out.writeUTF(key);
+					out.writeUTF(nullToEmpty(entry.getEntityTag()));
+					out.writeUTF(nullToEmpty(entry.getLastModified()));
+					out.writeUTF(nullToEmpty(entry.getContentType()));
+					out.writeInt(entry.getBody().length);
+					out.write(entry.getBody());
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				// the disk tier is only an optimization, the entry is loaded again next time
+				logger.warn("Unable to write cache entry " + file.getPath(), e);
+				removeFromDisk(fileName);
+				return;
+			}
+			Long previous = disk.put(fileName, file.length());
+			diskUsed += file.length() - (previous != null ? previous : 0);
+			while (diskUsed > diskSize && !disk.isEmpty()) {
+				removeFromDisk(disk.keySet().iterator().next());
+			}
+		}
+	}
+
+	private void restrictToOwner(File file) {
+		boolean restricted = file.setReadable(false, false) && file.setReadable(true, true) &&
+				file.setWritable(false, false) && file.setWritable(true, true);
+		if (file.isDirectory()) {
+			restricted &= file.setExecutable(false, false) && file.setExecutable(true, true);
+		}
+		if (!restricted) {
+			logger.warn("Unable to restrict access to " + file.getPath() + " to its owner");
+		}
+	}
+
+	private void removeFromDisk(String fileName) {
+		Long size = disk.remove(fileName);
+		if (size != null) {
+			diskUsed -= size;
+		}
+		new File(directory, fileName).delete();
+	}
+
+	private void loadDiskIndex() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				long modified1 = file1.lastModified();
+				long modified2 = file2.lastModified();
+				return (modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1));
+			}
+		});
+		synchronized (disk) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().endsWith(".entry")) {
+					disk.put(file.getName(), file.length());
+					diskUsed += file.length();
+				}
+			}
+			while (diskUsed > diskSize && !disk.isEmpty()) {
+				removeFromDisk(disk.keySet().iterator().next());
+			}
+		}
+	}
+
+	private static String fileName(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder name = new StringBuilder(46);
+			for (byte b : digest.digest(key.getBytes("UTF-8"))) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return name.append(".entry").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String nullToEmpty(String value) {
+		return (value != null ? value : "");
+	}
+
+	private static String emptyToNull(String value) {
+		return (value.length() > 0 ? value : null);
+	}
+
+	/**
+	 * A stored response: its validators, content type and body.
+	 */
+	public static class Entry {
+
+		private final String entityTag;
+
+		private final String lastModified;
+
+		private final String contentType;
+
+		private final byte[] body;
+
+		public Entry(String entityTag, String lastModified, String contentType, byte[] body) {
+			Assert.notNull(body, "Body must not be null");
+			this.entityTag = entityTag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		public String getEntityTag() {
+			return entityTag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+}
@@ -39,6 +39,7 @@ public class CloudApplication extends CloudEntity {
 	private List<String> uris;
 	private List<String> services;
 	private AppState state;
+	private PackageState packageState;
 	private DebugMode debug;
 	private Map<String, Integer> resources = new HashMap<String, Integer>();
 	private int runningInstances;
@@ -109,6 +110,13 @@ public class CloudApplication extends CloudEntity {
 		UPDATING, STARTED, STOPPED
 	}
 
+	/**
+	 * State of the droplet of the application, <tt>FAILED</tt> when the last staging attempt failed.
+	 */
+	public enum PackageState {
+		PENDING, STAGED, FAILED
+	}
+
 	public enum DebugMode {
 		run,
 		suspend
@@ -162,6 +170,14 @@ public class CloudApplication extends CloudEntity {
 		this.state = state;
 	}
 
+	public PackageState getPackageState() {
+		return packageState;
+	}
+
+	public void setPackageState(PackageState packageState) {
+		this.packageState = packageState;
+	}
+
 	public DebugMode getDebug() {
 		return debug;
 	}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.domain;
+
+/**
+ * A background job run by the cloud controller, for example processing application bits uploaded asynchronously.
+ */
+public class CloudJob extends CloudEntity {
+
+	public enum Status {
+		QUEUED, RUNNING, FINISHED, FAILED;
+
+		public static Status getEnum(String status) {
+			for (Status value : values()) {
+				if (value.name().equalsIgnoreCase(status)) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Invalid job status: " + status);
+		}
+
+		/**
+		 * @return <tt>true</tt> if a job with this status will not change any more
+		 */
+		public boolean isComplete() {
+			return this == FINISHED || this == FAILED;
+		}
+	}
+
+	private String url;
+
+	private Status status;
+
+	private ErrorDetails errorDetails;
+
+	public CloudJob(Meta meta, String url, Status status, ErrorDetails errorDetails) {
+		super(meta, null);
+		this.url = url;
+		this.status = status;
+		this.errorDetails = errorDetails;
+	}
+
+	/**
+	 * @return the path of the job resource, relative to the cloud controller
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return details of the failure for a {@link Status#FAILED failed} job, otherwise <tt>null</tt>
+	 */
+	public ErrorDetails getErrorDetails() {
+		return errorDetails;
+	}
+
+	@Override
+	public String toString() {
+		return "CloudJob [url=" + url + ", status=" + status +
+				(errorDetails != null ? ", error=" + errorDetails.getDescription() : "") + "]";
+	}
+
+	public static class ErrorDetails {
+
+		private int code;
+
+		private String description;
+
+		private String errorCode;
+
+		public ErrorDetails(int code, String description, String errorCode) {
+			this.code = code;
+			this.description = description;
+			this.errorCode = errorCode;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public String getErrorCode() {
+			return errorCode;
+		}
+	}
+}
@@ -16,14 +16,22 @@
 
 package org.cloudfoundry.client.lib.domain;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Set;
 
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.cloudfoundry.client.lib.io.DeferredOutputStream;
 import org.cloudfoundry.client.lib.io.DynamicZipInputStream;
 import org.cloudfoundry.client.lib.io.DynamicZipInputStream.Entry;
+import org.cloudfoundry.client.lib.upload.UploadProgressMonitor;
 
 /**
  * A payload used to upload application data. The payload data is built from a source {@link ApplicationArchive},
@@ -33,11 +41,19 @@ import org.cloudfoundry.client.lib.io.DynamicZipInputStream.Entry;
  */
 public class UploadApplicationPayload {
 
+    private static final int BUFFER_SIZE = 4096;
+
     private ApplicationArchive archive;
 
     private ArrayList<Entry> entriesToUpload;
 
-    private int totalUncompressedSize;
+    private long totalUncompressedSize;
+
+    private int numFileEntries;
+
+    private UploadProgressMonitor progressMonitor;
+
+    private File cacheFile;
 
     /**
      * Create a new {@link UploadApplicationPayload}.
@@ -53,8 +69,11 @@ public class UploadApplicationPayload {
         this.entriesToUpload = new ArrayList<DynamicZipInputStream.Entry>();
         for (ApplicationArchive.Entry entry : archive.getEntries()) {
             if (entry.isDirectory() || !matches.contains(entry.getName())) {
-                entriesToUpload.add(new DynamicZipInputStreamEntryAdapter(entry));
+                entriesToUpload.add(new DynamicZipInputStreamEntryAdapter(entry, this));
                 totalUncompressedSize += entry.getSize();
+                if (!entry.isDirectory()) {
+                    numFileEntries++;
+                }
             }
         }
     }
@@ -71,7 +90,7 @@ public class UploadApplicationPayload {
      * Returns the total size of the entries to be transfered (before compression).
      * @return the uncompressed size of the entries.
      */
-    public int getTotalUncompressedSize() {
+    public long getTotalUncompressedSize() {
         return totalUncompressedSize;
     }
 
@@ -83,6 +102,22 @@ public class UploadApplicationPayload {
 		return entriesToUpload.size();
     }
 
+    /**
+     * Returns the monitor that is notified as the payload is written, if any.
+     * @return the progress monitor or <tt>null</tt>
+     */
+    public UploadProgressMonitor getProgressMonitor() {
+        return progressMonitor;
+    }
+
+    /**
+     * Sets a monitor to notify as entries are read and the payload data is written.
+     * @param progressMonitor the progress monitor or <tt>null</tt>
+     */
+    public void setProgressMonitor(UploadProgressMonitor progressMonitor) {
+        this.progressMonitor = progressMonitor;
+    }
+
     /**
      * Returns the payload data as an input stream.
      * @return the payload data
@@ -91,6 +126,100 @@ public class UploadApplicationPayload {
         return new DynamicZipInputStream(entriesToUpload);
     }
 
+    /**
+     * Writes the payload data to the given stream, reporting progress to the {@link #getProgressMonitor() progress
+     * monitor}. The output stream is not closed. If the payload has been {@link #cache() cached} the data is replayed
+     * from the cache, which a {@link DeferredOutputStream} can transfer without copying it.
+     * @param outputStream the stream to write to
+     * @param deferredTransfer <tt>true</tt> if the output stream buffers the data and transfers it later
+     * @throws IOException
+     */
+    public void writeTo(OutputStream outputStream, boolean deferredTransfer) throws IOException {
+        UploadProgressMonitor monitor = progressMonitor;
+        if (cacheFile != null) {
+            if (monitor != null) {
+                monitor.onReplayStarted(deferredTransfer);
+            }
+            if (outputStream instanceof DeferredOutputStream) {
+                ((DeferredOutputStream) outputStream).writeFile(cacheFile);
+            } else {
+                copy(new FileInputStream(cacheFile), outputStream, monitor, false);
+            }
+            if (monitor != null) {
+                monitor.onReplayCompleted();
+            }
+            return;
+        }
+        if (monitor != null) {
+            monitor.onWriteStarted(numFileEntries, totalUncompressedSize, deferredTransfer);
+        }
+        copy(getInputStream(), outputStream, monitor, true);
+        if (monitor != null) {
+            monitor.onWriteCompleted();
+        }
+    }
+
+    /**
+     * Builds the payload data once and keeps it in a temporary file, so that it can be written several times (for
+     * example when an upload is retried) without reading and compressing the archive again. The cache should be
+     * {@link #deleteCache() deleted} once the payload is no longer needed.
+     * @throws IOException
+     */
+    public void cache() throws IOException {
+        if (cacheFile != null) {
+            return;
+        }
+        File file = File.createTempFile("cf-upload", ".zip");
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                if (progressMonitor != null) {
+                    progressMonitor.onWriteStarted(numFileEntries, totalUncompressedSize, true);
+                }
+                copy(getInputStream(), outputStream, progressMonitor, true);
+                if (progressMonitor != null) {
+                    progressMonitor.onWriteCompleted();
+                }
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        cacheFile = file;
+    }
+
+    /**
+     * Deletes the data {@link #cache() cached} for this payload, if any.
+     */
+    public void deleteCache() {
+        if (cacheFile != null) {
+            cacheFile.delete();
+            cacheFile = null;
+        }
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, UploadProgressMonitor monitor,
+            boolean compressing) throws IOException {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                if (monitor != null && compressing) {
+                    monitor.onBytesCompressed(count);
+                }
+                outputStream.write(buffer, 0, count);
+                if (monitor != null) {
+                    monitor.onBytesWritten(count);
+                }
+            }
+            outputStream.flush();
+        } finally {
+            inputStream.close();
+        }
+    }
+
     /**
      * Internal adapter used to convert {@link ApplicationArchive.Entry} into {@link DynamicZipInputStream.Entry}.
      */
@@ -98,8 +227,11 @@ public class UploadApplicationPayload {
 
         private ApplicationArchive.Entry entry;
 
-        public DynamicZipInputStreamEntryAdapter(ApplicationArchive.Entry entry) {
+        private UploadApplicationPayload payload;
+
+        public DynamicZipInputStreamEntryAdapter(ApplicationArchive.Entry entry, UploadApplicationPayload payload) {
             this.entry = entry;
+            this.payload = payload;
         }
 
         public String getName() {
@@ -107,7 +239,54 @@ public class UploadApplicationPayload {
         }
 
         public InputStream getInputStream() throws IOException {
-            return entry.getInputStream();
+            InputStream inputStream = entry.getInputStream();
+            UploadProgressMonitor monitor = payload.getProgressMonitor();
+            if (inputStream == null || monitor == null) {
+                return inputStream;
+            }
+            return new MonitoredInputStream(inputStream, monitor);
+        }
+    }
+
+    /**
+     * Internal stream used to report the bytes read from an entry.
+     */
+    private static class MonitoredInputStream extends FilterInputStream {
+
+        private UploadProgressMonitor monitor;
+
+        private boolean closed;
+
+        public MonitoredInputStream(InputStream in, UploadProgressMonitor monitor) {
+            super(in);
+            this.monitor = monitor;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                monitor.onEntryBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                monitor.onEntryBytesRead(count);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                monitor.onEntryCompleted();
+            }
         }
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.domain;
+
+import java.util.UUID;
+
+/**
+ * Handle to an application upload that the cloud controller processes in the background. Use it to poll or wait
+ * for the upload job.
+ */
+public class UploadToken {
+
+	private UUID appGuid;
+
+	private CloudJob job;
+
+	public UploadToken(UUID appGuid, CloudJob job) {
+		this.appGuid = appGuid;
+		this.job = job;
+	}
+
+	/**
+	 * @return the guid of the application the bits were uploaded to
+	 */
+	public UUID getAppGuid() {
+		return appGuid;
+	}
+
+	/**
+	 * @return the upload job as returned when the upload was accepted
+	 */
+	public CloudJob getJob() {
+		return job;
+	}
+
+	/**
+	 * @return the path of the upload job resource, relative to the cloud controller
+	 */
+	public String getJobUrl() {
+		return job.getUrl();
+	}
+
+	@Override
+	public String toString() {
+		return "UploadToken [appGuid=" + appGuid + ", job=" + job + "]";
+	}
+}
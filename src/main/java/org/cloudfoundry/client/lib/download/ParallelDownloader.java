@@ -0,0 +1,477 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.util.CloudUtil;
+import org.springframework.util.Assert;
+
+/**
+ * Downloads large resources, such as application bits or big instance files, as byte ranges fetched concurrently.
+ * Each range is written straight to its position in the destination file.
+ *
+ * <p>The first range also reports the size of the resource, which decides the remaining ranges. If the server does
+ * not report the size or answers the range with the whole resource, the rest of the resource is read sequentially.
+ * Once all ranges are written the file size is checked, and the SHA1 digest if one is given.
+ *
+ * <p>Completed ranges are recorded in a <tt>.parts</tt> file next to the destination. When ranges still fail after
+ * retries the download throws, and a later download to the same destination fetches only the missing ranges. If the
+ * size reported while resuming differs from the recorded one, the resource changed and the download starts over.
+ *
+ * <p>The default concurrency stays within the connections per host of the default HttpComponents connection pool.
+ */
+public class ParallelDownloader {
+
+	/**
+	 * Default number of ranges fetched at the same time.
+	 */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Default size of a range, in bytes.
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private static final int RANGE_ATTEMPTS = 3;
+
+	private static final long RANGE_RETRY_DELAY = 1000;
+
+	private static final String PARTS_SUFFIX = ".parts";
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CloudFoundryOperations client;
+
+	private final ExecutorService executor;
+
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public ParallelDownloader(CloudFoundryOperations client) {
+		this(client, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Create a downloader with its own thread pool, which is shut down on {@link #close()}.
+	 *
+	 * @param client the client used to read the ranges
+	 * @param concurrency maximum number of ranges fetched at the same time
+	 */
+	public ParallelDownloader(CloudFoundryOperations client, int concurrency) {
+		Assert.isTrue(concurrency > 0, "Concurrency must be positive");
+		this.client = client;
+		this.executor = Executors.newFixedThreadPool(concurrency, new DownloadThreadFactory());
+	}
+
+	/**
+	 * Set the size of the ranges. A partial download is only resumed with the chunk size it was started with.
+	 *
+	 * @param chunkSize the range size in bytes
+	 */
+	public void setChunkSize(long chunkSize) {
+		Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Download the bits of an application.
+	 *
+	 * @param appName the application name
+	 * @param destination the file to write
+	 * @param expectedSha1 the SHA1 digest of the bits as a hex string, or <tt>null</tt> to only check the size
+	 * @throws IOException if the download failed, possibly leaving ranges to resume
+	 */
+	public void downloadApplication(final String appName, File destination, String expectedSha1) throws IOException {
+		Assert.notNull(client, "A client is required to download applications");
+		download(new RangedResource() {
+			public long read(long startPosition, long endPosition, OutputStream outputStream) {
+				RangeStatusOutputStream out = new RangeStatusOutputStream(outputStream);
+				return out.getResult(client.downloadApplication(appName, startPosition, endPosition, out));
+			}
+
+			public void read(long startPosition, OutputStream outputStream) {
+				client.downloadApplication(appName, startPosition, Long.MAX_VALUE, outputStream);
+			}
+		}, destination, expectedSha1);
+	}
+
+	/**
+	 * Download a file of an application instance.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param destination the file to write
+	 * @throws IOException if the download failed, possibly leaving ranges to resume
+	 */
+	public void downloadFile(final String appName, final int instanceIndex, final String filePath, File destination)
+			throws IOException {
+		Assert.notNull(client, "A client is required to download files");
+		download(new RangedResource() {
+			public long read(long startPosition, long endPosition, OutputStream outputStream) {
+				RangeStatusOutputStream out = new RangeStatusOutputStream(outputStream);
+				return out.getResult(client.getFile(appName, instanceIndex, filePath, startPosition, endPosition, out));
+			}
+
+			public void read(long startPosition, OutputStream outputStream) {
+				client.getFile(appName, instanceIndex, filePath, startPosition, outputStream);
+			}
+		}, destination, null);
+	}
+
+	/**
+	 * Download a resource to a file, resuming an earlier partial download to the same file.
+	 *
+	 * @param resource the resource to download
+	 * @param destination the file to write
+	 * @param expectedSha1 the SHA1 digest of the resource as a hex string, or <tt>null</tt> to only check the size
+	 * @throws IOException if the download failed, possibly leaving ranges to resume
+	 */
+	public void download(RangedResource resource, File destination, String expectedSha1) throws IOException {
+		Assert.notNull(resource, "Resource must not be null");
+		Assert.notNull(destination, "Destination must not be null");
+		File partsFile = new File(destination.getPath() + PARTS_SUFFIX);
+		Parts parts = (destination.isFile() ? Parts.read(partsFile, chunkSize) : null);
+		RandomAccessFile file = new RandomAccessFile(destination, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			if (parts != null) {
+				try {
+					fetchMissing(resource, channel, parts, partsFile, destination);
+				} catch (ResourceChangedException e) {
+					// the ranges written so far belong to another version of the resource
+					logger.debug(e.getMessage() + ", starting over");
+					parts = null;
+				}
+			}
+			if (parts == null) {
+				file.setLength(0);
+				RangeOutputStream first = new RangeOutputStream(channel, 0);
+				long length = resource.read(0, chunkSize - 1, first);
+				if (length < 0) {
+					logger.debug((length == RangedResource.RANGES_NOT_SUPPORTED ? "Ranges of " +
+							destination.getName() + " not supported" : "Size of " + destination.getName() +
+							" not known") + ", reading it sequentially");
+					resource.read(first.getCount(), new RangeOutputStream(channel, first.getCount()));
+					channel.force(false);
+					partsFile.delete();
+					verify(destination, -1, expectedSha1, partsFile);
+					return;
+				}
+				if (first.getCount() != Math.min(chunkSize, length)) {
+					throw new IOException("Expected " + Math.min(chunkSize, length) + " bytes of " +
+							destination.getName() + " but received " + first.getCount());
+				}
+				file.setLength(length);
+				parts = new Parts(length, chunkSize);
+				parts.complete(0, partsFile);
+				fetchMissing(resource, channel, parts, partsFile, destination);
+			}
+			channel.force(false);
+		} finally {
+			file.close();
+		}
+		verify(destination, parts.length, expectedSha1, partsFile);
+		partsFile.delete();
+	}
+
+	/**
+	 * Stop the threads of this downloader.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void fetchMissing(final RangedResource resource, final FileChannel channel, final Parts parts,
+			final File partsFile, File destination) throws IOException {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < parts.getCount(); i++) {
+			if (!parts.isComplete(i)) {
+				final int index = i;
+				tasks.add(new Callable<Void>() {
+					public Void call() throws Exception {
+						fetchRange(resource, channel, parts, index, partsFile);
+						return null;
+					}
+				});
+			}
+		}
+		List<Future<Void>> results;
+		try {
+			results = executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + destination.getName());
+		}
+		int failed = 0;
+		Throwable failure = null;
+		ResourceChangedException changed = null;
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				failed++;
+				failure = e.getCause();
+				if (failure instanceof ResourceChangedException) {
+					changed = (ResourceChangedException) failure;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while downloading " + destination.getName());
+			}
+		}
+		if (changed != null) {
+			// all ranges are done, so none records itself as complete after this
+			partsFile.delete();
+			throw changed;
+		}
+		if (failed > 0) {
+			IOException e = new IOException(failed + " of " + parts.getCount() + " ranges of " +
+					destination.getName() + " failed, download again to resume");
+			e.initCause(failure);
+			throw e;
+		}
+	}
+
+	private void fetchRange(RangedResource resource, FileChannel channel, Parts parts, int index, File partsFile)
+			throws Exception {
+		long start = index * parts.chunkSize;
+		long end = Math.min(start + parts.chunkSize, parts.length) - 1;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				RangeOutputStream out = new RangeOutputStream(channel, start);
+				long length = resource.read(start, end, out);
+				if (length >= 0 && length != parts.length) {
+					throw new ResourceChangedException("Size of resource changed from " + parts.length + " to " +
+							length + " bytes");
+				}
+				if (out.getCount() != end - start + 1) {
+					throw new IOException("Expected " + (end - start + 1) + " bytes at " + start + " but received " +
+							out.getCount());
+				}
+				parts.complete(index, partsFile);
+				return;
+			} catch (Exception e) {
+				if (attempt >= RANGE_ATTEMPTS || e instanceof ResourceChangedException) {
+					throw e;
+				}
+				logger.debug("Retrying range " + start + "-" + end + " after attempt " + attempt + " failed", e);
+				Thread.sleep(RANGE_RETRY_DELAY * attempt);
+			}
+		}
+	}
+
+	private void verify(File destination, long length, String expectedSha1, File partsFile) throws IOException {
+		if (length >= 0 && destination.length() != length) {
+			throw new IOException("Expected " + length + " bytes in " + destination.getName() + " but found " +
+					destination.length());
+		}
+		if (expectedSha1 != null) {
+			InputStream in = new FileInputStream(destination);
+			String sha1 = CloudUtil.computeSha1Digest(in);
+			if (!sha1.equalsIgnoreCase(expectedSha1)) {
+				// the content cannot be trusted, including the ranges recorded as complete
+				destination.delete();
+				partsFile.delete();
+				throw new IOException("SHA1 digest of " + destination.getName() + " is " + sha1 + ", expected " +
+						expectedSha1);
+			}
+		}
+	}
+
+	/**
+	 * The ranges of a download and which of them are written, saved alongside the destination.
+	 */
+	private static class Parts {
+
+		private final long length;
+
+		private final long chunkSize;
+
+		private final BitSet completed = new BitSet();
+
+		Parts(long length, long chunkSize) {
+			this.length = length;
+			this.chunkSize = chunkSize;
+		}
+
+		int getCount() {
+			return (int) ((length + chunkSize - 1) / chunkSize);
+		}
+
+		synchronized boolean isComplete(int index) {
+			return completed.get(index);
+		}
+
+		synchronized void complete(int index, File partsFile) throws IOException {
+			completed.set(index);
+			Properties properties = new Properties();
+			properties.setProperty("length", String.valueOf(length));
+			properties.setProperty("chunkSize", String.valueOf(chunkSize));
+			StringBuilder indexes = new StringBuilder();
+			for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+				indexes.append(indexes.length() > 0 ? "," : "").append(i);
+			}
+			properties.setProperty("completed", indexes.toString());
+			File tempFile = new File(partsFile.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				properties.store(out, null);
+			} finally {
+				out.close();
+			}
+			partsFile.delete();
+			if (!tempFile.renameTo(partsFile)) {
+				throw new IOException("Unable to write " + partsFile.getPath());
+			}
+		}
+
+		static Parts read(File partsFile, long chunkSize) {
+			if (!partsFile.isFile()) {
+				return null;
+			}
+			try {
+				Properties properties = new Properties();
+				InputStream in = new FileInputStream(partsFile);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+				if (Long.parseLong(properties.getProperty("chunkSize")) != chunkSize) {
+					return null;
+				}
+				Parts parts = new Parts(Long.parseLong(properties.getProperty("length")), chunkSize);
+				for (String index : properties.getProperty("completed", "").split(",")) {
+					if (index.length() > 0) {
+						parts.completed.set(Integer.parseInt(index));
+					}
+				}
+				return parts;
+			} catch (Exception e) {
+				// start over
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Writes to a file channel from a position on, leaving the channel position alone so ranges can be written
+	 * concurrently.
+	 */
+	private static class RangeOutputStream extends OutputStream {
+
+		private final FileChannel channel;
+
+		private final long start;
+
+		private long count;
+
+		RangeOutputStream(FileChannel channel, long start) {
+			this.channel = channel;
+			this.start = start;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				count += channel.write(buffer, start + count);
+			}
+		}
+	}
+
+	/**
+	 * Passes writes on and records whether the server sent the requested range, for the result of a ranged read.
+	 */
+	private static class RangeStatusOutputStream extends FilterOutputStream implements PartialContentListener {
+
+		private volatile boolean rangeIgnored;
+
+		RangeStatusOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void responseReceived(boolean partialContent) {
+			rangeIgnored = !partialContent;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		long getResult(long length) {
+			return (rangeIgnored ? RangedResource.RANGES_NOT_SUPPORTED : length);
+		}
+	}
+
+	/**
+	 * Thrown when the size of the resource differs from the size recorded for the download.
+	 */
+	private static class ResourceChangedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ResourceChangedException(String message) {
+			super(message);
+		}
+	}
+
+	private static class DownloadThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "cf-download-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
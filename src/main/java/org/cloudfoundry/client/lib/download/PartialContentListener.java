@@ -0,0 +1,32 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.download;
+
+/**
+ * Implemented by output streams passed to the ranged reads of the client, such as
+ * {@link org.cloudfoundry.client.lib.CloudFoundryOperations#downloadApplication(String, long, long,
+ * java.io.OutputStream)}, that need to know whether the server sent the requested range or ignored it and sent the
+ * whole resource. The client reports it before writing to the stream.
+ */
+public interface PartialContentListener {
+
+	/**
+	 * @param partialContent <tt>true</tt> if the server sent the requested range, <tt>false</tt> if it sent the whole
+	 * resource, of which the client writes only the requested range
+	 */
+	void responseReceived(boolean partialContent);
+}
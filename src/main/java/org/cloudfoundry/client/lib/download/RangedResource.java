@@ -0,0 +1,48 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.download;
+
+import java.io.OutputStream;
+
+/**
+ * A remote resource that can be read in byte ranges, downloaded by a {@link ParallelDownloader}.
+ */
+public interface RangedResource {
+
+	/**
+	 * Returned by {@link #read(long, long, OutputStream)} when the server answered with the whole resource instead of
+	 * the range, so that reading ranges separately would transfer the resource once per range.
+	 */
+	long RANGES_NOT_SUPPORTED = -2;
+
+	/**
+	 * Read a byte range of the resource.
+	 * @param startPosition the byte position to start at (inclusive)
+	 * @param endPosition the byte position to end at (inclusive)
+	 * @param outputStream the stream to write the range to
+	 * @return the size of the resource in bytes, -1 if not known, or {@link #RANGES_NOT_SUPPORTED} if the server
+	 * ignored the range
+	 */
+	long read(long startPosition, long endPosition, OutputStream outputStream);
+
+	/**
+	 * Read the resource from a byte position to its end.
+	 * @param startPosition the byte position to start at (inclusive)
+	 * @param outputStream the stream to write the content to
+	 */
+	void read(long startPosition, OutputStream outputStream);
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} that buffers what is written and transfers it later, for example a request body that is sent
+ * once it is complete. A {@link TransferListener} can be registered to follow the actual transfer.
+ */
+public abstract class DeferredOutputStream extends OutputStream {
+
+	private TransferListener transferListener;
+
+	/**
+	 * Set the listener to notify when the buffered data is transferred.
+	 *
+	 * @param transferListener the listener or <tt>null</tt>
+	 */
+	public void setTransferListener(TransferListener transferListener) {
+		this.transferListener = transferListener;
+	}
+
+	protected TransferListener getTransferListener() {
+		return transferListener;
+	}
+
+	/**
+	 * Write the content of a file. Subclasses that keep the data on disk can transfer the file itself instead of
+	 * copying it, in which case the file must not change until the data is transferred.
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file could not be read or written
+	 */
+	public void writeFile(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				write(buffer, 0, count);
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+}
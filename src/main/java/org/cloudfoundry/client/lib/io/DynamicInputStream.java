@@ -36,6 +36,8 @@ public abstract class DynamicInputStream extends InputStream {
 
     private byte[] singleByte = new byte[1];
 
+    private boolean finished;
+
     @Override
     public int read() throws IOException {
         int s = read(singleByte);
@@ -56,19 +58,19 @@ public abstract class DynamicInputStream extends InputStream {
         if (len == 0) {
             return 0;
         }
-        return doRead(b, off, len, true);
+        return doRead(b, off, len);
     }
 
-    private int doRead(byte[] b, int off, int len, boolean lastWriteWasSuccessful) throws IOException {
-        if (outputStream.getAvailable() > 0) {
-            return outputStream.read(b, off, len);
-        }
-        if (!lastWriteWasSuccessful) {
-            return -1;
+    private int doRead(byte[] b, int off, int len) throws IOException {
+        // Loop rather than recurse, highly compressible content can take many writes before any data is available
+        while (outputStream.getAvailable() == 0) {
+            if (finished) {
+                return -1;
+            }
+            outputStream.clear();
+            finished = !writeMoreData();
         }
-        outputStream.clear();
-        boolean writeSuccess = writeMoreData();
-        return doRead(b, off, len, writeSuccess);
+        return outputStream.read(b, off, len);
     }
 
     /**
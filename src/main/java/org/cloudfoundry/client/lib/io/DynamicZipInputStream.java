@@ -26,7 +26,9 @@ import org.springframework.util.Assert;
 
 /**
  * InputStream that dynamically creates ZIP contents as the stream is read without consuming too much memory. Zip
- * {@link Entry entries} should be provided on {@link #DynamicZipInputStream(Iterable) construction}.
+ * {@link Entry entries} should be provided on {@link #DynamicZipInputStream(Iterable) construction}. Zip64 extensions
+ * are written as required, so entries and archives larger than 4GB and archives with more than 65535 entries are
+ * supported.
  *
  * @author Phillip Webb
  */
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.io;
+
+/**
+ * Listener notified as buffered data is written to the network.
+ *
+ * @see DeferredOutputStream
+ */
+public interface TransferListener {
+
+	/**
+	 * Called before the first byte is transferred.
+	 */
+	void onTransferStarted();
+
+	/**
+	 * Called each time data has been transferred.
+	 *
+	 * @param byteCount the number of bytes transferred since the last call
+	 */
+	void onBytesTransferred(int byteCount);
+
+	/**
+	 * Called once all data has been transferred.
+	 */
+	void onTransferCompleted();
+}
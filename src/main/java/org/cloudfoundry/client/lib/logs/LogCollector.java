@@ -0,0 +1,236 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.InstanceInfo;
+import org.cloudfoundry.client.lib.domain.InstancesInfo;
+import org.springframework.util.Assert;
+
+/**
+ * Collects the log files of all instances of an application. The file listings and the files themselves are fetched
+ * concurrently, with at most a fixed number of requests in flight.
+ *
+ * <p>Logs can be collected per instance with {@link #collectLogs(String)}, or read as one sequence of lines ordered by
+ * timestamp with {@link #mergeLogs(String)}. Merging streams each file to a temporary file first, so large logs are
+ * not held in memory.
+ *
+ * <p>Files that cannot be read, for example because the instance stopped while collecting, are skipped.
+ */
+public class LogCollector {
+
+	/**
+	 * Default maximum number of concurrent requests.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+	private static final String LOGS_LOCATION = "logs";
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CloudFoundryOperations client;
+
+	private final ExecutorService executor;
+
+	private LogTimestampParser timestampParser = new LogTimestampParser();
+
+	public LogCollector(CloudFoundryOperations client) {
+		this(client, DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * Create a collector with its own thread pool, which is shut down on {@link #close()}.
+	 *
+	 * @param client the client used to read the files
+	 * @param maxConcurrency maximum number of concurrent requests
+	 */
+	public LogCollector(CloudFoundryOperations client, int maxConcurrency) {
+		Assert.notNull(client, "Client must not be null");
+		Assert.isTrue(maxConcurrency > 0, "Max concurrency must be positive");
+		this.client = client;
+		this.executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("cf-log-collector-"));
+	}
+
+	public void setTimestampParser(LogTimestampParser timestampParser) {
+		Assert.notNull(timestampParser, "TimestampParser must not be null");
+		this.timestampParser = timestampParser;
+	}
+
+	/**
+	 * Get the content of all log files of all instances of an application.
+	 *
+	 * @param appName name of the application
+	 * @return the log files of each instance, keyed by instance index and then by file path
+	 */
+	public Map<Integer, Map<String, String>> collectLogs(final String appName) {
+		List<LogFile> logFiles = listLogFiles(appName);
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>(logFiles.size());
+		for (final LogFile logFile : logFiles) {
+			tasks.add(new Callable<String>() {
+				public String call() throws Exception {
+					return client.getFile(appName, logFile.getInstanceIndex(), logFile.getFilePath());
+				}
+			});
+		}
+		List<Future<String>> results = invokeAll(tasks);
+		Map<Integer, Map<String, String>> logs = new TreeMap<Integer, Map<String, String>>();
+		for (int i = 0; i < logFiles.size(); i++) {
+			LogFile logFile = logFiles.get(i);
+			String content = getResult(results.get(i), logFile);
+			if (content != null) {
+				Map<String, String> instanceLogs = logs.get(logFile.getInstanceIndex());
+				if (instanceLogs == null) {
+					instanceLogs = new TreeMap<String, String>();
+					logs.put(logFile.getInstanceIndex(), instanceLogs);
+				}
+				instanceLogs.put(logFile.getFilePath(), content);
+			}
+		}
+		return logs;
+	}
+
+	/**
+	 * Read all log files of all instances of an application as one sequence of lines ordered by timestamp. The
+	 * returned reader must be closed, which removes the temporary files holding the logs.
+	 *
+	 * @param appName name of the application
+	 * @return the merged lines
+	 * @throws IOException if the temporary files cannot be written or read
+	 */
+	public MergedLogReader mergeLogs(final String appName) throws IOException {
+		List<LogFile> logFiles = listLogFiles(appName);
+		final List<File> files = new ArrayList<File>(logFiles.size());
+		try {
+			List<Callable<File>> tasks = new ArrayList<Callable<File>>(logFiles.size());
+			for (final LogFile logFile : logFiles) {
+				final File file = File.createTempFile("cf-log", ".tmp");
+				files.add(file);
+				tasks.add(new Callable<File>() {
+					public File call() throws Exception {
+						OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+						try {
+							client.getFile(appName, logFile.getInstanceIndex(), logFile.getFilePath(), out);
+						} finally {
+							out.close();
+						}
+						return file;
+					}
+				});
+			}
+			List<Future<File>> results = invokeAll(tasks);
+			List<LogFile> mergedLogFiles = new ArrayList<LogFile>(logFiles.size());
+			List<File> mergedFiles = new ArrayList<File>(logFiles.size());
+			for (int i = 0; i < logFiles.size(); i++) {
+				File file = getResult(results.get(i), logFiles.get(i));
+				if (file != null) {
+					mergedLogFiles.add(logFiles.get(i));
+					mergedFiles.add(file);
+				} else {
+					files.get(i).delete();
+				}
+			}
+			return new MergedLogReader(mergedLogFiles, mergedFiles, timestampParser, true);
+		} catch (IOException e) {
+			for (File file : files) {
+				file.delete();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop the threads of this collector.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private List<LogFile> listLogFiles(final String appName) {
+		InstancesInfo instances = client.getApplicationInstances(appName);
+		if (instances == null) {
+			return Collections.emptyList();
+		}
+		List<Callable<List<LogFile>>> tasks = new ArrayList<Callable<List<LogFile>>>();
+		for (InstanceInfo instance : instances.getInstances()) {
+			final int instanceIndex = instance.getIndex();
+			tasks.add(new Callable<List<LogFile>>() {
+				public List<LogFile> call() throws Exception {
+					String listing = client.getFile(appName, instanceIndex, LOGS_LOCATION);
+					List<LogFile> logFiles = new ArrayList<LogFile>();
+					for (String line : listing.split("\n")) {
+						String[] parts = line.trim().split("\\s+");
+						if (parts[0].length() > 0 && !parts[0].endsWith("/")) {
+							logFiles.add(new LogFile(appName, instanceIndex, LOGS_LOCATION + "/" + parts[0]));
+						}
+					}
+					return logFiles;
+				}
+			});
+		}
+		List<LogFile> logFiles = new ArrayList<LogFile>();
+		for (Future<List<LogFile>> result : invokeAll(tasks)) {
+			try {
+				logFiles.addAll(result.get());
+			} catch (ExecutionException e) {
+				logger.warn("Unable to list log files of " + appName, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while collecting logs of " + appName, e);
+			}
+		}
+		return logFiles;
+	}
+
+	private <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) {
+		try {
+			return executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while collecting logs", e);
+		}
+	}
+
+	private <T> T getResult(Future<T> result, LogFile logFile) {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			logger.warn("Unable to read " + logFile, e.getCause());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while collecting logs", e);
+		}
+	}
+}
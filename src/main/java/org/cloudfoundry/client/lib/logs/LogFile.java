@@ -0,0 +1,74 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import org.springframework.util.Assert;
+
+/**
+ * Identifies a file of an application instance, for example <tt>logs/stdout.log</tt> of instance 0.
+ */
+public class LogFile {
+
+	private final String appName;
+
+	private final int instanceIndex;
+
+	private final String filePath;
+
+	public LogFile(String appName, int instanceIndex, String filePath) {
+		Assert.notNull(appName, "AppName must not be null");
+		Assert.notNull(filePath, "FilePath must not be null");
+		this.appName = appName;
+		this.instanceIndex = instanceIndex;
+		this.filePath = filePath;
+	}
+
+	public String getAppName() {
+		return appName;
+	}
+
+	public int getInstanceIndex() {
+		return instanceIndex;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof LogFile)) {
+			return false;
+		}
+		LogFile other = (LogFile) obj;
+		return appName.equals(other.appName) && instanceIndex == other.instanceIndex &&
+				filePath.equals(other.filePath);
+	}
+
+	@Override
+	public int hashCode() {
+		return (appName.hashCode() * 31 + instanceIndex) * 31 + filePath.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return appName + "[" + instanceIndex + "]:" + filePath;
+	}
+}
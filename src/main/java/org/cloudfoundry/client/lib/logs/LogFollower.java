@@ -0,0 +1,394 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.springframework.util.Assert;
+
+/**
+ * Follows files of application instances, like <tt>tail -f</tt>. Each followed file keeps its byte offset and is
+ * polled with <tt>Range: bytes=offset-</tt> requests, so only new content is transferred. New lines are delivered to a
+ * {@link LogLineListener}.
+ *
+ * <p>Poll intervals adapt per file: a file is polled again after the minimum interval while content keeps arriving,
+ * and the interval grows up to the maximum while it is idle. All files share one small scheduler, so many instances
+ * and applications can be followed at once.
+ *
+ * <p>A file that becomes shorter than the read offset is treated as truncated or rotated and read again from the
+ * beginning. A file replaced by one that is already longer than the offset cannot be detected.
+ */
+public class LogFollower {
+
+	/**
+	 * Default poll interval while content is arriving, in milliseconds.
+	 */
+	public static final long DEFAULT_MIN_INTERVAL = 500;
+
+	/**
+	 * Default poll interval for idle files, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_INTERVAL = 10000;
+
+	private static final int DEFAULT_THREADS = 2;
+
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CloudFoundryOperations client;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final boolean sharedScheduler;
+
+	private final Set<Subscription> subscriptions =
+			Collections.newSetFromMap(new ConcurrentHashMap<Subscription, Boolean>());
+
+	private volatile long minInterval = DEFAULT_MIN_INTERVAL;
+
+	private volatile long maxInterval = DEFAULT_MAX_INTERVAL;
+
+	/**
+	 * Create a follower with its own scheduler, which is shut down on {@link #close()}.
+	 *
+	 * @param client the client used to read the files
+	 */
+	public LogFollower(CloudFoundryOperations client) {
+		this(client, Executors.newScheduledThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("cf-log-follower-")), false);
+	}
+
+	/**
+	 * Create a follower that polls on the given scheduler. The scheduler is not shut down on {@link #close()}.
+	 *
+	 * @param client the client used to read the files
+	 * @param scheduler the scheduler to poll on
+	 */
+	public LogFollower(CloudFoundryOperations client, ScheduledExecutorService scheduler) {
+		this(client, scheduler, true);
+	}
+
+	private LogFollower(CloudFoundryOperations client, ScheduledExecutorService scheduler, boolean sharedScheduler) {
+		Assert.notNull(client, "Client must not be null");
+		Assert.notNull(scheduler, "Scheduler must not be null");
+		this.client = client;
+		this.scheduler = scheduler;
+		this.sharedScheduler = sharedScheduler;
+	}
+
+	public void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	public void setMaxInterval(long maxInterval) {
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * Follow a file from its current end, delivering only lines appended from now on.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file, for example <tt>logs/stdout.log</tt>
+	 * @param listener the listener to deliver lines to
+	 * @return the subscription, used to stop following the file
+	 */
+	public Subscription follow(String appName, int instanceIndex, String filePath, LogLineListener listener) {
+		return follow(new LogFile(appName, instanceIndex, filePath), -1, listener);
+	}
+
+	/**
+	 * Follow a file from the given byte position. Use 0 to deliver the whole file and then follow it.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file, for example <tt>logs/stdout.log</tt>
+	 * @param startPosition the byte position to start at
+	 * @param listener the listener to deliver lines to
+	 * @return the subscription, used to stop following the file
+	 */
+	public Subscription follow(String appName, int instanceIndex, String filePath, long startPosition,
+			LogLineListener listener) {
+		Assert.isTrue(startPosition >= 0, "Invalid start position value: " + startPosition);
+		return follow(new LogFile(appName, instanceIndex, filePath), startPosition, listener);
+	}
+
+	private Subscription follow(LogFile file, long startPosition, LogLineListener listener) {
+		Assert.notNull(listener, "Listener must not be null");
+		Subscription subscription = new Subscription(file, startPosition, listener);
+		subscriptions.add(subscription);
+		subscription.schedule(0);
+		return subscription;
+	}
+
+	/**
+	 * Stop following all files. The scheduler is shut down unless it was provided by the caller.
+	 */
+	public void close() {
+		for (Subscription subscription : new ArrayList<Subscription>(subscriptions)) {
+			subscription.cancel();
+		}
+		if (!sharedScheduler) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * A followed file.
+	 */
+	public class Subscription implements Runnable {
+
+		private final LogFile file;
+
+		private final LogLineListener listener;
+
+		private final LineOutputStream lines;
+
+		private volatile long position;
+
+		private long interval;
+
+		private volatile boolean cancelled;
+
+		private volatile ScheduledFuture<?> future;
+
+		Subscription(LogFile file, long startPosition, LogLineListener listener) {
+			this.file = file;
+			this.listener = listener;
+			this.lines = new LineOutputStream(file, listener);
+			this.position = startPosition;
+			this.interval = minInterval;
+		}
+
+		public LogFile getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the byte offset up to which the file has been read, or -1 before the end of the file is known
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Stop following the file.
+		 */
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			ScheduledFuture<?> scheduled = future;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			try {
+				if (poll()) {
+					interval = minInterval;
+				} else {
+					interval = Math.min(maxInterval, Math.max(minInterval, interval * 3 / 2));
+				}
+			} catch (Exception e) {
+				interval = maxInterval;
+				try {
+					listener.onError(file, e);
+				} catch (RuntimeException listenerException) {
+					logger.warn("Error from log listener for " + file, listenerException);
+				}
+			}
+			schedule(interval);
+		}
+
+		private void schedule(long delay) {
+			if (!cancelled) {
+				try {
+					future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+				} catch (RuntimeException e) {
+					// the scheduler was shut down
+					cancelled = true;
+					subscriptions.remove(this);
+				}
+			}
+		}
+
+		/**
+		 * Reads new content, returning <tt>true</tt> if the file changed.
+		 */
+		private boolean poll() {
+			if (position < 0) {
+				position = findEnd();
+				return false;
+			}
+			long start = lines.getCount();
+			long size;
+			try {
+				size = getFile(position, lines);
+			} finally {
+				// lines delivered before a failure are not read again
+				position += lines.getCount() - start;
+			}
+			if (lines.getCount() > start) {
+				return true;
+			}
+			if (position > 0 && (size >= 0 ? size < position : isTruncated())) {
+				position = 0;
+				lines.reset();
+				listener.onTruncated(file);
+				return true;
+			}
+			return false;
+		}
+
+		private long findEnd() {
+			CountingOutputStream discarded = new CountingOutputStream();
+			long size = getFile(Long.MAX_VALUE, discarded);
+			if (size < 0) {
+				// the size was not reported, read through the file
+				size = getFile(0, discarded);
+				if (size < 0) {
+					size = discarded.getCount();
+				}
+			}
+			return size;
+		}
+
+		private boolean isTruncated() {
+			CountingOutputStream discarded = new CountingOutputStream();
+			getFile(position - 1, discarded);
+			return discarded.getCount() == 0;
+		}
+
+		private long getFile(long startPosition, OutputStream outputStream) {
+			return client.getFile(file.getAppName(), file.getInstanceIndex(), file.getFilePath(), startPosition,
+					outputStream);
+		}
+	}
+
+	/**
+	 * Output stream that splits what is written into lines and delivers them to the listener. Incomplete lines are
+	 * kept until the rest arrives, very long lines are delivered in parts.
+	 */
+	private static class LineOutputStream extends OutputStream {
+
+		private final LogFile file;
+
+		private final LogLineListener listener;
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private long count;
+
+		LineOutputStream(LogFile file, LogLineListener listener) {
+			this.file = file;
+			this.listener = listener;
+		}
+
+		@Override
+		public void write(int b) {
+			count++;
+			if (b == '\n') {
+				deliver();
+			} else {
+				line.write(b);
+				if (line.size() >= MAX_LINE_LENGTH) {
+					deliver();
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			int end = off + len;
+			int start = off;
+			for (int i = off; i < end; i++) {
+				if (b[i] == '\n' || line.size() + (i - start) >= MAX_LINE_LENGTH) {
+					line.write(b, start, i - start);
+					count += i - start;
+					start = i;
+					if (b[i] == '\n') {
+						count++;
+						start++;
+					}
+					deliver();
+				}
+			}
+			line.write(b, start, end - start);
+			count += end - start;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		void reset() {
+			line.reset();
+		}
+
+		private void deliver() {
+			byte[] bytes = line.toByteArray();
+			int length = bytes.length;
+			if (length > 0 && bytes[length - 1] == '\r') {
+				length--;
+			}
+			line.reset();
+			listener.onLine(file, new String(bytes, 0, length, UTF8));
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
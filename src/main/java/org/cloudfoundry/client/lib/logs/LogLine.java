@@ -0,0 +1,56 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+/**
+ * A line read from a log file of an application instance.
+ */
+public class LogLine {
+
+	private final LogFile file;
+
+	private final long timestamp;
+
+	private final String text;
+
+	public LogLine(LogFile file, long timestamp, String text) {
+		this.file = file;
+		this.timestamp = timestamp;
+		this.text = text;
+	}
+
+	public LogFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the time of the line in milliseconds since the epoch, taken from the line itself or from the nearest
+	 *         earlier line of the same file that has one, or -1 if not known
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return file + " " + text;
+	}
+}
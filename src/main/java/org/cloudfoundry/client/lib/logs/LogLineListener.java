@@ -0,0 +1,45 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+/**
+ * Receives the lines appended to a file followed by a {@link LogFollower}. Calls for one file are made in order, from
+ * a thread of the follower's scheduler.
+ */
+public interface LogLineListener {
+
+	/**
+	 * Called for each complete line appended to the file.
+	 * @param file the file
+	 * @param line the line, without the line terminator
+	 */
+	void onLine(LogFile file, String line);
+
+	/**
+	 * Called when the file became shorter than the content already read, because it was truncated or rotated. The
+	 * file is read again from the beginning.
+	 * @param file the file
+	 */
+	void onTruncated(LogFile file);
+
+	/**
+	 * Called when reading the file failed. Following continues with a longer poll interval.
+	 * @param file the file
+	 * @param e the failure
+	 */
+	void onError(LogFile file, Exception e);
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Local archive of application logs that can be searched without holding the logs in memory. Lines are appended per
+ * log file of an instance, for example from {@link org.cloudfoundry.client.lib.CloudFoundryOperations#getLogs(String)}
+ * or, as a {@link LogLineListener}, from a {@link LogFollower}:
+ *
+ * <pre>
+ * LogStore store = new LogStore();
+ * follower.follow(appName, 0, "logs/stdout.log", store);
+ * List&lt;LogLine&gt; errors = store.search(appName, since, Long.MAX_VALUE, "Exception", 100);
+ * </pre>
+ *
+ * <p>Lines are buffered into blocks, and each block is written as a gzip member to a segment file. A new segment is
+ * started once a segment reaches its maximum size. An index file with a fixed-size record per block holds the block
+ * position, its first line number, the timestamps of its first and last line and the earliest and latest timestamp
+ * within it. The index is memory-mapped for searches, so a
+ * search decompresses only the blocks that overlap the requested time range.
+ *
+ * <p>Files are kept in <tt>&lt;directory&gt;/&lt;app&gt;/&lt;instance&gt;/&lt;file path&gt;</tt>, by default under
+ * <tt>~/.cf/logs</tt>. Lines still buffered in memory are included in searches, and are written on {@link #flush()}
+ * and {@link #close()}.
+ */
+public class LogStore implements LogLineListener {
+
+	/**
+	 * Default uncompressed size of a block, in characters.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	/**
+	 * Default maximum size of a segment file, in bytes.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	// segment (int), offset (long), length (int), first line (long), first, last, minimum and maximum timestamp
+	// (long), lines (int)
+	private static final int RECORD_SIZE = 4 + 8 + 4 + 8 + 8 + 8 + 8 + 8 + 4;
+
+	private static final String INDEX_FILE = "index";
+
+	private static final String ENCODING = "UTF-8";
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final File directory;
+
+	private final ConcurrentMap<LogFile, Stream> streams = new ConcurrentHashMap<LogFile, Stream>();
+
+	private LogTimestampParser timestampParser = new LogTimestampParser();
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	public LogStore() {
+		this(new File(System.getProperty("user.home"), ".cf/logs"));
+	}
+
+	public LogStore(File directory) {
+		Assert.notNull(directory, "Directory must not be null");
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setTimestampParser(LogTimestampParser timestampParser) {
+		Assert.notNull(timestampParser, "TimestampParser must not be null");
+		this.timestampParser = timestampParser;
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Append content of a log file.
+	 *
+	 * @param file the log file the content was read from
+	 * @param content one or more lines
+	 * @throws IOException if a block could not be written
+	 */
+	public void append(LogFile file, String content) throws IOException {
+		Stream stream = getStream(file);
+		for (String line : content.split("\\r?\\n")) {
+			if (stream.add(line)) {
+				stream.flush();
+			}
+		}
+	}
+
+	/**
+	 * Append the log files of an instance, as returned by
+	 * {@link org.cloudfoundry.client.lib.CloudFoundryOperations#getLogs(String, int)}. The content is the whole of
+	 * each file, so only what was added since an earlier call is stored, up to the last complete line. Content
+	 * shorter than what was stored before is taken as a truncated file and stored again from its start.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param logs the content of the log files, keyed by file path
+	 * @throws IOException if a block could not be written
+	 */
+	public void append(String appName, int instanceIndex, Map<String, String> logs) throws IOException {
+		for (Map.Entry<String, String> log : logs.entrySet()) {
+			LogFile file = new LogFile(appName, instanceIndex, log.getKey());
+			String content = getStream(file).takeNewContent(log.getValue());
+			if (content.length() > 0) {
+				append(file, content);
+			}
+		}
+	}
+
+	public void onLine(LogFile file, String line) {
+		Stream stream = getStream(file);
+		if (stream.add(line)) {
+			try {
+				stream.flush();
+			} catch (IOException e) {
+				logger.warn("Unable to store lines of " + file, e);
+			}
+		}
+	}
+
+	public void onTruncated(LogFile file) {
+		// the archive keeps what was read before
+	}
+
+	public void onError(LogFile file, Exception e) {
+		// the follower retries
+	}
+
+	/**
+	 * Find the lines of an application within a time range that contain a text. Lines without a timestamp of their
+	 * own count as written at the time of the line before them. Lines before the first timestamp of a file only
+	 * match a range starting at -1 or earlier.
+	 *
+	 * @param appName name of the application
+	 * @param from start of the time range in milliseconds since the epoch (inclusive)
+	 * @param to end of the time range in milliseconds since the epoch (inclusive)
+	 * @param text the text to find, or <tt>null</tt> for all lines
+	 * @param maxResults the maximum number of lines to return
+	 * @return the earliest matching lines, ordered by timestamp
+	 * @throws IOException if the archive could not be read
+	 */
+	public List<LogLine> search(String appName, long from, long to, String text, int maxResults) throws IOException {
+		Assert.notNull(appName, "AppName must not be null");
+		List<LogLine> results = new ArrayList<LogLine>();
+		for (Stream stream : getStreams(appName)) {
+			stream.search(from, to, text, maxResults, results);
+		}
+		// stable, so lines with the same timestamp stay in order within a file
+		Collections.sort(results, new Comparator<LogLine>() {
+			public int compare(LogLine line, LogLine other) {
+				return (line.getTimestamp() < other.getTimestamp() ? -1 :
+						(line.getTimestamp() == other.getTimestamp() ? 0 : 1));
+			}
+		});
+		return (results.size() > maxResults ? new ArrayList<LogLine>(results.subList(0, maxResults)) : results);
+	}
+
+	/**
+	 * Write the lines buffered in memory.
+	 *
+	 * @throws IOException if a block could not be written
+	 */
+	public void flush() throws IOException {
+		for (Stream stream : streams.values()) {
+			stream.flush();
+		}
+	}
+
+	/**
+	 * Write the lines buffered in memory and release the files.
+	 *
+	 * @throws IOException if a block could not be written
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			for (Stream stream : streams.values()) {
+				stream.close();
+			}
+			streams.clear();
+		}
+	}
+
+	private Stream getStream(LogFile file) {
+		Stream stream = streams.get(file);
+		if (stream == null) {
+			Stream created = new Stream(file);
+			stream = streams.putIfAbsent(file, created);
+			if (stream == null) {
+				stream = created;
+			}
+		}
+		return stream;
+	}
+
+	private List<Stream> getStreams(String appName) throws UnsupportedEncodingException {
+		// include files stored by earlier runs
+		File appDirectory = new File(directory, URLEncoder.encode(appName, ENCODING));
+		File[] instanceDirectories = appDirectory.listFiles();
+		if (instanceDirectories != null) {
+			for (File instanceDirectory : instanceDirectories) {
+				File[] fileDirectories = instanceDirectory.listFiles();
+				if (fileDirectories == null) {
+					continue;
+				}
+				for (File fileDirectory : fileDirectories) {
+					if (new File(fileDirectory, INDEX_FILE).isFile()) {
+						try {
+							getStream(new LogFile(appName, Integer.parseInt(instanceDirectory.getName()),
+									URLDecoder.decode(fileDirectory.getName(), ENCODING)));
+						} catch (NumberFormatException e) {
+							// not written by this store
+						}
+					}
+				}
+			}
+		}
+		List<Stream> appStreams = new ArrayList<Stream>();
+		for (Stream stream : streams.values()) {
+			if (stream.file.getAppName().equals(appName)) {
+				appStreams.add(stream);
+			}
+		}
+		return appStreams;
+	}
+
+	/**
+	 * The archive of one log file.
+	 */
+	private class Stream {
+
+		private final LogFile file;
+
+		private final File streamDirectory;
+
+		private RandomAccessFile index;
+
+		private MappedByteBuffer indexMap;
+
+		private int records;
+
+		private int segment;
+
+		private long segmentLength;
+
+		private long nextLine;
+
+		private long lastTimestamp = -1;
+
+		// length of the file content taken by takeNewContent
+		private int contentLength;
+
+		private final List<String> pendingLines = new ArrayList<String>();
+
+		private long pendingFirstTimestamp = -1;
+
+		private long pendingMinimumTimestamp = -1;
+
+		private long pendingMaximumTimestamp = -1;
+
+		private int pendingBytes;
+
+		Stream(LogFile file) {
+			this.file = file;
+			try {
+				this.streamDirectory = new File(new File(new File(directory, URLEncoder.encode(file.getAppName(),
+						ENCODING)), String.valueOf(file.getInstanceIndex())), URLEncoder.encode(file.getFilePath(),
+						ENCODING));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Buffers a line.
+		 *
+		 * @return whether the block is full and should be flushed
+		 */
+		synchronized boolean add(String line) {
+			long timestamp = timestampParser.parse(line);
+			if (timestamp == -1) {
+				timestamp = lastTimestamp;
+			}
+			if (pendingLines.isEmpty()) {
+				pendingFirstTimestamp = timestamp;
+				pendingMinimumTimestamp = timestamp;
+				pendingMaximumTimestamp = timestamp;
+			} else {
+				pendingMinimumTimestamp = Math.min(pendingMinimumTimestamp, timestamp);
+				pendingMaximumTimestamp = Math.max(pendingMaximumTimestamp, timestamp);
+			}
+			lastTimestamp = timestamp;
+			pendingLines.add(line);
+			pendingBytes += line.length() + 1;
+			return pendingBytes >= blockSize;
+		}
+
+		/**
+		 * Returns the complete lines of the file content that were not taken before.
+		 */
+		synchronized String takeNewContent(String content) {
+			if (content.length() < contentLength) {
+				contentLength = 0;
+			}
+			int end = content.lastIndexOf('\n') + 1;
+			if (end <= contentLength) {
+				return "";
+			}
+			String newContent = content.substring(contentLength, end);
+			contentLength = end;
+			return newContent;
+		}
+
+		synchronized void flush() throws IOException {
+			if (pendingLines.isEmpty()) {
+				return;
+			}
+			open();
+			ByteArrayOutputStream block = new ByteArrayOutputStream(pendingBytes / 4);
+			Writer writer = new OutputStreamWriter(new GZIPOutputStream(block), ENCODING);
+			for (String line : pendingLines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.close();
+			if (segmentLength > 0 && segmentLength + block.size() > segmentSize) {
+				segment++;
+				segmentLength = 0;
+			}
+			OutputStream out = new FileOutputStream(getSegmentFile(segment), true);
+			try {
+				block.writeTo(out);
+			} finally {
+				out.close();
+			}
+			ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+			record.putInt(segment).putLong(segmentLength).putInt(block.size()).putLong(nextLine)
+					.putLong(pendingFirstTimestamp).putLong(lastTimestamp).putLong(pendingMinimumTimestamp)
+					.putLong(pendingMaximumTimestamp).putInt(pendingLines.size()).flip();
+			FileChannel channel = index.getChannel();
+			while (record.hasRemaining()) {
+				channel.write(record, (long) records * RECORD_SIZE + record.position());
+			}
+			records++;
+			segmentLength += block.size();
+			nextLine += pendingLines.size();
+			pendingLines.clear();
+			pendingBytes = 0;
+		}
+
+		synchronized void search(long from, long to, String text, int maxResults, List<LogLine> results)
+				throws IOException {
+			int found = 0;
+			if (open()) {
+				MappedByteBuffer map = getIndexMap();
+				for (int i = 0; i < records && found < maxResults; i++) {
+					int position = i * RECORD_SIZE;
+					long firstTimestamp = map.getLong(position + 24);
+					if (map.getLong(position + 48) < from || map.getLong(position + 40) > to) {
+						continue;
+					}
+					byte[] block = readBlock(map.getInt(position), map.getLong(position + 4),
+							map.getInt(position + 12));
+					BufferedReader reader = new BufferedReader(new InputStreamReader(
+							new GZIPInputStream(new ByteArrayInputStream(block)), ENCODING));
+					List<String> lines = new ArrayList<String>();
+					String line;
+					while ((line = reader.readLine()) != null) {
+						lines.add(line);
+					}
+					found += match(lines, firstTimestamp, from, to, text, maxResults - found, results);
+				}
+			}
+			if (found < maxResults && !pendingLines.isEmpty()) {
+				match(pendingLines, pendingFirstTimestamp, from, to, text, maxResults - found, results);
+			}
+		}
+
+		synchronized void close() {
+			if (index != null) {
+				try {
+					index.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				index = null;
+				indexMap = null;
+			}
+		}
+
+		private int match(List<String> lines, long firstTimestamp, long from, long to, String text, int maxResults,
+				List<LogLine> results) {
+			int found = 0;
+			long timestamp = firstTimestamp;
+			for (String line : lines) {
+				long lineTimestamp = timestampParser.parse(line);
+				if (lineTimestamp != -1) {
+					timestamp = lineTimestamp;
+				}
+				if (timestamp >= from && timestamp <= to && (text == null || line.contains(text))) {
+					results.add(new LogLine(file, timestamp, line));
+					if (++found >= maxResults) {
+						break;
+					}
+				}
+			}
+			return found;
+		}
+
+		/**
+		 * Opens the index, picking up where an earlier run left off.
+		 *
+		 * @return false if nothing was stored yet and the index is not created
+		 */
+		private boolean open() throws IOException {
+			if (index != null) {
+				return true;
+			}
+			File indexFile = new File(streamDirectory, INDEX_FILE);
+			if (pendingLines.isEmpty() && !indexFile.isFile()) {
+				return false;
+			}
+			streamDirectory.mkdirs();
+			index = new RandomAccessFile(indexFile, "rw");
+			records = (int) (index.length() / RECORD_SIZE);
+			if (records > 0) {
+				MappedByteBuffer map = getIndexMap();
+				int position = (records - 1) * RECORD_SIZE;
+				segment = map.getInt(position);
+				segmentLength = map.getLong(position + 4) + map.getInt(position + 12);
+				nextLine = map.getLong(position + 16) + map.getInt(position + 56);
+				if (pendingLines.isEmpty()) {
+					lastTimestamp = map.getLong(position + 32);
+				}
+				// drop a block that was written without its index record
+				RandomAccessFile segmentFile = new RandomAccessFile(getSegmentFile(segment), "rw");
+				try {
+					if (segmentFile.length() > segmentLength) {
+						segmentFile.setLength(segmentLength);
+					}
+				} finally {
+					segmentFile.close();
+				}
+			}
+			return true;
+		}
+
+		private MappedByteBuffer getIndexMap() throws IOException {
+			long size = (long) records * RECORD_SIZE;
+			if (indexMap == null || indexMap.capacity() < size) {
+				indexMap = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			return indexMap;
+		}
+
+		private byte[] readBlock(int blockSegment, long offset, int length) throws IOException {
+			RandomAccessFile segmentFile = new RandomAccessFile(getSegmentFile(blockSegment), "r");
+			try {
+				byte[] block = new byte[length];
+				segmentFile.seek(offset);
+				segmentFile.readFully(block);
+				return block;
+			} finally {
+				segmentFile.close();
+			}
+		}
+
+		private File getSegmentFile(int number) {
+			return new File(streamDirectory, String.format("segment-%06d.gz", number));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the time of a log line from an ISO-8601 like timestamp near its start, such as
+ * <tt>2013-09-19T21:56:36.123+00:00</tt> or <tt>[2013-09-19 21:56:36,123]</tt>. Timestamps without a zone are read in
+ * the configured time zone, UTC by default. Subclasses can support other formats.
+ */
+public class LogTimestampParser {
+
+	private static final Pattern TIMESTAMP_PATTERN = Pattern.compile(
+			"(\\d{4})-(\\d{2})-(\\d{2})[T ](\\d{2}):(\\d{2}):(\\d{2})(?:[.,](\\d{1,9}))?\\s?(Z|[+-]\\d{2}:?\\d{2})?");
+
+	private static final int SEARCH_LENGTH = 64;
+
+	private TimeZone timeZone = TimeZone.getTimeZone("UTC");
+
+	public void setTimeZone(TimeZone timeZone) {
+		this.timeZone = timeZone;
+	}
+
+	/**
+	 * Returns the time of a line.
+	 *
+	 * @param line the line
+	 * @return the time in milliseconds since the epoch, or -1 if the line has no timestamp
+	 */
+	public long parse(String line) {
+		Matcher matcher = TIMESTAMP_PATTERN.matcher(line);
+		matcher.region(0, Math.min(line.length(), SEARCH_LENGTH));
+		if (!matcher.find()) {
+			return -1;
+		}
+		Calendar calendar = Calendar.getInstance(getTimeZone(matcher.group(8)));
+		calendar.clear();
+		calendar.set(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) - 1,
+				Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)),
+				Integer.parseInt(matcher.group(5)), Integer.parseInt(matcher.group(6)));
+		String fraction = matcher.group(7);
+		if (fraction != null) {
+			calendar.set(Calendar.MILLISECOND, Integer.parseInt((fraction + "00").substring(0, 3)));
+		}
+		return calendar.getTimeInMillis();
+	}
+
+	private TimeZone getTimeZone(String zone) {
+		if (zone == null) {
+			return timeZone;
+		}
+		if (zone.equals("Z")) {
+			return TimeZone.getTimeZone("UTC");
+		}
+		return TimeZone.getTimeZone("GMT" + (zone.indexOf(':') == -1 ?
+				zone.substring(0, 3) + ":" + zone.substring(3) : zone));
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.springframework.util.Assert;
+
+/**
+ * Reads several log files as a single sequence of lines ordered by timestamp. The files are merged with a heap
+ * holding one line per file, so only a line per file is in memory at a time.
+ *
+ * <p>Lines without a timestamp, such as the rest of a stack trace, take the timestamp of the previous line of their
+ * file and always follow it directly. Lines with the same timestamp keep the order of the files. Reading failures are
+ * reported as an {@link IllegalStateException}. The reader must be closed, which also deletes the files if requested.
+ */
+public class MergedLogReader implements Iterator<LogLine>, Closeable {
+
+	private final List<Source> sources = new ArrayList<Source>();
+
+	private final PriorityQueue<Source> queue = new PriorityQueue<Source>();
+
+	private final LogTimestampParser timestampParser;
+
+	private final boolean deleteOnClose;
+
+	private Source continuing;
+
+	/**
+	 * Create a reader over the given files.
+	 *
+	 * @param logFiles the log file each of the files was read from
+	 * @param files the files to merge, UTF-8 encoded
+	 * @param timestampParser the parser used for the line timestamps
+	 * @param deleteOnClose whether to delete the files when the reader is closed
+	 * @throws IOException
+	 */
+	public MergedLogReader(List<LogFile> logFiles, List<File> files, LogTimestampParser timestampParser,
+			boolean deleteOnClose) throws IOException {
+		Assert.isTrue(logFiles.size() == files.size(), "A log file is required for each file");
+		Assert.notNull(timestampParser, "TimestampParser must not be null");
+		this.timestampParser = timestampParser;
+		this.deleteOnClose = deleteOnClose;
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				Source source = new Source(i, logFiles.get(i), files.get(i));
+				sources.add(source);
+				if (source.advance()) {
+					queue.add(source);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public boolean hasNext() {
+		return continuing != null || !queue.isEmpty();
+	}
+
+	public LogLine next() {
+		Source source = continuing;
+		if (source == null) {
+			source = queue.poll();
+		}
+		if (source == null) {
+			throw new NoSuchElementException();
+		}
+		LogLine line = source.current;
+		continuing = null;
+		try {
+			if (source.advance()) {
+				if (source.continuation) {
+					continuing = source;
+				} else {
+					queue.add(source);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + source.file, e);
+		}
+		return line;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		for (Source source : sources) {
+			source.close();
+			if (deleteOnClose) {
+				source.file.delete();
+			}
+		}
+		queue.clear();
+		continuing = null;
+	}
+
+	private class Source implements Comparable<Source> {
+
+		private final int order;
+
+		private final LogFile logFile;
+
+		private final File file;
+
+		private final BufferedReader reader;
+
+		private LogLine current;
+
+		private boolean continuation;
+
+		private long lastTimestamp = -1;
+
+		Source(int order, LogFile logFile, File file) throws IOException {
+			this.order = order;
+			this.logFile = logFile;
+			this.file = file;
+			this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		}
+
+		boolean advance() throws IOException {
+			String text = reader.readLine();
+			if (text == null) {
+				close();
+				current = null;
+				return false;
+			}
+			long timestamp = timestampParser.parse(text);
+			continuation = (timestamp == -1 && current != null);
+			if (timestamp == -1) {
+				timestamp = lastTimestamp;
+			}
+			lastTimestamp = timestamp;
+			current = new LogLine(logFile, timestamp, text);
+			return true;
+		}
+
+		void close() {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+
+		public int compareTo(Source other) {
+			long timestamp = current.getTimestamp();
+			long otherTimestamp = other.current.getTimestamp();
+			if (timestamp != otherTimestamp) {
+				return (timestamp < otherTimestamp ? -1 : 1);
+			}
+			return (order < other.order ? -1 : (order == other.order ? 0 : 1));
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+/**
+ * Receives the staging log of an application read by a {@link StagingLogStream}. All calls are made from the thread
+ * of the stream, in order.
+ */
+public interface StagingLogListener {
+
+	/**
+	 * Called with each part of the log as it arrives. Parts do not necessarily end at a line boundary.
+	 * @param content the content
+	 */
+	void onContent(String content);
+
+	/**
+	 * Called once the application is running or was stopped. No further calls are made.
+	 */
+	void onComplete();
+
+	/**
+	 * Called when staging failed, the stream timed out or reading the log failed. No further calls are made.
+	 * @param e the failure
+	 */
+	void onError(Exception e);
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.StartingInfo;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.InstanceInfo;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstancesInfo;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.Assert;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Streams the staging log of an application that is starting to a {@link StagingLogListener}, replacing a loop over
+ * {@link CloudFoundryOperations#getStagingLogs(StartingInfo, int)}. The log is read over a long-lived connection and
+ * content is passed on as it arrives.
+ *
+ * <p>The stream keeps the offset read so far. When the connection ends or times out it checks the application: it
+ * completes once an instance is running or the application was stopped, and fails when staging failed. Otherwise it
+ * reconnects at the offset, waiting longer after each attempt that brought no new content.
+ *
+ * <pre>
+ * StartingInfo info = client.startApplication(appName);
+ * new StagingLogStream(client, appName, info).start(listener);
+ * </pre>
+ */
+public class StagingLogStream implements Runnable {
+
+	/**
+	 * Default time to wait for the application to start, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 15 * 60 * 1000;
+
+	private static final long INITIAL_RECONNECT_DELAY = 500;
+
+	private static final long MAX_RECONNECT_DELAY = 10000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CloudFoundryOperations client;
+
+	private final String appName;
+
+	private final StartingInfo info;
+
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	private StagingLogListener listener;
+
+	private long timeout = DEFAULT_TIMEOUT;
+
+	private volatile long offset;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Create a stream for an application that is starting.
+	 *
+	 * @param client the client used to read the log
+	 * @param appName name of the application
+	 * @param info starting information returned when the application was started
+	 */
+	public StagingLogStream(CloudFoundryOperations client, String appName, StartingInfo info) {
+		Assert.notNull(client, "Client must not be null");
+		Assert.notNull(appName, "AppName must not be null");
+		Assert.notNull(info, "StartingInfo must not be null");
+		this.client = client;
+		this.appName = appName;
+		this.info = info;
+	}
+
+	/**
+	 * Set the time to wait for the application to start before failing with a timeout.
+	 *
+	 * @param timeout the timeout in milliseconds
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Start reading the log on a new daemon thread.
+	 *
+	 * @param listener the listener to pass the log to
+	 * @return this stream
+	 */
+	public StagingLogStream start(StagingLogListener listener) {
+		Assert.notNull(listener, "Listener must not be null");
+		Assert.state(this.listener == null, "Stream already started");
+		this.listener = listener;
+		new DaemonThreadFactory("cf-staging-log-").newThread(this).start();
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes of the log read so far
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Stop reading the log. A read in progress ends when more content arrives or the connection times out; the
+	 * listener is not called after that.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Wait until the stream completed, failed or was cancelled.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return whether the stream finished within the time
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	public void run() {
+		Assert.state(listener != null, "Listener must be set with start()");
+		try {
+			stream();
+		} catch (Exception e) {
+			if (!cancelled) {
+				listener.onError(e);
+			}
+		} finally {
+			finished.countDown();
+		}
+	}
+
+	private void stream() throws InterruptedException {
+		ContentOutputStream content = new ContentOutputStream();
+		long deadline = System.currentTimeMillis() + timeout;
+		long delay = INITIAL_RECONNECT_DELAY;
+		while (!cancelled) {
+			long start = offset;
+			try {
+				client.streamStagingLogs(info, offset, content);
+			} catch (ResourceAccessException e) {
+				// read timeout or dropped connection, the next request continues at the offset
+				logger.debug("Staging log of " + appName + " interrupted at offset " + offset + ": " + e.getMessage());
+			}
+			if (cancelled) {
+				return;
+			}
+			CloudApplication app = client.getApplication(appName);
+			if (app.getPackageState() == CloudApplication.PackageState.FAILED) {
+				throw new CloudFoundryException(HttpStatus.BAD_REQUEST, "Staging of " + appName + " failed");
+			}
+			if (app.getState() != CloudApplication.AppState.STARTED || isRunning(app)) {
+				listener.onComplete();
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new CloudFoundryException(HttpStatus.REQUEST_TIMEOUT,
+						"Application " + appName + " did not start within " + timeout + "ms");
+			}
+			delay = (offset > start ? INITIAL_RECONNECT_DELAY : Math.min(delay * 2, MAX_RECONNECT_DELAY));
+			Thread.sleep(delay);
+		}
+	}
+
+	private boolean isRunning(CloudApplication app) {
+		if (app.getPackageState() == CloudApplication.PackageState.PENDING) {
+			return false;
+		}
+		InstancesInfo instances = client.getApplicationInstances(app);
+		if (instances != null) {
+			for (InstanceInfo instance : instances.getInstances()) {
+				if (instance.getState() == InstanceState.RUNNING) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes the log as it is written, keeping incomplete characters until the rest arrives.
+	 */
+	private class ContentOutputStream extends OutputStream {
+
+		private final CharsetDecoder decoder = UTF8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private final byte[] pending = new byte[8];
+
+		private int pendingLength;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (cancelled) {
+				throw new IOException("Staging log stream cancelled");
+			}
+			ByteBuffer in = ByteBuffer.allocate(pendingLength + len);
+			in.put(pending, 0, pendingLength).put(b, off, len).flip();
+			CharBuffer out = CharBuffer.allocate(in.remaining());
+			decoder.decode(in, out, false);
+			pendingLength = in.remaining();
+			in.get(pending, 0, pendingLength);
+			offset += len;
+			out.flip();
+			if (out.hasRemaining()) {
+				listener.onContent(out.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Turns request URLs and URL templates into endpoint names for metrics, such as <tt>/v2/apps/{guid}/stats</tt>. The
+ * host and query are removed, guids become <tt>{guid}</tt>, numbers <tt>{index}</tt> and other generated
+ * identifiers <tt>{id}</tt>. Everything after a <tt>files</tt> segment becomes <tt>{path}</tt>.
+ */
+public final class EndpointNormalizer {
+
+	private static final int MAX_CACHED = 1024;
+
+	private static final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+	private EndpointNormalizer() {
+	}
+
+	/**
+	 * @param url a URL, URL template or path
+	 * @return the endpoint name
+	 */
+	public static String normalize(String url) {
+		String endpoint = cache.get(url);
+		if (endpoint == null) {
+			endpoint = doNormalize(url);
+			if (cache.size() < MAX_CACHED) {
+				cache.putIfAbsent(url, endpoint);
+			}
+		}
+		return endpoint;
+	}
+
+	private static String doNormalize(String url) {
+		int start = url.indexOf("://");
+		start = (start == -1 ? 0 : url.indexOf('/', start + 3));
+		if (start == -1) {
+			return "/";
+		}
+		int end = url.indexOf('?', start);
+		if (end == -1) {
+			end = url.length();
+		}
+		StringBuilder endpoint = new StringBuilder(end - start);
+		int segmentStart = start;
+		while (segmentStart < end) {
+			if (url.charAt(segmentStart) == '/') {
+				segmentStart++;
+				continue;
+			}
+			int segmentEnd = url.indexOf('/', segmentStart);
+			if (segmentEnd == -1 || segmentEnd > end) {
+				segmentEnd = end;
+			}
+			String segment = url.substring(segmentStart, segmentEnd);
+			endpoint.append('/').append(normalizeSegment(segment));
+			if (segment.equals("files") && segmentEnd < end - 1) {
+				endpoint.append("/{path}");
+				break;
+			}
+			segmentStart = segmentEnd;
+		}
+		return (endpoint.length() == 0 ? "/" : endpoint.toString());
+	}
+
+	private static String normalizeSegment(String segment) {
+		if (segment.startsWith("{")) {
+			return segment;
+		}
+		if (isGuid(segment)) {
+			return "{guid}";
+		}
+		boolean digits = false;
+		boolean letters = false;
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits = true;
+			} else if (Character.isLetter(c)) {
+				letters = true;
+			}
+		}
+		if (digits && !letters) {
+			return "{index}";
+		}
+		if (digits && segment.length() >= 20) {
+			return "{id}";
+		}
+		return segment;
+	}
+
+	private static boolean isGuid(String segment) {
+		if (segment.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = segment.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (Character.digit(c, 16) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the metrics of one endpoint. Latencies are in microseconds.
+ */
+public class EndpointStatistics {
+
+	private final String method;
+
+	private final String endpoint;
+
+	private final long count;
+
+	private final long errorCount;
+
+	private final long requestBytes;
+
+	private final long responseBytes;
+
+	private final double meanLatency;
+
+	private final long medianLatency;
+
+	private final long p90Latency;
+
+	private final long p99Latency;
+
+	private final long maxLatency;
+
+	@ConstructorProperties({"method", "endpoint", "count", "errorCount", "requestBytes", "responseBytes",
+			"meanLatency", "medianLatency", "p90Latency", "p99Latency", "maxLatency"})
+	public EndpointStatistics(String method, String endpoint, long count, long errorCount, long requestBytes,
+			long responseBytes, double meanLatency, long medianLatency, long p90Latency, long p99Latency,
+			long maxLatency) {
+		this.method = method;
+		this.endpoint = endpoint;
+		this.count = count;
+		this.errorCount = errorCount;
+		this.requestBytes = requestBytes;
+		this.responseBytes = responseBytes;
+		this.meanLatency = meanLatency;
+		this.medianLatency = medianLatency;
+		this.p90Latency = p90Latency;
+		this.p99Latency = p99Latency;
+		this.maxLatency = maxLatency;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return the total size of the request bodies whose size was known
+	 */
+	public long getRequestBytes() {
+		return requestBytes;
+	}
+
+	/**
+	 * @return the total size of the response bodies whose size was known
+	 */
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	public double getMeanLatency() {
+		return meanLatency;
+	}
+
+	public long getMedianLatency() {
+		return medianLatency;
+	}
+
+	public long getP90Latency() {
+		return p90Latency;
+	}
+
+	public long getP99Latency() {
+		return p99Latency;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + endpoint + ": count=" + count + ", errors=" + errorCount + ", p50=" + medianLatency +
+				"us, p99=" + p99Latency + "us, max=" + maxLatency + "us";
+	}
+}
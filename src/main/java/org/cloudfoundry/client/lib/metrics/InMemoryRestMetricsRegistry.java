@@ -0,0 +1,188 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+/**
+ * {@link RestMetricsRegistry} that keeps call counts, error counts, body sizes and a {@link LatencyHistogram} per
+ * method and endpoint. Recording uses only atomic counters, no locks. The metrics can be read directly or over JMX:
+ *
+ * <pre>
+ * InMemoryRestMetricsRegistry metrics = new InMemoryRestMetricsRegistry();
+ * metrics.registerMBean("org.cloudfoundry.client:type=RestMetrics");
+ * client.setMetricsRegistry(metrics);
+ * </pre>
+ *
+ * <p>At most {@link #MAX_ENDPOINTS} endpoints are tracked separately, further endpoints are counted as
+ * <tt>{other}</tt>.
+ */
+public class InMemoryRestMetricsRegistry implements RestMetricsRegistry, RestMetricsMXBean {
+
+	/**
+	 * Maximum number of endpoints tracked separately.
+	 */
+	public static final int MAX_ENDPOINTS = 1000;
+
+	private static final String OTHER_ENDPOINT = "{other}";
+
+	private static final HttpMethod[] METHODS = HttpMethod.values();
+
+	private final ConcurrentMap<String, AtomicReferenceArray<EndpointMetrics>> endpoints =
+			new ConcurrentHashMap<String, AtomicReferenceArray<EndpointMetrics>>();
+
+	private final AtomicLong totalCount = new AtomicLong();
+
+	private final AtomicLong totalErrorCount = new AtomicLong();
+
+	public void record(HttpMethod method, String endpoint, HttpStatus httpStatus, boolean error, long durationNanos,
+			long requestBytes, long responseBytes) {
+		getMetrics(method, endpoint).record(error, durationNanos, requestBytes, responseBytes);
+		totalCount.incrementAndGet();
+		if (error) {
+			totalErrorCount.incrementAndGet();
+		}
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	public long getTotalErrorCount() {
+		return totalErrorCount.get();
+	}
+
+	public List<EndpointStatistics> getEndpointStatistics() {
+		List<EndpointStatistics> statistics = new ArrayList<EndpointStatistics>();
+		for (AtomicReferenceArray<EndpointMetrics> methods : endpoints.values()) {
+			for (int i = 0; i < methods.length(); i++) {
+				EndpointMetrics metrics = methods.get(i);
+				if (metrics != null) {
+					statistics.add(metrics.getStatistics());
+				}
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns the metrics of one endpoint.
+	 *
+	 * @param method the HTTP method
+	 * @param endpoint the normalized endpoint
+	 * @return the statistics, or <tt>null</tt> if no call was recorded
+	 */
+	public EndpointStatistics getEndpointStatistics(HttpMethod method, String endpoint) {
+		AtomicReferenceArray<EndpointMetrics> methods = endpoints.get(endpoint);
+		EndpointMetrics metrics = (methods != null ? methods.get(method.ordinal()) : null);
+		return (metrics != null ? metrics.getStatistics() : null);
+	}
+
+	public void reset() {
+		endpoints.clear();
+		totalCount.set(0);
+		totalErrorCount.set(0);
+	}
+
+	/**
+	 * Register this registry with the platform MBean server.
+	 *
+	 * @param objectName the name to register under, for example <tt>org.cloudfoundry.client:type=RestMetrics</tt>
+	 * @return the registered name
+	 * @throws JMException if the registration failed
+	 */
+	public ObjectName registerMBean(String objectName) throws JMException {
+		ObjectName name = new ObjectName(objectName);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		return name;
+	}
+
+	private EndpointMetrics getMetrics(HttpMethod method, String endpoint) {
+		AtomicReferenceArray<EndpointMetrics> methods = endpoints.get(endpoint);
+		if (methods == null) {
+			if (endpoints.size() >= MAX_ENDPOINTS) {
+				endpoint = OTHER_ENDPOINT;
+			}
+			methods = endpoints.get(endpoint);
+			if (methods == null) {
+				AtomicReferenceArray<EndpointMetrics> created = new AtomicReferenceArray<EndpointMetrics>(METHODS.length);
+				methods = endpoints.putIfAbsent(endpoint, created);
+				if (methods == null) {
+					methods = created;
+				}
+			}
+		}
+		EndpointMetrics metrics = methods.get(method.ordinal());
+		if (metrics == null) {
+			methods.compareAndSet(method.ordinal(), null, new EndpointMetrics(method, endpoint));
+			metrics = methods.get(method.ordinal());
+		}
+		return metrics;
+	}
+
+	private static class EndpointMetrics {
+
+		private final HttpMethod method;
+
+		private final String endpoint;
+
+		private final AtomicLong errorCount = new AtomicLong();
+
+		private final AtomicLong requestBytes = new AtomicLong();
+
+		private final AtomicLong responseBytes = new AtomicLong();
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		EndpointMetrics(HttpMethod method, String endpoint) {
+			this.method = method;
+			this.endpoint = endpoint;
+		}
+
+		void record(boolean error, long durationNanos, long requestBytes, long responseBytes) {
+			latency.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+			if (error) {
+				errorCount.incrementAndGet();
+			}
+			if (requestBytes > 0) {
+				this.requestBytes.addAndGet(requestBytes);
+			}
+			if (responseBytes > 0) {
+				this.responseBytes.addAndGet(responseBytes);
+			}
+		}
+
+		EndpointStatistics getStatistics() {
+			return new EndpointStatistics(method.name(), endpoint, latency.getCount(), errorCount.get(),
+					requestBytes.get(), responseBytes.get(), latency.getMean(), latency.getValueAtPercentile(50),
+					latency.getValueAtPercentile(90), latency.getValueAtPercentile(99), latency.getMax());
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, recorded without locks. Buckets are laid out like an HDR histogram: each
+ * power of two is split into 16 linear sub-buckets, so reported values are within about 6% of the recorded ones.
+ * Values from 0 to 2^36 microseconds (about 19 hours) are tracked, larger values are counted as the maximum.
+ *
+ * <p>Reads are not atomic with respect to concurrent recording, so a snapshot may be missing calls that complete
+ * while it is taken.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+
+	private static final long SUB_BUCKET_MASK = (1 << SUB_BUCKET_BITS) - 1;
+
+	private static final int MAX_VALUE_BITS = 36;
+
+	/**
+	 * The largest value tracked, in microseconds.
+	 */
+	public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private final AtomicLongArray counts =
+			new AtomicLongArray((MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF_COUNT);
+
+	private final AtomicLong totalCount = new AtomicLong();
+
+	private final AtomicLong totalValue = new AtomicLong();
+
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 *
+	 * @param micros the value in microseconds
+	 */
+	public void record(long micros) {
+		long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		long max = maxValue.get();
+		while (value > max && !maxValue.compareAndSet(max, value)) {
+			max = maxValue.get();
+		}
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	public double getMean() {
+		long count = totalCount.get();
+		return (count == 0 ? 0 : (double) totalValue.get() / count);
+	}
+
+	/**
+	 * Returns the value below which the given percentage of the recorded values fall.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the value in microseconds, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueAt(i), maxValue.get());
+			}
+		}
+		return maxValue.get();
+	}
+
+	/**
+	 * Clear the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+
+	static int indexOf(long value) {
+		int bucket = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> bucket);
+		return (bucket + 1) * SUB_BUCKET_HALF_COUNT + subBucket - SUB_BUCKET_HALF_COUNT;
+	}
+
+	static long lowestValueAt(int index) {
+		int bucket = index / SUB_BUCKET_HALF_COUNT - 1;
+		if (bucket < 0) {
+			return index;
+		}
+		long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return subBucket << bucket;
+	}
+
+	static long highestValueAt(int index) {
+		return lowestValueAt(index + 1) - 1;
+	}
+}
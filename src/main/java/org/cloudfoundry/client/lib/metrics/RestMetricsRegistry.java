@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.metrics;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Receives a measurement for each REST call made by the client. Implementations are called on the request thread and
+ * must be fast and thread-safe.
+ *
+ * @see InMemoryRestMetricsRegistry
+ */
+public interface RestMetricsRegistry {
+
+	/**
+	 * Record a completed call.
+	 *
+	 * @param method the HTTP method
+	 * @param endpoint the endpoint path with identifiers replaced by placeholders, see {@link EndpointNormalizer}
+	 * @param httpStatus the response status, or <tt>null</tt> if no response was received
+	 * @param error whether the call failed
+	 * @param durationNanos the time taken by the call, in nanoseconds
+	 * @param requestBytes the size of the request body, or -1 if not known
+	 * @param responseBytes the size of the response body, or -1 if not known
+	 */
+	void record(HttpMethod method, String endpoint, HttpStatus httpStatus, boolean error, long durationNanos,
+			long requestBytes, long responseBytes);
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * Limits the number of requests in flight to the cloud controller, separately for each {@link EndpointClass}, and
+ * adapts the limits to what the controller sustains.
+ *
+ * <p>The limits follow additive increase, multiplicative decrease (AIMD). A request that completes normally while the
+ * limit is in use raises the limit by one per limit's worth of requests. A request that signals overload lowers the
+ * limit by the backoff ratio: a <tt>429</tt>, <tt>502</tt>, <tt>503</tt> or <tt>504</tt> response, a connection
+ * failure, or a latency rise, where the recent average latency exceeds the long-term average by the latency tolerance.
+ * Only requests started after the last decrease can lower the limit again, so a burst of failures from one overload
+ * counts once.
+ *
+ * <p>Requests over the limit wait for a request of their class to complete. When requests pass a {@link Bulkhead}
+ * first, the limits are capped at its quotas, see {@link #setCeiling}.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	/**
+	 * Default factor by which the recent latency may exceed the long-term latency before it is taken as overload.
+	 */
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * Default factor applied to a limit on overload.
+	 */
+	public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+
+	// smoothing of the recent and the long-term latency averages
+	private static final double RECENT_WEIGHT = 0.2;
+
+	private static final double LONG_TERM_WEIGHT = 0.02;
+
+	// samples needed before latency is taken into account
+	private static final int WARM_UP_SAMPLES = 20;
+
+	private final Map<EndpointClass, Limit> limits = new EnumMap<EndpointClass, Limit>(EndpointClass.class);
+
+	private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+	private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+	public AdaptiveConcurrencyLimiter() {
+		limits.put(EndpointClass.LISTING, new Limit(10, 1, 50));
+		limits.put(EndpointClass.MUTATION, new Limit(5, 1, 20));
+		limits.put(EndpointClass.FILES, new Limit(4, 1, 20));
+		limits.put(EndpointClass.UPLOAD, new Limit(2, 1, 8));
+	}
+
+	/**
+	 * Set the limit of an endpoint class.
+	 *
+	 * @param endpointClass the endpoint class
+	 * @param initialLimit the limit to start from
+	 * @param minimumLimit the lowest limit
+	 * @param maximumLimit the highest limit
+	 */
+	public void setLimit(EndpointClass endpointClass, int initialLimit, int minimumLimit, int maximumLimit) {
+		Assert.isTrue(minimumLimit > 0 && minimumLimit <= initialLimit && initialLimit <= maximumLimit,
+				"Invalid limits");
+		limits.get(endpointClass).configure(initialLimit, minimumLimit, maximumLimit);
+	}
+
+	/**
+	 * Keeps the limit of an endpoint class at or below the given ceiling, such as the quota of a bulkhead the requests
+	 * pass before the limiter, as higher limits could never be used.
+	 */
+	public void setCeiling(EndpointClass endpointClass, int ceiling) {
+		Assert.isTrue(ceiling > 0, "Ceiling must be positive");
+		limits.get(endpointClass).setCeiling(ceiling);
+	}
+
+	public void setLatencyTolerance(double latencyTolerance) {
+		Assert.isTrue(latencyTolerance > 1, "Latency tolerance must be greater than 1");
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+		Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio must be between 0 and 1");
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * @return the current limit of an endpoint class
+	 */
+	public int getLimit(EndpointClass endpointClass) {
+		return limits.get(endpointClass).getLimit();
+	}
+
+	/**
+	 * @return the number of requests of an endpoint class in flight
+	 */
+	public int getInFlight(EndpointClass endpointClass) {
+		return limits.get(endpointClass).getInFlight();
+	}
+
+	/**
+	 * Waits until a request of the given class may be sent.
+	 *
+	 * @param endpointClass the class of the request
+	 * @return the permit to release once the request completed
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	public Permit acquire(EndpointClass endpointClass) throws InterruptedIOException {
+		Limit limit = limits.get(endpointClass);
+		try {
+			limit.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the " + endpointClass + " limit");
+		}
+		return new Permit(limit);
+	}
+
+	/**
+	 * Permission to send one request.
+	 */
+	public class Permit {
+
+		private final Limit limit;
+
+		private final long startTime = System.nanoTime();
+
+		private boolean released;
+
+		Permit(Limit limit) {
+			this.limit = limit;
+		}
+
+		/**
+		 * Releases the permit. Further calls have no effect.
+		 *
+		 * @param latencyNanos the time until the response arrived
+		 * @param overloaded whether the response signaled overload
+		 */
+		public synchronized void release(long latencyNanos, boolean overloaded) {
+			if (!released) {
+				released = true;
+				limit.release(startTime, latencyNanos, overloaded);
+			}
+		}
+	}
+
+	private class Limit {
+
+		private double limit;
+
+		private int minimumLimit;
+
+		private int maximumLimit;
+
+		private int ceiling = Integer.MAX_VALUE;
+
+		private int inFlight;
+
+		private int samples;
+
+		private double recentLatency;
+
+		private double longTermLatency;
+
+		private long lastDecrease;
+
+		Limit(int initialLimit, int minimumLimit, int maximumLimit) {
+			configure(initialLimit, minimumLimit, maximumLimit);
+			this.lastDecrease = System.nanoTime();
+		}
+
+		synchronized void configure(int initialLimit, int minimumLimit, int maximumLimit) {
+			this.minimumLimit = minimumLimit;
+			this.maximumLimit = maximumLimit;
+			this.limit = Math.min(initialLimit, getUpperLimit());
+			notifyAll();
+		}
+
+		synchronized void setCeiling(int ceiling) {
+			this.ceiling = ceiling;
+			this.limit = Math.min(limit, getUpperLimit());
+			notifyAll();
+		}
+
+		private int getUpperLimit() {
+			return Math.max(minimumLimit, Math.min(maximumLimit, ceiling));
+		}
+
+		synchronized int getLimit() {
+			return (int) limit;
+		}
+
+		synchronized int getInFlight() {
+			return inFlight;
+		}
+
+		synchronized void acquire() throws InterruptedException {
+			while (inFlight >= (int) limit) {
+				wait();
+			}
+			inFlight++;
+		}
+
+		synchronized void release(long startTime, long latencyNanos, boolean overloaded) {
+			boolean saturated = inFlight >= (int) limit / 2;
+			inFlight--;
+			if (!overloaded && latencyNanos > 0) {
+				overloaded = sample(latencyNanos);
+			}
+			if (overloaded) {
+				if (startTime - lastDecrease > 0) {
+					limit = Math.max(minimumLimit, limit * backoffRatio);
+					lastDecrease = System.nanoTime();
+				}
+			} else if (saturated) {
+				limit = Math.min(getUpperLimit(), limit + 1 / limit);
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Adds a latency sample to the averages.
+		 *
+		 * @return whether the recent latency shows overload
+		 */
+		private boolean sample(long latencyNanos) {
+			double latency = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+			if (samples++ == 0) {
+				recentLatency = latency;
+				longTermLatency = latency;
+				return false;
+			}
+			recentLatency += RECENT_WEIGHT * (latency - recentLatency);
+			longTermLatency += LONG_TERM_WEIGHT * (latency - longTermLatency);
+			return samples > WARM_UP_SAMPLES && recentLatency > latencyTolerance * longTermLatency;
+		}
+	}
+}
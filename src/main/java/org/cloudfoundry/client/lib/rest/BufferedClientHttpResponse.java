@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Response held completely in memory, so that it can be handed out more than once.
+ */
+class BufferedClientHttpResponse implements ClientHttpResponse {
+
+	private final int statusCode;
+
+	private final String statusText;
+
+	private final HttpHeaders headers;
+
+	private final byte[] body;
+
+	BufferedClientHttpResponse(int statusCode, String statusText, HttpHeaders headers, byte[] body) {
+		this.statusCode = statusCode;
+		this.statusText = statusText;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	/**
+	 * Returns a response with the same content, whose headers can be changed without affecting this one.
+	 */
+	BufferedClientHttpResponse copy() {
+		HttpHeaders copy = new HttpHeaders();
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				copy.add(header.getKey(), value);
+			}
+		}
+		return new BufferedClientHttpResponse(statusCode, statusText, copy, body);
+	}
+
+	public HttpStatus getStatusCode() {
+		return HttpStatus.valueOf(statusCode);
+	}
+
+	public int getRawStatusCode() {
+		return statusCode;
+	}
+
+	public String getStatusText() {
+		return statusText;
+	}
+
+	public HttpHeaders getHeaders() {
+		return headers;
+	}
+
+	public InputStream getBody() {
+		return new ByteArrayInputStream(body);
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.util.Assert;
+
+/**
+ * Concurrency quotas per {@link EndpointClass} within a shared total, handed out by priority. Quick control-plane
+ * requests are served first, so that a scale or stop request does not wait behind file reads and uploads:
+ * mutations before listings, listings before file access, file access before uploads.
+ *
+ * <p>The quota of a class bounds its requests in flight even while others are idle, which keeps long-running file
+ * reads and uploads from taking the whole total. Each class also gets connections of its own, sized to its quota,
+ * see {@link org.cloudfoundry.client.lib.util.RestUtil#createBulkheadRequestFactory}.
+ */
+public class Bulkhead {
+
+	/**
+	 * Default total number of requests in flight.
+	 */
+	public static final int DEFAULT_TOTAL = 16;
+
+	private static final EndpointClass[] PRIORITY = { EndpointClass.MUTATION, EndpointClass.LISTING,
+			EndpointClass.FILES, EndpointClass.UPLOAD };
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Map<EndpointClass, Lane> lanes = new EnumMap<EndpointClass, Lane>(EndpointClass.class);
+
+	private int total = DEFAULT_TOTAL;
+
+	private int inFlight;
+
+	public Bulkhead() {
+		lanes.put(EndpointClass.MUTATION, new Lane(8));
+		lanes.put(EndpointClass.LISTING, new Lane(8));
+		lanes.put(EndpointClass.FILES, new Lane(4));
+		lanes.put(EndpointClass.UPLOAD, new Lane(2));
+	}
+
+	/**
+	 * Set the number of requests of a class that may be in flight at the same time.
+	 */
+	public void setQuota(EndpointClass endpointClass, int quota) {
+		Assert.isTrue(quota > 0, "Quota must be positive");
+		lock.lock();
+		try {
+			lanes.get(endpointClass).quota = quota;
+			signalNext();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQuota(EndpointClass endpointClass) {
+		lock.lock();
+		try {
+			return lanes.get(endpointClass).quota;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Set the number of requests of all classes together that may be in flight at the same time.
+	 */
+	public void setTotal(int total) {
+		Assert.isTrue(total > 0, "Total must be positive");
+		lock.lock();
+		try {
+			this.total = total;
+			signalNext();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests of a class in flight
+	 */
+	public int getInFlight(EndpointClass endpointClass) {
+		lock.lock();
+		try {
+			return lanes.get(endpointClass).inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests of a class waiting to be sent
+	 */
+	public int getWaiting(EndpointClass endpointClass) {
+		lock.lock();
+		try {
+			return lanes.get(endpointClass).waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a request of the given class may be sent.
+	 *
+	 * @param endpointClass the class of the request
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	public void acquire(EndpointClass endpointClass) throws InterruptedIOException {
+		Lane lane = lanes.get(endpointClass);
+		lock.lock();
+		try {
+			lane.waiting++;
+			try {
+				while (!mayProceed(endpointClass)) {
+					lane.ready.await();
+				}
+			} finally {
+				lane.waiting--;
+			}
+			lane.inFlight++;
+			inFlight++;
+			// there may be room for more
+			signalNext();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			signalNext();
+			throw new InterruptedIOException("Interrupted while waiting for the " + endpointClass + " bulkhead");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a request of the given class, letting the next waiting request of the highest priority proceed.
+	 */
+	public void release(EndpointClass endpointClass) {
+		lock.lock();
+		try {
+			lanes.get(endpointClass).inFlight--;
+			inFlight--;
+			signalNext();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean mayProceed(EndpointClass endpointClass) {
+		if (inFlight >= total || !lanes.get(endpointClass).hasRoom()) {
+			return false;
+		}
+		for (EndpointClass other : PRIORITY) {
+			if (other == endpointClass) {
+				return true;
+			}
+			Lane lane = lanes.get(other);
+			if (lane.waiting > 0 && lane.hasRoom()) {
+				// a request of higher priority goes first
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void signalNext() {
+		for (EndpointClass endpointClass : PRIORITY) {
+			Lane lane = lanes.get(endpointClass);
+			if (lane.waiting > 0 && lane.hasRoom()) {
+				if (inFlight < total) {
+					lane.ready.signal();
+				}
+				return;
+			}
+		}
+	}
+
+	private class Lane {
+
+		final Condition ready = lock.newCondition();
+
+		int quota;
+
+		int inFlight;
+
+		int waiting;
+
+		Lane(int quota) {
+			this.quota = quota;
+		}
+
+		boolean hasRoom() {
+			return inFlight < quota;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} that sends each {@link EndpointClass} through a {@link Bulkhead} and, optionally,
+ * through a delegate of its own, so that classes of requests do not compete for the same connections.
+ *
+ * <p>A request holds its place in the bulkhead until its response is closed.
+ */
+public class BulkheadClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final Bulkhead bulkhead;
+
+	private final Map<EndpointClass, ClientHttpRequestFactory> delegates =
+			new EnumMap<EndpointClass, ClientHttpRequestFactory>(EndpointClass.class);
+
+	/**
+	 * @param delegate the factory creating requests of classes without a delegate of their own
+	 * @param bulkhead the bulkhead requests wait in
+	 */
+	public BulkheadClientHttpRequestFactory(ClientHttpRequestFactory delegate, Bulkhead bulkhead) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		Assert.notNull(bulkhead, "Bulkhead must not be null");
+		this.delegate = delegate;
+		this.bulkhead = bulkhead;
+	}
+
+	/**
+	 * Set the factory creating the requests of one class.
+	 */
+	public void setDelegate(EndpointClass endpointClass, ClientHttpRequestFactory delegate) {
+		delegates.put(endpointClass, delegate);
+	}
+
+	public ClientHttpRequestFactory getDelegate(EndpointClass endpointClass) {
+		ClientHttpRequestFactory classDelegate = delegates.get(endpointClass);
+		return (classDelegate != null ? classDelegate : delegate);
+	}
+
+	public Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		EndpointClass endpointClass = EndpointClass.of(httpMethod, uri);
+		return new BulkheadRequest(endpointClass, getDelegate(endpointClass).createRequest(uri, httpMethod));
+	}
+
+	private class BulkheadRequest implements ClientHttpRequest {
+
+		private final EndpointClass endpointClass;
+
+		private final ClientHttpRequest request;
+
+		BulkheadRequest(EndpointClass endpointClass, ClientHttpRequest request) {
+			this.endpointClass = endpointClass;
+			this.request = request;
+		}
+
+		public HttpMethod getMethod() {
+			return request.getMethod();
+		}
+
+		public URI getURI() {
+			return request.getURI();
+		}
+
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+
+		public OutputStream getBody() throws IOException {
+			return request.getBody();
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			bulkhead.acquire(endpointClass);
+			boolean executed = false;
+			try {
+				ClientHttpResponse response = new BulkheadResponse(request.execute(), endpointClass);
+				executed = true;
+				return response;
+			} finally {
+				if (!executed) {
+					bulkhead.release(endpointClass);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Response that leaves the bulkhead when closed.
+	 */
+	private class BulkheadResponse implements ClientHttpResponse {
+
+		private final ClientHttpResponse response;
+
+		private final EndpointClass endpointClass;
+
+		private boolean closed;
+
+		BulkheadResponse(ClientHttpResponse response, EndpointClass endpointClass) {
+			this.response = response;
+			this.endpointClass = endpointClass;
+		}
+
+		public HttpStatus getStatusCode() throws IOException {
+			return response.getStatusCode();
+		}
+
+		public int getRawStatusCode() throws IOException {
+			return response.getRawStatusCode();
+		}
+
+		public String getStatusText() throws IOException {
+			return response.getStatusText();
+		}
+
+		public HttpHeaders getHeaders() {
+			return response.getHeaders();
+		}
+
+		public InputStream getBody() throws IOException {
+			return response.getBody();
+		}
+
+		public void close() {
+			try {
+				response.close();
+			} finally {
+				synchronized (this) {
+					if (!closed) {
+						closed = true;
+						bulkhead.release(endpointClass);
+					}
+				}
+			}
+		}
+	}
+}
@@ -18,7 +18,9 @@ package org.cloudfoundry.client.lib.rest;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -29,10 +31,12 @@ import org.cloudfoundry.client.lib.RestLogCallback;
 import org.cloudfoundry.client.lib.StartingInfo;
 import org.cloudfoundry.client.lib.UploadStatusCallback;
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
+import org.cloudfoundry.client.lib.cache.HttpResponseCache;
 import org.cloudfoundry.client.lib.domain.ApplicationStats;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudJob;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudRoute;
 import org.cloudfoundry.client.lib.domain.CloudService;
@@ -41,6 +45,10 @@ import org.cloudfoundry.client.lib.domain.CloudSpace;
 import org.cloudfoundry.client.lib.domain.CrashesInfo;
 import org.cloudfoundry.client.lib.domain.InstancesInfo;
 import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
+import org.cloudfoundry.client.lib.retry.RetryPolicy;
+import org.cloudfoundry.client.lib.upload.ResourceManifestFile;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.web.client.ResponseErrorHandler;
 
@@ -55,6 +63,16 @@ public interface CloudControllerClient {
 
 	void setResponseErrorHandler(ResponseErrorHandler errorHandler);
 
+	void setResourceManifestFile(ResourceManifestFile resourceManifestFile);
+
+	void setResponseCache(HttpResponseCache responseCache);
+
+	void setRetryPolicy(RetryPolicy retryPolicy);
+
+	void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter);
+
+	void setBulkhead(Bulkhead bulkhead);
+
 	URL getCloudControllerUrl();
 
 	CloudInfo getInfo();
@@ -110,6 +128,19 @@ public interface CloudControllerClient {
 
 	void uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback) throws IOException;
 
+	UploadToken asyncUploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException;
+
+	UploadToken asyncUploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback)
+			throws IOException;
+
+	CloudJob getUploadStatus(UploadToken token);
+
+	CloudJob waitForUpload(UploadToken token, long timeout);
+
+	void copyApplicationBits(String sourceAppName, String targetAppName);
+
+	void copyApplicationBits(CloudApplication sourceApp, CloudApplication targetApp);
+
 	StartingInfo startApplication(String appName);
 
 	void debugApplication(String appName, CloudApplication.DebugMode mode);
@@ -145,6 +176,13 @@ public interface CloudControllerClient {
 
 	String getFile(String appName, int instanceIndex, String filePath, int startPosition, int endPosition);
 
+	void getFile(String appName, int instanceIndex, String filePath, OutputStream outputStream);
+
+	long getFile(String appName, int instanceIndex, String filePath, long startPosition, OutputStream outputStream);
+
+	long getFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream);
+
 	void bindService(String appName, String serviceName);
 
 	void unbindService(String appName, String serviceName);
@@ -159,6 +197,8 @@ public interface CloudControllerClient {
 	
 	String getStagingLogs(StartingInfo info, int offset);
 
+	long streamStagingLogs(StartingInfo info, long offset, OutputStream outputStream);
+
 	// Domains and routes management
 
 	List<CloudDomain> getDomainsForOrg();
@@ -184,10 +224,16 @@ public interface CloudControllerClient {
 	void registerRestLogListener(RestLogCallback callBack);
 
 	void unRegisterRestLogListener(RestLogCallback callBack);
+
+	void setMetricsRegistry(RestMetricsRegistry metricsRegistry);
 	
 	void setCloudCredentials(CloudCredentials cloudCredentials);
 	
 	void setCloudSpace(CloudSpace cloudSpace);
+
+	CloudSpace getCloudSpace();
+
+	CloudControllerClient inSpace(CloudSpace cloudSpace);
 	
 	CloudSpace validateSpaceAndOrg(String spaceName, String orgName, CloudControllerClientImpl client);
 	
@@ -199,5 +245,11 @@ public interface CloudControllerClient {
 
 	Object downloadApplication(String appName);
 
+	void downloadApplication(String appName, File destination) throws IOException;
+
+	ReadableByteChannel downloadApplicationAsChannel(String appName) throws IOException;
+
+	long downloadApplication(String appName, long startPosition, long endPosition, OutputStream outputStream);
+
 	void deleteUser(String userGuid);
 }
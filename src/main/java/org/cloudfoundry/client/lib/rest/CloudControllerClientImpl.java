@@ -17,14 +17,20 @@
 package org.cloudfoundry.client.lib.rest;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +41,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipFile;
 
 import org.apache.commons.logging.Log;
@@ -44,14 +53,17 @@ import org.cloudfoundry.client.lib.CloudFoundryException;
 import org.cloudfoundry.client.lib.HttpProxyConfiguration;
 import org.cloudfoundry.client.lib.RestLogCallback;
 import org.cloudfoundry.client.lib.StartingInfo;
+import org.cloudfoundry.client.lib.UploadProgressCallback;
 import org.cloudfoundry.client.lib.UploadStatusCallback;
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
 import org.cloudfoundry.client.lib.archive.DirectoryApplicationArchive;
 import org.cloudfoundry.client.lib.archive.ZipApplicationArchive;
+import org.cloudfoundry.client.lib.cache.HttpResponseCache;
 import org.cloudfoundry.client.lib.domain.ApplicationStats;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudJob;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudResource;
 import org.cloudfoundry.client.lib.domain.CloudResources;
@@ -67,7 +79,13 @@ import org.cloudfoundry.client.lib.domain.InstanceStats;
 import org.cloudfoundry.client.lib.domain.InstancesInfo;
 import org.cloudfoundry.client.lib.domain.Staging;
 import org.cloudfoundry.client.lib.domain.UploadApplicationPayload;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.download.PartialContentListener;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
 import org.cloudfoundry.client.lib.oauth2.OauthClient;
+import org.cloudfoundry.client.lib.retry.RetryPolicy;
+import org.cloudfoundry.client.lib.upload.ResourceManifestFile;
+import org.cloudfoundry.client.lib.upload.UploadProgressMonitor;
 import org.cloudfoundry.client.lib.util.CloudEntityResourceMapper;
 import org.cloudfoundry.client.lib.util.CloudUtil;
 import org.cloudfoundry.client.lib.util.JsonUtil;
@@ -83,7 +101,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
@@ -94,15 +111,24 @@ import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.util.Assert;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriTemplate;
 
 /**
  * Abstract implementation of the CloudControllerClient intended to serve as the base.
  *
+ * <p>Instances are safe for use by concurrent threads and are meant to be shared. The credentials, access token and
+ * space are held in one immutable snapshot that is replaced atomically, so switching the user or the space never
+ * locks requests and a request never combines parts of two sessions. Each call reads the space once and passes it
+ * to all the requests it makes, so calls in progress while the space changes complete against the space they started
+ * with. An expiring token is refreshed by one thread while the others carry on with the token they have. Configuration changes such as
+ * {@link #setResponseCache} or {@link #updateHttpProxyConfiguration} are serialized with each other; requests made
+ * while one is applied may go out without the optional request factories that are being replaced.
+ *
  * @author Ramnivas Laddad
  * @author A.B.Srinivasan
  * @author Jennifer Hickey
@@ -121,23 +147,52 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	private static final String LOGS_LOCATION = "logs";
 
+	// error code of the controller for uploads listing resources it does not hold (CF-AppBitsUploadInvalid)
+	private static final int APP_BITS_UPLOAD_INVALID = 160001;
+	private static final int UPLOAD_RETRY_ATTEMPTS = 4;
+	private static final long UPLOAD_RETRY_INITIAL_DELAY = 1000;
+	private static final long UPLOAD_RETRY_MAX_DELAY = 15000;
+	private static final long JOB_POLLING_INITIAL_INTERVAL = 500;
+	private static final long JOB_POLLING_MAX_INTERVAL = 5000;
+	private static final long COPY_BITS_TIMEOUT = 10 * 60 * 1000;
+	private static final int COPY_BUFFER_SIZE = 8192;
+	private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+	private static final int STREAMING_READ_TIMEOUT = 5 * 60 * 1000;
+	private static final long RANGE_SUPPORT_RECHECK_INTERVAL = 10 * 60 * 1000;
+
 	private OauthClient oauthClient;
 
-	private CloudSpace sessionSpace;
+	// credentials, token and space are replaced together, requests read them without locking
+	private final AtomicReference<SessionContext> session;
 
 	private CloudEntityResourceMapper resourceMapper = new CloudEntityResourceMapper();
 
 	private RestTemplate restTemplate;
 
+	private RestTemplate uploadRestTemplate;
+
+	private RestTemplate streamingRestTemplate;
+
 	private URL cloudControllerUrl;
 
 	protected RestUtil restUtil;
 
-	protected CloudCredentials cloudCredentials;
-
 	protected URL authorizationEndpoint;
 
-	protected OAuth2AccessToken token;
+	private volatile ResourceManifestFile resourceManifestFile;
+
+	private HttpResponseCache responseCache;
+
+	private RetryPolicy retryPolicy;
+
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+	private Bulkhead bulkhead = new Bulkhead();
+
+	private HttpProxyConfiguration httpProxyConfiguration;
+
+	// until when ranges are not requested, by what serves a file, learned from full responses to ranged requests
+	private final ConcurrentMap<String, Long> rangesUnsupported;
 
 	private final Log logger;
 	
@@ -147,6 +202,8 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 			   URL authorizationEndpoint,
 			   CloudSpace sessionSpace,
 			   HttpProxyConfiguration httpProxyConfiguration) {
+		session = new AtomicReference<SessionContext>(SessionContext.EMPTY);
+		rangesUnsupported = new ConcurrentHashMap<String, Long>();
 		initialize(cloudControllerUrl, restUtil, cloudCredentials, authorizationEndpoint, sessionSpace, httpProxyConfiguration);
 		logger = LogFactory.getLog(getClass().getName());
 	}
@@ -156,26 +213,53 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	 * hence can not be overloaded, making it impossible to write unit tests that don't trigger network calls.
 	 */
 	protected CloudControllerClientImpl() {
+		session = new AtomicReference<SessionContext>(SessionContext.EMPTY);
+		rangesUnsupported = new ConcurrentHashMap<String, Long>();
 		logger = LogFactory.getLog(getClass().getName());
 	}
+
+	/**
+	 * Creates a client that shares the connections, request factories and session of the given client, for views
+	 * such as the one returned by {@link #inSpace}. The settings the request factories are built from and the
+	 * resource manifest are not copied, subclasses read and change them through the given client.
+	 */
+	protected CloudControllerClientImpl(CloudControllerClientImpl client) {
+		Assert.notNull(client, "Client must not be null");
+		session = client.session;
+		rangesUnsupported = client.rangesUnsupported;
+		logger = LogFactory.getLog(getClass().getName());
+		this.oauthClient = client.oauthClient;
+		this.restTemplate = client.restTemplate;
+		this.uploadRestTemplate = client.uploadRestTemplate;
+		this.streamingRestTemplate = client.streamingRestTemplate;
+		this.cloudControllerUrl = client.cloudControllerUrl;
+		this.restUtil = client.restUtil;
+		this.authorizationEndpoint = client.authorizationEndpoint;
+	}
 	public void setCloudCredentials(CloudCredentials cloudCredentials) {
-        this.cloudCredentials = cloudCredentials;
-        this.token=cloudCredentials.getToken();
- }
+		Assert.notNull(cloudCredentials, "CloudCredentials must not be null");
+		SessionContext current;
+		do {
+			current = session.get();
+		} while (!session.compareAndSet(current, current.withCredentials(cloudCredentials)));
+	}
+
 	public CloudControllerClientImpl(URL cloudControllerUrl, RestUtil restUtil, CloudCredentials cloudCredentials,
 			URL authorizationEndpoint, String orgName, String spaceName, HttpProxyConfiguration httpProxyConfiguration) {
+		session = new AtomicReference<SessionContext>(SessionContext.EMPTY);
+		rangesUnsupported = new ConcurrentHashMap<String, Long>();
 		logger = LogFactory.getLog(getClass().getName());
 		CloudControllerClientImpl tempClient = new CloudControllerClientImpl(cloudControllerUrl, restUtil, cloudCredentials, 
 				                                                            authorizationEndpoint, null, httpProxyConfiguration);
-		if (tempClient.token == null) {
+		if (tempClient.getToken() == null) {
 			tempClient.login();
 		}
 
-		initialize(cloudControllerUrl, restUtil, cloudCredentials, authorizationEndpoint, null, httpProxyConfiguration);
-
-		sessionSpace = validateSpaceAndOrg(spaceName, orgName, tempClient);
+		CloudSpace sessionSpace = validateSpaceAndOrg(spaceName, orgName, tempClient);
+		initialize(cloudControllerUrl, restUtil, cloudCredentials, authorizationEndpoint, sessionSpace,
+				httpProxyConfiguration);
 
-		token = tempClient.token;
+		session.set(session.get().withToken(tempClient.getToken()));
 	}
 
 	private void initialize(URL cloudControllerUrl,  RestUtil restUtil, CloudCredentials cloudCredentials,
@@ -183,24 +267,51 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		Assert.notNull(cloudControllerUrl, "CloudControllerUrl cannot be null");
 		Assert.notNull(restUtil, "RestUtil cannot be null");
 		this.restUtil = restUtil;
-		this.cloudCredentials = cloudCredentials;
-		if (cloudCredentials != null && cloudCredentials.getToken() != null) {
-			this.token = cloudCredentials.getToken();
-		}
+		this.session.set(SessionContext.EMPTY.withCredentials(cloudCredentials).withSpace(sessionSpace));
 		this.cloudControllerUrl = cloudControllerUrl;
 		if (authorizationEndpoint != null) {
 			this.authorizationEndpoint = determineAuthorizationEndPointToUse(authorizationEndpoint, cloudControllerUrl);
 		} else {
 			this.authorizationEndpoint = null;
 		}
+		this.httpProxyConfiguration = httpProxyConfiguration;
+		// control-plane calls, file access and uploads each have their own connections and quota in the bulkhead
 		this.restTemplate = restUtil.createRestTemplate(httpProxyConfiguration);
+		this.restTemplate.setRequestFactory(
+				restUtil.createBulkheadRequestFactory(httpProxyConfiguration, bulkhead, concurrencyLimiter));
 		configureCloudFoundryRequestFactory(restTemplate);
 
 		this.restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
 		this.restTemplate.setMessageConverters(getHttpMessageConverters());
 
+		// application bits are spooled to disk rather than buffered so that archive size is not bound by the heap
+		this.uploadRestTemplate = restUtil.createRestTemplate(httpProxyConfiguration);
+		this.uploadRestTemplate.setRequestFactory(
+				restUtil.createBulkheadSpoolingRequestFactory(httpProxyConfiguration, bulkhead, concurrencyLimiter));
+		configureCloudFoundryRequestFactory(uploadRestTemplate);
+
+		this.uploadRestTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+		this.uploadRestTemplate.setMessageConverters(getHttpMessageConverters());
+		configureRequestCoalescing();
+
+		// tailed logs are held open by the server, so they get their own connections with a long read timeout
+		this.streamingRestTemplate = restUtil.createRestTemplate(httpProxyConfiguration);
+		this.streamingRestTemplate.setRequestFactory(
+				restUtil.createStreamingRequestFactory(httpProxyConfiguration, STREAMING_READ_TIMEOUT));
+		configureCloudFoundryRequestFactory(streamingRestTemplate);
+
+		this.streamingRestTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+		this.streamingRestTemplate.setMessageConverters(getHttpMessageConverters());
+
+		// log entries of all templates are delivered by one dispatcher thread
+		RestLogEventBus eventBus = new RestLogEventBus();
+		for (RestTemplate template : new RestTemplate[] {restTemplate, uploadRestTemplate, streamingRestTemplate}) {
+			if (template instanceof LoggingRestTemplate) {
+				((LoggingRestTemplate) template).setEventBus(eventBus);
+			}
+		}
+
 		this.oauthClient = restUtil.createOauthClient(authorizationEndpoint, httpProxyConfiguration);
-		this.sessionSpace = sessionSpace;
 	}
 
 	public CloudSpace validateSpaceAndOrg(String spaceName, String orgName, CloudControllerClientImpl client) {
@@ -220,6 +331,39 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	public void setResponseErrorHandler(ResponseErrorHandler errorHandler) {
 		this.restTemplate.setErrorHandler(errorHandler);
+		this.uploadRestTemplate.setErrorHandler(errorHandler);
+		this.streamingRestTemplate.setErrorHandler(errorHandler);
+	}
+
+	public void setResourceManifestFile(ResourceManifestFile resourceManifestFile) {
+		this.resourceManifestFile = resourceManifestFile;
+	}
+
+	protected ResourceManifestFile getResourceManifestFile() {
+		return resourceManifestFile;
+	}
+
+	public void setResponseCache(HttpResponseCache responseCache) {
+		this.responseCache = responseCache;
+		reconfigureRequestFactories();
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		reconfigureRequestFactories();
+	}
+
+	public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		// requests wait for the limiter after the bulkhead, which is part of the connection handling
+		updateHttpProxyConfiguration(httpProxyConfiguration);
+	}
+
+	public void setBulkhead(Bulkhead bulkhead) {
+		Assert.notNull(bulkhead, "Bulkhead must not be null");
+		this.bulkhead = bulkhead;
+		// connection pools are sized to the quotas, so they are created again
+		updateHttpProxyConfiguration(httpProxyConfiguration);
 	}
 
 	protected URL determineAuthorizationEndPointToUse(URL authorizationEndpoint, URL cloudControllerUrl) {
@@ -257,13 +401,25 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void updatePassword(String newPassword) {
-		updatePassword(cloudCredentials, newPassword);
+		updatePassword(getCloudCredentials(), newPassword);
 	}
 
-	public void updateHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
-		ClientHttpRequestFactory requestFactory = restUtil.createRequestFactory(httpProxyConfiguration);
+	public synchronized void updateHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
+		this.httpProxyConfiguration = httpProxyConfiguration;
+		ClientHttpRequestFactory requestFactory =
+				restUtil.createBulkheadRequestFactory(httpProxyConfiguration, bulkhead, concurrencyLimiter);
 		restTemplate.setRequestFactory(requestFactory);
 		configureCloudFoundryRequestFactory(restTemplate);
+		configureResponseCache(restTemplate);
+		configureRetries(restTemplate);
+		ClientHttpRequestFactory uploadRequestFactory =
+				restUtil.createBulkheadSpoolingRequestFactory(httpProxyConfiguration, bulkhead, concurrencyLimiter);
+		uploadRestTemplate.setRequestFactory(uploadRequestFactory);
+		configureCloudFoundryRequestFactory(uploadRestTemplate);
+		configureRequestCoalescing();
+		streamingRestTemplate.setRequestFactory(
+				restUtil.createStreamingRequestFactory(httpProxyConfiguration, STREAMING_READ_TIMEOUT));
+		configureCloudFoundryRequestFactory(streamingRestTemplate);
 	}
 
 	public Map<String, String> getLogs(String appName) {
@@ -289,16 +445,66 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return doGetFile(urlPath, appId, instanceIndex, filePath, startPosition, endPosition);
 	}
 
+	public void getFile(String appName, int instanceIndex, String filePath, OutputStream outputStream) {
+		Assert.notNull(outputStream, "OutputStream must not be null");
+		doDownload(getUrl(getFileUrlPath()), outputStream, getFileAppId(appName), String.valueOf(instanceIndex),
+				filePath);
+	}
+
+	public long getFile(String appName, int instanceIndex, String filePath, long startPosition,
+			OutputStream outputStream) {
+		Assert.isTrue(startPosition >= 0, "Invalid start position value: " + startPosition);
+		Assert.notNull(outputStream, "OutputStream must not be null");
+		URI uri = new UriTemplate(getUrl(getFileUrlPath())).expand(getFileAppId(appName),
+				String.valueOf(instanceIndex), filePath);
+		return doGetRange(uri, startPosition, -1, outputStream);
+	}
+
+	public long getFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream) {
+		Assert.isTrue(startPosition >= 0, "Invalid start position value: " + startPosition);
+		Assert.isTrue(endPosition >= startPosition,
+				"The end position (" + endPosition + ") can't be less than the start position (" + startPosition + ")");
+		Assert.notNull(outputStream, "OutputStream must not be null");
+		URI uri = new UriTemplate(getUrl(getFileUrlPath())).expand(getFileAppId(appName),
+				String.valueOf(instanceIndex), filePath);
+		return doGetRange(uri, startPosition, endPosition, outputStream);
+	}
+
 	public void registerRestLogListener(RestLogCallback callBack) {
 		if (getRestTemplate() instanceof LoggingRestTemplate) {
 			((LoggingRestTemplate)getRestTemplate()).registerRestLogListener(callBack);
 		}
+		if (getUploadRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getUploadRestTemplate()).registerRestLogListener(callBack);
+		}
+		if (getStreamingRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getStreamingRestTemplate()).registerRestLogListener(callBack);
+		}
 	}
 
 	public void unRegisterRestLogListener(RestLogCallback callBack) {
 		if (getRestTemplate() instanceof LoggingRestTemplate) {
 			((LoggingRestTemplate)getRestTemplate()).unRegisterRestLogListener(callBack);
 		}
+		if (getUploadRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getUploadRestTemplate()).unRegisterRestLogListener(callBack);
+		}
+		if (getStreamingRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getStreamingRestTemplate()).unRegisterRestLogListener(callBack);
+		}
+	}
+
+	public void setMetricsRegistry(RestMetricsRegistry metricsRegistry) {
+		if (getRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getRestTemplate()).setMetricsRegistry(metricsRegistry);
+		}
+		if (getUploadRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getUploadRestTemplate()).setMetricsRegistry(metricsRegistry);
+		}
+		if (getStreamingRestTemplate() instanceof LoggingRestTemplate) {
+			((LoggingRestTemplate)getStreamingRestTemplate()).setMetricsRegistry(metricsRegistry);
+		}
 	}
 	
 	/**
@@ -318,18 +524,11 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	public String getStagingLogs(StartingInfo info, int offset) {
 		String stagingFile = info.getStagingFile();
 		if (stagingFile != null) {
-			CloudFoundryClientHttpRequestFactory cfRequestFactory = null;
 			try {
 				HashMap<String, Object> logsRequest = new HashMap<String, Object>();
 				logsRequest.put("offset", offset);
 
-				cfRequestFactory = getRestTemplate().getRequestFactory() instanceof CloudFoundryClientHttpRequestFactory ? (CloudFoundryClientHttpRequestFactory) getRestTemplate()
-						.getRequestFactory() : null;
-				if (cfRequestFactory != null) {
-					cfRequestFactory
-							.increaseReadTimeoutForStreamedTailedLogs(5 * 60 * 1000);
-				}
-				return getRestTemplate().getForObject(
+				return getStreamingRestTemplate().getForObject(
 						stagingFile + "&tail&tail_offset={offset}",
 						String.class, logsRequest);
 			} catch (CloudFoundryException e) {
@@ -344,20 +543,62 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 				// the content again
 				logger.debug("Caught exception while fetching staging logs. Aborting. Caught:" + e,
 						e);
-			} finally {
-				if (cfRequestFactory != null) {
-					cfRequestFactory
-							.increaseReadTimeoutForStreamedTailedLogs(-1);
-				}
 			}
 		}
 		return null;
 	}
 
+	public long streamStagingLogs(StartingInfo info, long offset, final OutputStream outputStream) {
+		Assert.isTrue(offset >= 0, "Invalid offset value: " + offset);
+		String stagingFile = info.getStagingFile();
+		if (stagingFile == null) {
+			return -1;
+		}
+		try {
+			return getStreamingRestTemplate().execute(stagingFile + "&tail&tail_offset={offset}", HttpMethod.GET, null,
+					new ResponseExtractor<Long>() {
+						public Long extractData(ClientHttpResponse response) throws IOException {
+							InputStream body = response.getBody();
+							return (body != null ? copyFlushing(body, outputStream) : 0L);
+						}
+					}, offset);
+		} catch (CloudFoundryException e) {
+			if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+				// Content is no longer available
+				return -1;
+			}
+			throw e;
+		}
+	}
+
+	protected CloudCredentials getCloudCredentials() {
+		return session.get().getCredentials();
+	}
+
+	protected OAuth2AccessToken getToken() {
+		return session.get().getToken();
+	}
+
+	protected CloudSpace getSessionSpace() {
+		return session.get().getSpace();
+	}
+
+	public CloudSpace getCloudSpace() {
+		return getSessionSpace();
+	}
+
 	protected RestTemplate getRestTemplate() {
 		return this.restTemplate;
 	}
 
+	protected RestTemplate getUploadRestTemplate() {
+		return this.uploadRestTemplate;
+	}
+
+	protected RestTemplate getStreamingRestTemplate() {
+		return this.streamingRestTemplate;
+	}
+
 	protected String getUrl(String path) {
 		return cloudControllerUrl + (path.startsWith("/") ? path : "/" + path);
 	}
@@ -368,6 +609,17 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 				new CloudFoundryClientHttpRequestFactory(requestFactory));
 	}
 
+	/**
+	 * Revalidates the GET requests of the given template against the response cache, if one is set. Bodies are kept
+	 * per user, so the cache is placed in front of the factory adding the credentials.
+	 */
+	protected void configureResponseCache(RestTemplate restTemplate) {
+		if (responseCache != null) {
+			restTemplate.setRequestFactory(new ConditionalGetClientHttpRequestFactory(
+					restTemplate.getRequestFactory(), responseCache, new CredentialsPrincipalResolver()));
+		}
+	}
+
 	private List<HttpMessageConverter<?>> getHttpMessageConverters() {
 		List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
 		messageConverters.add(new ByteArrayHttpMessageConverter());
@@ -396,65 +648,94 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return partConverters;
 	}
 
+	/**
+	 * Retries failed requests of the given template according to the retry policy, if one is set. Retries are placed
+	 * in front of the response cache and the credentials, so that each attempt is revalidated and authorized afresh.
+	 */
+	protected void configureRetries(RestTemplate restTemplate) {
+		if (retryPolicy != null) {
+			restTemplate.setRequestFactory(
+					new RetryingClientHttpRequestFactory(restTemplate.getRequestFactory(), retryPolicy));
+		}
+	}
+
+	/**
+	 * Lets identical GET requests made at the same time share one response. Uploads take part as well, so that
+	 * requests made after an upload never share a response read before it.
+	 */
+	protected void configureRequestCoalescing() {
+		CoalescingClientHttpRequestFactory requestFactory =
+				new CoalescingClientHttpRequestFactory(restTemplate.getRequestFactory(), new CredentialsPrincipalResolver());
+		restTemplate.setRequestFactory(requestFactory);
+		uploadRestTemplate.setRequestFactory(requestFactory.withDelegate(uploadRestTemplate.getRequestFactory()));
+	}
+
+	/**
+	 * Applies the optional request factories again, after one of them was changed.
+	 */
+	private synchronized void reconfigureRequestFactories() {
+		restTemplate.setRequestFactory(unwrapRequestFactory(restTemplate.getRequestFactory()));
+		uploadRestTemplate.setRequestFactory(unwrapRequestFactory(uploadRestTemplate.getRequestFactory()));
+		configureResponseCache(restTemplate);
+		configureRetries(restTemplate);
+		configureRequestCoalescing();
+	}
+
+	private ClientHttpRequestFactory unwrapRequestFactory(ClientHttpRequestFactory requestFactory) {
+		if (requestFactory instanceof CoalescingClientHttpRequestFactory) {
+			requestFactory = ((CoalescingClientHttpRequestFactory) requestFactory).getDelegate();
+		}
+		if (requestFactory instanceof RetryingClientHttpRequestFactory) {
+			requestFactory = ((RetryingClientHttpRequestFactory) requestFactory).getDelegate();
+		}
+		if (requestFactory instanceof ConditionalGetClientHttpRequestFactory) {
+			requestFactory = ((ConditionalGetClientHttpRequestFactory) requestFactory).getDelegate();
+		}
+		return requestFactory;
+	}
+
+	/**
+	 * Identifies shared and cached responses by the user and proxied user of the current credentials. Token-only
+	 * credentials resolve to <tt>null</tt>, which falls back to telling users apart by <tt>Authorization</tt> header.
+	 */
+	private class CredentialsPrincipalResolver implements PrincipalResolver {
+
+		public String getPrincipal() {
+			CloudCredentials credentials = getCloudCredentials();
+			if (credentials == null || credentials.getEmail() == null) {
+				return null;
+			}
+			return credentials.getEmail() + (credentials.getProxyUser() != null ? "/" + credentials.getProxyUser() : "");
+		}
+	}
+
 	private class CloudFoundryClientHttpRequestFactory implements ClientHttpRequestFactory {
 
-		private ClientHttpRequestFactory delegate;
-		private Integer defaultSocketTimeout = 0;
+		private final ClientHttpRequestFactory delegate;
 
 		public CloudFoundryClientHttpRequestFactory(ClientHttpRequestFactory delegate) {
 			this.delegate = delegate;
-			captureDefaultReadTimeout();
 		}
 
 		public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
 			ClientHttpRequest request = delegate.createRequest(uri, httpMethod);
+			// token and proxy user are taken from the same snapshot
+			SessionContext current = session.get();
+			OAuth2AccessToken token = current.getToken();
 			if (token != null) {
 				if (token.getExpiresIn() < 50) { // 50 seconds before expiration? Then refresh it.
-					token = oauthClient.refreshToken(token, cloudCredentials.getEmail(), cloudCredentials.getPassword(),
-							cloudCredentials.getClientId(), cloudCredentials.getClientSecret());
+					current = refreshToken(current);
+					token = current.getToken();
 				}
 				String header = token.getTokenType() + " " + token.getValue();
 				request.getHeaders().add(AUTHORIZATION_HEADER_KEY, header);
 			}
+			CloudCredentials cloudCredentials = current.getCredentials();
 			if (cloudCredentials != null && cloudCredentials.getProxyUser() != null) {
 				request.getHeaders().add(PROXY_USER_HEADER_KEY, cloudCredentials.getProxyUser());
 			}
 			return request;
 		}
-
-		private void captureDefaultReadTimeout() {
-			if (delegate instanceof HttpComponentsClientHttpRequestFactory) {
-				HttpComponentsClientHttpRequestFactory httpRequestFactory =
-						(HttpComponentsClientHttpRequestFactory) delegate;
-				defaultSocketTimeout = (Integer) httpRequestFactory
-						.getHttpClient().getParams()
-						.getParameter("http.socket.timeout");
-				if (defaultSocketTimeout == null) {
-					try {
-						defaultSocketTimeout = new Socket().getSoTimeout();
-					} catch (SocketException e) {
-						defaultSocketTimeout = 0;
-					}
-				}
-			}
-		}
-
-		public void increaseReadTimeoutForStreamedTailedLogs(int timeout) {
-			// May temporary increase read timeout on other unrelated concurrent
-			// threads, but per-request read timeout don't seem easily
-			// accessible
-			if (delegate instanceof HttpComponentsClientHttpRequestFactory) {
-				HttpComponentsClientHttpRequestFactory httpRequestFactory =
-						(HttpComponentsClientHttpRequestFactory) delegate;
-
-				if (timeout > 0) {
-					httpRequestFactory.setReadTimeout(timeout);
-				} else {
-					httpRequestFactory
-							.setReadTimeout(defaultSocketTimeout);
-				}
-			}
-		}
 	}
 
 	public static class CloudFoundryFormHttpMessageConverter extends FormHttpMessageConverter {
@@ -514,39 +795,32 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	private String doGetFileByRange(String urlPath, Object app, String instance, String filePath, int start, int end,
 									String range) {
 
-		boolean supportsRanges = false;
+		// Ranges are requested optimistically, without probing first. Instances that answer with the full content are
+		// remembered and later requests to them fetch the whole file, until it is time to ask for a range again.
+		String rangeSupportKey = getRangeSupportKey(new UriTemplate(getUrl(urlPath)).expand(app, instance, filePath));
+		boolean requestRange = isRangeSupported(rangeSupportKey);
+		HttpHeaders headers = new HttpHeaders();
+		if (requestRange) {
+			headers.set("Range", range);
+		}
+		HttpEntity<Object> requestEntity = new HttpEntity<Object>(headers);
+		ResponseEntity<String> responseEntity;
 		try {
-			supportsRanges = getRestTemplate().execute(getUrl(urlPath),
-					HttpMethod.HEAD,
-					new RequestCallback() {
-						public void doWithRequest(ClientHttpRequest request) throws IOException {
-							request.getHeaders().set("Range", "bytes=0-");
-						}
-					},
-					new ResponseExtractor<Boolean>() {
-						public Boolean extractData(ClientHttpResponse response) throws IOException {
-							if (response.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT)) {
-								return true;
-							}
-							return false;
-						}
-					},
-					app, instance, filePath);
+			responseEntity = getRestTemplate().exchange(getUrl(urlPath),
+					HttpMethod.GET, requestEntity, String.class, app, instance, filePath);
 		} catch (CloudFoundryException e) {
-			if (e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
-				// must be a 0 byte file
-				return "";
-			} else {
-				throw e;
+			if (requestRange && e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+				setRangeSupported(rangeSupportKey, true);
+				if (start <= 0) {
+					// must be a 0 byte file
+					return "";
+				}
 			}
+			throw e;
 		}
-		HttpHeaders headers = new HttpHeaders();
-		if (supportsRanges) {
-			headers.set("Range", range);
+		if (requestRange) {
+			setRangeSupported(rangeSupportKey, responseEntity.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT));
 		}
-		HttpEntity<Object> requestEntity = new HttpEntity<Object>(headers);
-		ResponseEntity<String> responseEntity = getRestTemplate().exchange(getUrl(urlPath),
-				HttpMethod.GET, requestEntity, String.class, app, instance, filePath);
 		String response = responseEntity.getBody();
 		boolean partialFile = false;
 		if (responseEntity.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT)) {
@@ -554,7 +828,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		}
 		if (!partialFile && response != null) {
 			if (start == -1) {
-				return response.substring(response.length() - end);
+				return response.substring(Math.max(0, response.length() - end));
 			} else {
 				if (start >= response.length()) {
 					if (response.length() == 0) {
@@ -580,6 +854,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	@SuppressWarnings("unchecked")
 	public CloudInfo getInfo() {
+		OAuth2AccessToken token = getToken();
 		// info comes from two end points: /info and /v2/info
 		
 		String infoV2Json = getRestTemplate().getForObject(getUrl("/v2/info"), String.class);
@@ -633,14 +908,49 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public OAuth2AccessToken login() {
-		token = oauthClient.getToken(cloudCredentials.getEmail(),
+		SessionContext current = session.get();
+		CloudCredentials cloudCredentials = current.getCredentials();
+		OAuth2AccessToken token = oauthClient.getToken(cloudCredentials.getEmail(),
 				cloudCredentials.getPassword(), cloudCredentials.getClientId(), cloudCredentials.getClientSecret());
-		
+		// a concurrent change of credentials wins over this login
+		while (current.getCredentials() == cloudCredentials && !session.compareAndSet(current, current.withToken(token))) {
+			current = session.get();
+		}
 		return token;
 	}
 
 	public void logout() {
-		token = null;
+		SessionContext current;
+		do {
+			current = session.get();
+		} while (!session.compareAndSet(current, current.withToken(null)));
+	}
+
+	/**
+	 * Refreshes the token of the given snapshot, unless another thread has already replaced it. Refreshes are made
+	 * one at a time, so that the threads that find the token expiring do not all exchange it.
+	 *
+	 * @param expiring the snapshot holding the expiring token
+	 * @return the snapshot holding the token to use
+	 */
+	private synchronized SessionContext refreshToken(SessionContext expiring) {
+		SessionContext current = session.get();
+		if (current.getToken() != expiring.getToken()) {
+			return current;
+		}
+		CloudCredentials cloudCredentials = current.getCredentials();
+		OAuth2AccessToken token = oauthClient.refreshToken(current.getToken(), cloudCredentials.getEmail(),
+				cloudCredentials.getPassword(), cloudCredentials.getClientId(), cloudCredentials.getClientSecret());
+		SessionContext refreshed = current.withToken(token);
+		while (!session.compareAndSet(current, refreshed)) {
+			current = session.get();
+			if (current.getToken() != expiring.getToken()) {
+				// logged out or switched user meanwhile, the refreshed token is only good for this request
+				return refreshed;
+			}
+			refreshed = current.withToken(token);
+		}
+		return refreshed;
 	}
 
 	public void register(String email, String password) {
@@ -648,13 +958,18 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void updatePassword(CloudCredentials credentials, String newPassword) {
-		oauthClient.changePassword(token, credentials.getPassword(), newPassword);
+		SessionContext current = session.get();
+		oauthClient.changePassword(current.getToken(), credentials.getPassword(), newPassword);
 		CloudCredentials newCloudCredentials = new CloudCredentials(credentials.getEmail(), newPassword);
-		if (cloudCredentials.getProxyUser() != null) {
-			cloudCredentials = newCloudCredentials.proxyForUser(cloudCredentials.getProxyUser());
-		} else {
-			cloudCredentials = newCloudCredentials;
-		}
+		SessionContext updated;
+		do {
+			current = session.get();
+			CloudCredentials cloudCredentials = current.getCredentials();
+			// the token stays valid, only the credentials used for the next login and refresh change
+			updated = current.withCredentials(cloudCredentials.getProxyUser() != null ?
+					newCloudCredentials.proxyForUser(cloudCredentials.getProxyUser()) : newCloudCredentials)
+					.withToken(current.getToken());
+		} while (!session.compareAndSet(current, updated));
 	}
 
 	public void unregister() {
@@ -662,6 +977,10 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public List<CloudService> getServices() {
+		return getServices(getSessionSpace());
+	}
+
+	private List<CloudService> getServices(CloudSpace sessionSpace) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -681,6 +1000,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 	
 	public void createService(CloudService service) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to create service without specifying space to use");
 		Assert.notNull(service, "Service must not be null");
 		Assert.notNull(service.getName(), "Service name must not be null");
@@ -712,6 +1032,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void createUserProvidedService(CloudService service, Map<String, Object> credentials) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to create service without specifying space to use");
 		Assert.notNull(credentials, "Service credentials must not be null");
 		Assert.notNull(service, "Service must not be null");
@@ -729,6 +1050,10 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public CloudService getService(String serviceName) {
+		return getService(getSessionSpace(), serviceName);
+	}
+
+	private CloudService getService(CloudSpace sessionSpace, String serviceName) {
 		String urlPath = "/v2";
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		if (sessionSpace != null) {
@@ -750,14 +1075,16 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void deleteService(String serviceName) {
-		CloudService cloudService = getService(serviceName);
-		doDeleteService(cloudService);
+		CloudSpace sessionSpace = getSessionSpace();
+		CloudService cloudService = getService(sessionSpace, serviceName);
+		doDeleteService(sessionSpace, cloudService);
 	}
 
 	public void deleteAllServices() {
-		List<CloudService> cloudServices = getServices();
+		CloudSpace sessionSpace = getSessionSpace();
+		List<CloudService> cloudServices = getServices(sessionSpace);
 		for (CloudService cloudService : cloudServices) {
-			doDeleteService(cloudService);
+			doDeleteService(sessionSpace, cloudService);
 		}
 	}
 
@@ -773,6 +1100,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public List<CloudApplication> getApplications() {
+		CloudSpace sessionSpace = getSessionSpace();
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -790,7 +1118,11 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public CloudApplication getApplication(String appName) {
-		Map<String, Object> resource = findApplicationResource(appName, true);
+		return getApplication(getSessionSpace(), appName);
+	}
+
+	private CloudApplication getApplication(CloudSpace sessionSpace, String appName) {
+		Map<String, Object> resource = findApplicationResource(sessionSpace, appName, true);
 		if (resource == null) {
 			throw new CloudFoundryException(HttpStatus.NOT_FOUND, "Not Found", "Application not found");
 		}
@@ -862,6 +1194,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	public void createApplication(String appName, Staging staging, int memory, List<String> uris,
 	                              List<String> serviceNames) {
+		CloudSpace sessionSpace = getSessionSpace();
 		HashMap<String, Object> appRequest = new HashMap<String, Object>();
 		appRequest.put("space_guid", sessionSpace.getMeta().getGuid());
 		appRequest.put("name", appName);
@@ -879,11 +1212,11 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		UUID newAppGuid = CloudEntityResourceMapper.getMeta(appEntity).getGuid();
 
 		if (serviceNames != null && serviceNames.size() > 0) {
-			updateApplicationServices(appName, serviceNames);
+			updateApplicationServices(sessionSpace, appName, serviceNames);
 		}
 
 		if (uris != null && uris.size() > 0) {
-			addUris(uris, newAppGuid);
+			addUris(sessionSpace, uris, newAppGuid);
 		}
 
 	}
@@ -920,23 +1253,23 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return (String) respMap.get("next_url");
 	}
 
-	private void addUris(List<String> uris, UUID appGuid) {
-		Map<String, UUID> domains = getDomainGuids();
+	private void addUris(CloudSpace sessionSpace, List<String> uris, UUID appGuid) {
+		Map<String, UUID> domains = getDomainGuids(sessionSpace);
 		for (String uri : uris) {
 			Map<String, String> uriInfo = new HashMap<String, String>(2);
 			extractUriInfo(domains, uri, uriInfo);
 			UUID domainGuid = domains.get(uriInfo.get("domainName"));
-			bindRoute(uriInfo.get("host"), domainGuid, appGuid);
+			bindRoute(sessionSpace, uriInfo.get("host"), domainGuid, appGuid);
 		}
 	}
 
-	private void removeUris(List<String> uris, UUID appGuid) {
-		Map<String, UUID> domains = getDomainGuids();
+	private void removeUris(CloudSpace sessionSpace, List<String> uris, UUID appGuid) {
+		Map<String, UUID> domains = getDomainGuids(sessionSpace);
 		for (String uri : uris) {
 			Map<String, String> uriInfo = new HashMap<String, String>(2);
 			extractUriInfo(domains, uri, uriInfo);
 			UUID domainGuid = domains.get(uriInfo.get("domainName"));
-			unbindRoute(uriInfo.get("host"), domainGuid, appGuid);
+			unbindRoute(sessionSpace, uriInfo.get("host"), domainGuid, appGuid);
 		}
 	}
 
@@ -964,7 +1297,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		}
 	}
 
-	private Map<String, UUID> getDomainGuids() {
+	private Map<String, UUID> getDomainGuids(CloudSpace sessionSpace) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -999,10 +1332,10 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return domainGuid;
 	}
 
-	private void bindRoute(String host, UUID domainGuid, UUID appGuid) {
-		UUID routeGuid = getRouteGuid(host, domainGuid);
+	private void bindRoute(CloudSpace sessionSpace, String host, UUID domainGuid, UUID appGuid) {
+		UUID routeGuid = getRouteGuid(sessionSpace, host, domainGuid);
 		if (routeGuid == null) {
-			routeGuid = doAddRoute(host, domainGuid);
+			routeGuid = doAddRoute(sessionSpace, host, domainGuid);
 		}
 		String bindPath = "/v2/apps/{app}/routes/{route}";
 		Map<String, Object> bindVars = new HashMap<String, Object>();
@@ -1012,8 +1345,8 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		getRestTemplate().put(getUrl(bindPath), bindRequest, bindVars);
 	}
 
-	private void unbindRoute(String host, UUID domainGuid, UUID appGuid) {
-		UUID routeGuid = getRouteGuid(host, domainGuid);
+	private void unbindRoute(CloudSpace sessionSpace, String host, UUID domainGuid, UUID appGuid) {
+		UUID routeGuid = getRouteGuid(sessionSpace, host, domainGuid);
 		if (routeGuid != null) {
 			String bindPath = "/v2/apps/{app}/routes/{route}";
 			Map<String, Object> bindVars = new HashMap<String, Object>();
@@ -1023,7 +1356,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		}
 	}
 
-	private UUID getRouteGuid(String host, UUID domainGuid) {
+	private UUID getRouteGuid(CloudSpace sessionSpace, String host, UUID domainGuid) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		urlPath = urlPath + "/routes?inline-relations-depth=0&q=host:{host}";
@@ -1041,7 +1374,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return routeGuid;
 	}
 
-	private UUID doAddRoute(String host, UUID domainGuid) {
+	private UUID doAddRoute(CloudSpace sessionSpace, String host, UUID domainGuid) {
 		Assert.notNull(sessionSpace, "Unable to add route without specifying space to use.");
 
 		HashMap<String, Object> routeRequest = new HashMap<String, Object>();
@@ -1054,23 +1387,53 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void uploadApplication(String appName, File file, UploadStatusCallback callback) throws IOException {
+		uploadApplication(appName, file, callback, false);
+	}
+
+	public void uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback)
+			throws IOException {
+		uploadApplication(appName, archive, callback, false);
+	}
+
+	public UploadToken asyncUploadApplication(String appName, File file, UploadStatusCallback callback)
+			throws IOException {
+		return uploadApplication(appName, file, callback, true);
+	}
+
+	public UploadToken asyncUploadApplication(String appName, ApplicationArchive archive,
+			UploadStatusCallback callback) throws IOException {
+		return uploadApplication(appName, archive, callback, true);
+	}
+
+	public CloudJob getUploadStatus(UploadToken token) {
+		Assert.notNull(token, "Token must not be null");
+		return getJob(token.getJobUrl());
+	}
+
+	public CloudJob waitForUpload(UploadToken token, long timeout) {
+		Assert.notNull(token, "Token must not be null");
+		return waitForJob(token.getJob(), timeout);
+	}
+
+	private UploadToken uploadApplication(String appName, File file, UploadStatusCallback callback, boolean async)
+			throws IOException {
 		Assert.notNull(file, "File must not be null");
 		if (file.isDirectory()) {
 			ApplicationArchive archive = new DirectoryApplicationArchive(file);
-			uploadApplication(appName, archive, callback);
+			return uploadApplication(appName, archive, callback, async);
 		} else {
 			ZipFile zipFile = new ZipFile(file);
 			try {
 				ApplicationArchive archive = new ZipApplicationArchive(zipFile);
-				uploadApplication(appName, archive, callback);
+				return uploadApplication(appName, archive, callback, async);
 			} finally {
 				zipFile.close();
 			}
 		}
 	}
 
-	public void uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback)
-			throws IOException {
+	private UploadToken uploadApplication(String appName, ApplicationArchive archive, UploadStatusCallback callback,
+			boolean async) throws IOException {
 		Assert.notNull(appName, "AppName must not be null");
 		Assert.notNull(archive, "Archive must not be null");
 		UUID appId = getAppId(appName);
@@ -1078,18 +1441,170 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		if (callback == null) {
 			callback = UploadStatusCallback.NONE;
 		}
-		CloudResources knownRemoteResources = getKnownRemoteResources(archive);
+		UploadProgressMonitor monitor = null;
+		if (callback instanceof UploadProgressCallback) {
+			monitor = new UploadProgressMonitor((UploadProgressCallback) callback);
+		}
+		long hashStarted = System.currentTimeMillis();
+		CloudResources archiveResources = new CloudResources(archive);
+		long matchStarted = System.currentTimeMillis();
+		if (monitor != null) {
+			monitor.addHashTime(matchStarted - hashStarted);
+		}
+		// The outcome of an asynchronous upload is not known here, so the resource manifest is only used for
+		// synchronous uploads
+		ResourceManifestFile manifest = (async ? null : getResourceManifestFile());
+		CloudResources knownRemoteResources = null;
+		if (manifest != null) {
+			knownRemoteResources = manifest.retrieveKnownResources(cloudControllerUrl, appId, archiveResources);
+		}
+		boolean matchedFromManifest = knownRemoteResources != null;
+		if (!matchedFromManifest) {
+			knownRemoteResources = getKnownRemoteResources(archiveResources);
+		}
+		if (monitor != null) {
+			monitor.addMatchTime(System.currentTimeMillis() - matchStarted);
+		}
+		if (async) {
+			return doAsyncUploadApplication(appId, archive, knownRemoteResources, callback, monitor);
+		}
+		try {
+			doUploadApplication(appId, archive, knownRemoteResources, callback, monitor);
+		} catch (CloudFoundryException e) {
+			if (!matchedFromManifest || !isUnknownResourcesRejection(e)) {
+				throw e;
+			}
+			// The controller no longer holds some of the resources recorded in the manifest
+			logger.debug("Upload based on the resource manifest was rejected, matching resources again. Caught:" + e, e);
+			manifest.removeResources(cloudControllerUrl, appId);
+			matchStarted = System.currentTimeMillis();
+			knownRemoteResources = getKnownRemoteResources(archiveResources);
+			if (monitor != null) {
+				monitor.addMatchTime(System.currentTimeMillis() - matchStarted);
+			}
+			doUploadApplication(appId, archive, knownRemoteResources, callback, monitor);
+		}
+		if (manifest != null) {
+			manifest.saveResources(cloudControllerUrl, appId, archiveResources, knownRemoteResources);
+		}
+		return null;
+	}
+
+	private static boolean isUnknownResourcesRejection(CloudFoundryException e) {
+		return e.getStatusCode() == HttpStatus.BAD_REQUEST
+				&& e.getCloudFoundryErrorCode() == APP_BITS_UPLOAD_INVALID;
+	}
+
+	private void doUploadApplication(UUID appId, ApplicationArchive archive, CloudResources knownRemoteResources,
+			UploadStatusCallback callback, UploadProgressMonitor monitor) throws IOException {
 		callback.onCheckResources();
 		callback.onMatchedFileNames(knownRemoteResources.getFilenames());
 		UploadApplicationPayload payload = new UploadApplicationPayload(archive, knownRemoteResources);
+		payload.setProgressMonitor(monitor);
 		callback.onProcessMatchedResources(payload.getTotalUncompressedSize());
 		HttpEntity<?> entity = generatePartialResourceRequest(payload, knownRemoteResources);
 		String url = getUrl("/v2/apps/{guid}/bits");
-		getRestTemplate().put(url, entity, appId);
+		getUploadRestTemplate().put(url, entity, appId);
+		if (monitor != null) {
+			monitor.onUploadCompleted();
+		}
 	}
 
-	private CloudResources getKnownRemoteResources(ApplicationArchive archive) throws IOException {
-		CloudResources archiveResources = new CloudResources(archive);
+	private UploadToken doAsyncUploadApplication(UUID appId, ApplicationArchive archive,
+			CloudResources knownRemoteResources, UploadStatusCallback callback, UploadProgressMonitor monitor)
+			throws IOException {
+		callback.onCheckResources();
+		callback.onMatchedFileNames(knownRemoteResources.getFilenames());
+		UploadApplicationPayload payload = new UploadApplicationPayload(archive, knownRemoteResources);
+		payload.setProgressMonitor(monitor);
+		callback.onProcessMatchedResources(payload.getTotalUncompressedSize());
+		// Build the payload once so that a failed transfer can be replayed without compressing the archive again
+		payload.cache();
+		try {
+			HttpEntity<?> entity = generatePartialResourceRequest(payload, knownRemoteResources);
+			String url = getUrl("/v2/apps/{guid}/bits?async=true");
+			long delay = UPLOAD_RETRY_INITIAL_DELAY;
+			for (int attempt = 1; ; attempt++) {
+				try {
+					String response = getUploadRestTemplate().exchange(url, HttpMethod.PUT, entity, String.class,
+							appId).getBody();
+					if (monitor != null) {
+						monitor.onUploadCompleted();
+					}
+					CloudJob job = resourceMapper.mapResource(JsonUtil.convertJsonToMap(response), CloudJob.class);
+					return new UploadToken(appId, job);
+				} catch (ResourceAccessException e) {
+					if (attempt >= UPLOAD_RETRY_ATTEMPTS) {
+						throw e;
+					}
+					logger.debug("Upload of application bits failed, retrying in " + delay + "ms. Caught:" + e, e);
+					sleep(delay);
+					delay = Math.min(delay * 2, UPLOAD_RETRY_MAX_DELAY);
+				}
+			}
+		} finally {
+			payload.deleteCache();
+		}
+	}
+
+	public void copyApplicationBits(String sourceAppName, String targetAppName) {
+		CloudSpace sessionSpace = getSessionSpace();
+		copyApplicationBits(getApplication(sessionSpace, sourceAppName), getApplication(sessionSpace, targetAppName));
+	}
+
+	public void copyApplicationBits(CloudApplication sourceApp, CloudApplication targetApp) {
+		Assert.notNull(sourceApp, "Source application must not be null");
+		Assert.notNull(targetApp, "Target application must not be null");
+		Map<String, Object> copyRequest = new HashMap<String, Object>();
+		copyRequest.put("source_app_guid", sourceApp.getMeta().getGuid());
+		String response = getRestTemplate().postForObject(getUrl("/v2/apps/{guid}/copy_bits"), copyRequest,
+				String.class, targetApp.getMeta().getGuid());
+		CloudJob job = resourceMapper.mapResource(JsonUtil.convertJsonToMap(response), CloudJob.class);
+		assertJobFinished(waitForJob(job, COPY_BITS_TIMEOUT), "Copy of application bits");
+	}
+
+	private CloudJob getJob(String jobUrl) {
+		String response = getRestTemplate().getForObject(getUrl(jobUrl), String.class);
+		return resourceMapper.mapResource(JsonUtil.convertJsonToMap(response), CloudJob.class);
+	}
+
+	private CloudJob waitForJob(CloudJob job, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long interval = JOB_POLLING_INITIAL_INTERVAL;
+		while (!job.getStatus().isComplete()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			sleep(Math.min(interval, remaining));
+			interval = Math.min(interval * 3 / 2, JOB_POLLING_MAX_INTERVAL);
+			job = getJob(job.getUrl());
+		}
+		return job;
+	}
+
+	private void assertJobFinished(CloudJob job, String operation) {
+		if (job.getStatus() == CloudJob.Status.FAILED) {
+			throw new CloudFoundryException(HttpStatus.BAD_REQUEST, "Bad Request",
+					operation + " failed" + (job.getErrorDetails() != null ? ": " +
+							job.getErrorDetails().getDescription() : ""));
+		}
+		if (job.getStatus() != CloudJob.Status.FINISHED) {
+			throw new CloudFoundryException(HttpStatus.REQUEST_TIMEOUT, "Request Timeout",
+					operation + " did not complete in time, last status was " + job.getStatus());
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RestClientException("Interrupted while waiting", e);
+		}
+	}
+
+	private CloudResources getKnownRemoteResources(CloudResources archiveResources) throws IOException {
 		String json = JsonUtil.convertToJson(archiveResources);
 		HttpHeaders headers = new HttpHeaders();
 		headers.setContentType(JSON_MEDIA_TYPE);
@@ -1113,7 +1628,10 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public StartingInfo startApplication(String appName) {
-		CloudApplication app = getApplication(appName);
+		return startApplication(getApplication(appName));
+	}
+
+	private StartingInfo startApplication(CloudApplication app) {
 		if (app.getState() != CloudApplication.AppState.STARTED) {
 			HashMap<String, Object> appRequest = new HashMap<String, Object>();
 			appRequest.put("state", CloudApplication.AppState.STARTED);
@@ -1152,7 +1670,10 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void stopApplication(String appName) {
-		CloudApplication app = getApplication(appName);
+		stopApplication(getApplication(appName));
+	}
+
+	private void stopApplication(CloudApplication app) {
 		if (app.getState() != CloudApplication.AppState.STOPPED) {
 			HashMap<String, Object> appRequest = new HashMap<String, Object>();
 			appRequest.put("state", CloudApplication.AppState.STOPPED);
@@ -1161,8 +1682,9 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public StartingInfo restartApplication(String appName) {
-		stopApplication(appName);
-		return startApplication(appName);
+		CloudSpace sessionSpace = getSessionSpace();
+		stopApplication(getApplication(sessionSpace, appName));
+		return startApplication(getApplication(sessionSpace, appName));
 	}
 
 	public void deleteApplication(String appName) {
@@ -1173,7 +1695,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	public void deleteAllApplications() {
 		List<CloudApplication> cloudApps = getApplications();
 		for (CloudApplication cloudApp : cloudApps) {
-			deleteApplication(cloudApp.getName());
+			doDeleteApplication(cloudApp.getMeta().getGuid());
 		}
 	}
 
@@ -1192,13 +1714,17 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void updateApplicationServices(String appName, List<String> services) {
-		CloudApplication app = getApplication(appName);
+		updateApplicationServices(getSessionSpace(), appName, services);
+	}
+
+	private void updateApplicationServices(CloudSpace sessionSpace, String appName, List<String> services) {
+		CloudApplication app = getApplication(sessionSpace, appName);
 		List<UUID> addServices = new ArrayList<UUID>();
 		List<UUID> deleteServices = new ArrayList<UUID>();
 		// services to add
 		for (String serviceName : services) {
 			if (!app.getServices().contains(serviceName)) {
-				CloudService cloudService = getService(serviceName);
+				CloudService cloudService = getService(sessionSpace, serviceName);
 				if (cloudService != null) {
 					addServices.add(cloudService.getMeta().getGuid());
 				}
@@ -1211,7 +1737,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		// services to delete
 		for (String serviceName : app.getServices()) {
 			if (!services.contains(serviceName)) {
-				CloudService cloudService = getService(serviceName);
+				CloudService cloudService = getService(sessionSpace, serviceName);
 				if (cloudService != null) {
 					deleteServices.add(cloudService.getMeta().getGuid());
 				}
@@ -1250,13 +1776,14 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void updateApplicationUris(String appName, List<String> uris) {
-		CloudApplication app = getApplication(appName);
+		CloudSpace sessionSpace = getSessionSpace();
+		CloudApplication app = getApplication(sessionSpace, appName);
 		List<String> newUris = new ArrayList<String>(uris);
 		newUris.removeAll(app.getUris());
 		List<String> removeUris = app.getUris();
 		removeUris.removeAll(uris);
-		addUris(newUris, app.getMeta().getGuid());
-		removeUris(removeUris, app.getMeta().getGuid());
+		addUris(sessionSpace, newUris, app.getMeta().getGuid());
+		removeUris(sessionSpace, removeUris, app.getMeta().getGuid());
 	}
 
 	public void updateApplicationEnv(String appName, Map<String, String> env) {
@@ -1280,14 +1807,16 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void bindService(String appName, String serviceName) {
-		CloudService cloudService = getService(serviceName);
-		UUID appId = getAppId(appName);
+		CloudSpace sessionSpace = getSessionSpace();
+		CloudService cloudService = getService(sessionSpace, serviceName);
+		UUID appId = getAppId(sessionSpace, appName);
 		doBindService(appId, cloudService.getMeta().getGuid());
 	}
 
 	public void unbindService(String appName, String serviceName) {
-		CloudService cloudService = getService(serviceName);
-		UUID appId = getAppId(appName);
+		CloudSpace sessionSpace = getSessionSpace();
+		CloudService cloudService = getService(sessionSpace, serviceName);
+		UUID appId = getAppId(sessionSpace, appName);
 		doUnbindService(appId, cloudService.getMeta().getGuid());
 	}
 
@@ -1354,28 +1883,32 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public List<CloudDomain> getDomainsForOrg() {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to access organization domains without specifying organization and space to use.");
 		return doGetDomains(null);
 	}
 
 	public List<CloudDomain> getDomains() {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to access domains for space without specifying organization and space to use.");
 		return doGetDomains(sessionSpace);
 	}
 
 	public void addDomain(String domainName) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to add domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, false);
 		if (domainGuid == null) {
-			domainGuid = doCreateDomain(domainName);
+			domainGuid = doCreateDomain(sessionSpace, domainName);
 		}
-		doAddDomain(domainGuid);
+		doAddDomain(sessionSpace, domainGuid);
 	}
 
 	public void deleteDomain(String domainName) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to delete domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, true);
-		List<CloudRoute> routes = getRoutes(domainName);
+		List<CloudRoute> routes = doGetRoutes(sessionSpace, domainGuid);
 		if (routes.size() > 0) {
 			throw new IllegalStateException("Unable to remove domain that is in use --" +
 					" it has " + routes.size() + " routes.");
@@ -1384,27 +1917,37 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void removeDomain(String domainName) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to remove domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, true);
-		doRemoveDomain(domainGuid);
+		doRemoveDomain(sessionSpace, domainGuid);
 	}
 
 	public List<CloudRoute> getRoutes(String domainName) {
+		return getRoutes(getSessionSpace(), domainName);
+	}
+
+	private List<CloudRoute> getRoutes(CloudSpace sessionSpace, String domainName) {
 		Assert.notNull(sessionSpace, "Unable to get routes for domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, true);
-		return doGetRoutes(domainGuid);
+		return doGetRoutes(sessionSpace, domainGuid);
 	}
 
 	public void addRoute(String host, String domainName) {
+		CloudSpace sessionSpace = getSessionSpace();
 		Assert.notNull(sessionSpace, "Unable to add route for domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, true);
-		doAddRoute(host, domainGuid);
+		doAddRoute(sessionSpace, host, domainGuid);
 	}
 
 	public void deleteRoute(String host, String domainName) {
+		deleteRoute(getSessionSpace(), host, domainName);
+	}
+
+	private void deleteRoute(CloudSpace sessionSpace, String host, String domainName) {
 		Assert.notNull(sessionSpace, "Unable to delete route for domain without specifying organization and space to use.");
 		UUID domainGuid = getDomainGuid(domainName, true);
-		UUID routeGuid = getRouteGuid(host, domainGuid);
+		UUID routeGuid = getRouteGuid(sessionSpace, host, domainGuid);
 		if (routeGuid == null) {
 			throw new IllegalArgumentException("Host '" + host + "' not found for domain '" + domainName + "'.");
 		}
@@ -1442,7 +1985,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return domains;
 	}
 
-	private void doAddDomain(UUID domainGuid) {
+	private void doAddDomain(CloudSpace sessionSpace, UUID domainGuid) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -1455,7 +1998,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		getRestTemplate().put(getUrl(urlPath), request, urlVars);
 	}
 
-	private UUID doCreateDomain(String domainName) {
+	private UUID doCreateDomain(CloudSpace sessionSpace, String domainName) {
 		String urlPath = "/v2/domains";
 		HashMap<String, Object> domainRequest = new HashMap<String, Object>();
 		domainRequest.put("owning_organization_guid", sessionSpace.getOrganization().getMeta().getGuid());
@@ -1473,7 +2016,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		getRestTemplate().delete(getUrl(urlPath), urlVars);
 	}
 
-	private void doRemoveDomain(UUID domainGuid) {
+	private void doRemoveDomain(CloudSpace sessionSpace, UUID domainGuid) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -1486,7 +2029,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		getRestTemplate().delete(getUrl(urlPath), urlVars);
 	}
 
-	private List<CloudRoute> doGetRoutes(UUID domainGuid) {
+	private List<CloudRoute> doGetRoutes(CloudSpace sessionSpace, UUID domainGuid) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 //		TODO: NOT implemented ATM:
@@ -1509,8 +2052,8 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return routes;
 	}
 
-	private void doDeleteService(CloudService cloudService) {
-		List<UUID> appIds = getAppsBoundToService(cloudService);
+	private void doDeleteService(CloudSpace sessionSpace, CloudService cloudService) {
+		List<UUID> appIds = getAppsBoundToService(sessionSpace, cloudService);
 		if (appIds.size() > 0) {
 			for (UUID appId : appIds) {
 				doUnbindService(appId, cloudService.getMeta().getGuid());
@@ -1520,7 +2063,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	@SuppressWarnings("unchecked")
-	private List<UUID> getAppsBoundToService(CloudService cloudService) {
+	private List<UUID> getAppsBoundToService(CloudSpace sessionSpace, CloudService cloudService) {
 		List<UUID> appGuids = new ArrayList<UUID>();
 		String urlPath = "/v2";
 		Map<String, Object> urlVars = new HashMap<String, Object>();
@@ -1583,9 +2126,13 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return serviceBindingId;
 	}
 
-	@SuppressWarnings("unchecked")
 	private UUID getAppId(String appName) {
-		Map<String, Object> resource = findApplicationResource(appName, false);
+		return getAppId(getSessionSpace(), appName);
+	}
+
+	@SuppressWarnings("unchecked")
+	private UUID getAppId(CloudSpace sessionSpace, String appName) {
+		Map<String, Object> resource = findApplicationResource(sessionSpace, appName, false);
 		UUID guid = null;
 		if (resource != null) {
 			Map<String, Object> appMeta = (Map<String, Object>) resource.get("metadata");
@@ -1605,7 +2152,8 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	
-	private Map<String, Object> findApplicationResource(String appName, boolean fetchServiceInfo) {
+	private Map<String, Object> findApplicationResource(CloudSpace sessionSpace, String appName,
+			boolean fetchServiceInfo) {
 		Map<String, Object> urlVars = new HashMap<String, Object>();
 		String urlPath = "/v2";
 		if (sessionSpace != null) {
@@ -1646,6 +2194,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	@SuppressWarnings("restriction")
 	private Map<String, Object> getUserInfo(String user) {
+		OAuth2AccessToken token = getToken();
 //		String userJson = getRestTemplate().getForObject(getUrl("/v2/users/{guid}"), String.class, user);
 //		Map<String, Object> userInfo = (Map<String, Object>) JsonUtil.convertJsonToMap(userJson);
 //		return userInfo();
@@ -1709,7 +2258,14 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	}
 
 	public void setCloudSpace(CloudSpace cloudSpace) {
-		this.sessionSpace=cloudSpace;
+		SessionContext current;
+		do {
+			current = session.get();
+		} while (!session.compareAndSet(current, current.withSpace(cloudSpace)));
+	}
+
+	public CloudControllerClient inSpace(CloudSpace cloudSpace) {
+		return new SpaceView(this, cloudSpace);
 	}
 
 	public void createUser(String email, String password) {
@@ -1739,8 +2295,321 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	public Object downloadApplication(String appName) {
 		UUID appId = getAppId(appName);
 		String url = getUrl("/v2/apps/{guid}/download");
-		Object o=getRestTemplate().getForObject(url, String.class,appId);
-		return o;
+		return getRestTemplate().getForObject(url, String.class, appId);
+	}
+
+	public void downloadApplication(String appName, File destination) throws IOException {
+		Assert.notNull(destination, "Destination must not be null");
+		FileOutputStream outputStream = new FileOutputStream(destination);
+		try {
+			doDownload(getUrl("/v2/apps/{guid}/download"), outputStream, getAppId(appName));
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	public long downloadApplication(String appName, long startPosition, long endPosition, OutputStream outputStream) {
+		Assert.isTrue(startPosition >= 0, "Invalid start position value: " + startPosition);
+		Assert.isTrue(endPosition >= startPosition,
+				"The end position (" + endPosition + ") can't be less than the start position (" + startPosition + ")");
+		Assert.notNull(outputStream, "OutputStream must not be null");
+		URI uri = new UriTemplate(getUrl("/v2/apps/{guid}/download")).expand(getAppId(appName));
+		return doGetRange(uri, startPosition, endPosition, outputStream);
+	}
+
+	public ReadableByteChannel downloadApplicationAsChannel(String appName) throws IOException {
+		return openChannel(getUrl("/v2/apps/{guid}/download"), getAppId(appName));
+	}
+
+	private long doDownload(String url, final OutputStream outputStream, Object... urlVariables) {
+		return getRestTemplate().execute(url, HttpMethod.GET, null, new ResponseExtractor<Long>() {
+			public Long extractData(ClientHttpResponse response) throws IOException {
+				return copy(response.getBody(), outputStream);
+			}
+		}, urlVariables);
+	}
+
+	private ReadableByteChannel openChannel(String url, Object... urlVariables) throws IOException {
+		// Not done through RestTemplate.execute, as that closes the response before the caller could read it
+		RestTemplate restTemplate = getRestTemplate();
+		URI uri = new UriTemplate(url).expand(urlVariables);
+		long startTime = System.nanoTime();
+		ClientHttpResponse response = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET).execute();
+		boolean opened = false;
+		try {
+			if (restTemplate.getErrorHandler().hasError(response)) {
+				restTemplate.getErrorHandler().handleError(response);
+			}
+			ReadableByteChannel channel = new ResponseChannel(response);
+			opened = true;
+			return channel;
+		} finally {
+			addLogMessage(HttpMethod.GET, uri, opened ? "OK" : "ERROR", response.getStatusCode(),
+					opened ? "<streamed>" : response.getStatusText(), startTime, response.getHeaders().getContentLength());
+			if (!opened) {
+				response.close();
+			}
+		}
+	}
+
+	private void addLogMessage(HttpMethod method, URI uri, String status, HttpStatus httpStatus, String message,
+			long startTime, long responseBytes) {
+		if (getRestTemplate() instanceof LoggingRestTemplate) {
+			LoggingRestTemplate restTemplate = (LoggingRestTemplate) getRestTemplate();
+			restTemplate.addLogMessage(method, uri, status, httpStatus, message);
+			restTemplate.recordMetrics(method, uri, httpStatus, !status.equals("OK"), System.nanoTime() - startTime,
+					-1, responseBytes);
+		}
+	}
+
+	/**
+	 * Reads a byte range of a resource, from the start position to the end position (inclusive) or to the end of the
+	 * resource when the end position is -1. Servers that ignore the range are handled by skipping to the start.
+	 *
+	 * @return the size of the resource, or -1 if not known
+	 */
+	private long doGetRange(URI uri, long startPosition, long endPosition, OutputStream outputStream) {
+		// Executed directly so that the size reported with a 416 response is available
+		RestTemplate restTemplate = getRestTemplate();
+		String rangeSupportKey = getRangeSupportKey(uri);
+		String status = "ERROR";
+		HttpStatus httpStatus = null;
+		String message = null;
+		long received = -1;
+		long startTime = System.nanoTime();
+		try {
+			ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET);
+			request.getHeaders().set("Range", "bytes=" + startPosition + "-" + (endPosition >= 0 ? endPosition : ""));
+			ClientHttpResponse response = request.execute();
+			try {
+				httpStatus = response.getStatusCode();
+				if (httpStatus.equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+					// nothing past the start position
+					setRangeSupported(rangeSupportKey, true);
+					status = "OK";
+					message = "<no data>";
+					return getContentRangeSize(response.getHeaders());
+				}
+				if (restTemplate.getErrorHandler().hasError(response)) {
+					restTemplate.getErrorHandler().handleError(response);
+				}
+				if (outputStream instanceof PartialContentListener) {
+					((PartialContentListener) outputStream).responseReceived(
+							httpStatus.equals(HttpStatus.PARTIAL_CONTENT));
+				}
+				InputStream body = response.getBody();
+				long size;
+				if (httpStatus.equals(HttpStatus.PARTIAL_CONTENT)) {
+					setRangeSupported(rangeSupportKey, true);
+					long count = (body != null ? copy(body, outputStream) : 0);
+					size = getContentRangeSize(response.getHeaders());
+					received = count;
+					message = count + " bytes";
+				} else {
+					// the full content was returned, skip what the caller already has
+					setRangeSupported(rangeSupportKey, false);
+					long count = 0;
+					size = 0;
+					if (body != null) {
+						size = skip(body, startPosition);
+						if (endPosition >= 0) {
+							count = copy(new LimitedInputStream(body, endPosition - startPosition + 1), outputStream);
+							size = response.getHeaders().getContentLength();
+						} else {
+							count = copy(body, outputStream);
+							size += count;
+						}
+					}
+					received = count;
+					message = count + " bytes";
+				}
+				status = "OK";
+				return size;
+			} finally {
+				response.close();
+			}
+		} catch (IOException e) {
+			message = e.getMessage();
+			throw new ResourceAccessException("I/O error: " + e.getMessage(), e);
+		} catch (RestClientException e) {
+			message = e.getMessage();
+			throw e;
+		} finally {
+			addLogMessage(HttpMethod.GET, uri, status, httpStatus, message, startTime, received);
+		}
+	}
+
+	/**
+	 * Identifies what serves a file for the range support records. Instance files are served by the host running the
+	 * instance, which the controller redirects to, so they are told apart by instance rather than by controller.
+	 */
+	private static String getRangeSupportKey(URI uri) {
+		String path = uri.getPath();
+		int files = path.indexOf("/files/");
+		return uri.getAuthority() + (files != -1 ? path.substring(0, files) : path);
+	}
+
+	private boolean isRangeSupported(String rangeSupportKey) {
+		Long until = rangesUnsupported.get(rangeSupportKey);
+		if (until == null) {
+			return true;
+		}
+		if (System.currentTimeMillis() >= until) {
+			// ask for a range again, the server may have changed
+			rangesUnsupported.remove(rangeSupportKey, until);
+			return true;
+		}
+		return false;
+	}
+
+	private void setRangeSupported(String rangeSupportKey, boolean supported) {
+		if (supported) {
+			rangesUnsupported.remove(rangeSupportKey);
+		} else {
+			rangesUnsupported.put(rangeSupportKey, System.currentTimeMillis() + RANGE_SUPPORT_RECHECK_INTERVAL);
+		}
+	}
+
+	private static long getContentRangeSize(HttpHeaders headers) {
+		// Content-Range: bytes 0-99/1234 or bytes */1234
+		String contentRange = headers.getFirst("Content-Range");
+		if (contentRange != null) {
+			int slash = contentRange.lastIndexOf('/');
+			if (slash != -1) {
+				try {
+					return Long.parseLong(contentRange.substring(slash + 1).trim());
+				} catch (NumberFormatException e) {
+					// size not known ("*")
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static long skip(InputStream inputStream, long count) throws IOException {
+		long skipped = 0;
+		while (skipped < count) {
+			long n = inputStream.skip(count - skipped);
+			if (n <= 0) {
+				if (inputStream.read() == -1) {
+					break;
+				}
+				n = 1;
+			}
+			skipped += n;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Copies a response body in fixed-size chunks, transferring straight into the file channel when the destination
+	 * is a file.
+	 */
+	private static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		if (outputStream instanceof FileOutputStream) {
+			FileChannel fileChannel = ((FileOutputStream) outputStream).getChannel();
+			ReadableByteChannel source = Channels.newChannel(inputStream);
+			long start = fileChannel.position();
+			long position = start;
+			long count;
+			while ((count = fileChannel.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+				position += count;
+			}
+			fileChannel.position(position);
+			return position - start;
+		}
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long total = 0;
+		int count;
+		while ((count = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, count);
+			total += count;
+		}
+		outputStream.flush();
+		return total;
+	}
+
+	/**
+	 * Copies a response body that arrives over time, such as a tailed log, passing on each part as soon as it is read.
+	 */
+	private static long copyFlushing(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long total = 0;
+		int count;
+		while ((count = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, count);
+			outputStream.flush();
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Input stream that ends after a number of bytes of the underlying stream.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int count = in.read(b, off, (int) Math.min(len, remaining));
+			if (count > 0) {
+				remaining -= count;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Channel over the body of a response that is still open, closing the response along with the channel.
+	 */
+	private static class ResponseChannel implements ReadableByteChannel {
+
+		private final ClientHttpResponse response;
+
+		private final ReadableByteChannel body;
+
+		ResponseChannel(ClientHttpResponse response) throws IOException {
+			this.response = response;
+			this.body = Channels.newChannel(response.getBody());
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			return body.read(dst);
+		}
+
+		public boolean isOpen() {
+			return body.isOpen();
+		}
+
+		public void close() throws IOException {
+			try {
+				body.close();
+			} finally {
+				response.close();
+			}
+		}
 	}
 
 	public void deleteUser(String userGuid) {
@@ -1754,23 +2623,24 @@ public class CloudControllerClientImpl implements CloudControllerClient {
      */
     @Override
     public List<CloudRoute> deleteOrphanedRoutes() {
+        CloudSpace sessionSpace = getSessionSpace();
         List<CloudRoute> orphanRoutes = new ArrayList<CloudRoute>();
         for (CloudDomain cloudDomain : getDomainsForOrg()) {
-            orphanRoutes.addAll(fetchOrphanRoutes(cloudDomain.getName()));
+            orphanRoutes.addAll(fetchOrphanRoutes(sessionSpace, cloudDomain.getName()));
         }
 
         List<CloudRoute> deletedCloudRoutes = new ArrayList<CloudRoute>();
         for (CloudRoute orphanRoute : orphanRoutes) {
-            deleteRoute(orphanRoute.getHost(), orphanRoute.getDomain().getName());
+            deleteRoute(sessionSpace, orphanRoute.getHost(), orphanRoute.getDomain().getName());
             deletedCloudRoutes.add(orphanRoute);
         }
 
         return deletedCloudRoutes;
     }
 
-    private List<CloudRoute> fetchOrphanRoutes(String domainName) {
+    private List<CloudRoute> fetchOrphanRoutes(CloudSpace sessionSpace, String domainName) {
         List<CloudRoute> orphanRoutes = new ArrayList<CloudRoute>();
-        for (CloudRoute cloudRoute : getRoutes(domainName)) {
+        for (CloudRoute cloudRoute : getRoutes(sessionSpace, domainName)) {
             if (isOrphanRoute(cloudRoute)) {
                 orphanRoutes.add(cloudRoute);
             }
@@ -1783,4 +2653,77 @@ public class CloudControllerClientImpl implements CloudControllerClient {
         return cloudRoute.getAppsUsingRoute() == 0;
     }
 
+	/**
+	 * Client scoped to a fixed space that shares the connections, request factories and session of the client it
+	 * was created from. Logging in or out and changing the credentials apply to both; the settings of the request
+	 * factories and the resource manifest are read from and changed on the client, so they are the same for both.
+	 */
+	private static class SpaceView extends CloudControllerClientImpl {
+
+		private final CloudControllerClientImpl client;
+
+		private final CloudSpace space;
+
+		SpaceView(CloudControllerClientImpl client, CloudSpace space) {
+			super(client);
+			Assert.notNull(space, "CloudSpace must not be null");
+			this.client = client;
+			this.space = space;
+		}
+
+		@Override
+		protected CloudSpace getSessionSpace() {
+			return space;
+		}
+
+		@Override
+		public void setCloudSpace(CloudSpace cloudSpace) {
+			throw new UnsupportedOperationException("The space of a space view can not be changed, use inSpace instead");
+		}
+
+		@Override
+		public CloudControllerClient inSpace(CloudSpace cloudSpace) {
+			return client.inSpace(cloudSpace);
+		}
+
+		@Override
+		public void setResponseErrorHandler(ResponseErrorHandler errorHandler) {
+			client.setResponseErrorHandler(errorHandler);
+		}
+
+		@Override
+		public void setResourceManifestFile(ResourceManifestFile resourceManifestFile) {
+			client.setResourceManifestFile(resourceManifestFile);
+		}
+
+		@Override
+		protected ResourceManifestFile getResourceManifestFile() {
+			return client.getResourceManifestFile();
+		}
+
+		@Override
+		public void setResponseCache(HttpResponseCache responseCache) {
+			client.setResponseCache(responseCache);
+		}
+
+		@Override
+		public void setRetryPolicy(RetryPolicy retryPolicy) {
+			client.setRetryPolicy(retryPolicy);
+		}
+
+		@Override
+		public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+			client.setConcurrencyLimiter(concurrencyLimiter);
+		}
+
+		@Override
+		public void setBulkhead(Bulkhead bulkhead) {
+			client.setBulkhead(bulkhead);
+		}
+
+		@Override
+		public void updateHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
+			client.updateHttpProxyConfiguration(httpProxyConfiguration);
+		}
+	}
 }
@@ -35,6 +35,7 @@ public class CloudControllerResponseErrorHandler extends DefaultResponseErrorHan
 
 		String description = "Client error";
 		String statusText = response.getStatusText();
+		int cloudFoundryErrorCode = -1;
 
 		ObjectMapper mapper = new ObjectMapper(); // can reuse, share globally
 
@@ -44,7 +45,9 @@ public class CloudControllerResponseErrorHandler extends DefaultResponseErrorHan
 				Map<String, Object> map = mapper.readValue(response.getBody(), Map.class);
 				description = CloudUtil.parse(String.class, map.get("description"));
 
-				int cloudFoundryErrorCode = CloudUtil.parse(Integer.class, map.get("code"));
+				if (map.get("code") != null) {
+					cloudFoundryErrorCode = CloudUtil.parse(Integer.class, map.get("code"));
+				}
 
 				if (cloudFoundryErrorCode >= 0) {
 					switch (cloudFoundryErrorCode) {
@@ -67,7 +70,7 @@ public class CloudControllerResponseErrorHandler extends DefaultResponseErrorHan
 
 		if (cloudFoundryException == null) {
 			cloudFoundryException = new CloudFoundryException(statusCode,
-					statusText);
+					statusText, cloudFoundryErrorCode);
 		}
 		cloudFoundryException.setDescription(description);
 
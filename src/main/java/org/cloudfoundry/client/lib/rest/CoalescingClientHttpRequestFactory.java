@@ -0,0 +1,273 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} that lets identical GET requests made at the same time share a single exchange with
+ * the server. The first request is sent, the others wait for its response and each receive their own copy of it.
+ *
+ * <p>Requests are identical when they are made for the same principal, URL and accepted media types. A request only
+ * joins an exchange that was started after the last request changing state (any method other than GET) through this
+ * factory completed, so callers always see the effect of their own changes. Ranged requests, file access (see
+ * {@link EndpointClass#FILES}) and responses larger than the maximum body size are not shared, as sharing a response
+ * means holding its whole body in memory.
+ */
+public class CoalescingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	/**
+	 * Default size of the largest response body that is shared (4MB).
+	 */
+	public static final int DEFAULT_MAXIMUM_BODY_SIZE = 4 * 1024 * 1024;
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final PrincipalResolver principalResolver;
+
+	private final FlightGroup flightGroup;
+
+	/**
+	 * @param delegate the factory creating the actual requests, including their <tt>Authorization</tt> header
+	 * @param principalResolver resolves the principal requests are made for, or <tt>null</tt> to distinguish
+	 * principals by their <tt>Authorization</tt> header
+	 */
+	public CoalescingClientHttpRequestFactory(ClientHttpRequestFactory delegate, PrincipalResolver principalResolver) {
+		this(delegate, principalResolver, new FlightGroup());
+	}
+
+	private CoalescingClientHttpRequestFactory(ClientHttpRequestFactory delegate, PrincipalResolver principalResolver,
+			FlightGroup flightGroup) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		this.delegate = delegate;
+		this.principalResolver = principalResolver;
+		this.flightGroup = flightGroup;
+	}
+
+	public ClientHttpRequestFactory getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Returns a factory for another delegate that shares the requests in flight with this one, so that changes made
+	 * through either of them are seen by the requests of both.
+	 *
+	 * @param delegate the factory creating the actual requests
+	 * @return the new factory
+	 */
+	public CoalescingClientHttpRequestFactory withDelegate(ClientHttpRequestFactory delegate) {
+		return new CoalescingClientHttpRequestFactory(delegate, principalResolver, flightGroup);
+	}
+
+	/**
+	 * Set the size of the largest response body that is shared. Larger responses are passed to the request that was
+	 * sent and the waiting requests are sent on their own.
+	 *
+	 * @param maximumBodySize the size in bytes
+	 */
+	public void setMaximumBodySize(int maximumBodySize) {
+		flightGroup.maximumBodySize = maximumBodySize;
+	}
+
+	/**
+	 * @return the number of requests that were answered with the response to another request
+	 */
+	public long getCoalescedCount() {
+		return flightGroup.coalescedCount.get();
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		ClientHttpRequest request = delegate.createRequest(uri, httpMethod);
+		return (httpMethod == HttpMethod.GET ? new CoalescingRequest(request) : new ChangingRequest(request));
+	}
+
+	/**
+	 * Requests in flight, by key, shared between factories.
+	 */
+	private static class FlightGroup {
+
+		final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+		// incremented whenever a request changing state completes
+		final AtomicLong generation = new AtomicLong();
+
+		final AtomicLong coalescedCount = new AtomicLong();
+
+		volatile int maximumBodySize = DEFAULT_MAXIMUM_BODY_SIZE;
+	}
+
+	/**
+	 * An exchange with the server that other requests wait for.
+	 */
+	private static class Flight {
+
+		final long generation;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private BufferedClientHttpResponse response;
+
+		private IOException failure;
+
+		Flight(long generation) {
+			this.generation = generation;
+		}
+
+		void complete(BufferedClientHttpResponse response, IOException failure) {
+			this.response = response;
+			this.failure = failure;
+			done.countDown();
+		}
+
+		/**
+		 * Waits for the exchange to complete.
+		 *
+		 * @return the shared response, or <tt>null</tt> if the request has to be sent on its own
+		 */
+		BufferedClientHttpResponse await() throws IOException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for an identical request");
+			}
+			if (failure != null) {
+				throw new IOException(failure.getMessage(), failure);
+			}
+			return response;
+		}
+	}
+
+	private abstract static class DelegatingRequest implements ClientHttpRequest {
+
+		protected final ClientHttpRequest request;
+
+		DelegatingRequest(ClientHttpRequest request) {
+			this.request = request;
+		}
+
+		public HttpMethod getMethod() {
+			return request.getMethod();
+		}
+
+		public URI getURI() {
+			return request.getURI();
+		}
+
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+
+		public OutputStream getBody() throws IOException {
+			return request.getBody();
+		}
+	}
+
+	private class ChangingRequest extends DelegatingRequest {
+
+		ChangingRequest(ClientHttpRequest request) {
+			super(request);
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			try {
+				return request.execute();
+			} finally {
+				flightGroup.generation.incrementAndGet();
+			}
+		}
+	}
+
+	private class CoalescingRequest extends DelegatingRequest {
+
+		CoalescingRequest(ClientHttpRequest request) {
+			super(request);
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			if (request.getHeaders().containsKey("Range") ||
+					EndpointClass.of(request.getMethod(), request.getURI()) == EndpointClass.FILES) {
+				return request.execute();
+			}
+			String key = RequestKeys.forRequest(request, principalResolver);
+			Flight flight = new Flight(flightGroup.generation.get());
+			while (true) {
+				Flight current = flightGroup.flights.putIfAbsent(key, flight);
+				if (current == null) {
+					return send(key, flight);
+				}
+				if (current.generation >= flight.generation) {
+					BufferedClientHttpResponse response = current.await();
+					if (response == null) {
+						return request.execute();
+					}
+					flightGroup.coalescedCount.incrementAndGet();
+					return response.copy();
+				}
+				// started before a change this request has to see
+				if (flightGroup.flights.replace(key, current, flight)) {
+					return send(key, flight);
+				}
+			}
+		}
+
+		private ClientHttpResponse send(String key, Flight flight) throws IOException {
+			BufferedClientHttpResponse shared = null;
+			IOException failure = null;
+			try {
+				ClientHttpResponse response = request.execute();
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				InputStream in = response.getBody();
+				if (in != null) {
+					byte[] buffer = new byte[8192];
+					int read;
+					while (body.size() <= flightGroup.maximumBodySize && (read = in.read(buffer)) != -1) {
+						body.write(buffer, 0, read);
+					}
+					if (body.size() > flightGroup.maximumBodySize) {
+						return new PrefixedClientHttpResponse(response, body.toByteArray());
+					}
+				}
+				shared = new BufferedClientHttpResponse(response.getRawStatusCode(), response.getStatusText(),
+						response.getHeaders(), body.toByteArray());
+				response.close();
+				return shared.copy();
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			} finally {
+				flightGroup.flights.remove(key, flight);
+				flight.complete(shared, failure);
+			}
+		}
+	}
+}
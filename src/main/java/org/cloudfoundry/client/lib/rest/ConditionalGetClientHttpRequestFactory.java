@@ -0,0 +1,205 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.cloudfoundry.client.lib.cache.HttpResponseCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} that revalidates repeated GET requests with <tt>If-None-Match</tt> and
+ * <tt>If-Modified-Since</tt> and answers <tt>304 Not Modified</tt> responses with the body stored in a
+ * {@link HttpResponseCache}.
+ *
+ * <p>Responses are stored by URL and principal, so users never see each other's data. Only complete <tt>200</tt>
+ * responses carrying an <tt>ETag</tt> or <tt>Last-Modified</tt> header are stored; ranged requests and responses
+ * marked <tt>no-store</tt> are passed through. Every request still reaches the server, so no invalidation is needed
+ * when resources change.
+ */
+public class ConditionalGetClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final String IF_NONE_MATCH = "If-None-Match";
+
+	private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+	private static final String ETAG = "ETag";
+
+	private static final String LAST_MODIFIED = "Last-Modified";
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final HttpResponseCache responseCache;
+
+	private final PrincipalResolver principalResolver;
+
+	/**
+	 * @param delegate the factory creating the actual requests, including their <tt>Authorization</tt> header
+	 * @param responseCache the store of responses
+	 * @param principalResolver resolves the principal requests are made for, or <tt>null</tt> to distinguish
+	 * principals by their <tt>Authorization</tt> header
+	 */
+	public ConditionalGetClientHttpRequestFactory(ClientHttpRequestFactory delegate, HttpResponseCache responseCache,
+			PrincipalResolver principalResolver) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		Assert.notNull(responseCache, "Response cache must not be null");
+		this.delegate = delegate;
+		this.responseCache = responseCache;
+		this.principalResolver = principalResolver;
+	}
+
+	public ClientHttpRequestFactory getDelegate() {
+		return delegate;
+	}
+
+	public HttpResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		ClientHttpRequest request = delegate.createRequest(uri, httpMethod);
+		return (httpMethod == HttpMethod.GET ? new ConditionalRequest(request) : request);
+	}
+
+	private class ConditionalRequest implements ClientHttpRequest {
+
+		private final ClientHttpRequest request;
+
+		ConditionalRequest(ClientHttpRequest request) {
+			this.request = request;
+		}
+
+		public HttpMethod getMethod() {
+			return request.getMethod();
+		}
+
+		public URI getURI() {
+			return request.getURI();
+		}
+
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+
+		public OutputStream getBody() throws IOException {
+			return request.getBody();
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			HttpHeaders headers = request.getHeaders();
+			if (headers.containsKey("Range") || headers.containsKey(IF_NONE_MATCH) ||
+					headers.containsKey(IF_MODIFIED_SINCE)) {
+				return request.execute();
+			}
+			String key = RequestKeys.forRequest(request, principalResolver);
+			HttpResponseCache.Entry entry = responseCache.get(key);
+			if (entry != null) {
+				if (entry.getEntityTag() != null) {
+					headers.set(IF_NONE_MATCH, entry.getEntityTag());
+				}
+				if (entry.getLastModified() != null) {
+					headers.set(IF_MODIFIED_SINCE, entry.getLastModified());
+				}
+			}
+			ClientHttpResponse response = request.execute();
+			int status = response.getRawStatusCode();
+			if (entry != null) {
+				responseCache.recordRevalidation(status == HttpStatus.NOT_MODIFIED.value());
+			}
+			if (entry != null && status == HttpStatus.NOT_MODIFIED.value()) {
+				response.close();
+				return toResponse(entry);
+			}
+			if (status != HttpStatus.OK.value()) {
+				if (entry != null) {
+					responseCache.remove(key);
+				}
+				return response;
+			}
+			return store(key, response);
+		}
+
+		/**
+		 * Reads the body of a response with validators into the cache, up to the maximum entry size. Larger bodies
+		 * are passed on with the part read so far put in front of the rest.
+		 */
+		private ClientHttpResponse store(String key, ClientHttpResponse response) throws IOException {
+			HttpHeaders headers = response.getHeaders();
+			String entityTag = headers.getFirst(ETAG);
+			String lastModified = headers.getFirst(LAST_MODIFIED);
+			String cacheControl = headers.getCacheControl();
+			if ((entityTag == null && lastModified == null) ||
+					(cacheControl != null && cacheControl.contains("no-store"))) {
+				responseCache.remove(key);
+				return response;
+			}
+			long contentLength = headers.getContentLength();
+			int limit = responseCache.getMaximumEntrySize();
+			if (contentLength > limit) {
+				responseCache.remove(key);
+				return response;
+			}
+			InputStream in = response.getBody();
+			ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : 8192);
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while (body.size() <= limit && (read = in.read(buffer)) != -1) {
+					body.write(buffer, 0, read);
+				}
+				if (body.size() > limit) {
+					responseCache.remove(key);
+					return new PrefixedClientHttpResponse(response, body.toByteArray());
+				}
+			}
+			response.close();
+			HttpResponseCache.Entry entry = new HttpResponseCache.Entry(entityTag, lastModified,
+					headers.getFirst("Content-Type"), body.toByteArray());
+			responseCache.put(key, entry);
+			return toResponse(entry);
+		}
+	}
+
+	/**
+	 * Returns a response serving the body of a cache entry.
+	 */
+	private static ClientHttpResponse toResponse(HttpResponseCache.Entry entry) {
+		HttpHeaders headers = new HttpHeaders();
+		if (entry.getContentType() != null) {
+			headers.set("Content-Type", entry.getContentType());
+		}
+		if (entry.getEntityTag() != null) {
+			headers.set(ETAG, entry.getEntityTag());
+		}
+		if (entry.getLastModified() != null) {
+			headers.set(LAST_MODIFIED, entry.getLastModified());
+		}
+		headers.setContentLength(entry.getBody().length);
+		return new BufferedClientHttpResponse(HttpStatus.OK.value(), HttpStatus.OK.getReasonPhrase(), headers,
+				entry.getBody());
+	}
+}
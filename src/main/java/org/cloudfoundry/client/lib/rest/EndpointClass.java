@@ -0,0 +1,70 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.net.URI;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * Classes of cloud controller endpoints that differ in the load they put on the controller, and so get separate
+ * concurrency limits from an {@link AdaptiveConcurrencyLimiter}.
+ */
+public enum EndpointClass {
+
+	/**
+	 * Reads of entities, such as listing and getting applications, services and their stats.
+	 */
+	LISTING,
+
+	/**
+	 * Requests changing entities.
+	 */
+	MUTATION,
+
+	/**
+	 * Reads of instance files and logs, and downloads of application bits.
+	 */
+	FILES,
+
+	/**
+	 * Uploads of application bits.
+	 */
+	UPLOAD;
+
+	/**
+	 * Returns the class of a request.
+	 *
+	 * @param method the method of the request
+	 * @param uri the URI of the request
+	 * @return the endpoint class
+	 */
+	public static EndpointClass of(HttpMethod method, URI uri) {
+		String path = (uri.getPath() != null ? uri.getPath() : "");
+		if (method == HttpMethod.PUT && path.endsWith("/bits")) {
+			return UPLOAD;
+		}
+		if (method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS) {
+			if (path.contains("/files/") || path.endsWith("/files") || path.endsWith("/download") ||
+					path.contains("/logs")) {
+				return FILES;
+			}
+			return LISTING;
+		}
+		return MUTATION;
+	}
+}
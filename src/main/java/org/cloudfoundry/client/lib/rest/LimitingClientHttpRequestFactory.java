@@ -0,0 +1,169 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} that holds requests back while the {@link AdaptiveConcurrencyLimiter} limit of
+ * their {@link EndpointClass} is reached, and reports the outcome of each request to the limiter.
+ *
+ * <p>A request counts as in flight until its response is closed, so that reading large bodies is limited as well.
+ * Placed behind a {@link BulkheadClientHttpRequestFactory}, it only sees requests the bulkhead let through, so waiting
+ * in the bulkhead does not count as latency.
+ */
+public class LimitingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final AdaptiveConcurrencyLimiter limiter;
+
+	public LimitingClientHttpRequestFactory(ClientHttpRequestFactory delegate, AdaptiveConcurrencyLimiter limiter) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		Assert.notNull(limiter, "Limiter must not be null");
+		this.delegate = delegate;
+		this.limiter = limiter;
+	}
+
+	public ClientHttpRequestFactory getDelegate() {
+		return delegate;
+	}
+
+	public AdaptiveConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		return new LimitedRequest(delegate.createRequest(uri, httpMethod));
+	}
+
+	private static boolean isOverloaded(int statusCode) {
+		return statusCode == 429 || statusCode == HttpStatus.BAD_GATEWAY.value() ||
+				statusCode == HttpStatus.SERVICE_UNAVAILABLE.value() || statusCode == HttpStatus.GATEWAY_TIMEOUT.value();
+	}
+
+	private class LimitedRequest implements ClientHttpRequest {
+
+		private final ClientHttpRequest request;
+
+		LimitedRequest(ClientHttpRequest request) {
+			this.request = request;
+		}
+
+		public HttpMethod getMethod() {
+			return request.getMethod();
+		}
+
+		public URI getURI() {
+			return request.getURI();
+		}
+
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+
+		public OutputStream getBody() throws IOException {
+			return request.getBody();
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			AdaptiveConcurrencyLimiter.Permit permit =
+					limiter.acquire(EndpointClass.of(request.getMethod(), request.getURI()));
+			long startTime = System.nanoTime();
+			ClientHttpResponse response;
+			try {
+				response = request.execute();
+			} catch (IOException e) {
+				permit.release(0, true);
+				throw e;
+			} catch (RuntimeException e) {
+				permit.release(0, false);
+				throw e;
+			}
+			int statusCode;
+			try {
+				statusCode = response.getRawStatusCode();
+			} catch (IOException e) {
+				permit.release(0, true);
+				response.close();
+				throw e;
+			}
+			return new LimitedResponse(response, permit, System.nanoTime() - startTime, isOverloaded(statusCode));
+		}
+	}
+
+	/**
+	 * Response that releases its permit when closed.
+	 */
+	private static class LimitedResponse implements ClientHttpResponse {
+
+		private final ClientHttpResponse response;
+
+		private final AdaptiveConcurrencyLimiter.Permit permit;
+
+		private final long latency;
+
+		private final boolean overloaded;
+
+		LimitedResponse(ClientHttpResponse response, AdaptiveConcurrencyLimiter.Permit permit, long latency,
+				boolean overloaded) {
+			this.response = response;
+			this.permit = permit;
+			this.latency = latency;
+			this.overloaded = overloaded;
+		}
+
+		public HttpStatus getStatusCode() throws IOException {
+			return response.getStatusCode();
+		}
+
+		public int getRawStatusCode() throws IOException {
+			return response.getRawStatusCode();
+		}
+
+		public String getStatusText() throws IOException {
+			return response.getStatusText();
+		}
+
+		public HttpHeaders getHeaders() {
+			return response.getHeaders();
+		}
+
+		public InputStream getBody() throws IOException {
+			return response.getBody();
+		}
+
+		public void close() {
+			try {
+				response.close();
+			} finally {
+				permit.release(latency, overloaded);
+			}
+		}
+	}
+}
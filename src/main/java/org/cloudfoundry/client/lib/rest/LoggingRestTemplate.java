@@ -17,10 +17,13 @@
 package org.cloudfoundry.client.lib.rest;
 
 import org.cloudfoundry.client.lib.RestLogCallback;
-import org.cloudfoundry.client.lib.RestLogEntry;
+import org.cloudfoundry.client.lib.metrics.EndpointNormalizer;
+import org.cloudfoundry.client.lib.metrics.RestMetricsRegistry;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.ResponseExtractor;
@@ -29,37 +32,112 @@ import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 /**
- * RestTemplate that provides for logging of any REST calls made
+ * RestTemplate that provides for logging of any REST calls made, and records call metrics when a
+ * {@link RestMetricsRegistry} is set. Log entries are delivered to listeners asynchronously through a
+ * {@link RestLogEventBus}, which can be shared by several templates. Calls are not measured while there are neither
+ * listeners nor a registry.
  *
  * @author: Thomas Risberg
  */
 public class LoggingRestTemplate extends RestTemplate {
 
-	private List<RestLogCallback> listeners = new ArrayList<RestLogCallback>();
+	private volatile RestLogEventBus eventBus = new RestLogEventBus();
+
+	private volatile RestMetricsRegistry metricsRegistry;
+
+	// the URL template of the call in progress, a better endpoint name than the expanded URL
+	private final ThreadLocal<String> urlTemplate = new ThreadLocal<String>();
+
+	public void setMetricsRegistry(RestMetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	public RestMetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	/**
+	 * Set the bus that delivers the log entries of this template, for example to share one bus between templates.
+	 */
+	public void setEventBus(RestLogEventBus eventBus) {
+		Assert.notNull(eventBus, "EventBus must not be null");
+		this.eventBus = eventBus;
+	}
+
+	public RestLogEventBus getEventBus() {
+		return eventBus;
+	}
 
 	@Override
-	protected <T> T doExecute(URI url, HttpMethod method, RequestCallback requestCallback, final ResponseExtractor<T> responseExtractor) throws RestClientException {
+	public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+			ResponseExtractor<T> responseExtractor, Object... urlVariables) throws RestClientException {
+		if (metricsRegistry == null) {
+			return super.execute(url, method, requestCallback, responseExtractor, urlVariables);
+		}
+		urlTemplate.set(url);
+		try {
+			return super.execute(url, method, requestCallback, responseExtractor, urlVariables);
+		} finally {
+			urlTemplate.remove();
+		}
+	}
+
+	@Override
+	public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+			ResponseExtractor<T> responseExtractor, Map<String, ?> urlVariables) throws RestClientException {
+		if (metricsRegistry == null) {
+			return super.execute(url, method, requestCallback, responseExtractor, urlVariables);
+		}
+		urlTemplate.set(url);
+		try {
+			return super.execute(url, method, requestCallback, responseExtractor, urlVariables);
+		} finally {
+			urlTemplate.remove();
+		}
+	}
+
+	@Override
+	protected <T> T doExecute(URI url, HttpMethod method, final RequestCallback requestCallback, final ResponseExtractor<T> responseExtractor) throws RestClientException {
 		final String[] status = new String[1];
 		final HttpStatus[] httpStatus = new HttpStatus[1];
 		final Object[] headers = new Object[1];
 		final String[] message = new String[1];
+		final long[] bytes = {-1, -1};
+		RestMetricsRegistry metrics = metricsRegistry;
+		final boolean logging = eventBus.hasListeners();
+		if (!logging && metrics == null) {
+			return super.doExecute(url, method, requestCallback, responseExtractor);
+		}
+		long startTime = (metrics != null ? System.nanoTime() : 0);
 		T results = null;
 		RestClientException exception = null;
 		try {
-			results = super.doExecute(url, method, requestCallback,
+			results = super.doExecute(url, method,
+					(metrics == null ? requestCallback : new RequestCallback() {
+						public void doWithRequest(ClientHttpRequest request) throws IOException {
+							if (requestCallback != null) {
+								requestCallback.doWithRequest(request);
+							}
+							bytes[0] = request.getHeaders().getContentLength();
+						}
+					}),
 					new ResponseExtractor<T>() {
 						@SuppressWarnings("rawtypes")
 						public T extractData(ClientHttpResponse response) throws IOException {
 							httpStatus[0] = response.getStatusCode();
 							headers[0] = response.getHeaders();
+							bytes[1] = response.getHeaders().getContentLength();
 							if (responseExtractor != null) {
 								T data = responseExtractor.extractData(response);
-								if (data instanceof String) {
+								if (!logging) {
+									return data;
+								}
+								if (data == null) {
+									message[0] = "<no data>";
+								} else if (data instanceof String) {
 									message[0] = ((String)data).length() + " bytes";
 								} else if (data instanceof Map) {
 									message[0] = ((Map)data).keySet().toString();
@@ -84,6 +162,11 @@ public class LoggingRestTemplate extends RestTemplate {
 			}
 		}
 		addLogMessage(method, url, status[0], httpStatus[0], message[0]);
+		if (metrics != null) {
+			String template = urlTemplate.get();
+			metrics.record(method, EndpointNormalizer.normalize(template != null ? template : url.getRawPath()),
+					httpStatus[0], exception != null, System.nanoTime() - startTime, bytes[0], bytes[1]);
+		}
 		if (exception != null) {
 			throw exception;
 		}
@@ -91,18 +174,27 @@ public class LoggingRestTemplate extends RestTemplate {
 	}
 
 	public void addLogMessage(HttpMethod method, URI url, String status, HttpStatus httpStatus, String message) {
-		RestLogEntry logEntry = new RestLogEntry(method, url, status, httpStatus, message);
-		for (RestLogCallback callback : listeners) {
-			callback.onNewLogEntry(logEntry);
+		eventBus.publish(method, url, status, httpStatus, message);
+	}
+
+	/**
+	 * Record the metrics of a call that was executed through the request factory directly.
+	 */
+	public void recordMetrics(HttpMethod method, URI url, HttpStatus httpStatus, boolean error, long durationNanos,
+			long requestBytes, long responseBytes) {
+		RestMetricsRegistry metrics = metricsRegistry;
+		if (metrics != null) {
+			metrics.record(method, EndpointNormalizer.normalize(url.getRawPath()), httpStatus, error, durationNanos,
+					requestBytes, responseBytes);
 		}
 	}
 
 	void registerRestLogListener(RestLogCallback callBack) {
-		listeners.add(callBack);
+		eventBus.addListener(callBack);
 	}
 
 	void unRegisterRestLogListener(RestLogCallback callBack) {
-		listeners.remove(callBack);
+		eventBus.removeListener(callBack);
 	}
 
 }
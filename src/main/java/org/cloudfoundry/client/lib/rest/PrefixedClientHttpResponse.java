@@ -0,0 +1,68 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Response whose body starts with bytes already read from the original response, used when a body turns out to be
+ * too large to buffer.
+ */
+class PrefixedClientHttpResponse implements ClientHttpResponse {
+
+	private final ClientHttpResponse response;
+
+	private final byte[] prefix;
+
+	PrefixedClientHttpResponse(ClientHttpResponse response, byte[] prefix) {
+		this.response = response;
+		this.prefix = prefix;
+	}
+
+	public HttpStatus getStatusCode() throws IOException {
+		return response.getStatusCode();
+	}
+
+	public int getRawStatusCode() throws IOException {
+		return response.getRawStatusCode();
+	}
+
+	public String getStatusText() throws IOException {
+		return response.getStatusText();
+	}
+
+	public HttpHeaders getHeaders() {
+		return response.getHeaders();
+	}
+
+	public InputStream getBody() throws IOException {
+		InputStream body = response.getBody();
+		return (body != null ? new SequenceInputStream(new ByteArrayInputStream(prefix), body) :
+				new ByteArrayInputStream(prefix));
+	}
+
+	public void close() {
+		response.close();
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+/**
+ * Resolves the principal requests are made for, such as the user name, so that responses shared between requests are
+ * never handed to a different user.
+ */
+public interface PrincipalResolver {
+
+	/**
+	 * @return the principal, or <tt>null</tt> if not known
+	 */
+	String getPrincipal();
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.springframework.http.client.ClientHttpRequest;
+
+/**
+ * Builds the keys under which responses to GET requests are shared.
+ */
+abstract class RequestKeys {
+
+	private RequestKeys() {
+	}
+
+	/**
+	 * Returns a key made of the principal, the URL and the accepted media types of a request. Without a principal the
+	 * <tt>Authorization</tt> header, in digested form, tells users apart.
+	 *
+	 * @param request the request, with its headers set
+	 * @param principalResolver the resolver of the principal, may be <tt>null</tt>
+	 * @return the key
+	 */
+	static String forRequest(ClientHttpRequest request, PrincipalResolver principalResolver) {
+		String principal = (principalResolver != null ? principalResolver.getPrincipal() : null);
+		if (principal == null) {
+			String authorization = request.getHeaders().getFirst("Authorization");
+			principal = (authorization != null ? "token:" + sha1(authorization) : "anonymous");
+		}
+		String accept = request.getHeaders().getFirst("Accept");
+		return principal + " " + request.getURI() + (accept != null ? " " + accept : "");
+	}
+
+	private static String sha1(String value) {
+		try {
+			StringBuilder hex = new StringBuilder(40);
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"))) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
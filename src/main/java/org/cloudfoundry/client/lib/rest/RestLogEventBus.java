@@ -0,0 +1,204 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.net.URI;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.RestLogEntry;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.Assert;
+
+/**
+ * Delivers REST log entries to {@link RestLogCallback}s on a separate thread, so that listeners never slow down the
+ * calls being logged.
+ *
+ * <p>Entries are written into a bounded ring buffer of pre-allocated slots and taken from it by a daemon dispatcher
+ * thread, which calls the listeners in order. When the buffer is full, because listeners cannot keep up, new entries
+ * are dropped rather than blocking the caller. Listeners are kept in a copy-on-write list. The dispatcher thread only
+ * runs while there are listeners, and {@link #hasListeners()} lets callers skip preparing entries nobody receives.
+ */
+public class RestLogEventBus {
+
+	/**
+	 * Default number of entries the buffer holds.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final CopyOnWriteArrayList<RestLogCallback> listeners = new CopyOnWriteArrayList<RestLogCallback>();
+
+	private final Slot[] slots;
+
+	private final int mask;
+
+	// next sequence to claim, and next sequence to dispatch
+	private final AtomicLong claimed = new AtomicLong();
+
+	private final AtomicLong dispatched = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private volatile Thread dispatcher;
+
+	private volatile boolean dispatcherWaiting;
+
+	public RestLogEventBus() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of entries the buffer holds, a power of two
+	 */
+	public RestLogEventBus(int capacity) {
+		Assert.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, "Capacity must be a power of two");
+		this.slots = new Slot[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Slot();
+		}
+		this.mask = capacity - 1;
+	}
+
+	public void addListener(RestLogCallback listener) {
+		Assert.notNull(listener, "Listener must not be null");
+		listeners.addIfAbsent(listener);
+		startDispatcher();
+	}
+
+	public void removeListener(RestLogCallback listener) {
+		listeners.remove(listener);
+	}
+
+	public boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * @return the number of entries dropped because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Queue an entry for the listeners. Does nothing when there are no listeners, and never blocks.
+	 */
+	public void publish(HttpMethod method, URI uri, String status, HttpStatus httpStatus, String message) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - dispatched.get() >= slots.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+		Slot slot = slots[(int) (sequence & mask)];
+		slot.method = method;
+		slot.uri = uri;
+		slot.status = status;
+		slot.httpStatus = httpStatus;
+		slot.message = message;
+		slot.sequence = sequence;
+		if (dispatcherWaiting) {
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	private void startDispatcher() {
+		if (running.compareAndSet(false, true)) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					dispatch();
+				}
+			}, "cf-rest-log-dispatcher");
+			thread.setDaemon(true);
+			dispatcher = thread;
+			thread.start();
+		}
+	}
+
+	private void dispatch() {
+		while (true) {
+			long sequence = dispatched.get();
+			Slot slot = slots[(int) (sequence & mask)];
+			if (slot.sequence != sequence) {
+				if (listeners.isEmpty() && claimed.get() == sequence) {
+					running.set(false);
+					// a listener may have been added after the check
+					if (listeners.isEmpty() || !running.compareAndSet(false, true)) {
+						return;
+					}
+				}
+				dispatcherWaiting = true;
+				if (slot.sequence != sequence) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				dispatcherWaiting = false;
+				continue;
+			}
+			RestLogEntry entry = new RestLogEntry(slot.method, slot.uri, slot.status, slot.httpStatus, slot.message);
+			slot.clear();
+			dispatched.lazySet(sequence + 1);
+			for (RestLogCallback listener : listeners) {
+				try {
+					listener.onNewLogEntry(entry);
+				} catch (RuntimeException e) {
+					logger.warn("REST log listener " + listener + " failed", e);
+				}
+			}
+		}
+	}
+
+	private static class Slot {
+
+		private volatile long sequence = -1;
+
+		private HttpMethod method;
+
+		private URI uri;
+
+		private String status;
+
+		private HttpStatus httpStatus;
+
+		private String message;
+
+		void clear() {
+			method = null;
+			uri = null;
+			status = null;
+			httpStatus = null;
+			message = null;
+		}
+	}
+}
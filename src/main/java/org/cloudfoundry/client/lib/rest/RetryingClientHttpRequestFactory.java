@@ -0,0 +1,192 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.retry.RetryPolicy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} that sends requests again when a {@link RetryPolicy} allows it, and fails fast
+ * while the circuit of a host is open.
+ *
+ * <p>Each attempt is a new request from the delegate, so credentials are added afresh. Request bodies are buffered
+ * in memory to be sent again, which makes this factory unsuitable for uploads. The response of the last attempt is
+ * returned as is, leaving error handling to the {@link org.springframework.web.client.RestTemplate}.
+ */
+public class RetryingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final RetryPolicy retryPolicy;
+
+	public RetryingClientHttpRequestFactory(ClientHttpRequestFactory delegate, RetryPolicy retryPolicy) {
+		Assert.notNull(delegate, "Delegate must not be null");
+		Assert.notNull(retryPolicy, "Retry policy must not be null");
+		this.delegate = delegate;
+		this.retryPolicy = retryPolicy;
+	}
+
+	public ClientHttpRequestFactory getDelegate() {
+		return delegate;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		return new RetryingRequest(uri, httpMethod, delegate.createRequest(uri, httpMethod));
+	}
+
+	private static boolean isServerError(int statusCode) {
+		return statusCode >= 500;
+	}
+
+	private class RetryingRequest implements ClientHttpRequest {
+
+		private final URI uri;
+
+		private final HttpMethod method;
+
+		private final String host;
+
+		// the first attempt is created up front so that callers see the headers set by the delegate
+		private ClientHttpRequest request;
+
+		private ByteArrayOutputStream body;
+
+		RetryingRequest(URI uri, HttpMethod method, ClientHttpRequest request) {
+			this.uri = uri;
+			this.method = method;
+			this.host = uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+			this.request = request;
+		}
+
+		public HttpMethod getMethod() {
+			return method;
+		}
+
+		public URI getURI() {
+			return uri;
+		}
+
+		public HttpHeaders getHeaders() {
+			return request.getHeaders();
+		}
+
+		public OutputStream getBody() {
+			if (body == null) {
+				body = new ByteArrayOutputStream();
+			}
+			return body;
+		}
+
+		public ClientHttpResponse execute() throws IOException {
+			// later attempts start from the headers the caller set, not those added while executing
+			HttpHeaders headers = copy(request.getHeaders());
+			retryPolicy.recordRequest();
+			for (int attempt = 1; ; attempt++) {
+				if (attempt > 1) {
+					request = delegate.createRequest(uri, method);
+					for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+						if (!request.getHeaders().containsKey(header.getKey())) {
+							request.getHeaders().put(header.getKey(), header.getValue());
+						}
+					}
+				}
+				retryPolicy.beforeAttempt(host);
+				ClientHttpResponse response = null;
+				int statusCode = 0;
+				IOException failure = null;
+				boolean failed = true;
+				try {
+					if (body != null && body.size() > 0) {
+						body.writeTo(request.getBody());
+					}
+					response = request.execute();
+					statusCode = response.getRawStatusCode();
+					failed = isServerError(statusCode);
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					// recorded for runtime exceptions too, or a half-open circuit would wait for its probe forever
+					retryPolicy.afterAttempt(host, failed);
+				}
+				if (failure != null) {
+					if (response != null) {
+						response.close();
+					}
+					if (!retryPolicy.isRetryable(method, failure, attempt) || !retryPolicy.acquireRetry()) {
+						throw failure;
+					}
+					backOff(attempt, retryPolicy.getDelay(attempt, null), failure.toString());
+					continue;
+				}
+				if (!retryPolicy.isRetryable(method, statusCode, attempt)) {
+					return response;
+				}
+				String retryAfter = (statusCode == 429 || statusCode == 503 ?
+						response.getHeaders().getFirst("Retry-After") : null);
+				long delay = retryPolicy.getDelay(attempt, retryAfter);
+				if (delay < 0 || !retryPolicy.acquireRetry()) {
+					return response;
+				}
+				response.close();
+				backOff(attempt, delay, String.valueOf(statusCode));
+			}
+		}
+
+		private void backOff(int attempt, long delay, String reason) throws IOException {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Retrying " + method + " " + uri + " in " + delay + "ms after attempt " + attempt +
+						" failed with " + reason);
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry " + method + " " + uri);
+			}
+		}
+
+		private HttpHeaders copy(HttpHeaders headers) {
+			HttpHeaders copy = new HttpHeaders();
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				copy.put(header.getKey(), new ArrayList<String>(header.getValue()));
+			}
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * Immutable snapshot of the session of a {@link CloudControllerClientImpl}: the credentials, the access token they
+ * were exchanged for and the space requests are scoped to. A change creates a new snapshot, so a request that reads
+ * the snapshot once never sees the token of one user together with the space or proxy user of another.
+ */
+final class SessionContext {
+
+	static final SessionContext EMPTY = new SessionContext(null, null, null);
+
+	private final CloudCredentials credentials;
+
+	private final OAuth2AccessToken token;
+
+	private final CloudSpace space;
+
+	private SessionContext(CloudCredentials credentials, OAuth2AccessToken token, CloudSpace space) {
+		this.credentials = credentials;
+		this.token = token;
+		this.space = space;
+	}
+
+	CloudCredentials getCredentials() {
+		return credentials;
+	}
+
+	OAuth2AccessToken getToken() {
+		return token;
+	}
+
+	CloudSpace getSpace() {
+		return space;
+	}
+
+	/**
+	 * Returns a snapshot for other credentials, starting out with the token they carry, if any.
+	 */
+	SessionContext withCredentials(CloudCredentials credentials) {
+		return new SessionContext(credentials, (credentials != null ? credentials.getToken() : null), space);
+	}
+
+	SessionContext withToken(OAuth2AccessToken token) {
+		return new SessionContext(credentials, token, space);
+	}
+
+	SessionContext withSpace(CloudSpace space) {
+		return new SessionContext(credentials, token, space);
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.util.EntityUtils;
+import org.cloudfoundry.client.lib.io.DeferredOutputStream;
+import org.cloudfoundry.client.lib.io.TransferListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ClientHttpRequestFactory} for Apache HttpComponents that spools large request bodies to a temporary file
+ * instead of holding them in memory. Bodies smaller than the memory threshold stay in memory. Either way the request
+ * is sent with a known <tt>Content-Length</tt>. Files written with {@link DeferredOutputStream#writeFile(File)} are
+ * sent from where they are, without being spooled again.
+ *
+ * <p>Used for application uploads, where the body is a generated archive that can be larger than the heap. The body
+ * stream is a {@link DeferredOutputStream}, so writers can follow the actual transfer of the data.
+ */
+public class SpoolingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+
+	private final HttpClient httpClient;
+
+	private int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+
+	public SpoolingClientHttpRequestFactory(HttpClient httpClient) {
+		Assert.notNull(httpClient, "HttpClient must not be null");
+		this.httpClient = httpClient;
+	}
+
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Set the body size above which request bodies are spooled to disk.
+	 *
+	 * @param memoryThreshold the threshold in bytes
+	 */
+	public void setMemoryThreshold(int memoryThreshold) {
+		this.memoryThreshold = memoryThreshold;
+	}
+
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		return new SpoolingClientHttpRequest(httpClient, createHttpUriRequest(httpMethod, uri), memoryThreshold);
+	}
+
+	protected HttpUriRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+		switch (httpMethod) {
+			case GET:
+				return new HttpGet(uri);
+			case DELETE:
+				return new HttpDelete(uri);
+			case HEAD:
+				return new HttpHead(uri);
+			case OPTIONS:
+				return new HttpOptions(uri);
+			case POST:
+				return new HttpPost(uri);
+			case PUT:
+				return new HttpPut(uri);
+			case TRACE:
+				return new HttpTrace(uri);
+			default:
+				throw new IllegalArgumentException("Invalid HTTP method: " + httpMethod);
+		}
+	}
+
+	private static class SpoolingClientHttpRequest extends AbstractClientHttpRequest {
+
+		private final HttpClient httpClient;
+
+		private final HttpUriRequest httpRequest;
+
+		private final SpoolingOutputStream body;
+
+		SpoolingClientHttpRequest(HttpClient httpClient, HttpUriRequest httpRequest, int memoryThreshold) {
+			this.httpClient = httpClient;
+			this.httpRequest = httpRequest;
+			this.body = new SpoolingOutputStream(memoryThreshold);
+		}
+
+		public HttpMethod getMethod() {
+			return HttpMethod.valueOf(httpRequest.getMethod());
+		}
+
+		public URI getURI() {
+			return httpRequest.getURI();
+		}
+
+		@Override
+		protected OutputStream getBodyInternal(HttpHeaders headers) throws IOException {
+			return body;
+		}
+
+		@Override
+		protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+			for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+				String headerName = entry.getKey();
+				if (!headerName.equalsIgnoreCase("Content-Length") &&
+						!headerName.equalsIgnoreCase("Transfer-Encoding")) {
+					for (String headerValue : entry.getValue()) {
+						httpRequest.addHeader(headerName, headerValue);
+					}
+				}
+			}
+			try {
+				if (httpRequest instanceof HttpEntityEnclosingRequest) {
+					((HttpEntityEnclosingRequest) httpRequest).setEntity(body.toEntity());
+				}
+				HttpResponse httpResponse = httpClient.execute(httpRequest);
+				return new HttpComponentsResponse(httpResponse);
+			} finally {
+				body.discard();
+			}
+		}
+	}
+
+	/**
+	 * Output stream that keeps data in memory up to a threshold and then moves it to a temporary file. The data is
+	 * kept as a sequence of parts, so that written files can be sent as they are.
+	 */
+	private static class SpoolingOutputStream extends DeferredOutputStream {
+
+		private final int memoryThreshold;
+
+		private final List<HttpEntity> parts = new ArrayList<HttpEntity>();
+
+		private final List<File> spoolFiles = new ArrayList<File>();
+
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+		private File file;
+
+		private OutputStream fileStream;
+
+		SpoolingOutputStream(int memoryThreshold) {
+			this.memoryThreshold = memoryThreshold;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			getTarget(1).write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			getTarget(len).write(b, off, len);
+		}
+
+		@Override
+		public void writeFile(File file) throws IOException {
+			endPart();
+			parts.add(new FileEntity(file));
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (fileStream != null) {
+				fileStream.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			// the body is complete once the request is executed, writers may close it before more content follows
+			flush();
+		}
+
+		private OutputStream getTarget(int length) throws IOException {
+			if (fileStream == null && memory.size() + length > memoryThreshold) {
+				file = File.createTempFile("cf-request", ".tmp");
+				spoolFiles.add(file);
+				fileStream = new BufferedOutputStream(new FileOutputStream(file));
+				memory.writeTo(fileStream);
+				memory = null;
+			}
+			return (fileStream != null ? fileStream : memory);
+		}
+
+		HttpEntity toEntity() throws IOException {
+			endPart();
+			HttpEntity entity;
+			if (parts.isEmpty()) {
+				entity = new ByteArrayEntity(new byte[0]);
+			} else if (parts.size() == 1) {
+				entity = parts.get(0);
+			} else {
+				entity = new SequenceEntity(parts);
+			}
+			return (getTransferListener() != null ? new ListeningEntity(entity, getTransferListener()) : entity);
+		}
+
+		void discard() {
+			if (fileStream != null) {
+				try {
+					fileStream.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			for (File spoolFile : spoolFiles) {
+				spoolFile.delete();
+			}
+		}
+
+		private void endPart() throws IOException {
+			if (fileStream != null) {
+				fileStream.close();
+				parts.add(new FileEntity(file));
+				fileStream = null;
+				file = null;
+				memory = new ByteArrayOutputStream();
+			} else if (memory.size() > 0) {
+				parts.add(new ByteArrayEntity(memory.toByteArray()));
+				memory = new ByteArrayOutputStream();
+			}
+		}
+	}
+
+	/**
+	 * Entity that sends several entities one after the other.
+	 */
+	private static class SequenceEntity extends AbstractHttpEntity {
+
+		private final List<HttpEntity> entities;
+
+		SequenceEntity(List<HttpEntity> entities) {
+			this.entities = entities;
+		}
+
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		public long getContentLength() {
+			long length = 0;
+			for (HttpEntity entity : entities) {
+				length += entity.getContentLength();
+			}
+			return length;
+		}
+
+		public InputStream getContent() {
+			throw new UnsupportedOperationException("The content is only written");
+		}
+
+		public void writeTo(OutputStream outputStream) throws IOException {
+			for (HttpEntity entity : entities) {
+				entity.writeTo(outputStream);
+			}
+		}
+
+		public boolean isStreaming() {
+			return false;
+		}
+	}
+
+	/**
+	 * Entity wrapper that reports the bytes written to the connection.
+	 */
+	private static class ListeningEntity extends HttpEntityWrapper {
+
+		private final TransferListener listener;
+
+		ListeningEntity(HttpEntity entity, TransferListener listener) {
+			super(entity);
+			this.listener = listener;
+		}
+
+		@Override
+		public void writeTo(OutputStream outputStream) throws IOException {
+			listener.onTransferStarted();
+			super.writeTo(new FilterOutputStream(outputStream) {
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					listener.onBytesTransferred(1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					listener.onBytesTransferred(len);
+				}
+			});
+			listener.onTransferCompleted();
+		}
+	}
+
+	private static class HttpComponentsResponse implements ClientHttpResponse {
+
+		private final HttpResponse httpResponse;
+
+		private HttpHeaders headers;
+
+		HttpComponentsResponse(HttpResponse httpResponse) {
+			this.httpResponse = httpResponse;
+		}
+
+		public HttpStatus getStatusCode() throws IOException {
+			return HttpStatus.valueOf(getRawStatusCode());
+		}
+
+		public int getRawStatusCode() throws IOException {
+			return httpResponse.getStatusLine().getStatusCode();
+		}
+
+		public String getStatusText() throws IOException {
+			return httpResponse.getStatusLine().getReasonPhrase();
+		}
+
+		public HttpHeaders getHeaders() {
+			if (headers == null) {
+				headers = new HttpHeaders();
+				for (Header header : httpResponse.getAllHeaders()) {
+					headers.add(header.getName(), header.getValue());
+				}
+			}
+			return headers;
+		}
+
+		public InputStream getBody() throws IOException {
+			HttpEntity entity = httpResponse.getEntity();
+			return (entity != null ? entity.getContent() : null);
+		}
+
+		public void close() {
+			HttpEntity entity = httpResponse.getEntity();
+			if (entity != null) {
+				try {
+					// Release the connection back to the pool
+					EntityUtils.consume(entity);
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
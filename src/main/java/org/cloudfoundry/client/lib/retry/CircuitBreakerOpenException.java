@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.retry;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a host whose circuit breaker is open. The {@link
+ * org.springframework.web.client.RestTemplate} reports it as a {@link
+ * org.springframework.web.client.ResourceAccessException}, like the connection failures that opened the circuit.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String host;
+
+	public CircuitBreakerOpenException(String host) {
+		super("Circuit breaker open for " + host + ", not sending request");
+		this.host = host;
+	}
+
+	public String getHost() {
+		return host;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.retry;
+
+import java.util.List;
+
+/**
+ * JMX view of the retries and circuit breakers of a {@link RetryPolicy}.
+ */
+public interface RetryMetricsMXBean {
+
+	long getRequestCount();
+
+	long getRetryCount();
+
+	long getRetryBudgetExhaustedCount();
+
+	long getCircuitOpenRejectionCount();
+
+	double getRetryBudgetBalance();
+
+	List<String> getOpenCircuits();
+
+	void reset();
+}
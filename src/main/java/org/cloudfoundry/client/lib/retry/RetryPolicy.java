@@ -0,0 +1,393 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.retry;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.util.Assert;
+
+/**
+ * Decides when failed calls to the cloud controller are retried, and keeps the state of those decisions.
+ *
+ * <ul>
+ * <li>Idempotent requests (all methods except POST and PATCH) are retried after connection failures and
+ * <tt>502</tt>, <tt>503</tt>, <tt>504</tt> and <tt>429</tt> responses. Other requests are only retried when they
+ * cannot have been processed: the connection was refused or the response was <tt>429</tt>.</li>
+ * <li>Retries wait for an exponentially growing backoff with full jitter, or for the time given in the
+ * <tt>Retry-After</tt> header of <tt>429</tt> and <tt>503</tt> responses, unless that exceeds the maximum.</li>
+ * <li>Retries are paid from a budget that every request tops up by the budget ratio, so that retries never add more
+ * than that share of load to a struggling controller once the reserve is spent.</li>
+ * <li>Each host has a circuit breaker that opens after consecutive failures, failing requests fast with a
+ * {@link CircuitBreakerOpenException} until the open duration has passed and a probe request succeeds.</li>
+ * </ul>
+ *
+ * <p>The counters can be read directly or over JMX, see {@link #registerMBean(String)}.
+ */
+public class RetryPolicy implements RetryMetricsMXBean {
+
+	/**
+	 * Default number of attempts, including the first one.
+	 */
+	public static final int DEFAULT_MAXIMUM_ATTEMPTS = 4;
+
+	/**
+	 * Default backoff before the first retry (200 milliseconds), doubled for every further retry.
+	 */
+	public static final long DEFAULT_INITIAL_BACKOFF = 200;
+
+	/**
+	 * Default upper bound of the backoff (10 seconds).
+	 */
+	public static final long DEFAULT_MAXIMUM_BACKOFF = 10000;
+
+	/**
+	 * Default longest <tt>Retry-After</tt> delay that is waited for (60 seconds).
+	 */
+	public static final long DEFAULT_MAXIMUM_RETRY_AFTER = 60000;
+
+	/**
+	 * Default share of requests that may be retried once the budget reserve is spent.
+	 */
+	public static final double DEFAULT_BUDGET_RATIO = 0.2;
+
+	/**
+	 * Default number of retries the budget holds in reserve.
+	 */
+	public static final int DEFAULT_BUDGET_RESERVE = 10;
+
+	/**
+	 * Default number of consecutive failures that open a circuit.
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	/**
+	 * Default time a circuit stays open before a probe request is let through (30 seconds).
+	 */
+	public static final long DEFAULT_OPEN_DURATION = 30000;
+
+	private static final Set<HttpMethod> NON_IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.POST, HttpMethod.PATCH);
+
+	// budget balances are kept in thousandths of a retry
+	private static final long RETRY_COST = 1000;
+
+	private final Random random = new Random();
+
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private final AtomicLong retryCount = new AtomicLong();
+
+	private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+	private final AtomicLong circuitOpenRejectionCount = new AtomicLong();
+
+	private final AtomicLong budgetBalance = new AtomicLong(DEFAULT_BUDGET_RESERVE * RETRY_COST);
+
+	private volatile int maximumAttempts = DEFAULT_MAXIMUM_ATTEMPTS;
+
+	private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+
+	private volatile long maximumBackoff = DEFAULT_MAXIMUM_BACKOFF;
+
+	private volatile long maximumRetryAfter = DEFAULT_MAXIMUM_RETRY_AFTER;
+
+	private volatile double budgetRatio = DEFAULT_BUDGET_RATIO;
+
+	private volatile int budgetReserve = DEFAULT_BUDGET_RESERVE;
+
+	private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+	private volatile long openDuration = DEFAULT_OPEN_DURATION;
+
+	/**
+	 * Set the number of attempts made for a request, including the first one. 1 disables retries.
+	 */
+	public void setMaximumAttempts(int maximumAttempts) {
+		Assert.isTrue(maximumAttempts > 0, "Maximum attempts must be positive");
+		this.maximumAttempts = maximumAttempts;
+	}
+
+	public int getMaximumAttempts() {
+		return maximumAttempts;
+	}
+
+	/**
+	 * Set the bounds of the backoff between attempts.
+	 *
+	 * @param initialBackoff the backoff before the first retry in milliseconds
+	 * @param maximumBackoff the upper bound in milliseconds
+	 */
+	public void setBackoff(long initialBackoff, long maximumBackoff) {
+		Assert.isTrue(initialBackoff >= 0 && maximumBackoff >= initialBackoff, "Invalid backoff bounds");
+		this.initialBackoff = initialBackoff;
+		this.maximumBackoff = maximumBackoff;
+	}
+
+	/**
+	 * Set the longest <tt>Retry-After</tt> delay that is waited for. Responses asking for a longer delay are returned
+	 * to the caller.
+	 *
+	 * @param maximumRetryAfter the delay in milliseconds
+	 */
+	public void setMaximumRetryAfter(long maximumRetryAfter) {
+		this.maximumRetryAfter = maximumRetryAfter;
+	}
+
+	/**
+	 * Set the retry budget.
+	 *
+	 * @param budgetRatio the share of requests that may be retried once the reserve is spent
+	 * @param budgetReserve the number of retries held in reserve, which is also the most the budget can hold
+	 */
+	public void setRetryBudget(double budgetRatio, int budgetReserve) {
+		Assert.isTrue(budgetRatio >= 0 && budgetReserve >= 0, "Retry budget must not be negative");
+		this.budgetRatio = budgetRatio;
+		this.budgetReserve = budgetReserve;
+		budgetBalance.set(budgetReserve * RETRY_COST);
+	}
+
+	/**
+	 * Set when circuits open.
+	 *
+	 * @param failureThreshold the number of consecutive failures that open the circuit of a host
+	 * @param openDuration the time in milliseconds before a probe request is let through an open circuit
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openDuration) {
+		Assert.isTrue(failureThreshold > 0, "Failure threshold must be positive");
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+		circuitBreakers.clear();
+	}
+
+	/**
+	 * Called before every attempt of a request.
+	 *
+	 * @param host the host the request is sent to
+	 * @throws CircuitBreakerOpenException if the circuit of the host is open
+	 */
+	public void beforeAttempt(String host) throws CircuitBreakerOpenException {
+		if (!getCircuitBreaker(host).allowRequest()) {
+			circuitOpenRejectionCount.incrementAndGet();
+			throw new CircuitBreakerOpenException(host);
+		}
+	}
+
+	/**
+	 * Called after every attempt of a request.
+	 *
+	 * @param host the host the request was sent to
+	 * @param failed whether the attempt failed with a connection error or a server error
+	 */
+	public void afterAttempt(String host, boolean failed) {
+		if (failed) {
+			getCircuitBreaker(host).recordFailure();
+		} else {
+			getCircuitBreaker(host).recordSuccess();
+		}
+	}
+
+	/**
+	 * Called once per request, before its first attempt, to top up the retry budget.
+	 */
+	public void recordRequest() {
+		requestCount.incrementAndGet();
+		long deposit = (long) (budgetRatio * RETRY_COST);
+		long maximum = budgetReserve * RETRY_COST;
+		while (true) {
+			long balance = budgetBalance.get();
+			long updated = Math.min(maximum, balance + deposit);
+			if (updated <= balance || budgetBalance.compareAndSet(balance, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether an attempt that failed with the given status should be retried.
+	 *
+	 * @param method the method of the request
+	 * @param statusCode the status of the response
+	 * @param attempt the number of attempts made so far
+	 */
+	public boolean isRetryable(HttpMethod method, int statusCode, int attempt) {
+		if (attempt >= maximumAttempts) {
+			return false;
+		}
+		if (statusCode == 429) {
+			return true;
+		}
+		return (statusCode == 502 || statusCode == 503 || statusCode == 504) &&
+				!NON_IDEMPOTENT_METHODS.contains(method);
+	}
+
+	/**
+	 * Returns whether an attempt that failed with the given exception should be retried.
+	 *
+	 * @param method the method of the request
+	 * @param exception the connection failure
+	 * @param attempt the number of attempts made so far
+	 */
+	public boolean isRetryable(HttpMethod method, IOException exception, int attempt) {
+		if (attempt >= maximumAttempts || exception instanceof CircuitBreakerOpenException) {
+			return false;
+		}
+		return (exception instanceof ConnectException || !NON_IDEMPOTENT_METHODS.contains(method));
+	}
+
+	/**
+	 * Takes a retry from the budget.
+	 *
+	 * @return whether the budget allowed the retry
+	 */
+	public boolean acquireRetry() {
+		while (true) {
+			long balance = budgetBalance.get();
+			if (balance < RETRY_COST) {
+				budgetExhaustedCount.incrementAndGet();
+				return false;
+			}
+			if (budgetBalance.compareAndSet(balance, balance - RETRY_COST)) {
+				retryCount.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the time to wait before a retry.
+	 *
+	 * @param attempt the number of attempts made so far
+	 * @param retryAfter the <tt>Retry-After</tt> header of the failed response, may be <tt>null</tt>
+	 * @return the delay in milliseconds, or -1 if the server asked for a longer delay than the maximum
+	 */
+	public long getDelay(int attempt, String retryAfter) {
+		if (retryAfter != null) {
+			long delay = parseRetryAfter(retryAfter.trim());
+			if (delay >= 0) {
+				return (delay <= maximumRetryAfter ? delay : -1);
+			}
+		}
+		long backoff = Math.min(maximumBackoff, initialBackoff << Math.min(attempt - 1, 30));
+		synchronized (random) {
+			return (long) (random.nextDouble() * backoff);
+		}
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	public long getRetryBudgetExhaustedCount() {
+		return budgetExhaustedCount.get();
+	}
+
+	public long getCircuitOpenRejectionCount() {
+		return circuitOpenRejectionCount.get();
+	}
+
+	public double getRetryBudgetBalance() {
+		return budgetBalance.get() / (double) RETRY_COST;
+	}
+
+	public List<String> getOpenCircuits() {
+		List<String> hosts = new ArrayList<String>();
+		for (Map.Entry<String, CircuitBreaker> circuitBreaker : circuitBreakers.entrySet()) {
+			if (circuitBreaker.getValue().getState() != CircuitBreaker.State.CLOSED) {
+				hosts.add(circuitBreaker.getKey());
+			}
+		}
+		return hosts;
+	}
+
+	public void reset() {
+		requestCount.set(0);
+		retryCount.set(0);
+		budgetExhaustedCount.set(0);
+		circuitOpenRejectionCount.set(0);
+		budgetBalance.set(budgetReserve * RETRY_COST);
+		circuitBreakers.clear();
+	}
+
+	/**
+	 * Register the metrics of this policy with the platform MBean server.
+	 *
+	 * @param objectName the name to register under, for example <tt>org.cloudfoundry.client:type=Retries</tt>
+	 * @return the registered name
+	 * @throws JMException if the registration failed
+	 */
+	public ObjectName registerMBean(String objectName) throws JMException {
+		ObjectName name = new ObjectName(objectName);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		return name;
+	}
+
+	private CircuitBreaker getCircuitBreaker(String host) {
+		CircuitBreaker circuitBreaker = circuitBreakers.get(host);
+		if (circuitBreaker == null) {
+			CircuitBreaker created = new CircuitBreaker(failureThreshold, openDuration);
+			circuitBreaker = circuitBreakers.putIfAbsent(host, created);
+			if (circuitBreaker == null) {
+				circuitBreaker = created;
+			}
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * Parses a <tt>Retry-After</tt> value, either a number of seconds or an HTTP date.
+	 *
+	 * @return the delay in milliseconds, or -1 if the value is not valid
+	 */
+	private static long parseRetryAfter(String retryAfter) {
+		try {
+			return Math.max(0, Long.parseLong(retryAfter) * 1000);
+		} catch (NumberFormatException e) {
+			// not a number of seconds
+		}
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return Math.max(0, format.parse(retryAfter).getTime() - System.currentTimeMillis());
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+}
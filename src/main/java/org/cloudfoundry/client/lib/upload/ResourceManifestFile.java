@@ -0,0 +1,207 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.domain.CloudResource;
+import org.cloudfoundry.client.lib.domain.CloudResources;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.util.Assert;
+
+/**
+ * Local store of the resources that the cloud controller accepted during the last upload of an application. When a
+ * manifest is available the upload can work out which files are already known remotely without calling
+ * <tt>/v2/resource_match</tt>.
+ *
+ * <p>Manifests are kept per cloud controller and application guid, by default in <tt>~/.cf/resources</tt>. Only
+ * resources that the controller reported as matched, or that it will have pooled after the upload (based on the
+ * resource pool size limits), are recorded.
+ */
+public class ResourceManifestFile {
+
+	/**
+	 * Default maximum age of a manifest before it is considered stale (24 hours).
+	 */
+	public static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Default minimum size of a file kept in the cloud controller resource pool.
+	 */
+	public static final long DEFAULT_MINIMUM_POOLED_SIZE = 64 * 1024L;
+
+	/**
+	 * Default maximum size of a file kept in the cloud controller resource pool.
+	 */
+	public static final long DEFAULT_MAXIMUM_POOLED_SIZE = 512 * 1024 * 1024L;
+
+	private static final String TIMESTAMP_KEY = "timestamp";
+
+	private static final String RESOURCES_KEY = "resources";
+
+	private final Log logger = LogFactory.getLog(getClass().getName());
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final File directory;
+
+	private long maxAge = DEFAULT_MAX_AGE;
+
+	private long minimumPooledSize = DEFAULT_MINIMUM_POOLED_SIZE;
+
+	private long maximumPooledSize = DEFAULT_MAXIMUM_POOLED_SIZE;
+
+	public ResourceManifestFile() {
+		this(new File(System.getProperty("user.home"), ".cf/resources"));
+	}
+
+	public ResourceManifestFile(File directory) {
+		Assert.notNull(directory, "Directory must not be null");
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public void setMinimumPooledSize(long minimumPooledSize) {
+		this.minimumPooledSize = minimumPooledSize;
+	}
+
+	public void setMaximumPooledSize(long maximumPooledSize) {
+		this.maximumPooledSize = maximumPooledSize;
+	}
+
+	/**
+	 * Returns the resources of the given archive that the cloud controller is known to hold, based on the manifest
+	 * recorded for the application.
+	 *
+	 * @param cloudControllerUrl the cloud controller the application lives on
+	 * @param appGuid the application guid
+	 * @param archiveResources the resources of the archive about to be uploaded
+	 * @return the known resources, or <tt>null</tt> if no manifest is available or it is stale
+	 */
+	public CloudResources retrieveKnownResources(URL cloudControllerUrl, UUID appGuid, CloudResources archiveResources) {
+		Map<String, Long> fingerprints = readFingerprints(getManifestFile(cloudControllerUrl, appGuid));
+		if (fingerprints == null) {
+			return null;
+		}
+		List<CloudResource> known = new ArrayList<CloudResource>();
+		for (CloudResource resource : archiveResources.asList()) {
+			Long size = fingerprints.get(resource.getSha1());
+			if (size != null && size.longValue() == resource.getSize()) {
+				known.add(resource);
+			}
+		}
+		return new CloudResources(known);
+	}
+
+	/**
+	 * Records the resources the cloud controller holds after a successful upload.
+	 *
+	 * @param cloudControllerUrl the cloud controller the application lives on
+	 * @param appGuid the application guid
+	 * @param archiveResources the resources of the uploaded archive
+	 * @param knownRemoteResources the resources that were not transferred because the controller already had them
+	 */
+	public void saveResources(URL cloudControllerUrl, UUID appGuid, CloudResources archiveResources,
+			CloudResources knownRemoteResources) {
+		Map<String, Long> fingerprints = new LinkedHashMap<String, Long>();
+		for (CloudResource resource : knownRemoteResources.asList()) {
+			fingerprints.put(resource.getSha1(), resource.getSize());
+		}
+		for (CloudResource resource : archiveResources.asList()) {
+			if (resource.getSize() >= minimumPooledSize && resource.getSize() <= maximumPooledSize) {
+				fingerprints.put(resource.getSha1(), resource.getSize());
+			}
+		}
+		List<CloudResource> resources = new ArrayList<CloudResource>(fingerprints.size());
+		for (Map.Entry<String, Long> fingerprint : fingerprints.entrySet()) {
+			resources.add(new CloudResource(null, fingerprint.getValue(), fingerprint.getKey()));
+		}
+		Map<String, Object> manifest = new HashMap<String, Object>();
+		manifest.put(TIMESTAMP_KEY, System.currentTimeMillis());
+		manifest.put(RESOURCES_KEY, new CloudResources(resources));
+
+		File manifestFile = getManifestFile(cloudControllerUrl, appGuid);
+		manifestFile.getParentFile().mkdirs();
+		try {
+			mapper.writeValue(manifestFile, manifest);
+		} catch (IOException e) {
+			// the manifest is only an optimization, the next upload will fall back to resource matching
+			logger.warn("Unable to write resource manifest " + manifestFile.getPath(), e);
+			manifestFile.delete();
+		}
+	}
+
+	/**
+	 * Removes the manifest recorded for an application, for example because the controller rejected resources
+	 * listed in it.
+	 *
+	 * @param cloudControllerUrl the cloud controller the application lives on
+	 * @param appGuid the application guid
+	 */
+	public void removeResources(URL cloudControllerUrl, UUID appGuid) {
+		getManifestFile(cloudControllerUrl, appGuid).delete();
+	}
+
+	protected File getManifestFile(URL cloudControllerUrl, UUID appGuid) {
+		String target = cloudControllerUrl.getHost() +
+				(cloudControllerUrl.getPort() == -1 ? "" : "_" + cloudControllerUrl.getPort());
+		return new File(new File(directory, target), appGuid + ".json");
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Long> readFingerprints(File manifestFile) {
+		if (!manifestFile.isFile()) {
+			return null;
+		}
+		try {
+			Map<String, Object> manifest = mapper.readValue(manifestFile, Map.class);
+			Number timestamp = (Number) manifest.get(TIMESTAMP_KEY);
+			if (timestamp == null || System.currentTimeMillis() - timestamp.longValue() > maxAge) {
+				return null;
+			}
+			List<Map<String, Object>> resources = (List<Map<String, Object>>) manifest.get(RESOURCES_KEY);
+			if (resources == null) {
+				return null;
+			}
+			Map<String, Long> fingerprints = new HashMap<String, Long>(resources.size() * 2);
+			for (Map<String, Object> resource : resources) {
+				fingerprints.put((String) resource.get("sha1"), ((Number) resource.get("size")).longValue());
+			}
+			return fingerprints;
+		} catch (Exception e) {
+			logger.warn("Ignoring unreadable resource manifest " + manifestFile.getPath(), e);
+			return null;
+		}
+	}
+}
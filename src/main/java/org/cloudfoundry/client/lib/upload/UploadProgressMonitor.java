@@ -0,0 +1,211 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.upload;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.UploadProgress;
+import org.cloudfoundry.client.lib.UploadProgressCallback;
+import org.cloudfoundry.client.lib.UploadSummary;
+import org.cloudfoundry.client.lib.io.TransferListener;
+import org.springframework.util.Assert;
+
+/**
+ * Collects byte counts and timings for a single application upload and reports them to an
+ * {@link UploadProgressCallback}. Progress is published at most once per {@link #setInterval(long) interval}.
+ *
+ * <p>A monitor is used by the thread performing the upload and is not thread-safe.
+ */
+public class UploadProgressMonitor implements TransferListener {
+
+	/**
+	 * Default minimum time between two progress reports in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 250;
+
+	private final UploadProgressCallback callback;
+
+	private long interval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INTERVAL);
+
+	private int totalEntries;
+
+	private long totalBytes;
+
+	private int entriesCompleted;
+
+	private long bytesRead;
+
+	private long bytesCompressed;
+
+	private long bytesSent;
+
+	private long hashTime;
+
+	private long matchTime;
+
+	private boolean deferredTransfer;
+
+	private long writeStarted;
+
+	private long writeCompleted;
+
+	private long transferStarted;
+
+	private long transferCompleted;
+
+	private long lastPublished;
+
+	public UploadProgressMonitor(UploadProgressCallback callback) {
+		Assert.notNull(callback, "Callback must not be null");
+		this.callback = callback;
+	}
+
+	/**
+	 * Set the minimum time between two progress reports.
+	 *
+	 * @param interval the interval in milliseconds
+	 */
+	public void setInterval(long interval) {
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+	}
+
+	public void addHashTime(long millis) {
+		hashTime += millis;
+	}
+
+	public void addMatchTime(long millis) {
+		matchTime += millis;
+	}
+
+	/**
+	 * Called when the payload is about to be written.
+	 *
+	 * @param totalEntries the number of file entries in the payload
+	 * @param totalBytes the uncompressed size of the payload entries
+	 * @param deferredTransfer <tt>true</tt> if the written data is transferred later, in which case the transfer is
+	 * reported through the {@link TransferListener} methods
+	 */
+	public void onWriteStarted(int totalEntries, long totalBytes, boolean deferredTransfer) {
+		this.totalEntries = totalEntries;
+		this.totalBytes = totalBytes;
+		this.deferredTransfer = deferredTransfer;
+		this.entriesCompleted = 0;
+		this.bytesRead = 0;
+		this.bytesCompressed = 0;
+		this.bytesSent = 0;
+		this.writeStarted = System.nanoTime();
+		this.writeCompleted = 0;
+		this.transferStarted = (deferredTransfer ? 0 : writeStarted);
+		this.transferCompleted = 0;
+		publish(true);
+	}
+
+	public void onEntryBytesRead(int byteCount) {
+		bytesRead += byteCount;
+		publish(false);
+	}
+
+	public void onEntryCompleted() {
+		entriesCompleted++;
+		publish(false);
+	}
+
+	public void onBytesCompressed(int byteCount) {
+		bytesCompressed += byteCount;
+		publish(false);
+	}
+
+	public void onBytesWritten(int byteCount) {
+		if (!deferredTransfer) {
+			onBytesTransferred(byteCount);
+		}
+	}
+
+	public void onWriteCompleted() {
+		writeCompleted = System.nanoTime();
+		if (!deferredTransfer) {
+			transferCompleted = writeCompleted;
+		}
+		publish(true);
+	}
+
+	/**
+	 * Called when previously written payload data is about to be written again, for example when an upload is
+	 * retried. Only the transfer is reported for a replay.
+	 *
+	 * @param deferredTransfer <tt>true</tt> if the written data is transferred later
+	 */
+	public void onReplayStarted(boolean deferredTransfer) {
+		this.deferredTransfer = deferredTransfer;
+		this.bytesSent = 0;
+		this.transferStarted = (deferredTransfer ? 0 : System.nanoTime());
+		this.transferCompleted = 0;
+		publish(true);
+	}
+
+	public void onReplayCompleted() {
+		if (!deferredTransfer) {
+			transferCompleted = System.nanoTime();
+		}
+		publish(true);
+	}
+
+	public void onTransferStarted() {
+		transferStarted = System.nanoTime();
+	}
+
+	public void onBytesTransferred(int byteCount) {
+		bytesSent += byteCount;
+		publish(false);
+	}
+
+	public void onTransferCompleted() {
+		transferCompleted = System.nanoTime();
+		publish(true);
+	}
+
+	/**
+	 * Called once the server has accepted the upload. Reports and returns the summary.
+	 *
+	 * @return the upload summary
+	 */
+	public UploadSummary onUploadCompleted() {
+		long now = System.nanoTime();
+		long transferEnd = (transferCompleted != 0 ? transferCompleted : now);
+		UploadSummary summary = new UploadSummary(entriesCompleted, bytesRead, bytesCompressed, bytesSent, hashTime,
+				matchTime, millisBetween(writeStarted, writeCompleted), millisBetween(transferStarted, transferEnd),
+				millisBetween(writeStarted, now));
+		callback.onUploadComplete(summary);
+		return summary;
+	}
+
+	private void publish(boolean force) {
+		long now = System.nanoTime();
+		if (force || now - lastPublished >= interval) {
+			lastPublished = now;
+			callback.onProgress(new UploadProgress(totalEntries, entriesCompleted, totalBytes, bytesRead,
+					bytesCompressed, bytesSent, millisBetween(writeStarted, now)));
+		}
+	}
+
+	private static long millisBetween(long start, long end) {
+		if (start == 0 || end < start) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(end - start);
+	}
+}
@@ -19,6 +19,7 @@ package org.cloudfoundry.client.lib.util;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudJob;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudRoute;
 import org.cloudfoundry.client.lib.domain.CloudService;
@@ -75,6 +76,9 @@ public class CloudEntityResourceMapper {
 		if (targetClass == CloudServiceOffering.class) {
 			return (T) mapServiceResource(resource);
 		}
+		if (targetClass == CloudJob.class) {
+			return (T) mapJobResource(resource);
+		}
 		throw new IllegalArgumentException(
 				"Error during mapping - unsupported class for entity mapping " + targetClass.getName());
 	}
@@ -121,6 +125,14 @@ public class CloudEntityResourceMapper {
 		app.setInstances(getEntityAttribute(resource, "instances", Integer.class));
 		app.setServices(new ArrayList<String>());
 		app.setState(CloudApplication.AppState.valueOf(getEntityAttribute(resource, "state", String.class)));
+		String packageState = getEntityAttribute(resource, "package_state", String.class);
+		if (packageState != null) {
+			try {
+				app.setPackageState(CloudApplication.PackageState.valueOf(packageState));
+			} catch (IllegalArgumentException e) {
+				// state not known to this client
+			}
+		}
 		//TODO: debug
 		app.setDebug(null);
 
@@ -195,6 +207,27 @@ public class CloudEntityResourceMapper {
 		return cloudServiceOffering;
 	}
 
+	@SuppressWarnings("unchecked")
+	private CloudJob mapJobResource(Map<String, Object> resource) {
+		Map<String, Object> metadata = (Map<String, Object>) resource.get("metadata");
+		// completed jobs are reported with a guid of "0"
+		UUID guid = null;
+		try {
+			guid = UUID.fromString(String.valueOf(metadata.get("guid")));
+		} catch (IllegalArgumentException ignore) {}
+		CloudEntity.Meta meta = new CloudEntity.Meta(guid, parseDate(String.valueOf(metadata.get("created_at"))), null);
+		String url = String.valueOf(metadata.get("url"));
+		CloudJob.Status status = CloudJob.Status.getEnum(getEntityAttribute(resource, "status", String.class));
+		CloudJob.ErrorDetails errorDetails = null;
+		Map<String, Object> errorDetailsMap = getEntityAttribute(resource, "error_details", Map.class);
+		if (errorDetailsMap != null) {
+			Number code = (Number) errorDetailsMap.get("code");
+			errorDetails = new CloudJob.ErrorDetails(code != null ? code.intValue() : -1,
+					(String) errorDetailsMap.get("description"), (String) errorDetailsMap.get("error_code"));
+		}
+		return new CloudJob(meta, url, status, errorDetails);
+	}
+
 	@SuppressWarnings("unchecked")
 	public static CloudEntity.Meta getMeta(Map<String, Object> resource) {
 		Map<String, Object> metadata = (Map<String, Object>) resource.get("metadata");
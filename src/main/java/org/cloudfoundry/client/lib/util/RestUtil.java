@@ -17,9 +17,16 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.cloudfoundry.client.lib.HttpProxyConfiguration;
 import org.cloudfoundry.client.lib.oauth2.OauthClient;
+import org.cloudfoundry.client.lib.rest.AdaptiveConcurrencyLimiter;
+import org.cloudfoundry.client.lib.rest.Bulkhead;
+import org.cloudfoundry.client.lib.rest.BulkheadClientHttpRequestFactory;
+import org.cloudfoundry.client.lib.rest.EndpointClass;
+import org.cloudfoundry.client.lib.rest.LimitingClientHttpRequestFactory;
 import org.cloudfoundry.client.lib.rest.LoggingRestTemplate;
+import org.cloudfoundry.client.lib.rest.SpoolingClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
@@ -37,6 +44,97 @@ public class RestUtil {
 		return restTemplate;
 	}
 
+	/**
+	 * Create a request factory that spools request bodies to disk rather than buffering them in memory. Used for
+	 * large payloads such as application uploads.
+	 */
+	public ClientHttpRequestFactory createSpoolingRequestFactory(HttpProxyConfiguration httpProxyConfiguration) {
+		HttpComponentsClientHttpRequestFactory requestFactory =
+				(HttpComponentsClientHttpRequestFactory) createRequestFactory(httpProxyConfiguration);
+		return new SpoolingClientHttpRequestFactory(requestFactory.getHttpClient());
+	}
+
+	/**
+	 * Create a request factory with its own connections and the given read timeout, for long-lived responses such as
+	 * streamed logs. The timeout does not affect other requests.
+	 */
+	public ClientHttpRequestFactory createStreamingRequestFactory(HttpProxyConfiguration httpProxyConfiguration,
+			int readTimeout) {
+		HttpComponentsClientHttpRequestFactory requestFactory =
+				(HttpComponentsClientHttpRequestFactory) createRequestFactory(httpProxyConfiguration);
+		requestFactory.setReadTimeout(readTimeout);
+		return requestFactory;
+	}
+
+	/**
+	 * Create a request factory that sends listings and mutations through one connection pool and file access through
+	 * another, each sized to the bulkhead quotas of its requests, and that holds requests back by the priorities of
+	 * the bulkhead.
+	 *
+	 * <p>Requests that passed the bulkhead wait for the concurrency limiter, if one is given, so the latency it
+	 * measures does not include the time spent waiting in the bulkhead. Its limits are capped at the quotas.
+	 */
+	public ClientHttpRequestFactory createBulkheadRequestFactory(HttpProxyConfiguration httpProxyConfiguration,
+			Bulkhead bulkhead, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		capLimits(concurrencyLimiter, bulkhead);
+		BulkheadClientHttpRequestFactory requestFactory = new BulkheadClientHttpRequestFactory(
+				limit(createRequestFactory(httpProxyConfiguration,
+						bulkhead.getQuota(EndpointClass.MUTATION) + bulkhead.getQuota(EndpointClass.LISTING)),
+						concurrencyLimiter),
+				bulkhead);
+		requestFactory.setDelegate(EndpointClass.FILES, limit(
+				createRequestFactory(httpProxyConfiguration, bulkhead.getQuota(EndpointClass.FILES)),
+				concurrencyLimiter));
+		return requestFactory;
+	}
+
+	/**
+	 * Create a spooling request factory, see {@link #createSpoolingRequestFactory(HttpProxyConfiguration)}, whose
+	 * uploads wait in the given bulkhead and then for the concurrency limiter, if one is given, and have connections
+	 * of their own.
+	 */
+	public ClientHttpRequestFactory createBulkheadSpoolingRequestFactory(HttpProxyConfiguration httpProxyConfiguration,
+			Bulkhead bulkhead, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		capLimits(concurrencyLimiter, bulkhead);
+		HttpComponentsClientHttpRequestFactory requestFactory = (HttpComponentsClientHttpRequestFactory)
+				createRequestFactory(httpProxyConfiguration, bulkhead.getQuota(EndpointClass.UPLOAD));
+		return new BulkheadClientHttpRequestFactory(
+				limit(new SpoolingClientHttpRequestFactory(requestFactory.getHttpClient()), concurrencyLimiter),
+				bulkhead);
+	}
+
+	private static ClientHttpRequestFactory limit(ClientHttpRequestFactory requestFactory,
+			AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		if (concurrencyLimiter == null) {
+			return requestFactory;
+		}
+		return new LimitingClientHttpRequestFactory(requestFactory, concurrencyLimiter);
+	}
+
+	private static void capLimits(AdaptiveConcurrencyLimiter concurrencyLimiter, Bulkhead bulkhead) {
+		if (concurrencyLimiter != null) {
+			for (EndpointClass endpointClass : EndpointClass.values()) {
+				concurrencyLimiter.setCeiling(endpointClass, bulkhead.getQuota(endpointClass));
+			}
+		}
+	}
+
+	/**
+	 * Create a request factory whose connection pool holds up to the given number of connections per host.
+	 */
+	public ClientHttpRequestFactory createRequestFactory(HttpProxyConfiguration httpProxyConfiguration,
+			int maxConnections) {
+		HttpComponentsClientHttpRequestFactory requestFactory =
+				(HttpComponentsClientHttpRequestFactory) createRequestFactory(httpProxyConfiguration);
+		ClientConnectionManager connectionManager = requestFactory.getHttpClient().getConnectionManager();
+		if (connectionManager instanceof PoolingClientConnectionManager) {
+			PoolingClientConnectionManager pool = (PoolingClientConnectionManager) connectionManager;
+			pool.setMaxTotal(Math.max(pool.getMaxTotal(), maxConnections));
+			pool.setDefaultMaxPerRoute(maxConnections);
+		}
+		return requestFactory;
+	}
+
 	public ClientHttpRequestFactory createRequestFactory(HttpProxyConfiguration httpProxyConfiguration) {
 		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
 		if (httpProxyConfiguration != null) {
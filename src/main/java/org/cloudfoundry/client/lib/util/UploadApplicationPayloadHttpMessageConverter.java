@@ -17,10 +17,13 @@
 package org.cloudfoundry.client.lib.util;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 
 import org.cloudfoundry.client.lib.domain.UploadApplicationPayload;
+import org.cloudfoundry.client.lib.io.DeferredOutputStream;
+import org.cloudfoundry.client.lib.upload.UploadProgressMonitor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
@@ -28,11 +31,12 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
-import org.springframework.util.FileCopyUtils;
 
 /**
  * Implementation of {@link HttpMessageConverter} that can write {@link org.cloudfoundry.client.lib.domain.UploadApplicationPayload}s. The {@code Content-Type}
- * of written resources is {@code application/octet-stream}.
+ * of written resources is {@code application/octet-stream}. Progress is reported to the payload's
+ * {@link UploadApplicationPayload#getProgressMonitor() progress monitor}, following the actual network transfer when
+ * the request body is a {@link DeferredOutputStream}.
  *
  * @author Phillip Webb
  */
@@ -64,8 +68,14 @@ public class UploadApplicationPayloadHttpMessageConverter implements HttpMessage
         if (contentType != null) {
             headers.setContentType(contentType);
         }
-        FileCopyUtils.copy(t.getInputStream(), outputMessage.getBody());
-        outputMessage.getBody().flush();
+        OutputStream body = outputMessage.getBody();
+        boolean deferredTransfer = body instanceof DeferredOutputStream;
+        UploadProgressMonitor monitor = t.getProgressMonitor();
+        if (deferredTransfer && monitor != null) {
+            ((DeferredOutputStream) body).setTransferListener(monitor);
+        }
+        // The body is not closed, other multipart content may follow
+        t.writeTo(body, deferredTransfer);
     }
 
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+
+/**
+ * Tests for {@link CachingCloudControllerClient} and {@link EntityCache}.
+ */
+public class CachingCloudControllerClientTest extends TestCase {
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		controller = StubCloudController.startPopulated(10);
+		client = controller.login();
+		client.setCacheConfiguration(new CacheConfiguration());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.setCacheConfiguration(null);
+		controller.stop();
+	}
+
+	public void testServesRepeatedListingsFromCache() {
+		assertEquals(10, client.getApplications().size());
+		controller.resetRequestCounts();
+		assertEquals(10, client.getApplications().size());
+		assertEquals(0, controller.getRequestCount());
+
+		int domains = client.getDomains().size();
+		long requests = controller.getRequestCount();
+		assertEquals(domains, client.getDomains().size());
+		assertEquals(requests, controller.getRequestCount());
+	}
+
+	public void testValidatesSpaceAndOrgThroughCache() {
+		CloudSpace space = client.validateSpaceAndOrg("space", "org");
+		assertEquals("space", space.getName());
+		assertEquals("org", space.getOrganization().getName());
+		try {
+			client.validateSpaceAndOrg("missing", "org");
+			fail("Expected no matching space");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testMutationInvalidatesApplications() {
+		client.getApplication("app-1");
+		assertEquals(10, client.getApplications().size());
+		client.createApplication("added", new Staging(), 128, Collections.<String>emptyList(),
+				Collections.<String>emptyList());
+		assertEquals(11, client.getApplications().size());
+
+		client.updateApplicationInstances("app-1", 3);
+		assertEquals(3, client.getApplication("app-1").getInstances());
+		client.rename("app-1", "renamed");
+		assertEquals("renamed", client.getApplication(client.getApplication("renamed").getMeta().getGuid()).getName());
+	}
+
+	public void testDeletingRouteInvalidatesApplicationsUsingIt() {
+		CloudApplication application = null;
+		for (CloudApplication candidate : client.getApplications()) {
+			if (!candidate.getUris().isEmpty()) {
+				application = candidate;
+			}
+		}
+		String uri = application.getUris().get(0);
+		client.getRoutes("example.com");
+		client.deleteRoute(uri.substring(0, uri.indexOf('.')), "example.com");
+		assertTrue(client.getApplication(application.getName()).getUris().isEmpty());
+		for (CloudApplication candidate : client.getApplications()) {
+			assertFalse(candidate.getUris().contains(uri));
+		}
+	}
+
+	public void testSpaceViewsShareCache() {
+		CloudSpace space = client.getSpaces().get(0);
+		CloudFoundryClient view = client.inSpace(space);
+		int instances = client.getApplication("app-1").getInstances();
+		controller.resetRequestCounts();
+		assertEquals(instances, view.getApplication("app-1").getInstances());
+		assertEquals(0, controller.getRequestCount());
+
+		view.updateApplicationInstances("app-1", 5);
+		assertEquals(5, client.getApplication("app-1").getInstances());
+		client.stopApplication(space, "app-1");
+		assertEquals(CloudApplication.AppState.STOPPED, client.getApplication("app-1").getState());
+		client.startApplication(space, "app-1");
+		assertEquals(CloudApplication.AppState.STARTED, view.getApplication("app-1").getState());
+		client.deleteApplication(space, "app-1");
+		assertEquals(9, client.getApplications().size());
+	}
+
+	public void testCoalescesConcurrentLoads() throws Exception {
+		final EntityCache cache = new EntityCache(new CacheConfiguration());
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					results.add(cache.get(CachedEntityType.APPLICATIONS, "list", new EntityCache.Loader<Object>() {
+						public Object load() {
+							loads.incrementAndGet();
+							try {
+								release.await();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return "value";
+						}
+					}));
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(Collections.nCopies(10, "value"), results);
+		cache.shutdown();
+	}
+
+	public void testServesStaleValueWhileRevalidating() throws Exception {
+		CacheConfiguration configuration = new CacheConfiguration();
+		configuration.setTimeToLive(CachedEntityType.SERVICES, 50);
+		EntityCache cache = new EntityCache(configuration);
+		final AtomicInteger version = new AtomicInteger();
+		EntityCache.Loader<Integer> loader = new EntityCache.Loader<Integer>() {
+			public Integer load() {
+				return version.incrementAndGet();
+			}
+		};
+		assertEquals(1, cache.get(CachedEntityType.SERVICES, "list", loader).intValue());
+		Thread.sleep(100);
+		assertEquals(1, cache.get(CachedEntityType.SERVICES, "list", loader).intValue());
+		assertEquals(1, cache.getStaleHitCount());
+		for (int i = 0; i < 50 && cache.get(CachedEntityType.SERVICES, "list", loader) == 1; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, cache.get(CachedEntityType.SERVICES, "list", loader).intValue());
+		cache.shutdown();
+	}
+
+	public void testEvictsLeastRecentlyUsedEntries() {
+		CacheConfiguration configuration = new CacheConfiguration();
+		configuration.setMaximumEntries(2);
+		EntityCache cache = new EntityCache(configuration);
+		for (String key : new String[] { "a", "b", "a", "c" }) {
+			final String value = key;
+			cache.get(CachedEntityType.DOMAINS, key, new EntityCache.Loader<String>() {
+				public String load() {
+					return value;
+				}
+			});
+		}
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertTrue(cache.getKeys(CachedEntityType.DOMAINS).contains("a"));
+		assertFalse(cache.getKeys(CachedEntityType.DOMAINS).contains("b"));
+		cache.shutdown();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.cache;
+
+import java.io.File;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+
+/**
+ * Tests for {@link HttpResponseCache} and the conditional requests made with it.
+ */
+public class HttpResponseCacheTest extends TestCase {
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	private HttpResponseCache responseCache;
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		controller = StubCloudController.startPopulated(10);
+		controller.setEntityTagsEnabled(true);
+		client = controller.login();
+		responseCache = new HttpResponseCache();
+		client.setResponseCache(responseCache);
+		directory = File.createTempFile("response-cache", "");
+		directory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	public void testRevalidatesRepeatedRequests() {
+		assertEquals(10, client.getApplications().size());
+		assertEquals(0, responseCache.getRevalidationCount());
+		assertEquals(10, client.getApplications().size());
+		assertTrue(responseCache.getRevalidationCount() > 0);
+		assertTrue(responseCache.getNotModifiedCount() > 0);
+		assertTrue(responseCache.getMemoryUsed() > 0);
+	}
+
+	public void testServesChangedResources() {
+		assertEquals(10, client.getApplications().size());
+		client.createApplication("added", new Staging(), 128, Collections.<String>emptyList(),
+				Collections.<String>emptyList());
+		assertEquals(11, client.getApplications().size());
+		assertTrue(responseCache.getNotModifiedCount() < responseCache.getRevalidationCount());
+
+		client.updateApplicationInstances("app-1", 3);
+		assertEquals(3, client.getApplication("app-1").getInstances());
+	}
+
+	public void testKeepsEntriesPerPrincipal() {
+		responseCache.put("a https://api/v2/apps", entry("a"));
+		assertNull(responseCache.get("b https://api/v2/apps"));
+		assertEquals("a", new String(responseCache.get("a https://api/v2/apps").getBody()));
+	}
+
+	public void testEvictsLeastRecentlyUsedEntries() {
+		HttpResponseCache cache = new HttpResponseCache(10, null, 0);
+		cache.put("one", entry("12345"));
+		cache.put("two", entry("12345"));
+		cache.get("one");
+		cache.put("three", entry("12345"));
+		assertNotNull(cache.get("one"));
+		assertNull(cache.get("two"));
+		assertNotNull(cache.get("three"));
+		assertEquals(10, cache.getMemoryUsed());
+	}
+
+	public void testSkipsOversizedEntries() {
+		HttpResponseCache cache = new HttpResponseCache();
+		cache.setMaximumEntrySize(4);
+		cache.put("key", entry("12345"));
+		assertNull(cache.get("key"));
+	}
+
+	public void testKeepsEntriesOnDisk() {
+		HttpResponseCache cache = new HttpResponseCache(HttpResponseCache.DEFAULT_MEMORY_SIZE, directory,
+				HttpResponseCache.DEFAULT_DISK_SIZE);
+		cache.put("key", new HttpResponseCache.Entry("\"1\"", null, "application/json", "{}".getBytes()));
+		assertTrue(cache.getDiskUsed() > 0);
+
+		HttpResponseCache reopened = new HttpResponseCache(HttpResponseCache.DEFAULT_MEMORY_SIZE, directory,
+				HttpResponseCache.DEFAULT_DISK_SIZE);
+		HttpResponseCache.Entry entry = reopened.get("key");
+		assertNotNull(entry);
+		assertEquals("\"1\"", entry.getEntityTag());
+		assertNull(entry.getLastModified());
+		assertEquals("application/json", entry.getContentType());
+		assertEquals("{}", new String(entry.getBody()));
+
+		reopened.clear();
+		assertNull(new HttpResponseCache(HttpResponseCache.DEFAULT_MEMORY_SIZE, directory,
+				HttpResponseCache.DEFAULT_DISK_SIZE).get("key"));
+	}
+
+	private static HttpResponseCache.Entry entry(String body) {
+		return new HttpResponseCache.Entry("\"" + body.hashCode() + "\"", null, null, body.getBytes());
+	}
+}
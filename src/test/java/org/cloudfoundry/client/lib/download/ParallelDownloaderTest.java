@@ -0,0 +1,206 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests for {@link ParallelDownloader}.
+ */
+public class ParallelDownloaderTest extends TestCase {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private File destination;
+
+	private File partsFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		destination = File.createTempFile("download", ".bin");
+		partsFile = new File(destination.getPath() + ".parts");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		destination.delete();
+		partsFile.delete();
+	}
+
+	public void testDownloadsApplicationInRanges() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(1);
+		String app = dataset.findGuid(StubDataset.APPS, "name", "app-0");
+		byte[] bits = randomBytes(16 * CHUNK_SIZE + 100);
+		dataset.setBits(app, bits);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.start();
+		try {
+			ParallelDownloader downloader = new ParallelDownloader(controller.login());
+			downloader.setChunkSize(CHUNK_SIZE);
+			try {
+				controller.resetRequestCounts();
+				downloader.downloadApplication("app-0", destination, null);
+			} finally {
+				downloader.close();
+			}
+			assertTrue(Arrays.equals(bits, read(destination)));
+			assertEquals(17, controller.getRequestCount("GET", "/v2/apps/" + app + "/download"));
+			assertFalse(partsFile.exists());
+		} finally {
+			controller.stop();
+		}
+	}
+
+	public void testReadsSequentiallyWhenRangesAreIgnored() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(1);
+		String app = dataset.findGuid(StubDataset.APPS, "name", "app-0");
+		byte[] bits = randomBytes(16 * CHUNK_SIZE + 100);
+		dataset.setBits(app, bits);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.setRangesSupported(false);
+		controller.start();
+		try {
+			ParallelDownloader downloader = new ParallelDownloader(controller.login());
+			downloader.setChunkSize(CHUNK_SIZE);
+			try {
+				controller.resetRequestCounts();
+				downloader.downloadApplication("app-0", destination, null);
+			} finally {
+				downloader.close();
+			}
+			assertTrue(Arrays.equals(bits, read(destination)));
+			// the first range and the rest, instead of the whole content once per range
+			assertEquals(2, controller.getRequestCount("GET", "/v2/apps/" + app + "/download"));
+		} finally {
+			controller.stop();
+		}
+	}
+
+	public void testResumesMissingRanges() throws Exception {
+		ByteArrayResource resource = new ByteArrayResource(randomBytes(8 * CHUNK_SIZE));
+		resource.failFrom = 4 * CHUNK_SIZE;
+		ParallelDownloader downloader = new ParallelDownloader(null);
+		downloader.setChunkSize(CHUNK_SIZE);
+		try {
+			try {
+				downloader.download(resource, destination, null);
+				fail("Ranges did not fail");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("4 of 8 ranges"));
+			}
+			assertTrue(partsFile.exists());
+
+			resource.failFrom = Long.MAX_VALUE;
+			resource.reads.set(0);
+			downloader.download(resource, destination, null);
+			assertEquals(4, resource.reads.get());
+		} finally {
+			downloader.close();
+		}
+		assertTrue(Arrays.equals(resource.content, read(destination)));
+		assertFalse(partsFile.exists());
+	}
+
+	public void testStartsOverWhenResourceChanged() throws Exception {
+		ByteArrayResource resource = new ByteArrayResource(randomBytes(8 * CHUNK_SIZE));
+		resource.failFrom = 4 * CHUNK_SIZE;
+		ParallelDownloader downloader = new ParallelDownloader(null);
+		downloader.setChunkSize(CHUNK_SIZE);
+		try {
+			try {
+				downloader.download(resource, destination, null);
+				fail("Ranges did not fail");
+			} catch (IOException e) {
+				// expected
+			}
+
+			resource.content = randomBytes(6 * CHUNK_SIZE + 10);
+			resource.failFrom = Long.MAX_VALUE;
+			downloader.download(resource, destination, null);
+		} finally {
+			downloader.close();
+		}
+		assertTrue(Arrays.equals(resource.content, read(destination)));
+		assertFalse(partsFile.exists());
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		return FileCopyUtils.copyToByteArray(in);
+	}
+
+	/**
+	 * Resource held in memory whose ranges from a position on fail.
+	 */
+	private static class ByteArrayResource implements RangedResource {
+
+		private final AtomicInteger reads = new AtomicInteger();
+
+		private volatile byte[] content;
+
+		private volatile long failFrom = Long.MAX_VALUE;
+
+		ByteArrayResource(byte[] content) {
+			this.content = content;
+		}
+
+		public long read(long startPosition, long endPosition, OutputStream outputStream) {
+			reads.incrementAndGet();
+			if (startPosition >= failFrom) {
+				throw new IllegalStateException("Range at " + startPosition + " not available");
+			}
+			byte[] bytes = content;
+			if (startPosition < bytes.length) {
+				write(bytes, startPosition, Math.min(endPosition + 1, bytes.length), outputStream);
+			}
+			return bytes.length;
+		}
+
+		public void read(long startPosition, OutputStream outputStream) {
+			byte[] bytes = content;
+			write(bytes, startPosition, bytes.length, outputStream);
+		}
+
+		private static void write(byte[] bytes, long start, long end, OutputStream outputStream) {
+			try {
+				outputStream.write(bytes, (int) start, (int) (end - start));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DynamicZipInputStream}, including archives that need Zip64 extensions.
+ */
+public class DynamicZipInputStreamTest extends TestCase {
+
+	private static final long FOUR_GIGABYTES = 4L * 1024 * 1024 * 1024;
+
+	public void testReadsEntries() throws Exception {
+		List<DynamicZipInputStream.Entry> entries = new ArrayList<DynamicZipInputStream.Entry>();
+		entries.add(new BytesEntry("a.txt", "hello".getBytes("UTF-8")));
+		entries.add(new BytesEntry("dir/b.txt", "world".getBytes("UTF-8")));
+		ZipInputStream zip = new ZipInputStream(new DynamicZipInputStream(entries));
+		assertEquals("a.txt", zip.getNextEntry().getName());
+		assertEquals(5, drain(zip));
+		assertEquals("dir/b.txt", zip.getNextEntry().getName());
+		assertEquals(5, drain(zip));
+		assertNull(zip.getNextEntry());
+	}
+
+	public void testMoreThan65535Entries() throws Exception {
+		int count = 70000;
+		List<DynamicZipInputStream.Entry> entries = new ArrayList<DynamicZipInputStream.Entry>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(new BytesEntry("file" + i, new byte[] { (byte) i }));
+		}
+		File file = File.createTempFile("dynamic-zip", ".zip");
+		try {
+			copy(new DynamicZipInputStream(entries), new FileOutputStream(file));
+			ZipFile zipFile = new ZipFile(file);
+			try {
+				assertEquals(count, zipFile.size());
+				assertNotNull(zipFile.getEntry("file69999"));
+			} finally {
+				zipFile.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Streams an entry larger than 4GB. Takes a while, so only runs when the <tt>cflib.largeArchiveTests</tt> system
+	 * property is set.
+	 */
+	public void testEntryLargerThanFourGigabytes() throws Exception {
+		if (!Boolean.getBoolean("cflib.largeArchiveTests")) {
+			return;
+		}
+		long size = FOUR_GIGABYTES + 1024 * 1024;
+		List<DynamicZipInputStream.Entry> entries = new ArrayList<DynamicZipInputStream.Entry>();
+		entries.add(new GeneratedEntry("large.bin", size));
+		entries.add(new BytesEntry("small.txt", "after".getBytes("UTF-8")));
+		ZipInputStream zip = new ZipInputStream(new DynamicZipInputStream(entries));
+		ZipEntry entry = zip.getNextEntry();
+		assertEquals("large.bin", entry.getName());
+		assertEquals(size, drain(zip));
+		assertEquals("small.txt", zip.getNextEntry().getName());
+		assertEquals(5, drain(zip));
+		assertNull(zip.getNextEntry());
+	}
+
+	private static long drain(InputStream inputStream) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		long total = 0;
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+		} finally {
+			inputStream.close();
+			outputStream.close();
+		}
+	}
+
+	private static class BytesEntry implements DynamicZipInputStream.Entry {
+
+		private final String name;
+
+		private final byte[] bytes;
+
+		BytesEntry(String name, byte[] bytes) {
+			this.name = name;
+			this.bytes = bytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return new ByteArrayInputStream(bytes);
+		}
+	}
+
+	private static class GeneratedEntry implements DynamicZipInputStream.Entry {
+
+		private final String name;
+
+		private final long size;
+
+		GeneratedEntry(String name, long size) {
+			this.name = name;
+			this.size = size;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return new InputStream() {
+
+				private long remaining = size;
+
+				@Override
+				public int read() throws IOException {
+					if (remaining == 0) {
+						return -1;
+					}
+					remaining--;
+					return (int) (remaining & 0x7F);
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (remaining == 0) {
+						return -1;
+					}
+					int count = (int) Math.min(len, remaining);
+					for (int i = 0; i < count; i++) {
+						b[off + i] = (byte) ((remaining - i) & 0x7F);
+					}
+					remaining -= count;
+					return count;
+				}
+			};
+		}
+	}
+}
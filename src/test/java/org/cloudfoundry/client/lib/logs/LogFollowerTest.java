@@ -0,0 +1,142 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+
+/**
+ * Tests for {@link LogFollower}, following files of the stub as they grow and are truncated.
+ */
+public class LogFollowerTest extends TestCase {
+
+	private static final String LOG = "logs/stdout.log";
+
+	private static final String TRUNCATED = "<truncated>";
+
+	private StubDataset dataset;
+
+	private StubCloudController controller;
+
+	private String app;
+
+	private LogFollower follower;
+
+	private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+	private final LogLineListener listener = new LogLineListener() {
+
+		public void onLine(LogFile file, String line) {
+			events.add(line);
+		}
+
+		public void onTruncated(LogFile file) {
+			events.add(TRUNCATED);
+		}
+
+		public void onError(LogFile file, Exception e) {
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		dataset = new StubDataset();
+		String space = dataset.createSpace(dataset.createOrganization("org"), "space");
+		app = dataset.createApp(space, "app", "STARTED", 1);
+		dataset.putFile(app, LOG, "first\nsecond\n".getBytes("UTF-8"));
+		controller = new StubCloudController(dataset);
+		controller.start();
+		CloudFoundryClient client = controller.login();
+		follower = new LogFollower(client);
+		follower.setMinInterval(20);
+		follower.setMaxInterval(50);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		follower.close();
+		controller.stop();
+	}
+
+	public void testFollowsAppendedLines() throws Exception {
+		LogFollower.Subscription subscription = follower.follow("app", 0, LOG, listener);
+		awaitPosition(subscription, 13);
+		appendLog("third\nfou");
+		assertEquals("third", nextEvent());
+		appendLog("rth\r\n");
+		assertEquals("fourth", nextEvent());
+		assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(27, subscription.getPosition());
+	}
+
+	public void testReadsTruncatedFileFromStart() throws Exception {
+		LogFollower.Subscription subscription = follower.follow("app", 0, LOG, 0, listener);
+		assertEquals("first", nextEvent());
+		assertEquals("second", nextEvent());
+		dataset.putFile(app, LOG, "new\n".getBytes("UTF-8"));
+		assertEquals(TRUNCATED, nextEvent());
+		assertEquals("new", nextEvent());
+		awaitPosition(subscription, 4);
+	}
+
+	public void testReadsTruncatedFileFromStartWithoutRangeSupport() throws Exception {
+		controller.setRangesSupported(false);
+		follower.follow("app", 0, LOG, 0, listener);
+		assertEquals("first", nextEvent());
+		assertEquals("second", nextEvent());
+		dataset.putFile(app, LOG, "new\n".getBytes("UTF-8"));
+		assertEquals(TRUNCATED, nextEvent());
+		assertEquals("new", nextEvent());
+		appendLog("more\n");
+		assertEquals("more", nextEvent());
+	}
+
+	public void testStopsFollowingWhenCancelled() throws Exception {
+		LogFollower.Subscription subscription = follower.follow("app", 0, LOG, 0, listener);
+		assertEquals("first", nextEvent());
+		assertEquals("second", nextEvent());
+		subscription.cancel();
+		appendLog("third\n");
+		assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+		assertTrue(subscription.isCancelled());
+	}
+
+	private void appendLog(String content) throws Exception {
+		dataset.appendFile(app, LOG, content.getBytes("UTF-8"));
+	}
+
+	private String nextEvent() throws InterruptedException {
+		String event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull("Expected a line", event);
+		return event;
+	}
+
+	private static void awaitPosition(LogFollower.Subscription subscription, long position) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (subscription.getPosition() != position) {
+			assertTrue("Expected position " + position + " but was " + subscription.getPosition(),
+					System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+
+/**
+ * Tests for {@link LogStore} and searches of the logs stored with it.
+ */
+public class LogStoreTest extends TestCase {
+
+	private static final String LOG = "logs/stdout.log";
+
+	private StubDataset dataset;
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	private String app;
+
+	private File directory;
+
+	private LogStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		dataset = new StubDataset();
+		String space = dataset.createSpace(dataset.createOrganization("org"), "space");
+		app = dataset.createApp(space, "app", "STARTED", 1);
+		dataset.putFile(app, LOG, new byte[0]);
+		controller = new StubCloudController(dataset);
+		controller.start();
+		client = controller.login();
+		directory = File.createTempFile("log-store", "");
+		directory.delete();
+		store = new LogStore(directory);
+		store.setBlockSize(64);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		store.close();
+		controller.stop();
+		delete(directory);
+	}
+
+	public void testStoresOnlyNewContentOfFetchedLogs() throws Exception {
+		appendLog("2013-09-19T10:00:00Z first\n2013-09-19T10:00:01Z second\n");
+		store.append("app", 0, client.getLogs("app", 0));
+		appendLog("2013-09-19T10:00:02Z third\n2013-09-19T10:00");
+		store.append("app", 0, client.getLogs("app", 0));
+		assertEquals(3, store.search("app", -1, Long.MAX_VALUE, null, 100).size());
+
+		// the incomplete line is stored once it is complete
+		appendLog(":03Z fourth\n");
+		store.append("app", 0, client.getLogs("app", 0));
+		store.append("app", 0, client.getLogs("app", 0));
+		List<LogLine> lines = store.search("app", -1, Long.MAX_VALUE, null, 100);
+		assertEquals(4, lines.size());
+		assertEquals("2013-09-19T10:00:03Z fourth", lines.get(3).getText());
+	}
+
+	public void testStoresTruncatedLogsAgain() throws Exception {
+		appendLog("2013-09-19T10:00:00Z first\n2013-09-19T10:00:01Z second\n");
+		store.append("app", 0, client.getLogs("app", 0));
+		dataset.putFile(app, LOG, "2013-09-19T11:00:00Z restarted\n".getBytes("UTF-8"));
+		store.append("app", 0, client.getLogs("app", 0));
+		List<LogLine> lines = store.search("app", -1, Long.MAX_VALUE, null, 100);
+		assertEquals(3, lines.size());
+		assertEquals("2013-09-19T11:00:00Z restarted", lines.get(2).getText());
+	}
+
+	public void testFindsLinesInTimeRange() throws Exception {
+		store.setBlockSize(1024);
+		appendLog("2013-09-19T10:00:00Z started\n" +
+				"2013-09-19T09:00:00Z replayed Exception\n" +
+				"\tat the stack trace\n" +
+				"2013-09-19T10:00:05Z done\n");
+		store.append("app", 0, client.getLogs("app", 0));
+		store.flush();
+
+		// the block starts and ends at 10:00, but holds a line written earlier
+		long from = timestamp("2013-09-19T08:55:00Z");
+		long to = timestamp("2013-09-19T09:05:00Z");
+		List<LogLine> lines = store.search("app", from, to, null, 100);
+		assertEquals(2, lines.size());
+		assertEquals("2013-09-19T09:00:00Z replayed Exception", lines.get(0).getText());
+		assertEquals(timestamp("2013-09-19T09:00:00Z"), lines.get(1).getTimestamp());
+
+		assertEquals(1, store.search("app", from, to, "Exception", 100).size());
+		assertEquals(0, store.search("app", timestamp("2013-09-19T10:00:06Z"), Long.MAX_VALUE, null, 100).size());
+	}
+
+	public void testSearchesLogsOfEarlierRun() throws Exception {
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			log.append(String.format("2013-09-19T10:00:%02dZ line %d\n", i, i));
+		}
+		appendLog(log.toString());
+		store.append("app", 0, client.getLogs("app", 0));
+		store.close();
+
+		store = new LogStore(directory);
+		List<LogLine> lines = store.search("app", timestamp("2013-09-19T10:00:05Z"), Long.MAX_VALUE, null, 3);
+		assertEquals(3, lines.size());
+		assertEquals("2013-09-19T10:00:05Z line 5", lines.get(0).getText());
+		assertEquals(new LogFile("app", 0, LOG), lines.get(0).getFile());
+		assertEquals(1, store.search("app", -1, Long.MAX_VALUE, "line 19", 100).size());
+	}
+
+	private void appendLog(String content) throws Exception {
+		dataset.appendFile(app, LOG, content.getBytes("UTF-8"));
+	}
+
+	private static long timestamp(String text) {
+		return new LogTimestampParser().parse(text);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
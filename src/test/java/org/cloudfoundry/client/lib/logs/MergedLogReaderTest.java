@@ -0,0 +1,158 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.logs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+
+/**
+ * Tests for {@link MergedLogReader} and the merged logs of {@link LogCollector}.
+ */
+public class MergedLogReaderTest extends TestCase {
+
+	private static final LogFile STDOUT = new LogFile("app", 0, "logs/stdout.log");
+
+	private static final LogFile STDERR = new LogFile("app", 0, "logs/stderr.log");
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	public void testOrdersLinesByTimestamp() throws Exception {
+		MergedLogReader reader = read(
+				"2013-09-19T10:00:00Z one\n2013-09-19T10:00:03Z four\n",
+				"2013-09-19T10:00:01Z two\n2013-09-19T10:00:02Z three\n2013-09-19T10:00:04Z five\n");
+		assertEquals(Arrays.asList("2013-09-19T10:00:00Z one", "2013-09-19T10:00:01Z two",
+				"2013-09-19T10:00:02Z three", "2013-09-19T10:00:03Z four", "2013-09-19T10:00:04Z five"),
+				getTexts(reader));
+	}
+
+	public void testKeepsContinuationLinesWithTheirLine() throws Exception {
+		MergedLogReader reader = read(
+				"2013-09-19T10:00:00Z failed\n\tat first\n\tat second\n2013-09-19T10:00:02Z done\n",
+				"2013-09-19T10:00:00Z other\n2013-09-19T10:00:01Z next\n");
+		List<LogLine> lines = getLines(reader);
+		assertEquals(6, lines.size());
+		assertEquals("2013-09-19T10:00:00Z failed", lines.get(0).getText());
+		assertEquals("\tat first", lines.get(1).getText());
+		assertEquals("\tat second", lines.get(2).getText());
+		assertEquals(lines.get(0).getTimestamp(), lines.get(2).getTimestamp());
+		assertEquals(STDOUT, lines.get(2).getFile());
+		assertEquals("2013-09-19T10:00:00Z other", lines.get(3).getText());
+		assertEquals("2013-09-19T10:00:01Z next", lines.get(4).getText());
+	}
+
+	public void testKeepsOrderOfFilesForEqualTimestamps() throws Exception {
+		MergedLogReader reader = read(
+				"2013-09-19T10:00:00Z out\n",
+				"2013-09-19T10:00:00Z err\n");
+		List<LogLine> lines = getLines(reader);
+		assertEquals(STDOUT, lines.get(0).getFile());
+		assertEquals(STDERR, lines.get(1).getFile());
+	}
+
+	public void testPlacesLinesWithoutTimestampFirst() throws Exception {
+		MergedLogReader reader = read(
+				"starting\n2013-09-19T10:00:01Z started\n",
+				"2013-09-19T10:00:00Z err\n");
+		assertEquals(Arrays.asList("starting", "2013-09-19T10:00:00Z err", "2013-09-19T10:00:01Z started"),
+				getTexts(reader));
+	}
+
+	public void testDeletesFilesOnClose() throws Exception {
+		MergedLogReader reader = read("2013-09-19T10:00:00Z out\n", "");
+		reader.close();
+		assertFalse(files.get(0).exists());
+		assertFalse(files.get(1).exists());
+		assertFalse(reader.hasNext());
+	}
+
+	public void testMergesLogsCollectedFromInstances() throws Exception {
+		StubDataset dataset = new StubDataset();
+		String space = dataset.createSpace(dataset.createOrganization("org"), "space");
+		String app = dataset.createApp(space, "app", "STARTED", 1);
+		dataset.putFile(app, "logs/stdout.log",
+				"2013-09-19T10:00:00Z one\n2013-09-19T10:00:02Z three\n\tat trace\n".getBytes("UTF-8"));
+		dataset.putFile(app, "logs/stderr.log", "2013-09-19T10:00:01Z two\n".getBytes("UTF-8"));
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.start();
+		LogCollector collector = null;
+		try {
+			CloudFoundryClient client = controller.login();
+			collector = new LogCollector(client);
+			assertEquals(Arrays.asList("2013-09-19T10:00:00Z one", "2013-09-19T10:00:01Z two",
+					"2013-09-19T10:00:02Z three", "\tat trace"), getTexts(collector.mergeLogs("app")));
+		} finally {
+			if (collector != null) {
+				collector.close();
+			}
+			controller.stop();
+		}
+	}
+
+	private MergedLogReader read(String stdout, String stderr) throws IOException {
+		files.add(write(stdout));
+		files.add(write(stderr));
+		return new MergedLogReader(Arrays.asList(STDOUT, STDERR), files, new LogTimestampParser(), true);
+	}
+
+	private static File write(String content) throws IOException {
+		File file = File.createTempFile("merged-log", ".tmp");
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(content.getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	private static List<LogLine> getLines(MergedLogReader reader) {
+		List<LogLine> lines = new ArrayList<LogLine>();
+		try {
+			while (reader.hasNext()) {
+				lines.add(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private static List<String> getTexts(MergedLogReader reader) {
+		List<String> texts = new ArrayList<String>();
+		for (LogLine line : getLines(reader)) {
+			texts.add(line.getText());
+		}
+		return texts;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Tests for {@link AdaptiveConcurrencyLimiter} and {@link LimitingClientHttpRequestFactory}.
+ */
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+
+	private static final long MILLISECOND = 1000000;
+
+	public void testClassifiesEndpoints() {
+		assertEquals(EndpointClass.LISTING, EndpointClass.of(HttpMethod.GET, URI.create("http://api/v2/apps?q=name:a")));
+		assertEquals(EndpointClass.MUTATION, EndpointClass.of(HttpMethod.PUT, URI.create("http://api/v2/apps/1")));
+		assertEquals(EndpointClass.UPLOAD, EndpointClass.of(HttpMethod.PUT, URI.create("http://api/v2/apps/1/bits")));
+		assertEquals(EndpointClass.FILES,
+				EndpointClass.of(HttpMethod.GET, URI.create("http://api/v2/apps/1/instances/0/files/logs/a.log")));
+		assertEquals(EndpointClass.FILES, EndpointClass.of(HttpMethod.GET, URI.create("http://api/v2/apps/1/download")));
+	}
+
+	public void testDecreasesOncePerOverload() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+		limiter.setLimit(EndpointClass.LISTING, 8, 1, 8);
+		Thread.sleep(1);
+		AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(EndpointClass.LISTING);
+		AdaptiveConcurrencyLimiter.Permit second = limiter.acquire(EndpointClass.LISTING);
+		first.release(MILLISECOND, true);
+		second.release(MILLISECOND, true);
+		assertEquals(4, limiter.getLimit(EndpointClass.LISTING));
+		first.release(MILLISECOND, true);
+		assertEquals(0, limiter.getInFlight(EndpointClass.LISTING));
+
+		limiter.acquire(EndpointClass.LISTING).release(MILLISECOND, true);
+		assertEquals(2, limiter.getLimit(EndpointClass.LISTING));
+	}
+
+	public void testIncreasesWhileLimitIsUsed() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+		limiter.setLimit(EndpointClass.MUTATION, 2, 1, 4);
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire(EndpointClass.MUTATION).release(MILLISECOND, false);
+		}
+		assertEquals(4, limiter.getLimit(EndpointClass.MUTATION));
+		for (int i = 0; i < 10; i++) {
+			limiter.acquire(EndpointClass.MUTATION).release(MILLISECOND, false);
+		}
+		assertEquals(4, limiter.getLimit(EndpointClass.MUTATION));
+	}
+
+	public void testCapsLimitAtCeiling() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+		limiter.setLimit(EndpointClass.MUTATION, 4, 1, 8);
+		limiter.setCeiling(EndpointClass.MUTATION, 3);
+		assertEquals(3, limiter.getLimit(EndpointClass.MUTATION));
+		for (int i = 0; i < 20; i++) {
+			limiter.acquire(EndpointClass.MUTATION).release(MILLISECOND, false);
+		}
+		assertEquals(3, limiter.getLimit(EndpointClass.MUTATION));
+	}
+
+	public void testLimitsRequestsAdmittedByBulkhead() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(10);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.setLatency(20, 0);
+		controller.start();
+		try {
+			final CloudFoundryClient client = controller.login();
+			Bulkhead bulkhead = new Bulkhead();
+			bulkhead.setQuota(EndpointClass.LISTING, 2);
+			client.setBulkhead(bulkhead);
+			AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+			client.setConcurrencyLimiter(limiter);
+			assertEquals(2, limiter.getLimit(EndpointClass.LISTING));
+
+			// many more callers than the quota, the time they wait in the bulkhead must not look like overload
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 8; i++) {
+				final String name = "app-" + i;
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						for (int j = 0; j < 5; j++) {
+							client.getApplication(name);
+						}
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(2, limiter.getLimit(EndpointClass.LISTING));
+			assertEquals(0, limiter.getInFlight(EndpointClass.LISTING));
+			assertEquals(0, bulkhead.getInFlight(EndpointClass.LISTING));
+			assertTrue(controller.getMaxConcurrentRequests() <= 3);
+		} finally {
+			controller.stop();
+		}
+	}
+
+	public void testLimitsClientRequests() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(10);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.setLatency(50, 0);
+		controller.start();
+		try {
+			final CloudFoundryClient client = controller.login();
+			AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+			limiter.setLimit(EndpointClass.LISTING, 2, 1, 2);
+			client.setConcurrencyLimiter(limiter);
+			controller.resetRequestCounts();
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 6; i++) {
+				final String name = "app-" + (i + 1);
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						client.getApplication(name);
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			// the stub counts a request until its handler returns, which may be after the client read the response
+			assertTrue(controller.getMaxConcurrentRequests() <= 3);
+			assertEquals(0, limiter.getInFlight(EndpointClass.LISTING));
+
+			controller.failRequests("GET", "/v2/spaces/.*/apps", 429).times(1);
+			try {
+				client.getApplications();
+				fail("Expected overload");
+			} catch (HttpClientErrorException e) {
+				assertEquals(429, e.getStatusCode().value());
+			}
+			assertEquals(1, limiter.getLimit(EndpointClass.LISTING));
+		} finally {
+			controller.stop();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+
+/**
+ * Tests for {@link Bulkhead} and {@link BulkheadClientHttpRequestFactory}.
+ */
+public class BulkheadTest extends TestCase {
+
+	public void testServesHigherPriorityFirst() throws Exception {
+		Bulkhead bulkhead = new Bulkhead();
+		bulkhead.setTotal(1);
+		bulkhead.acquire(EndpointClass.UPLOAD);
+		List<EndpointClass> order = Collections.synchronizedList(new ArrayList<EndpointClass>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (EndpointClass endpointClass : new EndpointClass[] { EndpointClass.UPLOAD, EndpointClass.FILES,
+				EndpointClass.LISTING, EndpointClass.MUTATION }) {
+			threads.add(acquireAndRelease(bulkhead, endpointClass, order));
+			Thread.sleep(50);
+		}
+		assertEquals(4, waiting(bulkhead));
+		bulkhead.release(EndpointClass.UPLOAD);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(EndpointClass.MUTATION, order.get(0));
+		assertEquals(EndpointClass.LISTING, order.get(1));
+		assertEquals(EndpointClass.FILES, order.get(2));
+		assertEquals(EndpointClass.UPLOAD, order.get(3));
+	}
+
+	public void testBoundsEachClassByQuota() throws Exception {
+		Bulkhead bulkhead = new Bulkhead();
+		bulkhead.setQuota(EndpointClass.UPLOAD, 1);
+		bulkhead.acquire(EndpointClass.UPLOAD);
+		List<EndpointClass> order = Collections.synchronizedList(new ArrayList<EndpointClass>());
+		Thread upload = acquireAndRelease(bulkhead, EndpointClass.UPLOAD, order);
+		Thread.sleep(50);
+		assertEquals(1, bulkhead.getWaiting(EndpointClass.UPLOAD));
+
+		bulkhead.acquire(EndpointClass.MUTATION);
+		assertEquals(1, bulkhead.getInFlight(EndpointClass.MUTATION));
+		bulkhead.release(EndpointClass.MUTATION);
+
+		bulkhead.release(EndpointClass.UPLOAD);
+		upload.join();
+		assertEquals(Collections.singletonList(EndpointClass.UPLOAD), order);
+		assertEquals(0, bulkhead.getInFlight(EndpointClass.UPLOAD));
+	}
+
+	public void testReleasesRequestsOfClient() throws Exception {
+		StubCloudController controller = StubCloudController.startPopulated(10);
+		try {
+			CloudFoundryClient client = controller.login();
+			Bulkhead bulkhead = new Bulkhead();
+			bulkhead.setTotal(2);
+			bulkhead.setQuota(EndpointClass.FILES, 1);
+			client.setBulkhead(bulkhead);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(10, client.getApplications().size());
+				assertNotNull(client.getFile("app-1", 0, "logs/stdout.log"));
+				client.updateApplicationInstances("app-1", i + 1);
+			}
+			for (EndpointClass endpointClass : EndpointClass.values()) {
+				assertEquals(0, bulkhead.getInFlight(endpointClass));
+			}
+		} finally {
+			controller.stop();
+		}
+	}
+
+	private static int waiting(Bulkhead bulkhead) {
+		int waiting = 0;
+		for (EndpointClass endpointClass : EndpointClass.values()) {
+			waiting += bulkhead.getWaiting(endpointClass);
+		}
+		return waiting;
+	}
+
+	private static Thread acquireAndRelease(final Bulkhead bulkhead, final EndpointClass endpointClass,
+			final List<EndpointClass> order) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					bulkhead.acquire(endpointClass);
+					order.add(endpointClass);
+					Thread.sleep(10);
+					bulkhead.release(endpointClass);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Tests for {@link CoalescingClientHttpRequestFactory}.
+ */
+public class CoalescingClientHttpRequestFactoryTest extends TestCase {
+
+	private static final URI URI = java.net.URI.create("http://api.example.com/v2/apps");
+
+	private final CountingRequestFactory delegate = new CountingRequestFactory();
+
+	private final CoalescingClientHttpRequestFactory requestFactory =
+			new CoalescingClientHttpRequestFactory(delegate, null);
+
+	public void testSharesResponseOfIdenticalRequests() throws Exception {
+		delegate.block();
+		List<Thread> threads = new ArrayList<Thread>();
+		List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+		for (int i = 0; i < 10; i++) {
+			threads.add(get("bearer a", bodies));
+		}
+		Thread.sleep(100);
+		delegate.release();
+		join(threads);
+		assertEquals(1, delegate.gets.get());
+		assertEquals(Collections.nCopies(10, "1"), bodies);
+		assertEquals(9, requestFactory.getCoalescedCount());
+	}
+
+	public void testKeepsPrincipalsApart() throws Exception {
+		delegate.block();
+		List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(get("bearer a", bodies));
+		threads.add(get("bearer b", bodies));
+		Thread.sleep(100);
+		delegate.release();
+		join(threads);
+		assertEquals(2, delegate.gets.get());
+		assertEquals(2, new HashSet<String>(bodies).size());
+	}
+
+	public void testDoesNotShareResponseStartedBeforeChange() throws Exception {
+		delegate.block();
+		List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(get("bearer a", bodies));
+		Thread.sleep(100);
+		ClientHttpRequest change = requestFactory.createRequest(URI, HttpMethod.PUT);
+		change.getHeaders().set("Authorization", "bearer a");
+		change.execute().close();
+		threads.add(get("bearer a", bodies));
+		Thread.sleep(100);
+		delegate.release();
+		join(threads);
+		assertEquals(2, delegate.gets.get());
+		assertEquals(0, requestFactory.getCoalescedCount());
+	}
+
+	public void testPassesOnResponsesTooLargeToShare() throws Exception {
+		requestFactory.setMaximumBodySize(4);
+		delegate.body = "0123456789";
+		delegate.block();
+		List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(get("bearer a", bodies));
+		threads.add(get("bearer a", bodies));
+		Thread.sleep(100);
+		delegate.release();
+		join(threads);
+		assertEquals(2, delegate.gets.get());
+		assertEquals(Collections.nCopies(2, "0123456789"), bodies);
+	}
+
+	public void testDoesNotShareFileContent() throws Exception {
+		URI file = java.net.URI.create("http://api.example.com/v2/apps/1/instances/0/files/logs/stdout.log");
+		delegate.block();
+		List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(get(file, "bearer a", bodies));
+		threads.add(get(file, "bearer a", bodies));
+		Thread.sleep(100);
+		delegate.release();
+		join(threads);
+		assertEquals(2, delegate.gets.get());
+		assertEquals(0, requestFactory.getCoalescedCount());
+	}
+
+	public void testCollapsesConcurrentClientCalls() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(10);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.setLatency(100, 0);
+		controller.start();
+		try {
+			final CloudFoundryClient client = controller.login();
+			client.getApplication("app-1");
+			controller.resetRequestCounts();
+			client.getApplication("app-1");
+			long single = controller.getRequestCount();
+
+			controller.resetRequestCounts();
+			List<Thread> threads = new ArrayList<Thread>();
+			final AtomicInteger found = new AtomicInteger();
+			for (int i = 0; i < 8; i++) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						if (client.getApplication("app-1") != null) {
+							found.incrementAndGet();
+						}
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+			join(threads);
+			assertEquals(8, found.get());
+			assertTrue(controller.getRequestCount() <= 2 * single);
+		} finally {
+			controller.stop();
+		}
+	}
+
+	private Thread get(String authorization, List<String> bodies) {
+		return get(URI, authorization, bodies);
+	}
+
+	private Thread get(final URI uri, final String authorization, final List<String> bodies) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					ClientHttpRequest request = requestFactory.createRequest(uri, HttpMethod.GET);
+					request.getHeaders().set("Authorization", authorization);
+					ClientHttpResponse response = request.execute();
+					bodies.add(read(response.getBody()));
+					response.close();
+				} catch (IOException e) {
+					bodies.add(e.toString());
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static void join(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Factory whose GET requests answer with the number of GET requests executed so far, or with a fixed body, and can
+	 * be held until released.
+	 */
+	private static class CountingRequestFactory implements ClientHttpRequestFactory {
+
+		final AtomicInteger gets = new AtomicInteger();
+
+		volatile String body;
+
+		private volatile CountDownLatch latch = new CountDownLatch(0);
+
+		void block() {
+			latch = new CountDownLatch(1);
+		}
+
+		void release() {
+			latch.countDown();
+		}
+
+		public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) {
+			return new ClientHttpRequest() {
+
+				private final HttpHeaders headers = new HttpHeaders();
+
+				public HttpMethod getMethod() {
+					return httpMethod;
+				}
+
+				public URI getURI() {
+					return uri;
+				}
+
+				public HttpHeaders getHeaders() {
+					return headers;
+				}
+
+				public OutputStream getBody() {
+					return new ByteArrayOutputStream();
+				}
+
+				public ClientHttpResponse execute() throws IOException {
+					if (httpMethod != HttpMethod.GET) {
+						return new BufferedClientHttpResponse(204, "No Content", new HttpHeaders(), new byte[0]);
+					}
+					String content = (body != null ? body : String.valueOf(gets.incrementAndGet()));
+					if (body != null) {
+						gets.incrementAndGet();
+					}
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted");
+					}
+					// like a network response, the body can only be read once
+					final InputStream stream = new ByteArrayInputStream(content.getBytes("UTF-8"));
+					return new BufferedClientHttpResponse(200, "OK", new HttpHeaders(), new byte[0]) {
+						@Override
+						public InputStream getBody() {
+							return stream;
+						}
+					};
+				}
+			};
+		}
+	}
+}
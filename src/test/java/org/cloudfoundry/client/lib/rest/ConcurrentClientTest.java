@@ -0,0 +1,256 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudRoute;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.cloudfoundry.client.lib.upload.ResourceManifestFile;
+import org.cloudfoundry.client.lib.util.RestUtil;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Tests for sharing one {@link CloudControllerClientImpl} between threads and spaces.
+ */
+public class ConcurrentClientTest extends TestCase {
+
+	private static final int THREADS = 16;
+
+	private StubCloudController controller;
+
+	@Override
+	protected void setUp() throws Exception {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(1, 2, 5);
+		controller = new StubCloudController(dataset);
+		controller.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+	}
+
+	public void testCallsSeeOneSpaceWhileSpaceChanges() throws Exception {
+		final CloudFoundryClient client = controller.createClient();
+		final List<CloudSpace> spaces = client.getSpaces();
+		assertEquals(2, spaces.size());
+		final Set<String> first = new HashSet<String>(Arrays.asList("app-0", "app-1", "app-2", "app-3", "app-4"));
+		final Set<String> second = new HashSet<String>(Arrays.asList("app-5", "app-6", "app-7", "app-8", "app-9"));
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch done = new CountDownLatch(THREADS);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 10; j++) {
+							Set<String> names = new HashSet<String>();
+							for (CloudApplication application : client.getApplications()) {
+								names.add(application.getName());
+							}
+							assertTrue("Applications of two spaces: " + names,
+									names.equals(first) || names.equals(second));
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (int i = 0; done.getCount() > 0; i++) {
+			client.setCloudSpace(spaces.get(i % 2));
+			Thread.sleep(1);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	public void testSpaceViewsShareSession() throws Exception {
+		CloudFoundryClient client = controller.createClient();
+		controller.resetRequestCounts();
+		CloudFoundryClient view = client.inSpace("org", "space-1");
+		assertEquals(0, controller.getRequestCount("POST", "/uaa/oauth/token"));
+
+		assertEquals("app-5", view.getApplication("app-5").getName());
+		assertEquals(5, view.getApplications().size());
+		assertEquals("app-0", client.getApplication("app-0").getName());
+		try {
+			client.getApplication("app-5");
+			fail("Application of the view found in the space of the client");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+		}
+		try {
+			view.setCloudSpace(client.getSpaces().get(0));
+			fail("Space of a view changed");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		client.logout();
+		try {
+			view.getApplications();
+			fail("View still logged in after the client logged out");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.UNAUTHORIZED, e.getStatusCode());
+		}
+		view.login();
+		assertEquals(5, client.getApplications().size());
+		assertEquals(1, controller.getRequestCount("POST", "/uaa/oauth/token"));
+	}
+
+	public void testSpaceViewsUseSettingsOfClient() throws Exception {
+		CloudControllerClientImpl client = (CloudControllerClientImpl) new CloudControllerClientFactory(
+				new RestUtil(), null).newCloudController(controller.getUrl(),
+				new CloudCredentials(StubCloudController.USERNAME, StubCloudController.PASSWORD), "org", "space");
+		CloudControllerClientImpl view =
+				(CloudControllerClientImpl) client.inSpace(findSpace(client.getSpaces(), "space-1"));
+		assertEquals("space-1", view.getCloudSpace().getName());
+		assertEquals("space", client.getCloudSpace().getName());
+
+		ResourceManifestFile manifest = new ResourceManifestFile(new File("target/resources"));
+		client.setResourceManifestFile(manifest);
+		assertSame(manifest, view.getResourceManifestFile());
+		ResourceManifestFile other = new ResourceManifestFile(new File("target/other-resources"));
+		view.setResourceManifestFile(other);
+		assertSame(other, client.getResourceManifestFile());
+	}
+
+	public void testCreateApplicationStaysInSpaceWhileSpaceChanges() throws Exception {
+		final CloudFoundryClient client = controller.createClient();
+		CloudSpace space = findSpace(client.getSpaces(), "space");
+		final CloudSpace other = findSpace(client.getSpaces(), "space-1");
+		// the app is created in the first request, its services and routes are looked up afterwards
+		controller.interceptRequests("POST", "/v2/apps", new Runnable() {
+			public void run() {
+				client.setCloudSpace(other);
+			}
+		}).times(1);
+
+		client.createApplication("new-app", new Staging(), 128, Arrays.asList("new-app.example.com"),
+				Arrays.asList("service-0"));
+
+		client.setCloudSpace(space);
+		CloudApplication application = client.getApplication("new-app");
+		assertEquals(Arrays.asList("new-app.example.com"), application.getUris());
+		assertEquals(Arrays.asList("service-0"), application.getServices());
+		assertEquals(Arrays.asList("new-app"), getHosts(client.getRoutes("example.com"), "new-app"));
+	}
+
+	public void testUpdateApplicationUrisStaysInSpaceWhileSpaceChanges() throws Exception {
+		final CloudFoundryClient client = controller.createClient();
+		CloudSpace space = findSpace(client.getSpaces(), "space");
+		final CloudSpace other = findSpace(client.getSpaces(), "space-1");
+		// the domains are listed once the application was read, routes are looked up and created afterwards
+		controller.interceptRequests("GET", "/v2/spaces/.*/domains", new Runnable() {
+			public void run() {
+				client.setCloudSpace(other);
+			}
+		}).times(1);
+
+		client.updateApplicationUris("app-0", Arrays.asList("app-0.example.com", "moved.example.com"));
+
+		client.setCloudSpace(space);
+		assertTrue(client.getApplication("app-0").getUris().contains("moved.example.com"));
+		assertEquals(Arrays.asList("moved"), getHosts(client.getRoutes("example.com"), "moved"));
+		client.setCloudSpace(other);
+		assertTrue(getHosts(client.getRoutes("example.com"), "moved").isEmpty());
+	}
+
+	public void testRefreshesExpiringTokenOnce() throws Exception {
+		// tokens valid for less than 50 seconds are refreshed before use
+		controller.setTokenValidity(30);
+		final CloudFoundryClient client = controller.createClient();
+		controller.setTokenValidity(3600);
+		controller.resetRequestCounts();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						assertEquals(5, client.getApplications().size());
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(1, controller.getRequestCount("POST", "/uaa/oauth/token"));
+	}
+
+	private static CloudSpace findSpace(List<CloudSpace> spaces, String name) {
+		for (CloudSpace space : spaces) {
+			if (space.getName().equals(name)) {
+				return space;
+			}
+		}
+		throw new AssertionError("No space " + name);
+	}
+
+	private static List<String> getHosts(List<CloudRoute> routes, String host) {
+		List<String> hosts = new ArrayList<String>();
+		for (CloudRoute route : routes) {
+			if (route.getHost().equals(host)) {
+				hosts.add(route.getHost());
+			}
+		}
+		return hosts;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.metrics.EndpointStatistics;
+import org.cloudfoundry.client.lib.metrics.InMemoryRestMetricsRegistry;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Tests for the call metrics recorded by {@link LoggingRestTemplate}.
+ */
+public class LoggingRestTemplateTest extends TestCase {
+
+	private static final String APPS = "/v2/spaces/{space}/apps";
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	private InMemoryRestMetricsRegistry metrics;
+
+	@Override
+	protected void setUp() throws Exception {
+		controller = StubCloudController.startPopulated(3);
+		client = controller.login();
+		metrics = new InMemoryRestMetricsRegistry();
+		client.setMetricsRegistry(metrics);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+	}
+
+	public void testRecordsCallsPerEndpoint() {
+		client.getApplications();
+		client.getApplications();
+		EndpointStatistics statistics = metrics.getEndpointStatistics(HttpMethod.GET, APPS);
+		assertNotNull(statistics);
+		assertEquals(2, statistics.getCount());
+		assertEquals(0, statistics.getErrorCount());
+		assertTrue(statistics.getResponseBytes() > 0);
+		assertTrue(statistics.getMaxLatency() > 0);
+		assertNull(metrics.getEndpointStatistics(HttpMethod.POST, APPS));
+		assertTrue(metrics.getTotalCount() >= 2);
+	}
+
+	public void testRecordsFailedCalls() {
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 500).times(1);
+		try {
+			client.getApplications();
+			fail("Expected server error");
+		} catch (HttpServerErrorException e) {
+			assertEquals(500, e.getStatusCode().value());
+		}
+		EndpointStatistics statistics = metrics.getEndpointStatistics(HttpMethod.GET, APPS);
+		assertEquals(1, statistics.getCount());
+		assertEquals(1, statistics.getErrorCount());
+		assertEquals(1, metrics.getTotalErrorCount());
+	}
+
+	public void testRecordsCallsMadeThroughRequestFactory() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		client.getFile("app-1", 0, "logs/stdout.log", 0, out);
+		EndpointStatistics statistics = metrics.getEndpointStatistics(HttpMethod.GET,
+				"/v2/apps/{guid}/instances/{index}/files/{path}");
+		assertEquals(1, statistics.getCount());
+		assertEquals(0, statistics.getErrorCount());
+	}
+
+	public void testStopsRecordingWithoutRegistry() {
+		client.getApplications();
+		long count = metrics.getTotalCount();
+		client.setMetricsRegistry(null);
+		client.getApplications();
+		assertEquals(count, metrics.getTotalCount());
+	}
+}
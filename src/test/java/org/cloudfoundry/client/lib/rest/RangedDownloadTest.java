@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+
+/**
+ * Tests for ranged reads of instance files and application bits, from servers with and without range support.
+ */
+public class RangedDownloadTest extends TestCase {
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		StubDataset dataset = new StubDataset();
+		String space = dataset.createSpace(dataset.createOrganization("org"), "space");
+		for (String name : new String[] {"first", "second"}) {
+			String app = dataset.createApp(space, name, "STARTED", 1);
+			dataset.putFile(app, "logs/stdout.log", "0123456789".getBytes("UTF-8"));
+			dataset.setBits(app, "abcdefghij".getBytes("UTF-8"));
+		}
+		controller = new StubCloudController(dataset);
+		controller.start();
+		client = controller.login();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+	}
+
+	public void testRemembersInstancesIgnoringRanges() throws Exception {
+		controller.setRangesSupported(false);
+		controller.resetRequestCounts();
+		assertEquals("2345", client.getFile("first", 0, "logs/stdout.log", 2, 6));
+		assertEquals(1, controller.getRangedRequestCount());
+		assertEquals("3456", client.getFile("first", 0, "logs/stdout.log", 3, 7));
+		assertEquals(1, controller.getRangedRequestCount());
+
+		// another instance may be served by a host that supports ranges
+		controller.setRangesSupported(true);
+		assertEquals("2345", client.getFile("second", 0, "logs/stdout.log", 2, 6));
+		assertEquals(2, controller.getRangedRequestCount());
+		assertEquals("4567", client.getFile("second", 0, "logs/stdout.log", 4, 8));
+		assertEquals(3, controller.getRangedRequestCount());
+	}
+
+	public void testDownloadsBitsAsString() throws Exception {
+		assertEquals("abcdefghij", client.downloadApplication("first"));
+	}
+
+	public void testReadsRangeOfBits() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(10, client.downloadApplication("first", 2, 5, out));
+		assertEquals("cdef", out.toString("UTF-8"));
+	}
+
+	public void testSkipsToRangeOfBitsWhenRangesIgnored() throws Exception {
+		controller.setRangesSupported(false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(10, client.downloadApplication("first", 2, 5, out));
+		assertEquals("cdef", out.toString("UTF-8"));
+
+		out.reset();
+		assertEquals(10, client.downloadApplication("first", 7, Long.MAX_VALUE, out));
+		assertEquals("hij", out.toString("UTF-8"));
+	}
+
+	public void testReportsSizeForRangePastEnd() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(10, client.downloadApplication("first", 10, 20, out));
+		assertEquals(0, out.size());
+	}
+
+	public void testStreamsBitsToFile() throws Exception {
+		File destination = File.createTempFile("bits", ".zip");
+		try {
+			client.downloadApplication("first", destination);
+			assertEquals(10, destination.length());
+		} finally {
+			destination.delete();
+		}
+	}
+
+	public void testStreamsBitsThroughChannel() throws Exception {
+		ReadableByteChannel channel = client.downloadApplicationAsChannel("first");
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(20);
+			while (channel.read(buffer) >= 0) {
+				// keep reading until the end of the content
+			}
+			assertEquals("abcdefghij", new String(buffer.array(), 0, buffer.position(), "UTF-8"));
+		} finally {
+			channel.close();
+		}
+	}
+}
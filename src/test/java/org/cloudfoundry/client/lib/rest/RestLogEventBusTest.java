@@ -0,0 +1,152 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.rest;
+
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.RestLogEntry;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Tests for {@link RestLogEventBus} and the log entries delivered through it.
+ */
+public class RestLogEventBusTest extends TestCase {
+
+	private final BlockingQueue<RestLogEntry> entries = new LinkedBlockingQueue<RestLogEntry>();
+
+	private final RestLogCallback recorder = new RestLogCallback() {
+		public void onNewLogEntry(RestLogEntry logEntry) {
+			entries.add(logEntry);
+		}
+	};
+
+	public void testDeliversEntriesInOrder() throws Exception {
+		RestLogEventBus bus = new RestLogEventBus(16);
+		bus.addListener(recorder);
+		for (int i = 0; i < 100; i++) {
+			publish(bus, i);
+			if (i % 10 == 9) {
+				// leave the dispatcher time to keep up, nothing is dropped
+				awaitEntries(i + 1);
+			}
+		}
+		awaitEntries(100);
+		int i = 0;
+		for (RestLogEntry entry : entries) {
+			assertEquals("/v2/apps/" + i++, entry.getUri().getPath());
+		}
+		assertEquals(0, bus.getDroppedCount());
+	}
+
+	public void testDropsEntriesWhenListenerFallsBehind() throws Exception {
+		RestLogEventBus bus = new RestLogEventBus(4);
+		final CountDownLatch release = new CountDownLatch(1);
+		bus.addListener(new RestLogCallback() {
+			public void onNewLogEntry(RestLogEntry logEntry) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				entries.add(logEntry);
+			}
+		});
+		for (int i = 0; i < 20; i++) {
+			publish(bus, i);
+		}
+		assertTrue(bus.getDroppedCount() > 0);
+		release.countDown();
+		awaitEntries(20 - (int) bus.getDroppedCount());
+		assertEquals("/v2/apps/0", entries.peek().getUri().getPath());
+	}
+
+	public void testDeliversToOtherListenersWhenOneFails() throws Exception {
+		RestLogEventBus bus = new RestLogEventBus();
+		bus.addListener(new RestLogCallback() {
+			public void onNewLogEntry(RestLogEntry logEntry) {
+				throw new IllegalStateException("Failing listener");
+			}
+		});
+		bus.addListener(recorder);
+		publish(bus, 0);
+		publish(bus, 1);
+		awaitEntries(2);
+	}
+
+	public void testIgnoresEntriesWithoutListeners() throws Exception {
+		RestLogEventBus bus = new RestLogEventBus(4);
+		assertFalse(bus.hasListeners());
+		for (int i = 0; i < 10; i++) {
+			publish(bus, i);
+		}
+		assertEquals(0, bus.getDroppedCount());
+
+		bus.addListener(recorder);
+		assertTrue(bus.hasListeners());
+		publish(bus, 10);
+		awaitEntries(1);
+		assertEquals("/v2/apps/10", entries.peek().getUri().getPath());
+		bus.removeListener(recorder);
+		assertFalse(bus.hasListeners());
+	}
+
+	public void testDeliversEntriesOfClientCalls() throws Exception {
+		StubCloudController controller = StubCloudController.startPopulated(3);
+		try {
+			CloudFoundryClient client = controller.login();
+			client.registerRestLogListener(recorder);
+			client.getApplications();
+			RestLogEntry entry = entries.poll(5, TimeUnit.SECONDS);
+			assertNotNull(entry);
+			assertEquals(HttpMethod.GET, entry.getMethod());
+			assertTrue(entry.getUri().getPath().endsWith("/apps"));
+			assertEquals("OK", entry.getStatus());
+			assertEquals(HttpStatus.OK, entry.getHttpStatus());
+
+			client.unRegisterRestLogListener(recorder);
+			entries.clear();
+			client.getApplications();
+			assertNull(entries.poll(200, TimeUnit.MILLISECONDS));
+		} finally {
+			controller.stop();
+		}
+	}
+
+	private static void publish(RestLogEventBus bus, int i) {
+		bus.publish(HttpMethod.GET, URI.create("http://api.example.com/v2/apps/" + i), "OK", HttpStatus.OK, "");
+	}
+
+	private void awaitEntries(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (entries.size() < count) {
+			assertTrue("Expected " + count + " entries but got " + entries.size(),
+					System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+		Thread.sleep(20);
+		assertEquals(count, entries.size());
+	}
+}
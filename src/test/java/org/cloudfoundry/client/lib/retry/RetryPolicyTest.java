@@ -0,0 +1,212 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.retry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.cloudfoundry.client.lib.rest.RetryingClientHttpRequestFactory;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Tests for {@link RetryPolicy} and the retries made with it.
+ */
+public class RetryPolicyTest extends TestCase {
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	private RetryPolicy retryPolicy;
+
+	@Override
+	protected void setUp() throws Exception {
+		controller = StubCloudController.startPopulated(10);
+		client = controller.login();
+		retryPolicy = new RetryPolicy();
+		retryPolicy.setBackoff(10, 100);
+		client.setRetryPolicy(retryPolicy);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+	}
+
+	public void testRetriesIdempotentRequests() {
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 503).times(2);
+		assertEquals(10, client.getApplications().size());
+		assertEquals(2, retryPolicy.getRetryCount());
+
+		controller.dropConnections("PUT", "/v2/apps/.*").times(1);
+		client.updateApplicationInstances("app-1", 2);
+		assertEquals(2, client.getApplication("app-1").getInstances());
+		assertEquals(3, retryPolicy.getRetryCount());
+	}
+
+	public void testDoesNotRetryNonIdempotentRequests() {
+		controller.failRequests("POST", "/v2/apps", 502).times(1);
+		try {
+			client.createApplication("added", new Staging(), 128, Collections.<String>emptyList(),
+					Collections.<String>emptyList());
+			fail("Expected server error");
+		} catch (HttpServerErrorException e) {
+			assertEquals(502, e.getStatusCode().value());
+		}
+		assertEquals(0, retryPolicy.getRetryCount());
+	}
+
+	public void testWaitsForRetryAfter() {
+		controller.failRequests("POST", "/v2/apps", 429).times(1).withRetryAfter(1);
+		long start = System.currentTimeMillis();
+		client.createApplication("added", new Staging(), 128, Collections.<String>emptyList(),
+				Collections.<String>emptyList());
+		assertTrue(System.currentTimeMillis() - start >= 1000);
+		assertEquals(1, retryPolicy.getRetryCount());
+
+		retryPolicy.setMaximumRetryAfter(500);
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 503).times(1).withRetryAfter(1);
+		try {
+			client.getApplications();
+			fail("Expected server error");
+		} catch (HttpServerErrorException e) {
+			assertEquals(503, e.getStatusCode().value());
+		}
+	}
+
+	public void testOpensCircuitWhileServerFails() throws Exception {
+		retryPolicy.setMaximumAttempts(1);
+		retryPolicy.setCircuitBreaker(2, 200);
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 503);
+		for (int i = 0; i < 2; i++) {
+			try {
+				client.getApplications();
+				fail("Expected server error");
+			} catch (HttpServerErrorException e) {
+				assertEquals(503, e.getStatusCode().value());
+			}
+		}
+		assertEquals(1, retryPolicy.getOpenCircuits().size());
+		controller.resetRequestCounts();
+		try {
+			client.getApplications();
+			fail("Expected open circuit");
+		} catch (ResourceAccessException e) {
+			assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+		}
+		assertEquals(0, controller.getRequestCount());
+		assertEquals(1, retryPolicy.getCircuitOpenRejectionCount());
+
+		controller.clearFaults();
+		Thread.sleep(250);
+		assertEquals(10, client.getApplications().size());
+		assertTrue(retryPolicy.getOpenCircuits().isEmpty());
+	}
+
+	public void testClosesCircuitAfterProbeFailingWithRuntimeException() throws Exception {
+		retryPolicy.setMaximumAttempts(1);
+		retryPolicy.setCircuitBreaker(1, 100);
+		final boolean[] throwing = new boolean[] {true};
+		final ClientHttpRequestFactory simpleFactory = new SimpleClientHttpRequestFactory();
+		ClientHttpRequestFactory factory = new RetryingClientHttpRequestFactory(new ClientHttpRequestFactory() {
+			public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+				final ClientHttpRequest request = simpleFactory.createRequest(uri, httpMethod);
+				if (!throwing[0]) {
+					return request;
+				}
+				return new ClientHttpRequest() {
+					public ClientHttpResponse execute() {
+						throw new IllegalStateException("Broken request");
+					}
+
+					public OutputStream getBody() throws IOException {
+						return request.getBody();
+					}
+
+					public HttpMethod getMethod() {
+						return request.getMethod();
+					}
+
+					public URI getURI() {
+						return request.getURI();
+					}
+
+					public HttpHeaders getHeaders() {
+						return request.getHeaders();
+					}
+				};
+			}
+		}, retryPolicy);
+		URI uri = new URI(controller.getUrl() + "/info");
+		for (int i = 0; i < 2; i++) {
+			// the first request opens the circuit, the second is the probe once it is half open
+			try {
+				factory.createRequest(uri, HttpMethod.GET).execute();
+				fail("Expected runtime exception");
+			} catch (IllegalStateException e) {
+				assertEquals(1, retryPolicy.getOpenCircuits().size());
+			}
+			Thread.sleep(150);
+		}
+
+		throwing[0] = false;
+		ClientHttpResponse response = factory.createRequest(uri, HttpMethod.GET).execute();
+		try {
+			assertEquals(200, response.getRawStatusCode());
+		} finally {
+			response.close();
+		}
+		assertTrue(retryPolicy.getOpenCircuits().isEmpty());
+	}
+
+	public void testLimitsRetriesToBudget() {
+		retryPolicy.setRetryBudget(0.0, 1);
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 503);
+		try {
+			client.getApplications();
+			fail("Expected server error");
+		} catch (HttpServerErrorException e) {
+			assertEquals(503, e.getStatusCode().value());
+		}
+		assertEquals(1, retryPolicy.getRetryCount());
+		assertEquals(1, retryPolicy.getRetryBudgetExhaustedCount());
+		assertEquals(0.0, retryPolicy.getRetryBudgetBalance());
+	}
+
+	public void testBacksOffExponentially() {
+		retryPolicy.setBackoff(100, 400);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(retryPolicy.getDelay(1, null) < 100);
+			assertTrue(retryPolicy.getDelay(5, null) < 400);
+		}
+		assertEquals(2000, retryPolicy.getDelay(1, "2"));
+		assertEquals(-1, retryPolicy.getDelay(1, "120"));
+	}
+}
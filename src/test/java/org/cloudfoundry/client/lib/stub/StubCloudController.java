@@ -0,0 +1,1371 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.stub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base64;
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * In-process stand-in for a Cloud Controller and its UAA, serving the v2 endpoints used by the client from a
+ * {@link StubDataset}. Intended for benchmarks, load tests and concurrency tests that need a controller without
+ * network access.
+ *
+ * <p>Supported are <tt>/info</tt>, <tt>/v2/info</tt>, the UAA token endpoint (<tt>/uaa/oauth/token</tt>, password and
+ * refresh token grants), listing, reading, creating, updating and deleting resources of every collection of the
+ * dataset, including listings below a parent such as <tt>/v2/spaces/{guid}/apps</tt>, <tt>q</tt> filters,
+ * <tt>inline-relations-depth</tt> and pagination. Application specific endpoints are resource matching, bits upload
+ * and download, copying bits, jobs, stats, instances, crashes, instance files with range requests and staging logs.
+ *
+ * <p>Every request can be delayed by a fixed latency plus random jitter, and faults can be injected for requests
+ * matching a method and path, either as an error status or as a dropped connection. An action can also be run
+ * before matching requests are handled, to change state between the requests of one client call. Request counts and
+ * the maximum number of concurrent requests are recorded for assertions.
+ */
+public class StubCloudController {
+
+	/**
+	 * Latency applied to requests when not configured otherwise.
+	 */
+	public static final long DEFAULT_LATENCY = 0;
+
+	/**
+	 * Page size used when a listing does not ask for one.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	/**
+	 * User name of the clients created by {@link #createClient()}.
+	 */
+	public static final String USERNAME = "user@example.com";
+
+	/**
+	 * Password of the clients created by {@link #createClient()}.
+	 */
+	public static final String PASSWORD = "secret";
+
+	private static final int MAX_PAGE_SIZE = 100;
+
+	private static final String JSON_CONTENT_TYPE = "application/json;charset=utf-8";
+
+	private final StubDataset dataset;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final Random random = new Random();
+
+	private final Map<String, String> users = new ConcurrentHashMap<String, String>();
+
+	private final Map<String, Token> accessTokens = new ConcurrentHashMap<String, Token>();
+
+	private final Map<String, String> refreshTokens = new ConcurrentHashMap<String, String>();
+
+	private final Map<String, byte[]> stagingLogs = new ConcurrentHashMap<String, byte[]>();
+
+	private final List<Fault> faults = new CopyOnWriteArrayList<Fault>();
+
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final AtomicLong rangedRequestCount = new AtomicLong();
+
+	private final Map<String, AtomicInteger> pendingJobPolls = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+	private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+	private volatile long latency = DEFAULT_LATENCY;
+
+	private volatile long jitter;
+
+	private volatile int defaultPageSize = DEFAULT_PAGE_SIZE;
+
+	private volatile boolean authenticationRequired = true;
+
+	private volatile long tokenValidity = 3600;
+
+	private volatile boolean entityTagsEnabled;
+
+	private volatile boolean rangesSupported = true;
+
+	private volatile int jobPolls;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	public StubCloudController() {
+		this(new StubDataset());
+	}
+
+	public StubCloudController(StubDataset dataset) {
+		this.dataset = dataset;
+	}
+
+	/**
+	 * Starts the controller on a free port of the loopback interface.
+	 */
+	public void start() throws IOException {
+		start(0);
+	}
+
+	/**
+	 * Starts a controller on a free port, serving a dataset populated with the given number of applications.
+	 *
+	 * @see StubDataset#populate(int)
+	 */
+	public static StubCloudController startPopulated(int apps) throws IOException {
+		StubDataset dataset = new StubDataset();
+		dataset.populate(apps);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.start();
+		return controller;
+	}
+
+	public synchronized void start(int port) throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Already started");
+		}
+		// without this every response waits for the delayed ACK of the client
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "stub-cloud-controller-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Returns the URL of the controller, to be used as the cloud controller URL of the client.
+	 */
+	public synchronized URL getUrl() {
+		if (server == null) {
+			throw new IllegalStateException("Not started");
+		}
+		try {
+			return new URL("http://127.0.0.1:" + server.getAddress().getPort());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public StubDataset getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * Creates a client of this controller for the space "space" of the organization "org", the first ones of a
+	 * {@link StubDataset#populate populated} dataset. The client is not logged in.
+	 */
+	public CloudFoundryClient createClient() {
+		return new CloudFoundryClient(new CloudCredentials(USERNAME, PASSWORD), getUrl(), "org", "space");
+	}
+
+	/**
+	 * Creates a client with {@link #createClient()} and logs it in.
+	 */
+	public CloudFoundryClient login() {
+		CloudFoundryClient client = createClient();
+		client.login();
+		return client;
+	}
+
+	/**
+	 * Delays every request.
+	 *
+	 * @param latency the delay in milliseconds
+	 * @param jitter the maximum random delay in milliseconds added to the latency
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	public void setDefaultPageSize(int defaultPageSize) {
+		this.defaultPageSize = defaultPageSize;
+	}
+
+	/**
+	 * Set whether the v2 endpoints require a token issued by the UAA endpoint, <tt>true</tt> by default.
+	 */
+	public void setAuthenticationRequired(boolean authenticationRequired) {
+		this.authenticationRequired = authenticationRequired;
+	}
+
+	/**
+	 * Set the lifetime of access tokens in seconds.
+	 */
+	public void setTokenValidity(long tokenValidity) {
+		this.tokenValidity = tokenValidity;
+	}
+
+	/**
+	 * Set whether successful GET responses carry an <tt>ETag</tt> and honor <tt>If-None-Match</tt>, <tt>false</tt> by
+	 * default.
+	 */
+	public void setEntityTagsEnabled(boolean entityTagsEnabled) {
+		this.entityTagsEnabled = entityTagsEnabled;
+	}
+
+	/**
+	 * Set whether bits and instance files are sent in the byte range asked for by a <tt>Range</tt> header,
+	 * <tt>true</tt> by default. Otherwise the whole content is sent, as by servers that ignore ranges.
+	 */
+	public void setRangesSupported(boolean rangesSupported) {
+		this.rangesSupported = rangesSupported;
+	}
+
+	/**
+	 * Set how many times a job is read while queued before it is finished, 0 by default for jobs that are finished
+	 * when they are created.
+	 */
+	public void setJobPolls(int jobPolls) {
+		this.jobPolls = jobPolls;
+	}
+
+	/**
+	 * Add a user known to the UAA. While no user is added, any credentials are accepted.
+	 */
+	public void addUser(String username, String password) {
+		users.put(username, password);
+	}
+
+	/**
+	 * Answer matching requests with an error status.
+	 *
+	 * @param method the HTTP method, or <tt>null</tt> for any method
+	 * @param pathPattern a regular expression the request path has to match
+	 * @param status the status to return
+	 * @return the fault, which can be further configured
+	 */
+	public Fault failRequests(String method, String pathPattern, int status) {
+		Fault fault = new Fault(method, pathPattern, status);
+		faults.add(fault);
+		return fault;
+	}
+
+	/**
+	 * Close the connection of matching requests without a response.
+	 *
+	 * @param method the HTTP method, or <tt>null</tt> for any method
+	 * @param pathPattern a regular expression the request path has to match
+	 * @return the fault, which can be further configured
+	 */
+	public Fault dropConnections(String method, String pathPattern) {
+		Fault fault = new Fault(method, pathPattern, -1);
+		faults.add(fault);
+		return fault;
+	}
+
+	/**
+	 * Run an action before matching requests are handled. The requests are then handled as usual.
+	 *
+	 * @param method the HTTP method, or <tt>null</tt> for any method
+	 * @param pathPattern a regular expression the request path has to match
+	 * @param action the action to run
+	 * @return the fault, which can be further configured
+	 */
+	public Fault interceptRequests(String method, String pathPattern, Runnable action) {
+		Fault fault = new Fault(method, pathPattern, 0);
+		fault.action = action;
+		faults.add(fault);
+		return fault;
+	}
+
+	public void clearFaults() {
+		faults.clear();
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Returns the number of requests received for a path.
+	 *
+	 * @param method the HTTP method
+	 * @param path the request path without query, for example <tt>/v2/apps</tt>
+	 */
+	public long getRequestCount(String method, String path) {
+		AtomicLong count = requestCounts.get(method + " " + path);
+		return (count != null ? count.get() : 0);
+	}
+
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests.get();
+	}
+
+	/**
+	 * @return the number of requests for bits or instance files that asked for a byte range
+	 */
+	public long getRangedRequestCount() {
+		return rangedRequestCount.get();
+	}
+
+	public void resetRequestCounts() {
+		requestCount.set(0);
+		requestCounts.clear();
+		rangedRequestCount.set(0);
+		maxConcurrentRequests.set(concurrentRequests.get());
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		count(method + " " + path);
+		int concurrent = concurrentRequests.incrementAndGet();
+		try {
+			for (int max = maxConcurrentRequests.get(); concurrent > max; max = maxConcurrentRequests.get()) {
+				if (maxConcurrentRequests.compareAndSet(max, concurrent)) {
+					break;
+				}
+			}
+			delay();
+			Fault fault = findFault(method, path);
+			if (fault != null && fault.action != null) {
+				fault.action.run();
+				fault = null;
+			}
+			if (fault != null) {
+				if (fault.status < 0) {
+					exchange.getResponseBody().close();
+					return;
+				}
+				if (fault.retryAfter >= 0) {
+					exchange.getResponseHeaders().set("Retry-After", String.valueOf(fault.retryAfter));
+				}
+				sendError(exchange, fault.status, 10001, "CF-InjectedFault", "Injected fault");
+				return;
+			}
+			Request request = new Request(exchange);
+			if (path.startsWith("/uaa/")) {
+				handleUaa(request);
+			} else if (path.equals("/info") || path.equals("/v2/info")) {
+				handleInfo(request, path.startsWith("/v2"));
+			} else if (path.startsWith("/staging_logs/")) {
+				handleStagingLog(request, path.substring("/staging_logs/".length()));
+			} else if (path.startsWith("/v2/")) {
+				if (authenticate(request)) {
+					handleV2(request, path.substring("/v2/".length()).split("/"));
+				}
+			} else {
+				sendError(exchange, 404, 10000, "CF-NotFound", "Unknown request");
+			}
+		} catch (IllegalArgumentException e) {
+			sendError(exchange, 404, 10000, "CF-NotFound", e.getMessage());
+		} catch (RuntimeException e) {
+			sendError(exchange, 500, 10001, "CF-ServerError", String.valueOf(e));
+		} finally {
+			concurrentRequests.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+	private void handleInfo(Request request, boolean v2) throws IOException {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("name", "vcap");
+		info.put("build", "2222");
+		info.put("support", "http://support.example.com");
+		info.put("version", 2);
+		info.put("description", "Stub Cloud Controller");
+		info.put("authorization_endpoint", request.getBaseUrl() + "/uaa");
+		if (v2) {
+			info.put("api_version", "2.2.0");
+			Token token = request.getToken();
+			info.put("user", token != null ? token.userId : null);
+		} else {
+			info.put("allow_debug", false);
+			Map<String, Object> limits = new LinkedHashMap<String, Object>();
+			limits.put("memory", 10240);
+			limits.put("app_uris", 4);
+			limits.put("services", 16);
+			limits.put("apps", 10000);
+			info.put("limits", limits);
+			Map<String, Object> usage = new LinkedHashMap<String, Object>();
+			usage.put("memory", 512 * dataset.size(StubDataset.APPS));
+			usage.put("apps", dataset.size(StubDataset.APPS));
+			usage.put("services", dataset.size(StubDataset.SERVICE_INSTANCES));
+			info.put("usage", usage);
+		}
+		sendJson(request.exchange, 200, info);
+	}
+
+	private void handleUaa(Request request) throws IOException {
+		String path = request.exchange.getRequestURI().getPath();
+		if (path.equals("/uaa/oauth/token") && request.method.equals("POST")) {
+			Map<String, String> form = parseQuery(new String(request.readBody(), "UTF-8"));
+			String username;
+			if ("refresh_token".equals(form.get("grant_type"))) {
+				username = refreshTokens.get(String.valueOf(form.get("refresh_token")));
+			} else {
+				username = form.get("username");
+				String password = users.get(String.valueOf(username));
+				if (!users.isEmpty() && (password == null || !password.equals(form.get("password")))) {
+					username = null;
+				}
+			}
+			if (username == null) {
+				Map<String, Object> error = new LinkedHashMap<String, Object>();
+				error.put("error", "unauthorized");
+				error.put("error_description", "Bad credentials");
+				sendJson(request.exchange, 401, error);
+				return;
+			}
+			sendJson(request.exchange, 200, issueToken(username));
+		} else if (path.equals("/uaa/userinfo") && request.method.equals("GET")) {
+			Token token = request.getToken();
+			if (token == null) {
+				sendError(request.exchange, 401, 1000, "CF-InvalidAuthToken", "Invalid Auth Token");
+				return;
+			}
+			Map<String, Object> userInfo = new LinkedHashMap<String, Object>();
+			userInfo.put("user_id", token.userId);
+			userInfo.put("user_name", token.username);
+			userInfo.put("email", token.username);
+			sendJson(request.exchange, 200, userInfo);
+		} else {
+			sendError(request.exchange, 404, 10000, "CF-NotFound", "Unknown request");
+		}
+	}
+
+	private Map<String, Object> issueToken(String username) throws IOException {
+		String userId = UUID.nameUUIDFromBytes(username.getBytes("UTF-8")).toString();
+		Map<String, Object> claims = new LinkedHashMap<String, Object>();
+		claims.put("jti", UUID.randomUUID().toString());
+		claims.put("user_id", userId);
+		claims.put("user_name", username);
+		claims.put("email", username);
+		claims.put("exp", System.currentTimeMillis() / 1000 + tokenValidity);
+		String accessToken = encodeBase64("{\"alg\":\"none\"}".getBytes("UTF-8")) + "." +
+				encodeBase64(mapper.writeValueAsBytes(claims)) + "." +
+				encodeBase64(UUID.randomUUID().toString().getBytes("UTF-8"));
+		String refreshToken = UUID.randomUUID().toString();
+		accessTokens.put(accessToken, new Token(username, userId, System.currentTimeMillis() + tokenValidity * 1000));
+		refreshTokens.put(refreshToken, username);
+
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+		response.put("access_token", accessToken);
+		response.put("token_type", "bearer");
+		response.put("refresh_token", refreshToken);
+		response.put("expires_in", tokenValidity);
+		response.put("scope", "cloud_controller.read cloud_controller.write openid password.write");
+		response.put("jti", claims.get("jti"));
+		return response;
+	}
+
+	private boolean authenticate(Request request) throws IOException {
+		if (!authenticationRequired || request.getToken() != null) {
+			return true;
+		}
+		sendError(request.exchange, 401, 1000, "CF-InvalidAuthToken", "Invalid Auth Token");
+		return false;
+	}
+
+	private void handleStagingLog(Request request, String appGuid) throws IOException {
+		byte[] log = stagingLogs.get(appGuid);
+		if (log == null) {
+			sendError(request.exchange, 404, 10000, "CF-NotFound", "Staging log not found");
+			return;
+		}
+		String offsetParameter = request.getParameter("tail_offset");
+		int offset = (offsetParameter != null ? Math.min(log.length, Integer.parseInt(offsetParameter)) : 0);
+		byte[] content = new byte[log.length - offset];
+		System.arraycopy(log, offset, content, 0, content.length);
+		sendBytes(request.exchange, 200, "text/plain;charset=utf-8", content);
+	}
+
+	private void handleV2(Request request, String[] segments) throws IOException {
+		String method = request.method;
+		String collection = segments[0];
+		if (collection.equals("resource_match") && method.equals("PUT")) {
+			handleResourceMatch(request);
+		} else if (collection.equals("user_provided_service_instances") && method.equals("POST")) {
+			Map<String, Object> body = request.readJson();
+			body.put("service_plan_guid", null);
+			String guid = dataset.add(StubDataset.SERVICE_INSTANCES, body);
+			sendJson(request.exchange, 201, dataset.render(StubDataset.SERVICE_INSTANCES, guid, 0));
+		} else if (collection.equals(StubDataset.APPS) && segments.length >= 3 && !segments[2].equals("service_bindings")) {
+			handleApp(request, segments);
+		} else if (collection.equals(StubDataset.SPACES) && segments.length == 4 && segments[2].equals("domains")) {
+			if (!dataset.exists(StubDataset.SPACES, segments[1]) || !dataset.exists(StubDataset.DOMAINS, segments[3])) {
+				sendNotFound(request);
+			} else if (method.equals("PUT")) {
+				dataset.addSpaceDomain(segments[1], segments[3]);
+				sendJson(request.exchange, 201, dataset.render(StubDataset.SPACES, segments[1], 0));
+			} else if (method.equals("DELETE")) {
+				dataset.removeSpaceDomain(segments[1], segments[3]);
+				sendNoContent(request);
+			} else {
+				sendNotFound(request);
+			}
+		} else if (segments.length == 1 && method.equals("GET")) {
+			sendPage(request, collection, dataset.list(collection, null, null));
+		} else if (segments.length == 1 && method.equals("POST")) {
+			handleCreate(request, collection);
+		} else if (segments.length == 2 && method.equals("GET")) {
+			if (collection.equals(StubDataset.JOBS)) {
+				pollJob(segments[1]);
+			}
+			Map<String, Object> resource = dataset.render(collection, segments[1], request.getDepth());
+			if (resource == null) {
+				sendNotFound(request);
+			} else {
+				sendJson(request.exchange, 200, resource);
+			}
+		} else if (segments.length == 2 && method.equals("PUT")) {
+			boolean updated = (collection.equals(StubDataset.APPS) ?
+					updateApp(request, segments[1], request.readJson()) :
+					dataset.update(collection, segments[1], request.readJson()));
+			if (updated) {
+				sendJson(request.exchange, 201, dataset.render(collection, segments[1], 0));
+			} else {
+				sendNotFound(request);
+			}
+		} else if (segments.length == 2 && method.equals("DELETE")) {
+			if (dataset.remove(collection, segments[1])) {
+				sendNoContent(request);
+			} else {
+				sendNotFound(request);
+			}
+		} else if (segments.length == 3 && method.equals("GET")) {
+			List<String> guids = dataset.list(segments[2], collection, segments[1]);
+			if (guids == null) {
+				sendNotFound(request);
+			} else {
+				sendPage(request, segments[2], guids);
+			}
+		} else {
+			sendError(request.exchange, 404, 10000, "CF-NotFound", "Unknown request");
+		}
+	}
+
+	private void handleCreate(Request request, String collection) throws IOException {
+		Map<String, Object> body = request.readJson();
+		String guid;
+		if (collection.equals(StubDataset.APPS)) {
+			String space = String.valueOf(body.get("space_guid"));
+			if (!dataset.exists(StubDataset.SPACES, space)) {
+				sendError(request.exchange, 400, 40004, "CF-SpaceInvalid", "The app space is invalid");
+				return;
+			}
+			if (findInSpace(StubDataset.APPS, "name", body.get("name"), space) != null) {
+				sendError(request.exchange, 400, 100002, "CF-AppNameTaken",
+						"The app name is taken: " + body.get("name"));
+				return;
+			}
+			guid = dataset.createApp(space, String.valueOf(body.get("name")), "STOPPED", 1);
+			dataset.update(StubDataset.APPS, guid, body);
+		} else if (collection.equals(StubDataset.ROUTES)) {
+			String domain = String.valueOf(body.get("domain_guid"));
+			if (!dataset.exists(StubDataset.DOMAINS, domain)) {
+				sendError(request.exchange, 400, 210001, "CF-RouteInvalid", "The route domain is invalid");
+				return;
+			}
+			for (String route : dataset.list(StubDataset.ROUTES, StubDataset.DOMAINS, domain)) {
+				if (String.valueOf(body.get("host")).equals(dataset.getAttribute(StubDataset.ROUTES, route, "host"))) {
+					sendError(request.exchange, 400, 210003, "CF-RouteHostTaken",
+							"The host is taken: " + body.get("host"));
+					return;
+				}
+			}
+			guid = dataset.createRoute(String.valueOf(body.get("space_guid")), domain, String.valueOf(body.get("host")));
+		} else if (collection.equals(StubDataset.DOMAINS)) {
+			if (dataset.findGuid(StubDataset.DOMAINS, "name", body.get("name")) != null) {
+				sendError(request.exchange, 400, 130003, "CF-DomainNameTaken",
+						"The domain name is taken: " + body.get("name"));
+				return;
+			}
+			guid = dataset.add(collection, body);
+		} else if (collection.equals(StubDataset.SERVICE_INSTANCES)) {
+			if (!dataset.exists(StubDataset.SERVICE_PLANS, String.valueOf(body.get("service_plan_guid")))) {
+				sendError(request.exchange, 400, 60003, "CF-ServiceInstanceInvalid", "The service plan is invalid");
+				return;
+			}
+			guid = dataset.createServiceInstance(String.valueOf(body.get("space_guid")),
+					String.valueOf(body.get("name")), String.valueOf(body.get("service_plan_guid")));
+		} else if (collection.equals(StubDataset.SERVICE_BINDINGS)) {
+			String app = String.valueOf(body.get("app_guid"));
+			String instance = String.valueOf(body.get("service_instance_guid"));
+			if (!dataset.exists(StubDataset.APPS, app) || !dataset.exists(StubDataset.SERVICE_INSTANCES, instance)) {
+				sendError(request.exchange, 400, 90002, "CF-ServiceBindingInvalid", "The binding is invalid");
+				return;
+			}
+			guid = dataset.bindService(app, instance);
+		} else {
+			guid = dataset.add(collection, body);
+		}
+		sendJson(request.exchange, 201, dataset.render(collection, guid, 0));
+	}
+
+	private void handleApp(Request request, String[] segments) throws IOException {
+		String method = request.method;
+		String app = segments[1];
+		if (!dataset.exists(StubDataset.APPS, app)) {
+			sendNotFound(request);
+			return;
+		}
+		String action = segments[2];
+		if (action.equals("bits") && method.equals("PUT")) {
+			handleBits(request, app);
+		} else if (action.equals("copy_bits") && method.equals("POST")) {
+			String source = String.valueOf(request.readJson().get("source_app_guid"));
+			if (dataset.getBits(source) == null) {
+				sendError(request.exchange, 400, 160001, "CF-AppBitsCopyInvalid", "The source app has no bits");
+				return;
+			}
+			dataset.setBits(app, dataset.getBits(source));
+			dataset.update(StubDataset.APPS, app, singleton("package_state", "PENDING"));
+			sendJson(request.exchange, 201, createJob());
+		} else if (action.equals("download") && method.equals("GET")) {
+			byte[] bits = dataset.getBits(app);
+			if (bits == null) {
+				sendError(request.exchange, 404, 160002, "CF-AppBitsNotFound", "The app bits could not be found");
+			} else {
+				sendContent(request, "application/octet-stream", bits);
+			}
+		} else if (action.equals("stats") && method.equals("GET")) {
+			if (!isStarted(app)) {
+				sendError(request.exchange, 400, 200003, "CF-AppStoppedStatsError", "Could not fetch stats for stopped app");
+				return;
+			}
+			sendJson(request.exchange, 200, createStats(app));
+		} else if (action.equals("instances") && segments.length == 3 && method.equals("GET")) {
+			if (!isStarted(app)) {
+				sendError(request.exchange, 400, 170002, "CF-NotStaged", "App has not finished staging");
+				return;
+			}
+			Map<String, Object> instances = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < getInstances(app); i++) {
+				Map<String, Object> instance = new LinkedHashMap<String, Object>();
+				instance.put("state", "RUNNING");
+				instance.put("since", System.currentTimeMillis() / 1000 - 3600);
+				instances.put(String.valueOf(i), instance);
+			}
+			sendJson(request.exchange, 200, instances);
+		} else if (action.equals("instances") && segments.length >= 5 && segments[4].equals("files")) {
+			handleFile(request, app, segments);
+		} else if (action.equals("crashes") && method.equals("GET")) {
+			sendJson(request.exchange, 200, new ArrayList<Object>());
+		} else if (action.equals("routes") && segments.length == 4) {
+			if (!dataset.exists(StubDataset.ROUTES, segments[3])) {
+				sendNotFound(request);
+			} else if (method.equals("PUT")) {
+				dataset.mapRoute(segments[3], app);
+				sendJson(request.exchange, 201, dataset.render(StubDataset.APPS, app, 0));
+			} else if (method.equals("DELETE")) {
+				dataset.unmapRoute(segments[3], app);
+				sendNoContent(request);
+			} else {
+				sendNotFound(request);
+			}
+		} else if (action.equals("routes") && segments.length == 3 && method.equals("GET")) {
+			sendPage(request, StubDataset.ROUTES, dataset.list(StubDataset.ROUTES, StubDataset.APPS, app));
+		} else {
+			sendError(request.exchange, 404, 10000, "CF-NotFound", "Unknown request");
+		}
+	}
+
+	/**
+	 * Stores the application archive of a multipart upload. Files of the archive are added to the resource pool.
+	 * Uploads that list resources missing from the pool are rejected.
+	 */
+	@SuppressWarnings("unchecked")
+	private void handleBits(Request request, String app) throws IOException {
+		String contentType = request.exchange.getRequestHeaders().getFirst("Content-Type");
+		String boundary = (contentType != null && contentType.contains("boundary=") ?
+				contentType.substring(contentType.indexOf("boundary=") + "boundary=".length()).replace("\"", "") : null);
+		if (boundary == null) {
+			sendError(request.exchange, 400, 160001, "CF-AppBitsUploadInvalid", "Multipart upload expected");
+			return;
+		}
+		Map<String, byte[]> parts = parseMultipart(request.readBody(), boundary);
+		byte[] application = parts.get("application");
+		if (application == null || parts.get("resources") == null) {
+			sendError(request.exchange, 400, 160001, "CF-AppBitsUploadInvalid", "Application and resources expected");
+			return;
+		}
+		for (Map<String, Object> resource : (List<Map<String, Object>>) mapper.readValue(parts.get("resources"),
+				List.class)) {
+			if (!dataset.isInResourcePool(String.valueOf(resource.get("sha1")))) {
+				sendError(request.exchange, 400, 160001, "CF-AppBitsUploadInvalid",
+						"The resource is not in the pool: " + resource.get("fn"));
+				return;
+			}
+		}
+		dataset.addToResourcePool(hashEntries(application));
+		dataset.setBits(app, application);
+		dataset.update(StubDataset.APPS, app, singleton("package_state", "PENDING"));
+		if ("true".equals(request.getParameter("async"))) {
+			sendJson(request.exchange, 201, createJob());
+		} else {
+			sendJson(request.exchange, 201, new LinkedHashMap<String, Object>());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleResourceMatch(Request request) throws IOException {
+		List<Map<String, Object>> resources = mapper.readValue(request.readBody(), List.class);
+		List<Map<String, Object>> known = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> resource : resources) {
+			if (dataset.isInResourcePool(String.valueOf(resource.get("sha1")))) {
+				known.add(resource);
+			}
+		}
+		sendJson(request.exchange, 200, known);
+	}
+
+	private void handleFile(Request request, String app, String[] segments) throws IOException {
+		int instance;
+		try {
+			instance = Integer.parseInt(segments[3]);
+		} catch (NumberFormatException e) {
+			instance = -1;
+		}
+		if (!isStarted(app) || instance < 0 || instance >= getInstances(app)) {
+			sendError(request.exchange, 400, 190001, "CF-FileError", "Request failed for app instance " + segments[3]);
+			return;
+		}
+		StringBuilder path = new StringBuilder();
+		for (int i = 5; i < segments.length; i++) {
+			path.append(i > 5 ? "/" : "").append(segments[i]);
+		}
+		byte[] content = dataset.getFile(app, path.toString());
+		if (content == null) {
+			Map<String, Integer> listing = dataset.listFiles(app, path.toString());
+			if (listing.isEmpty()) {
+				sendError(request.exchange, 404, 190001, "CF-FileError", "File not found: " + path);
+				return;
+			}
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, Integer> entry : listing.entrySet()) {
+				text.append(String.format("%-40s %s%n", entry.getKey(),
+						entry.getValue() < 0 ? "-" : entry.getValue() + "B"));
+			}
+			content = text.toString().getBytes("UTF-8");
+		}
+		sendContent(request, "text/plain;charset=utf-8", content);
+	}
+
+	private Map<String, Object> createStats(String app) {
+		List<String> uris = new ArrayList<String>();
+		for (String route : dataset.list(StubDataset.ROUTES, StubDataset.APPS, app)) {
+			Object domain = dataset.getAttribute(StubDataset.ROUTES, route, "domain_guid");
+			uris.add(dataset.getAttribute(StubDataset.ROUTES, route, "host") + "." +
+					dataset.getAttribute(StubDataset.DOMAINS, String.valueOf(domain), "name"));
+		}
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < getInstances(app); i++) {
+			Map<String, Object> usage = new LinkedHashMap<String, Object>();
+			usage.put("time", "2013-09-19 21:56:36 +0000");
+			usage.put("cpu", random.nextDouble() / 10);
+			usage.put("mem", 100000000.0 + random.nextInt(100000000));
+			usage.put("disk", 50000000 + random.nextInt(10000000));
+			Map<String, Object> instanceStats = new LinkedHashMap<String, Object>();
+			instanceStats.put("name", dataset.getAttribute(StubDataset.APPS, app, "name"));
+			instanceStats.put("uris", uris);
+			instanceStats.put("host", "10.0.0." + (10 + i));
+			instanceStats.put("port", 61000 + i);
+			instanceStats.put("uptime", 3600.0);
+			instanceStats.put("mem_quota", 536870912L);
+			instanceStats.put("disk_quota", 1073741824L);
+			instanceStats.put("fds_quota", 16384);
+			instanceStats.put("usage", usage);
+			Map<String, Object> instance = new LinkedHashMap<String, Object>();
+			instance.put("state", "RUNNING");
+			instance.put("stats", instanceStats);
+			stats.put(String.valueOf(i), instance);
+		}
+		return stats;
+	}
+
+	private Map<String, Object> createJob() {
+		Map<String, Object> entity = new LinkedHashMap<String, Object>();
+		int polls = jobPolls;
+		entity.put("status", (polls > 0 ? "queued" : "finished"));
+		String guid = dataset.add(StubDataset.JOBS, entity);
+		if (polls > 0) {
+			pendingJobPolls.put(guid, new AtomicInteger(polls));
+		}
+		return dataset.render(StubDataset.JOBS, guid, 0);
+	}
+
+	private void pollJob(String guid) {
+		AtomicInteger polls = pendingJobPolls.get(guid);
+		if (polls != null && polls.decrementAndGet() <= 0) {
+			pendingJobPolls.remove(guid);
+			dataset.update(StubDataset.JOBS, guid, singleton("status", "finished"));
+		}
+	}
+
+	/**
+	 * Updates an application. Starting an application stages it and, when asked for asynchronous staging, reports
+	 * the staging log in the <tt>x-app-staging-log</tt> header.
+	 */
+	private boolean updateApp(Request request, String app, Map<String, Object> attributes) throws IOException {
+		boolean starting = "STARTED".equals(attributes.get("state")) && !isStarted(app);
+		if (!dataset.update(StubDataset.APPS, app, attributes)) {
+			return false;
+		}
+		if (starting) {
+			String name = String.valueOf(dataset.getAttribute(StubDataset.APPS, app, "name"));
+			dataset.update(StubDataset.APPS, app, singleton("package_state", "STAGED"));
+			stagingLogs.put(app, ("-----> Downloaded app package\n-----> Staging " + name +
+					"\n-----> Uploading droplet\n").getBytes("UTF-8"));
+			dataset.appendFile(app, "logs/stdout.log", dataset.generateLog(name, 5));
+			dataset.appendFile(app, "logs/stderr.log", new byte[0]);
+			if ("true".equals(request.getParameter("stage_async"))) {
+				request.exchange.getResponseHeaders().set("x-app-staging-log",
+						URLEncoder.encode(request.getBaseUrl() + "/staging_logs/" + app + "?", "UTF-8"));
+			}
+		}
+		return true;
+	}
+
+	private boolean isStarted(String app) {
+		return "STARTED".equals(dataset.getAttribute(StubDataset.APPS, app, "state"));
+	}
+
+	private int getInstances(String app) {
+		Object instances = dataset.getAttribute(StubDataset.APPS, app, "instances");
+		return (instances instanceof Number ? ((Number) instances).intValue() : 0);
+	}
+
+	private String findInSpace(String collection, String attribute, Object value, String space) {
+		for (String guid : dataset.list(collection, StubDataset.SPACES, space)) {
+			if (String.valueOf(value).equals(String.valueOf(dataset.getAttribute(collection, guid, attribute)))) {
+				return guid;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sends one page of a listing, applying the <tt>q</tt> filters of the request.
+	 */
+	private void sendPage(Request request, String collection, List<String> guids) throws IOException {
+		List<String> filtered = new ArrayList<String>(guids.size());
+		boolean includeUserProvided = "true".equals(request.getParameter("return_user_provided_service_instances"));
+		for (String guid : guids) {
+			if (collection.equals(StubDataset.SERVICE_INSTANCES) && !includeUserProvided &&
+					dataset.getAttribute(collection, guid, "service_plan_guid") == null) {
+				continue;
+			}
+			boolean matches = true;
+			for (String filter : request.getParameters("q")) {
+				int separator = filter.indexOf(':');
+				if (separator > 0 && !filter.substring(separator + 1).equals(
+						String.valueOf(dataset.getAttribute(collection, guid, filter.substring(0, separator))))) {
+					matches = false;
+				}
+			}
+			if (matches) {
+				filtered.add(guid);
+			}
+		}
+
+		int pageSize = defaultPageSize;
+		if (request.getParameter("results-per-page") != null) {
+			pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(request.getParameter("results-per-page"))));
+		}
+		int page = (request.getParameter("page") != null ? Math.max(1, Integer.parseInt(request.getParameter("page"))) : 1);
+		int totalPages = Math.max(1, (filtered.size() + pageSize - 1) / pageSize);
+		int depth = request.getDepth();
+		List<Object> resources = new ArrayList<Object>();
+		for (int i = (page - 1) * pageSize; i < Math.min(filtered.size(), page * pageSize); i++) {
+			Map<String, Object> resource = dataset.render(collection, filtered.get(i), depth);
+			if (resource != null) {
+				resources.add(resource);
+			}
+		}
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+		response.put("total_results", filtered.size());
+		response.put("total_pages", totalPages);
+		response.put("prev_url", page > 1 && page <= totalPages + 1 ? request.getPageUrl(page - 1, pageSize) : null);
+		response.put("next_url", page < totalPages ? request.getPageUrl(page + 1, pageSize) : null);
+		response.put("resources", resources);
+		sendJson(request.exchange, 200, response);
+	}
+
+	/**
+	 * Sends content, honoring a <tt>Range</tt> header of the request.
+	 */
+	private void sendContent(Request request, String contentType, byte[] content) throws IOException {
+		String range = request.exchange.getRequestHeaders().getFirst("Range");
+		if (range != null) {
+			rangedRequestCount.incrementAndGet();
+		}
+		if (!rangesSupported || range == null || !range.startsWith("bytes=") || range.contains(",")) {
+			sendBytes(request.exchange, 200, contentType, content);
+			return;
+		}
+		String[] bounds = range.substring("bytes=".length()).split("-", -1);
+		long start;
+		long end;
+		if (bounds[0].length() == 0) {
+			start = Math.max(0, content.length - Long.parseLong(bounds[1]));
+			end = content.length - 1;
+		} else {
+			start = Long.parseLong(bounds[0]);
+			end = (bounds[1].length() == 0 ? content.length - 1 : Math.min(content.length - 1, Long.parseLong(bounds[1])));
+		}
+		if (start >= content.length || start > end) {
+			request.exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+			sendBytes(request.exchange, 416, contentType, new byte[0]);
+			return;
+		}
+		byte[] part = new byte[(int) (end - start + 1)];
+		System.arraycopy(content, (int) start, part, 0, part.length);
+		request.exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+		sendBytes(request.exchange, 206, contentType, part);
+	}
+
+	private void sendNotFound(Request request) throws IOException {
+		sendError(request.exchange, 404, 10000, "CF-NotFound", "The requested resource could not be found");
+	}
+
+	private void sendError(HttpExchange exchange, int status, int code, String errorCode, String description)
+			throws IOException {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("code", code);
+		error.put("description", description);
+		error.put("error_code", errorCode);
+		sendJson(exchange, status, error);
+	}
+
+	private void sendNoContent(Request request) throws IOException {
+		request.exchange.sendResponseHeaders(204, -1);
+	}
+
+	private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+		byte[] bytes = mapper.writeValueAsBytes(body);
+		if (entityTagsEnabled && status == 200 && "GET".equals(exchange.getRequestMethod())) {
+			String entityTag = "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+			exchange.getResponseHeaders().set("ETag", entityTag);
+			if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				// the JDK server does not read further requests on a connection after a 304
+				exchange.getResponseHeaders().set("Connection", "close");
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+		}
+		sendBytes(exchange, status, JSON_CONTENT_TYPE, bytes);
+	}
+
+	private static void sendBytes(HttpExchange exchange, int status, String contentType, byte[] body)
+			throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	private void delay() {
+		long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private Fault findFault(String method, String path) {
+		for (Fault fault : faults) {
+			if (fault.applies(method, path, random)) {
+				return fault;
+			}
+		}
+		return null;
+	}
+
+	private void count(String key) {
+		requestCount.incrementAndGet();
+		AtomicLong count = requestCounts.get(key);
+		if (count == null) {
+			count = new AtomicLong();
+			AtomicLong existing = ((ConcurrentHashMap<String, AtomicLong>) requestCounts).putIfAbsent(key, count);
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private static Map<String, Object> singleton(String key, Object value) {
+		Map<String, Object> map = new HashMap<String, Object>(2);
+		map.put(key, value);
+		return map;
+	}
+
+	private static String encodeBase64(byte[] data) throws UnsupportedEncodingException {
+		// the client decodes the token claims with the standard alphabet, not the URL safe one
+		return new String(Base64.encodeBase64(data), "US-ASCII");
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		for (String[] parameter : splitQuery(query)) {
+			parameters.put(parameter[0], parameter[1]);
+		}
+		return parameters;
+	}
+
+	private static List<String[]> splitQuery(String query) throws UnsupportedEncodingException {
+		List<String[]> parameters = new ArrayList<String[]>();
+		if (query == null || query.length() == 0) {
+			return parameters;
+		}
+		for (String pair : query.split("&")) {
+			if (pair.length() == 0) {
+				continue;
+			}
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+			String value = (equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			parameters.add(new String[] { name, value });
+		}
+		return parameters;
+	}
+
+	/**
+	 * Splits a <tt>multipart/form-data</tt> body into its parts by name.
+	 */
+	private static Map<String, byte[]> parseMultipart(byte[] body, String boundary) throws IOException {
+		Map<String, byte[]> parts = new HashMap<String, byte[]>();
+		byte[] delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+		int position = indexOf(body, delimiter, 0);
+		while (position >= 0) {
+			int headersStart = position + delimiter.length + 2;
+			if (headersStart > body.length || body[position + delimiter.length] == '-') {
+				break;
+			}
+			int headersEnd = indexOf(body, "\r\n\r\n".getBytes("ISO-8859-1"), headersStart);
+			int next = indexOf(body, ("\r\n--" + boundary).getBytes("ISO-8859-1"), headersEnd);
+			if (headersEnd < 0 || next < 0) {
+				break;
+			}
+			String headers = new String(body, headersStart, headersEnd - headersStart, "ISO-8859-1");
+			int nameStart = headers.indexOf("name=\"");
+			if (nameStart >= 0) {
+				nameStart += "name=\"".length();
+				String name = headers.substring(nameStart, headers.indexOf('"', nameStart));
+				byte[] content = new byte[next - headersEnd - 4];
+				System.arraycopy(body, headersEnd + 4, content, 0, content.length);
+				parts.put(name, content);
+			}
+			position = next + 2;
+		}
+		return parts;
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern, int from) {
+		outer:
+		for (int i = Math.max(0, from); i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static List<String> hashEntries(byte[] archive) throws IOException {
+		List<String> sha1s = new ArrayList<String>();
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive));
+		try {
+			byte[] buffer = new byte[8192];
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				int read;
+				while ((read = zip.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+				StringBuilder hex = new StringBuilder(40);
+				for (byte b : digest.digest()) {
+					hex.append(String.format("%02x", b & 0xff));
+				}
+				sha1s.add(hex.toString());
+			}
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			zip.close();
+		}
+		return sha1s;
+	}
+
+	/**
+	 * Runs a controller with a populated dataset until the process is stopped.
+	 *
+	 * <p>Arguments are the port (default 8181) and the number of applications (default 1000). Authentication
+	 * accepts any credentials.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = (args.length > 0 ? Integer.parseInt(args[0]) : 8181);
+		int apps = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+		StubDataset dataset = new StubDataset();
+		dataset.populate(apps);
+		StubCloudController controller = new StubCloudController(dataset);
+		controller.start(port);
+		System.out.println("Stub Cloud Controller with " + apps + " applications listening on " + controller.getUrl());
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+	/**
+	 * A fault injected for requests matching a method and path.
+	 */
+	public static class Fault {
+
+		private final String method;
+
+		private final Pattern pathPattern;
+
+		private final int status;
+
+		private volatile double probability = 1.0;
+
+		private final AtomicInteger remaining = new AtomicInteger(-1);
+
+		private volatile int retryAfter = -1;
+
+		private Runnable action;
+
+		Fault(String method, String pathPattern, int status) {
+			this.method = method;
+			this.pathPattern = Pattern.compile(pathPattern);
+			this.status = status;
+		}
+
+		/**
+		 * Apply the fault only to a share of the matching requests.
+		 *
+		 * @param probability the probability between 0 and 1
+		 */
+		public Fault withProbability(double probability) {
+			this.probability = probability;
+			return this;
+		}
+
+		/**
+		 * Apply the fault only to the given number of requests.
+		 */
+		public Fault times(int count) {
+			remaining.set(count);
+			return this;
+		}
+
+		/**
+		 * Send a <tt>Retry-After</tt> header with the error status.
+		 */
+		public Fault withRetryAfter(int seconds) {
+			this.retryAfter = seconds;
+			return this;
+		}
+
+		boolean applies(String requestMethod, String path, Random random) {
+			if ((method != null && !method.equalsIgnoreCase(requestMethod)) || !pathPattern.matcher(path).matches()) {
+				return false;
+			}
+			if (probability < 1.0 && random.nextDouble() >= probability) {
+				return false;
+			}
+			while (true) {
+				int count = remaining.get();
+				if (count < 0) {
+					return true;
+				}
+				if (count == 0) {
+					return false;
+				}
+				if (remaining.compareAndSet(count, count - 1)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	private static class Token {
+
+		final String username;
+
+		final String userId;
+
+		final long expires;
+
+		Token(String username, String userId, long expires) {
+			this.username = username;
+			this.userId = userId;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Parsed view of an exchange.
+	 */
+	private class Request {
+
+		final HttpExchange exchange;
+
+		final String method;
+
+		private final List<String[]> parameters;
+
+		Request(HttpExchange exchange) throws IOException {
+			this.exchange = exchange;
+			this.method = exchange.getRequestMethod();
+			this.parameters = splitQuery(exchange.getRequestURI().getRawQuery());
+		}
+
+		String getParameter(String name) {
+			for (String[] parameter : parameters) {
+				if (parameter[0].equals(name)) {
+					return parameter[1];
+				}
+			}
+			return null;
+		}
+
+		List<String> getParameters(String name) {
+			List<String> values = new ArrayList<String>(1);
+			for (String[] parameter : parameters) {
+				if (parameter[0].equals(name)) {
+					values.add(parameter[1]);
+				}
+			}
+			return values;
+		}
+
+		int getDepth() {
+			String depth = getParameter("inline-relations-depth");
+			return (depth != null ? Math.max(0, Math.min(2, Integer.parseInt(depth))) : 0);
+		}
+
+		String getBaseUrl() {
+			String host = exchange.getRequestHeaders().getFirst("Host");
+			return "http://" + (host != null ? host : "127.0.0.1:" + exchange.getLocalAddress().getPort());
+		}
+
+		Token getToken() {
+			String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			if (authorization == null || !authorization.toLowerCase().startsWith("bearer ")) {
+				return null;
+			}
+			Token token = accessTokens.get(authorization.substring("bearer ".length()).trim());
+			if (token != null && token.expires < System.currentTimeMillis()) {
+				accessTokens.remove(authorization.substring("bearer ".length()).trim());
+				return null;
+			}
+			return token;
+		}
+
+		/**
+		 * Returns the URL of another page of the current listing.
+		 */
+		String getPageUrl(int page, int pageSize) throws UnsupportedEncodingException {
+			StringBuilder url = new StringBuilder(exchange.getRequestURI().getRawPath()).append('?');
+			for (String[] parameter : parameters) {
+				if (!parameter[0].equals("page") && !parameter[0].equals("results-per-page")) {
+					url.append(URLEncoder.encode(parameter[0], "UTF-8")).append('=')
+							.append(URLEncoder.encode(parameter[1], "UTF-8")).append('&');
+				}
+			}
+			return url.append("page=").append(page).append("&results-per-page=").append(pageSize).toString();
+		}
+
+		byte[] readBody() throws IOException {
+			InputStream in = exchange.getRequestBody();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+			return body.toByteArray();
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> readJson() throws IOException {
+			byte[] body = readBody();
+			return (body.length > 0 ? mapper.readValue(body, Map.class) : new LinkedHashMap<String, Object>());
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.stub;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.Staging;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Runs the client against {@link StubCloudController}.
+ */
+public class StubCloudControllerTest extends TestCase {
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	@Override
+	protected void setUp() throws Exception {
+		controller = StubCloudController.startPopulated(120);
+		controller.addUser(StubCloudController.USERNAME, StubCloudController.PASSWORD);
+		client = controller.login();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+	}
+
+	public void testListsApplicationsAcrossPages() {
+		List<CloudApplication> applications = client.getApplications();
+		assertEquals(120, applications.size());
+		String space = controller.getDataset().findGuid(StubDataset.SPACES, "name", "space");
+		assertEquals(3, controller.getRequestCount("GET", "/v2/spaces/" + space + "/apps"));
+	}
+
+	public void testCreatesUploadsAndStartsApplication() throws Exception {
+		client.createApplication("web", new Staging(), 256, Collections.singletonList("web.example.com"),
+				Collections.<String>emptyList());
+		File directory = createApplicationDirectory();
+		try {
+			client.uploadApplication("web", directory);
+		} finally {
+			new File(directory, "index.html").delete();
+			directory.delete();
+		}
+		client.startApplication("web");
+
+		CloudApplication application = client.getApplication("web");
+		assertEquals(CloudApplication.AppState.STARTED, application.getState());
+		assertEquals(Collections.singletonList("web.example.com"), application.getUris());
+		assertEquals(1, client.getApplicationStats("web").getRecords().size());
+	}
+
+	public void testReadsFileRange() throws Exception {
+		StubDataset dataset = controller.getDataset();
+		String space = dataset.findGuid(StubDataset.SPACES, "name", "space");
+		String app = dataset.createApp(space, "files", "STARTED", 1);
+		dataset.putFile(app, "logs/stdout.log", "0123456789".getBytes("UTF-8"));
+
+		assertEquals("2345", client.getFile("files", 0, "logs/stdout.log", 2, 6));
+		assertEquals("6789", client.getFile("files", 0, "logs/stdout.log", 6));
+	}
+
+	public void testInjectsFaults() {
+		controller.failRequests("GET", "/v2/spaces/.*/apps", 503).times(1);
+		try {
+			client.getApplications();
+			fail("Expected injected fault");
+		} catch (HttpServerErrorException e) {
+			assertEquals(503, e.getStatusCode().value());
+		}
+		assertEquals(120, client.getApplications().size());
+	}
+
+	public void testRejectsUnknownApplication() {
+		try {
+			client.getApplicationStats("missing");
+			fail("Expected missing application");
+		} catch (CloudFoundryException e) {
+			assertEquals(404, e.getStatusCode().value());
+		}
+	}
+
+	public void testRejectsBadCredentials() {
+		CloudFoundryClient other = new CloudFoundryClient(new CloudCredentials(StubCloudController.USERNAME, "wrong"),
+				controller.getUrl());
+		try {
+			other.login();
+			fail("Expected bad credentials");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.Series.CLIENT_ERROR, e.getStatusCode().series());
+		}
+	}
+
+	private static File createApplicationDirectory() throws Exception {
+		File directory = File.createTempFile("stub-app", "");
+		directory.delete();
+		directory.mkdirs();
+		FileOutputStream out = new FileOutputStream(new File(directory, "index.html"));
+		try {
+			out.write("<html><body>Hello</body></html>".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return directory;
+	}
+}
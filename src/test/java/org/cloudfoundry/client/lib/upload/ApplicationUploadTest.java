@@ -0,0 +1,307 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.UploadProgress;
+import org.cloudfoundry.client.lib.UploadProgressCallback;
+import org.cloudfoundry.client.lib.UploadSummary;
+import org.cloudfoundry.client.lib.domain.CloudJob;
+import org.cloudfoundry.client.lib.domain.UploadToken;
+import org.cloudfoundry.client.lib.stub.StubCloudController;
+import org.cloudfoundry.client.lib.stub.StubDataset;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Tests for application uploads, the progress reported while uploading, and the jobs of asynchronous uploads and
+ * copies of application bits.
+ */
+public class ApplicationUploadTest extends TestCase {
+
+	private StubDataset dataset;
+
+	private StubCloudController controller;
+
+	private CloudFoundryClient client;
+
+	private String space;
+
+	private String app;
+
+	private File directory;
+
+	private File manifestDirectory;
+
+	@Override
+	protected void setUp() throws Exception {
+		dataset = new StubDataset();
+		space = dataset.createSpace(dataset.createOrganization("org"), "space");
+		app = dataset.createApp(space, "app", "STOPPED", 1);
+		controller = new StubCloudController(dataset);
+		controller.start();
+		client = controller.login();
+		directory = File.createTempFile("application", "");
+		directory.delete();
+		directory.mkdirs();
+		writeFile("index.html", 100);
+		writeFile("lib/library.jar", 100000);
+		manifestDirectory = File.createTempFile("resources", "");
+		manifestDirectory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		controller.stop();
+		delete(directory);
+		delete(manifestDirectory);
+	}
+
+	public void testReportsUploadProgress() throws Exception {
+		RecordingCallback callback = new RecordingCallback();
+		client.uploadApplication("app", directory, callback);
+		UploadSummary summary = callback.summary;
+		assertEquals(2, summary.getEntries());
+		assertEquals(100100, summary.getBytesRead());
+		assertEquals(dataset.getBits(app).length, summary.getBytesCompressed());
+		// the multipart request also holds the known resources
+		assertTrue(summary.getBytesSent() > summary.getBytesCompressed());
+		assertEquals(2, callback.lastProgress.getTotalEntries());
+		assertEquals(2, callback.lastProgress.getEntriesCompleted());
+		assertEquals(100100, callback.lastProgress.getTotalBytes());
+		assertEquals(summary.getBytesSent(), callback.lastProgress.getBytesSent());
+	}
+
+	public void testReportsOnlyEntriesUnknownToController() throws Exception {
+		client.uploadApplication("app", directory, null);
+		writeFile("index.html", 200);
+		RecordingCallback callback = new RecordingCallback();
+		client.uploadApplication("app", directory, callback);
+		assertEquals(1, callback.summary.getEntries());
+		assertEquals(200, callback.summary.getBytesRead());
+		assertEquals(1, callback.lastProgress.getTotalEntries());
+		assertEquals(200, callback.lastProgress.getTotalBytes());
+		assertEquals(Collections.singleton("index.html"), getUploadedEntries());
+	}
+
+	public void testSkipsResourceMatchForResourcesInManifest() throws Exception {
+		client.setResourceManifestFile(new ResourceManifestFile(manifestDirectory));
+		client.uploadApplication("app", directory, null);
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+
+		// the library is large enough to be pooled, so it is not sent again
+		writeFile("index.html", 200);
+		client.uploadApplication("app", directory, null);
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+		assertEquals(Collections.singleton("index.html"), getUploadedEntries());
+	}
+
+	public void testMatchesResourcesAgainWhenManifestIsRejected() throws Exception {
+		client.setResourceManifestFile(new ResourceManifestFile(manifestDirectory));
+		client.uploadApplication("app", directory, null);
+		dataset.clearResourcePool();
+
+		writeFile("index.html", 200);
+		client.uploadApplication("app", directory, null);
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/resource_match"));
+		assertEquals(3, controller.getRequestCount("PUT", "/v2/apps/" + app + "/bits"));
+		assertEquals(getFileNames(), getUploadedEntries());
+
+		// the manifest was recorded again after the upload
+		writeFile("index.html", 300);
+		client.uploadApplication("app", directory, null);
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/resource_match"));
+	}
+
+	public void testPropagatesServerErrorOfManifestBasedUpload() throws Exception {
+		client.setResourceManifestFile(new ResourceManifestFile(manifestDirectory));
+		client.uploadApplication("app", directory, null);
+		controller.failRequests("PUT", "/v2/apps/.*/bits", 503).times(1);
+		writeFile("index.html", 200);
+		try {
+			client.uploadApplication("app", directory, null);
+			fail("Expected server error");
+		} catch (HttpServerErrorException e) {
+			assertEquals(503, e.getStatusCode().value());
+		}
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/apps/" + app + "/bits"));
+
+		// the manifest was kept
+		client.uploadApplication("app", directory, null);
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+		assertEquals(Collections.singleton("index.html"), getUploadedEntries());
+	}
+
+	public void testPropagatesUnauthorizedManifestBasedUpload() throws Exception {
+		client.setResourceManifestFile(new ResourceManifestFile(manifestDirectory));
+		client.uploadApplication("app", directory, null);
+		controller.failRequests("PUT", "/v2/apps/.*/bits", 401).times(1);
+		writeFile("index.html", 200);
+		try {
+			client.uploadApplication("app", directory, null);
+			fail("Expected the upload to be unauthorized");
+		} catch (CloudFoundryException e) {
+			assertEquals(401, e.getStatusCode().value());
+		}
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/apps/" + app + "/bits"));
+
+		client.uploadApplication("app", directory, null);
+		assertEquals(1, controller.getRequestCount("PUT", "/v2/resource_match"));
+	}
+
+	public void testIgnoresStaleManifest() throws Exception {
+		ResourceManifestFile manifest = new ResourceManifestFile(manifestDirectory);
+		manifest.setMaxAge(-1);
+		client.setResourceManifestFile(manifest);
+		client.uploadApplication("app", directory, null);
+		client.uploadApplication("app", directory, null);
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/resource_match"));
+	}
+
+	public void testUploadsAsynchronously() throws Exception {
+		controller.setJobPolls(2);
+		RecordingCallback callback = new RecordingCallback();
+		UploadToken token = client.asyncUploadApplication("app", directory, callback);
+		assertEquals(CloudJob.Status.QUEUED, token.getJob().getStatus());
+		assertEquals(CloudJob.Status.QUEUED, client.getUploadStatus(token).getStatus());
+		assertEquals(CloudJob.Status.FINISHED, client.waitForUpload(token, 10000).getStatus());
+		assertEquals(getUploadedEntries(), getFileNames());
+		assertNotNull(callback.summary);
+		assertTrue(callback.summary.getBytesSent() > 0);
+	}
+
+	public void testReportsQueuedJobAfterTimeout() throws Exception {
+		controller.setJobPolls(100);
+		UploadToken token = client.asyncUploadApplication("app", directory, null);
+		assertEquals(CloudJob.Status.QUEUED, client.waitForUpload(token, 100).getStatus());
+	}
+
+	public void testResendsPayloadOfFailedAsynchronousUpload() throws Exception {
+		controller.dropConnections("PUT", "/v2/apps/.*/bits").times(1);
+		RecordingCallback callback = new RecordingCallback();
+		UploadToken token = client.asyncUploadApplication("app", directory, callback);
+		assertEquals(CloudJob.Status.FINISHED, client.waitForUpload(token, 10000).getStatus());
+		assertEquals(2, controller.getRequestCount("PUT", "/v2/apps/" + app + "/bits"));
+		assertEquals(getUploadedEntries(), getFileNames());
+		assertEquals(2, callback.summary.getEntries());
+	}
+
+	public void testCopiesBits() throws Exception {
+		client.uploadApplication("app", directory, null);
+		String copy = dataset.createApp(space, "copy", "STOPPED", 1);
+		controller.setJobPolls(1);
+		client.copyApplicationBits("app", "copy");
+		assertTrue(Arrays.equals(dataset.getBits(app), dataset.getBits(copy)));
+		assertEquals("PENDING", dataset.getAttribute(StubDataset.APPS, copy, "package_state"));
+	}
+
+	public void testRejectsCopyOfAppWithoutBits() throws Exception {
+		dataset.createApp(space, "copy", "STOPPED", 1);
+		try {
+			client.copyApplicationBits("copy", "app");
+			fail("Expected the copy to be rejected");
+		} catch (CloudFoundryException e) {
+			assertEquals(400, e.getStatusCode().value());
+		}
+		assertNull(dataset.getBits(app));
+	}
+
+	private Set<String> getFileNames() {
+		Set<String> names = new TreeSet<String>();
+		names.add("index.html");
+		names.add("lib/library.jar");
+		return names;
+	}
+
+	private Set<String> getUploadedEntries() throws IOException {
+		Set<String> names = new TreeSet<String>();
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(dataset.getBits(app)));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					names.add(entry.getName());
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return names;
+	}
+
+	private void writeFile(String name, int size) throws IOException {
+		File file = new File(directory, name);
+		file.getParentFile().mkdirs();
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < size; i++) {
+				outputStream.write(name.charAt(i % name.length()));
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class RecordingCallback implements UploadProgressCallback {
+
+		private UploadProgress lastProgress;
+
+		private UploadSummary summary;
+
+		public void onCheckResources() {
+		}
+
+		public void onMatchedFileNames(Set<String> matchedFileNames) {
+		}
+
+		public void onProcessMatchedResources(long length) {
+		}
+
+		public void onProgress(UploadProgress progress) {
+			lastProgress = progress;
+		}
+
+		public void onUploadComplete(UploadSummary summary) {
+			this.summary = summary;
+		}
+	}
+}